@@ -69,7 +69,9 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 	}
 
 	private void handleLocalMessage(Message msg) {
-		if (msg instanceof AllocateHostMsg) {
+		if (msg instanceof BatchAllocateHostMsg) {
+			handle((BatchAllocateHostMsg) msg);
+		} else if (msg instanceof AllocateHostMsg) {
 			handle((AllocateHostMsg) msg);
 		} else if (msg instanceof ReportHostCapacityMessage) {
 			handle((ReportHostCapacityMessage) msg);
@@ -218,8 +220,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         }
     }
 
-	private void handle(final AllocateHostMsg msg) {
-        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+    private HostAllocatorStrategy getHostAllocatorStrategy(HostAllocatorSpec spec, AllocateHostMsg msg) {
         String allocatorStrategyType = null;
         for (HostAllocatorStrategyExtensionPoint ext : pluginRgty.getExtensionList(HostAllocatorStrategyExtensionPoint.class)) {
             allocatorStrategyType = ext.getHostAllocatorStrategyName(spec);
@@ -236,6 +237,50 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         HostAllocatorStrategyFactory factory = getHostAllocatorStrategyFactory(HostAllocatorStrategyType.valueOf(allocatorStrategyType));
         HostAllocatorStrategy strategy = factory.getHostAllocatorStrategy();
         factory.marshalSpec(spec, msg);
+        return strategy;
+    }
+
+    private void handle(final BatchAllocateHostMsg msg) {
+        // the allocator chain filters hosts once for the whole batch, then cpu/memory is reserved
+        // for each vm on the candidates in turn so the batch spreads over them
+        final HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+        HostAllocatorStrategy strategy = getHostAllocatorStrategy(spec, msg);
+        final BatchAllocateHostReply reply = new BatchAllocateHostReply();
+        strategy.dryRun(spec, new ReturnValueCompletion<List<HostInventory>>(msg) {
+            @Override
+            public void success(List<HostInventory> candidates) {
+                List<HostInventory> hosts = new ArrayList<HostInventory>(msg.getVmNum());
+                LinkedList<HostInventory> available = new LinkedList<HostInventory>(candidates);
+                Collections.shuffle(available);
+                while (hosts.size() < msg.getVmNum() && !available.isEmpty()) {
+                    HostInventory host = available.poll();
+                    try {
+                        new HostAllocatorChain().reserveCapacity(host.getUuid(), spec.getCpuCapacity(), spec.getMemoryCapacity());
+                        hosts.add(host);
+                        available.add(host);
+                    } catch (UnableToReserveHostCapacityException e) {
+                        logger.debug(String.format("[Host Allocation]: %s on host[uuid:%s], no more vm of the batch goes to it",
+                                e.getMessage(), host.getUuid()));
+                    }
+                }
+
+                logger.debug(String.format("[Host Allocation]: reserved cpu[%s HZ], memory[%s bytes] for %s of %s vms on %s candidate hosts",
+                        spec.getCpuCapacity(), spec.getMemoryCapacity(), hosts.size(), msg.getVmNum(), candidates.size()));
+                reply.setHosts(hosts);
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
+	private void handle(final AllocateHostMsg msg) {
+        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+        HostAllocatorStrategy strategy = getHostAllocatorStrategy(spec, msg);
 
         if (msg.isDryRun()) {
             final AllocateHostDryRunReply reply = new AllocateHostDryRunReply();
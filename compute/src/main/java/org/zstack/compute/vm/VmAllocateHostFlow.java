@@ -95,23 +95,33 @@ public class VmAllocateHostFlow implements Flow {
         return msg;
     }
 
+    private void setDestHost(VmInstanceSpec spec, HostInventory host) {
+        spec.setDestHost(host);
+
+        // update the vm's host uuid so even if the management node died later and the vm's state
+        // is stuck in Starting, we know which host it's created on and can check its state on the host
+        VmInstanceVO vmvo = dbf.findByUuid(spec.getVmInventory().getUuid(), VmInstanceVO.class);
+        vmvo.setHostUuid(host.getUuid());
+        dbf.update(vmvo);
+    }
+
     @Override
     public void run(final FlowTrigger chain, Map data) {
         final VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
+        if (spec.getPreAllocatedHost() != null) {
+            // the capacity has been reserved by the batch allocation
+            setDestHost(spec, spec.getPreAllocatedHost());
+            chain.next();
+            return;
+        }
+
         AllocateHostMsg msg = this.prepareMsg(data);
         bus.send(msg, new CloudBusCallBack(chain) {
             @Override
             public void run(MessageReply reply) {
                 if (reply.isSuccess()) {
                     AllocateHostReply areply = (AllocateHostReply) reply;
-                    spec.setDestHost(areply.getHost());
-
-                    // update the vm's host uuid so even if the management node died later and the vm's state
-                    // is stuck in Starting, we know which host it's created on and can check its state on the host
-                    VmInstanceVO vmvo = dbf.findByUuid(spec.getVmInventory().getUuid(), VmInstanceVO.class);
-                    vmvo.setHostUuid(spec.getDestHost().getUuid());
-                    dbf.update(vmvo);
-
+                    setDestHost(spec, areply.getHost());
                     chain.next();
                 } else {
                     chain.fail(reply.getError());
@@ -81,11 +81,52 @@ public class VmAllocateNicFlow implements Flow {
         }
     }
 
+    private void addNic(VmInstanceSpec spec, BitSet deviceIdBitmap, UsedIpInventory ip) {
+        int deviceId = deviceIdBitmap.nextClearBit(0);
+        deviceIdBitmap.set(deviceId);
+        VmNicInventory nic = new VmNicInventory();
+        nic.setUuid(Platform.getUuid());
+        nic.setIp(ip.getIp());
+        nic.setUsedIpUuid(ip.getUuid());
+        nic.setVmInstanceUuid(spec.getVmInventory().getUuid());
+        nic.setL3NetworkUuid(ip.getL3NetworkUuid());
+        assert nic.getL3NetworkUuid() != null;
+        nic.setMac(NetworkUtils.generateMacWithDeviceId((short) deviceId));
+        nic.setDeviceId(deviceId);
+        nic.setNetmask(ip.getNetmask());
+        nic.setGateway(ip.getGateway());
+        nic.setInternalName(VmNicVO.generateNicInternalName(spec.getVmInventory().getInternalId(), nic.getDeviceId()));
+        spec.getDestNics().add(nic);
+    }
+
+    private UsedIpInventory findPreAllocatedIp(VmInstanceSpec spec, String l3Uuid) {
+        for (UsedIpInventory ip : spec.getPreAllocatedIps()) {
+            if (l3Uuid.equals(ip.getL3NetworkUuid())) {
+                return ip;
+            }
+        }
+        return null;
+    }
+
     @Override
     public void run(final FlowTrigger trigger, final Map data) {
         final VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
+
+        // it's unlikely a vm having more than 512 nics
+        final BitSet deviceIdBitmap = new BitSet(512);
+        for (VmNicInventory nic : spec.getVmInventory().getVmNics()) {
+            deviceIdBitmap.set(nic.getDeviceId());
+        }
+
         List<AllocateIpMsg> msgs = new ArrayList<AllocateIpMsg>();
         for (final L3NetworkInventory nw : spec.getL3Networks()) {
+            UsedIpInventory preAllocatedIp = findPreAllocatedIp(spec, nw.getUuid());
+            if (preAllocatedIp != null) {
+                // the ip has been reserved by the batch allocation
+                addNic(spec, deviceIdBitmap, preAllocatedIp);
+                continue;
+            }
+
             AllocateIpMsg msg = new AllocateIpMsg();
 
             List<Map<String, String>> tokenList = VmSystemTags.STATIC_IP.getTokensOfTagsByResourceUuid(spec.getVmInventory().getUuid());
@@ -102,10 +143,10 @@ public class VmAllocateNicFlow implements Flow {
             msgs.add(msg);
         }
 
-        // it's unlikely a vm having more than 512 nics
-        final BitSet deviceIdBitmap = new BitSet(512);
-        for (VmNicInventory nic : spec.getVmInventory().getVmNics()) {
-            deviceIdBitmap.set(nic.getDeviceId());
+        if (msgs.isEmpty()) {
+            persistNics(spec);
+            trigger.next();
+            return;
         }
 
         bus.send(msgs, new CloudBusListCallBack(trigger) {
@@ -114,22 +155,8 @@ public class VmAllocateNicFlow implements Flow {
                 ErrorCode err = null;
                 for (MessageReply r : replies) {
                     if (r.isSuccess()) {
-                        int deviceId = deviceIdBitmap.nextClearBit(0);
-                        deviceIdBitmap.set(deviceId);
                         AllocateIpReply areply = r.castReply();
-                        VmNicInventory nic = new VmNicInventory();
-                        nic.setUuid(Platform.getUuid());
-                        nic.setIp(areply.getIpInventory().getIp());
-                        nic.setUsedIpUuid(areply.getIpInventory().getUuid());
-                        nic.setVmInstanceUuid(spec.getVmInventory().getUuid());
-                        nic.setL3NetworkUuid(areply.getIpInventory().getL3NetworkUuid());
-                        assert nic.getL3NetworkUuid() != null;
-                        nic.setMac(NetworkUtils.generateMacWithDeviceId((short) deviceId));
-                        nic.setDeviceId(deviceId);
-                        nic.setNetmask(areply.getIpInventory().getNetmask());
-                        nic.setGateway(areply.getIpInventory().getGateway());
-                        nic.setInternalName(VmNicVO.generateNicInternalName(spec.getVmInventory().getInternalId(), nic.getDeviceId()));
-                        spec.getDestNics().add(nic);
+                        addNic(spec, deviceIdBitmap, areply.getIpInventory());
                     } else {
                         err = r.getError();
                     }
@@ -138,19 +165,22 @@ public class VmAllocateNicFlow implements Flow {
                 if (err != null) {
                     trigger.fail(err);
                 } else {
-                    persistNicToDb(spec.getDestNics());
-
-                    String acntUuid = acntMgr.getOwnerAccountUuidOfResource(spec.getVmInventory().getUuid());
-                    for (VmNicInventory nic : spec.getDestNics()) {
-                        acntMgr.createAccountResourceRef(acntUuid, nic.getUuid(), VmNicVO.class);
-                    }
-
+                    persistNics(spec);
                     trigger.next();
                 }
             }
         });
     }
 
+    private void persistNics(VmInstanceSpec spec) {
+        persistNicToDb(spec.getDestNics());
+
+        String acntUuid = acntMgr.getOwnerAccountUuidOfResource(spec.getVmInventory().getUuid());
+        for (VmNicInventory nic : spec.getDestNics()) {
+            acntMgr.createAccountResourceRef(acntUuid, nic.getUuid(), VmNicVO.class);
+        }
+    }
+
     @Override
     public void rollback(final FlowRollback chain, Map data) {
         VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
@@ -62,6 +62,8 @@ public class VmInstanceApiInterceptor implements ApiMessageInterceptor {
     public APIMessage intercept(APIMessage msg) throws ApiMessageInterceptionException {
         if (msg instanceof APIDestroyVmInstanceMsg) {
             validate((APIDestroyVmInstanceMsg) msg);
+        } else if (msg instanceof APICreateVmInstancesMsg) {
+            validate((APICreateVmInstancesMsg) msg);
         } else if (msg instanceof APICreateVmInstanceMsg) {
             validate((APICreateVmInstanceMsg)msg);
         } else if (msg instanceof APIGetVmAttachableDataVolumeMsg) {
@@ -216,6 +218,39 @@ public class VmInstanceApiInterceptor implements ApiMessageInterceptor {
         }
     }
 
+    private void validate(APICreateVmInstancesMsg msg) {
+        int max = VmGlobalConfig.BATCH_CREATE_MAX_VM_NUM.value(Integer.class);
+        if (msg.getCount() > max) {
+            throw new ApiMessageInterceptionException(errf.stringToInvalidArgumentError(
+                    String.format("count[%s] exceeds the max number[%s] of vm instances that can be created in one batch", msg.getCount(), max)
+            ));
+        }
+
+        if (msg.getType() != null && !VmInstanceConstant.USER_VM_TYPE.equals(msg.getType())) {
+            throw new ApiMessageInterceptionException(errf.stringToInvalidArgumentError(
+                    String.format("only vm instances of type[%s] can be created in batch, but %s got", VmInstanceConstant.USER_VM_TYPE, msg.getType())
+            ));
+        }
+
+        if (msg.getResourceUuid() != null) {
+            throw new ApiMessageInterceptionException(errf.stringToInvalidArgumentError(
+                    "resourceUuid cannot be specified when creating vm instances in batch"
+            ));
+        }
+
+        if (msg.getSystemTags() != null) {
+            for (String sysTag : msg.getSystemTags()) {
+                if (VmSystemTags.HOSTNAME.isMatch(sysTag) || VmSystemTags.STATIC_IP.isMatch(sysTag)) {
+                    throw new ApiMessageInterceptionException(errf.stringToInvalidArgumentError(
+                            String.format("system tag[%s] must be unique per vm, it cannot be used when creating vm instances in batch", sysTag)
+                    ));
+                }
+            }
+        }
+
+        validate((APICreateVmInstanceMsg) msg);
+    }
+
     private void validate(APICreateVmInstanceMsg msg) {
         SimpleQuery<InstanceOfferingVO> iq = dbf.createQuery(InstanceOfferingVO.class);
         iq.select(InstanceOfferingVO_.state);
@@ -19,6 +19,7 @@ import org.zstack.header.allocator.AllocateHostDryRunReply;
 import org.zstack.header.allocator.DesignatedAllocateHostMsg;
 import org.zstack.header.allocator.HostAllocatorConstant;
 import org.zstack.header.allocator.HostAllocatorError;
+import org.zstack.header.allocator.ReturnHostCapacityMsg;
 import org.zstack.header.configuration.*;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.NoErrorCompletion;
@@ -1559,17 +1560,54 @@ public class VmInstanceBase extends AbstractVmInstance {
         }
     }
 
+    private void returnUnusedPreAllocatedResources(StartNewCreatedVmInstanceMsg msg, VmInstanceSpec spec) {
+        // the resources taken by the create-vm flows have been returned by their rollbacks
+        VmInstanceInventory vm = msg.getVmInstanceInventory();
+        if (msg.getPreAllocatedHost() != null && (spec == null || spec.getDestHost() == null)) {
+            ReturnHostCapacityMsg rmsg = new ReturnHostCapacityMsg();
+            rmsg.setCpuCapacity(vm.getCpuNum() * vm.getCpuSpeed());
+            rmsg.setMemoryCapacity(vm.getMemorySize());
+            rmsg.setHostUuid(msg.getPreAllocatedHost().getUuid());
+            rmsg.setServiceId(bus.makeLocalServiceId(HostAllocatorConstant.SERVICE_ID));
+            bus.send(rmsg);
+        }
+
+        if (msg.getPreAllocatedIps() == null) {
+            return;
+        }
+
+        for (final UsedIpInventory ip : msg.getPreAllocatedIps()) {
+            VmNicInventory nic = spec == null ? null : CollectionUtils.find(spec.getDestNics(), new Function<VmNicInventory, VmNicInventory>() {
+                @Override
+                public VmNicInventory call(VmNicInventory arg) {
+                    return ip.getUuid().equals(arg.getUsedIpUuid()) ? arg : null;
+                }
+            });
+            if (nic != null) {
+                continue;
+            }
+
+            ReturnIpMsg rmsg = new ReturnIpMsg();
+            rmsg.setL3NetworkUuid(ip.getL3NetworkUuid());
+            rmsg.setUsedIpUuid(ip.getUuid());
+            bus.makeTargetServiceIdByResourceUuid(rmsg, L3NetworkConstant.SERVICE_ID, ip.getL3NetworkUuid());
+            bus.send(rmsg);
+        }
+    }
+
     protected void startVmFromNewCreate(final StartNewCreatedVmInstanceMsg msg, final SyncTaskChain taskChain) {
         boolean callNext = true;
         try {
             refreshVO();
             ErrorCode allowed = validateOperationByState(msg, self.getState(), SysErrors.OPERATION_ERROR);
             if (allowed != null) {
+                returnUnusedPreAllocatedResources(msg, null);
                 bus.replyErrorByMessageType(msg, allowed);
                 return;
             }
             ErrorCode preCreated = extEmitter.preStartNewCreatedVm(msg.getVmInstanceInventory());
             if (preCreated != null) {
+                returnUnusedPreAllocatedResources(msg, null);
                 bus.replyErrorByMessageType(msg, errf.instantiateErrorCode(SysErrors.OPERATION_ERROR, preCreated));
                 return;
             }
@@ -1577,6 +1615,10 @@ public class VmInstanceBase extends AbstractVmInstance {
             final VmInstanceSpec spec = new VmInstanceSpec();
             spec.setMessage(msg);
             spec.setVmInventory(msg.getVmInstanceInventory());
+            spec.setPreAllocatedHost(msg.getPreAllocatedHost());
+            if (msg.getPreAllocatedIps() != null) {
+                spec.setPreAllocatedIps(msg.getPreAllocatedIps());
+            }
             if (msg.getL3NetworkUuids() != null && !msg.getL3NetworkUuids().isEmpty()) {
                 SimpleQuery<L3NetworkVO> nwquery = dbf.createQuery(L3NetworkVO.class);
                 nwquery.add(L3NetworkVO_.uuid, Op.IN, msg.getL3NetworkUuids());
@@ -1677,6 +1719,7 @@ public class VmInstanceBase extends AbstractVmInstance {
             }).error(new FlowErrorHandler(msg, taskChain) {
                 @Override
                 public void handle(final ErrorCode errCode, Map data) {
+                    returnUnusedPreAllocatedResources(msg, (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString()));
                     extEmitter.failedToStartNewCreatedVm(VmInstanceInventory.valueOf(self), errCode);
                     dbf.remove(self);
                     // clean up EO, otherwise API-retry may cause conflict if
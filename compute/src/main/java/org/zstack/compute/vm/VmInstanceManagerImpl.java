@@ -22,6 +22,7 @@ import org.zstack.header.AbstractService;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
 import org.zstack.header.configuration.InstanceOfferingVO;
 import org.zstack.header.core.workflow.FlowChain;
+import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.exception.CloudConfigureFailException;
@@ -47,6 +48,7 @@ import org.zstack.header.network.l3.*;
 import org.zstack.header.search.SearchOp;
 import org.zstack.header.tag.*;
 import org.zstack.header.vm.*;
+import org.zstack.header.vm.VmInstanceConstant.VmOperation;
 import org.zstack.header.vm.VmInstanceDeletionPolicyManager.VmInstanceDeletionPolicy;
 import org.zstack.header.volume.VolumeConstant;
 import org.zstack.header.volume.VolumeStatus;
@@ -167,7 +169,9 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
     }
 
     private void handleApiMessage(APIMessage msg) {
-        if (msg instanceof APICreateVmInstanceMsg) {
+        if (msg instanceof APICreateVmInstancesMsg) {
+            handle((APICreateVmInstancesMsg) msg);
+        } else if (msg instanceof APICreateVmInstanceMsg) {
             handle((APICreateVmInstanceMsg) msg);
         } else if (msg instanceof APIListVmInstanceMsg) {
             handle((APIListVmInstanceMsg)msg);
@@ -222,7 +226,7 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
     }
 
 
-    private void handle(final APICreateVmInstanceMsg msg) {
+    private VmInstanceVO newVmInstanceVO(APICreateVmInstanceMsg msg, ImagePlatform platform, InstanceOfferingVO iovo) {
         VmInstanceVO vo = new VmInstanceVO();
         if (msg.getResourceUuid() != null) {
             vo.setUuid(msg.getResourceUuid());
@@ -239,18 +243,230 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
         vo.setZoneUuid(msg.getZoneUuid());
         vo.setInternalId(dbf.generateSequenceNumber(VmInstanceSequenceNumberVO.class));
         vo.setDefaultL3NetworkUuid(msg.getDefaultL3NetworkUuid());
-
-        SimpleQuery<ImageVO> imgq = dbf.createQuery(ImageVO.class);
-        imgq.select(ImageVO_.platform);
-        imgq.add(ImageVO_.uuid, Op.EQ, msg.getImageUuid());
-        ImagePlatform platform = imgq.findValue();
         vo.setPlatform(platform.toString());
-
-        InstanceOfferingVO iovo = dbf.findByUuid(msg.getInstanceOfferingUuid(), InstanceOfferingVO.class);
         vo.setCpuNum(iovo.getCpuNum());
         vo.setCpuSpeed(iovo.getCpuSpeed());
         vo.setMemorySize(iovo.getMemorySize());
         vo.setAllocatorStrategy(iovo.getAllocatorStrategy());
+        return vo;
+    }
+
+    private ImagePlatform getImagePlatform(String imageUuid) {
+        SimpleQuery<ImageVO> imgq = dbf.createQuery(ImageVO.class);
+        imgq.select(ImageVO_.platform);
+        imgq.add(ImageVO_.uuid, Op.EQ, imageUuid);
+        return imgq.findValue();
+    }
+
+    private StartNewCreatedVmInstanceMsg makeStartNewCreatedVmInstanceMsg(APICreateVmInstanceMsg msg, VmInstanceVO vo) {
+        StartNewCreatedVmInstanceMsg smsg = new StartNewCreatedVmInstanceMsg();
+        smsg.setDataDiskOfferingUuids(msg.getDataDiskOfferingUuids());
+        smsg.setL3NetworkUuids(msg.getL3NetworkUuids());
+        smsg.setRootDiskOfferingUuid(msg.getRootDiskOfferingUuid());
+        smsg.setVmInstanceInventory(VmInstanceInventory.valueOf(vo));
+        bus.makeTargetServiceIdByResourceUuid(smsg, VmInstanceConstant.SERVICE_ID, vo.getUuid());
+        return smsg;
+    }
+
+    private BatchAllocateHostMsg makeBatchAllocateHostMsg(APICreateVmInstancesMsg msg, VmInstanceVO vo, int vmNum) {
+        ImageVO image = dbf.findByUuid(msg.getImageUuid(), ImageVO.class);
+        List<DiskOfferingInventory> diskOfferings = new ArrayList<DiskOfferingInventory>();
+        long diskSize;
+        if (image.getMediaType() == ImageMediaType.ISO) {
+            DiskOfferingVO dvo = dbf.findByUuid(msg.getRootDiskOfferingUuid(), DiskOfferingVO.class);
+            diskSize = dvo.getDiskSize();
+            diskOfferings.add(DiskOfferingInventory.valueOf(dvo));
+        } else {
+            diskSize = image.getSize();
+        }
+        if (msg.getDataDiskOfferingUuids() != null) {
+            for (String duuid : msg.getDataDiskOfferingUuids()) {
+                DiskOfferingVO dvo = dbf.findByUuid(duuid, DiskOfferingVO.class);
+                diskSize += dvo.getDiskSize();
+                diskOfferings.add(DiskOfferingInventory.valueOf(dvo));
+            }
+        }
+
+        BatchAllocateHostMsg amsg = new BatchAllocateHostMsg();
+        amsg.setVmNum(vmNum);
+        amsg.setDiskOfferings(diskOfferings);
+        amsg.setDiskSize(diskSize);
+        amsg.setCpuCapacity(vo.getCpuNum() * vo.getCpuSpeed());
+        amsg.setMemoryCapacity(vo.getMemorySize());
+        amsg.setL3NetworkUuids(msg.getL3NetworkUuids());
+        amsg.setImage(ImageInventory.valueOf(image));
+        amsg.setVmOperation(VmOperation.NewCreate.toString());
+        amsg.setZoneUuid(vo.getZoneUuid());
+        amsg.setClusterUuid(vo.getClusterUuid());
+        amsg.setHostUuid(vo.getHostUuid());
+        if (vo.getZoneUuid() != null || vo.getClusterUuid() != null || vo.getHostUuid() != null) {
+            amsg.setAllocatorStrategy(HostAllocatorConstant.DESIGNATED_HOST_ALLOCATOR_STRATEGY_TYPE);
+        } else {
+            amsg.setAllocatorStrategy(vo.getAllocatorStrategy());
+        }
+        amsg.setVmInstance(VmInstanceInventory.valueOf(vo));
+        amsg.setServiceId(bus.makeLocalServiceId(HostAllocatorConstant.SERVICE_ID));
+        amsg.setTimeout(TimeUnit.MINUTES.toMillis(60));
+        return amsg;
+    }
+
+    private void handle(final APICreateVmInstancesMsg msg) {
+        // the image and instance offering are resolved once for the whole batch
+        ImagePlatform platform = getImagePlatform(msg.getImageUuid());
+        InstanceOfferingVO iovo = dbf.findByUuid(msg.getInstanceOfferingUuid(), InstanceOfferingVO.class);
+        String vmType = msg.getType() == null ? VmInstanceConstant.USER_VM_TYPE : msg.getType();
+        VmInstanceFactory factory = getVmInstanceFactory(VmInstanceType.valueOf(vmType));
+
+        final List<VmInstanceVO> vos = new ArrayList<VmInstanceVO>(msg.getCount());
+        List<String> vmUuids = new ArrayList<String>(msg.getCount());
+        for (int i = 0; i < msg.getCount(); i++) {
+            VmInstanceVO vo = newVmInstanceVO(msg, platform, iovo);
+            vo.setName(String.format("%s-%s", msg.getName(), i));
+            vo = factory.createVmInstance(vo, msg);
+            vos.add(vo);
+            vmUuids.add(vo.getUuid());
+        }
+
+        acntMgr.createAccountResourceRefs(msg.getSession().getAccountUuid(), vmUuids, VmInstanceVO.class);
+        for (VmInstanceVO vo : vos) {
+            tagMgr.createTagsFromAPICreateMessage(msg, vo.getUuid(), VmInstanceVO.class.getSimpleName());
+            tagMgr.copySystemTag(iovo.getUuid(), InstanceOfferingVO.class.getSimpleName(), vo.getUuid(), VmInstanceVO.class.getSimpleName());
+        }
+
+        // hosts and ips are allocated for the whole batch before the vms fan out, a vm not covered by
+        // the batch allocation allocates them in its own create-vm flow chain as a single vm does
+        FlowChain chain = FlowChainBuilder.newShareFlowChain();
+        chain.setName(String.format("create-%s-vms-%s", vos.size(), msg.getId()));
+        chain.then(new ShareFlow() {
+            List<HostInventory> hosts = new ArrayList<HostInventory>();
+            Map<String, List<UsedIpInventory>> ips = new HashMap<String, List<UsedIpInventory>>();
+
+            @Override
+            public void setup() {
+                flow(new NoRollbackFlow() {
+                    String __name__ = "batch-allocate-hosts";
+
+                    @Override
+                    public void run(final FlowTrigger trigger, Map data) {
+                        bus.send(makeBatchAllocateHostMsg(msg, vos.get(0), vos.size()), new CloudBusCallBack(trigger) {
+                            @Override
+                            public void run(MessageReply reply) {
+                                if (reply.isSuccess()) {
+                                    hosts = ((BatchAllocateHostReply) reply).getHosts();
+                                } else {
+                                    logger.debug(String.format("unable to allocate hosts for the batch of %s vms, allocate them one by one, %s",
+                                            vos.size(), reply.getError()));
+                                }
+                                trigger.next();
+                            }
+                        });
+                    }
+                });
+
+                flow(new NoRollbackFlow() {
+                    String __name__ = "batch-allocate-ips";
+
+                    @Override
+                    public void run(final FlowTrigger trigger, Map data) {
+                        if (msg.getL3NetworkUuids() == null || msg.getL3NetworkUuids().isEmpty()) {
+                            trigger.next();
+                            return;
+                        }
+
+                        List<AllocateIpsMsg> amsgs = new ArrayList<AllocateIpsMsg>();
+                        for (String l3Uuid : msg.getL3NetworkUuids()) {
+                            AllocateIpsMsg amsg = new AllocateIpsMsg();
+                            amsg.setL3NetworkUuid(l3Uuid);
+                            amsg.setIpNum(vos.size());
+                            bus.makeTargetServiceIdByResourceUuid(amsg, L3NetworkConstant.SERVICE_ID, l3Uuid);
+                            amsgs.add(amsg);
+                        }
+
+                        bus.send(amsgs, new CloudBusListCallBack(trigger) {
+                            @Override
+                            public void run(List<MessageReply> replies) {
+                                for (int i = 0; i < replies.size(); i++) {
+                                    MessageReply r = replies.get(i);
+                                    String l3Uuid = msg.getL3NetworkUuids().get(i);
+                                    if (r.isSuccess()) {
+                                        ips.put(l3Uuid, ((AllocateIpsReply) r).getIpInventories());
+                                    } else {
+                                        logger.debug(String.format("unable to allocate ips in l3Network[uuid:%s] for the batch of %s vms, allocate them one by one, %s",
+                                                l3Uuid, vos.size(), r.getError()));
+                                    }
+                                }
+                                trigger.next();
+                            }
+                        });
+                    }
+                });
+
+                done(new FlowDoneHandler(msg) {
+                    @Override
+                    public void handle(Map data) {
+                        List<StartNewCreatedVmInstanceMsg> smsgs = new ArrayList<StartNewCreatedVmInstanceMsg>(vos.size());
+                        for (int i = 0; i < vos.size(); i++) {
+                            StartNewCreatedVmInstanceMsg smsg = makeStartNewCreatedVmInstanceMsg(msg, vos.get(i));
+                            if (i < hosts.size()) {
+                                smsg.setPreAllocatedHost(hosts.get(i));
+                            }
+
+                            List<UsedIpInventory> vmIps = new ArrayList<UsedIpInventory>();
+                            for (List<UsedIpInventory> l3Ips : ips.values()) {
+                                if (i < l3Ips.size()) {
+                                    vmIps.add(l3Ips.get(i));
+                                }
+                            }
+                            smsg.setPreAllocatedIps(vmIps);
+                            smsgs.add(smsg);
+                        }
+
+                        startVmInstances(msg, vos, smsgs);
+                    }
+                });
+            }
+        }).start();
+    }
+
+    private void startVmInstances(final APICreateVmInstancesMsg msg, final List<VmInstanceVO> vos, List<StartNewCreatedVmInstanceMsg> smsgs) {
+        int parallelism = VmGlobalConfig.BATCH_CREATE_PARALLELISM_DEGREE.value(Integer.class);
+        bus.send(smsgs, parallelism, new CloudBusListCallBack(msg) {
+            @Override
+            public void run(List<MessageReply> replies) {
+                APICreateVmInstancesEvent evt = new APICreateVmInstancesEvent(msg.getId());
+                ErrorCode lastError = null;
+                boolean anySuccess = false;
+                for (int i = 0; i < replies.size(); i++) {
+                    MessageReply r = replies.get(i);
+                    VmInstanceVO vo = vos.get(i);
+                    CreateVmInstanceResultStruct struct = new CreateVmInstanceResultStruct();
+                    struct.setVmInstanceUuid(vo.getUuid());
+                    struct.setName(vo.getName());
+                    struct.setSuccess(r.isSuccess());
+                    if (r.isSuccess()) {
+                        struct.setInventory(((StartNewCreatedVmInstanceReply) r).getVmInventory());
+                        anySuccess = true;
+                    } else {
+                        struct.setError(r.getError());
+                        lastError = r.getError();
+                    }
+                    evt.getResults().add(struct);
+                }
+
+                if (!anySuccess && lastError != null) {
+                    evt.setErrorCode(lastError);
+                    evt.setSuccess(false);
+                }
+
+                bus.publish(evt);
+            }
+        });
+    }
+
+    private void handle(final APICreateVmInstanceMsg msg) {
+        ImagePlatform platform = getImagePlatform(msg.getImageUuid());
+        InstanceOfferingVO iovo = dbf.findByUuid(msg.getInstanceOfferingUuid(), InstanceOfferingVO.class);
+        VmInstanceVO vo = newVmInstanceVO(msg, platform, iovo);
 
         acntMgr.createAccountResourceRef(msg.getSession().getAccountUuid(), vo.getUuid(), VmInstanceVO.class);
 
@@ -262,12 +478,7 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
         tagMgr.createTagsFromAPICreateMessage(msg, vo.getUuid(), VmInstanceVO.class.getSimpleName());
         tagMgr.copySystemTag(iovo.getUuid(), InstanceOfferingVO.class.getSimpleName(), vo.getUuid(), VmInstanceVO.class.getSimpleName());
 
-        StartNewCreatedVmInstanceMsg smsg = new StartNewCreatedVmInstanceMsg();
-        smsg.setDataDiskOfferingUuids(msg.getDataDiskOfferingUuids());
-        smsg.setL3NetworkUuids(msg.getL3NetworkUuids());
-        smsg.setRootDiskOfferingUuid(msg.getRootDiskOfferingUuid());
-        smsg.setVmInstanceInventory(VmInstanceInventory.valueOf(vo));
-        bus.makeTargetServiceIdByResourceUuid(smsg, VmInstanceConstant.SERVICE_ID, vo.getUuid());
+        StartNewCreatedVmInstanceMsg smsg = makeStartNewCreatedVmInstanceMsg(msg, vo);
         bus.send(smsg, new CloudBusCallBack() {
             @Override
             public void run(MessageReply reply) {
@@ -714,8 +925,9 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
                 long volSize = pairs.get(VolumeConstant.QUOTA_VOLUME_SIZE).getValue();
 
                 VmQuota vmQuota = getUsedVmCpuMemory(msg.getSession().getAccountUuid());
+                int vmNumAsked = msg instanceof APICreateVmInstancesMsg ? ((APICreateVmInstancesMsg) msg).getCount() : 1;
 
-                if (vmQuota.vmNum + 1 > vmNum) {
+                if (vmQuota.vmNum + vmNumAsked > vmNum) {
                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
                             String.format("quota exceeding. The account[uuid: %s] exceeds a quota[name: %s, value: %s]",
                                     msg.getSession().getAccountUuid(), VmInstanceConstant.QUOTA_VM_NUM, vmNum)
@@ -726,8 +938,8 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
                 TypedQuery<Tuple> iq = dbf.getEntityManager().createQuery(sql, Tuple.class);
                 iq.setParameter("uuid", msg.getInstanceOfferingUuid());
                 Tuple it = iq.getSingleResult();
-                int cpuNumAsked = it.get(0, Integer.class);
-                long memoryAsked = it.get(1, Long.class);
+                long cpuNumAsked = it.get(0, Integer.class) * (long) vmNumAsked;
+                long memoryAsked = it.get(1, Long.class) * vmNumAsked;
 
                 if (vmQuota.cpuNum + cpuNumAsked > cpuNum) {
                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
@@ -747,7 +959,7 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
                 if (msg.getDataDiskOfferingUuids() != null && !msg.getDataDiskOfferingUuids().isEmpty()) {
                     long n = getUsedVolume(msg.getSession().getAccountUuid());
 
-                    if (n + msg.getDataDiskOfferingUuids().size() > volNum) {
+                    if (n + msg.getDataDiskOfferingUuids().size() * (long) vmNumAsked > volNum) {
                         throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
                                 String.format("quota exceeding. The account[uuid: %s] exceeds a quota[name: %s, value: %s]",
                                         msg.getSession().getAccountUuid(), VolumeConstant.QUOTA_DATA_VOLUME_NUM, memory)
@@ -782,6 +994,7 @@ public class VmInstanceManagerImpl extends AbstractService implements VmInstance
                     requiredVolSize += dsize;
                 }
 
+                requiredVolSize *= vmNumAsked;
                 long vsize = getUsedVolumeSize(msg.getSession().getAccountUuid());
                 if (vsize + requiredVolSize > volSize) {
                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
@@ -0,0 +1,151 @@
+package org.zstack.compute.vm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.header.Component;
+import org.zstack.header.vm.VmCanonicalEvents;
+import org.zstack.header.vm.VmCanonicalEvents.VmStateChangedData;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the states of vms the management node believes on each host, used by VmTracer to check incremental vm state
+ * reports without reading VmInstanceVO.
+ *
+ * a host is loaded from the database on its full vm sync, then kept up to date by the vm state change events
+ * fired by VmInstanceBase on any management node. State changes received while a host is being loaded are recorded
+ * and applied again on top of the loaded states, so a load is never lost to changes racing with it.
+ */
+public class VmStateTable implements Component {
+    @Autowired
+    private EventFacade evtf;
+
+    // guarded by this
+    private final Map<String, Map<String, VmInstanceState>> hosts = new HashMap<String, Map<String, VmInstanceState>>();
+    private final Map<String, String> vmHosts = new HashMap<String, String>();
+    private final Map<String, Loading> loadings = new HashMap<String, Loading>();
+
+    private static class Loading {
+        int num;
+        List<VmInstanceInventory> updates = new ArrayList<VmInstanceInventory>();
+    }
+
+    public synchronized boolean isLoaded(String hostUuid) {
+        return hosts.containsKey(hostUuid);
+    }
+
+    /**
+     * @return a copy of the vm states on the host, or null if the host is not loaded
+     */
+    public synchronized Map<String, VmInstanceState> getVmStates(String hostUuid) {
+        Map<String, VmInstanceState> states = hosts.get(hostUuid);
+        return states == null ? null : new HashMap<String, VmInstanceState>(states);
+    }
+
+    /**
+     * call it before reading the vm states of a host from the database, then call load() with the states read,
+     * or cancelLoad() if the read fails
+     */
+    public synchronized void beginLoad(String hostUuid) {
+        Loading loading = loadings.get(hostUuid);
+        if (loading == null) {
+            loading = new Loading();
+            loadings.put(hostUuid, loading);
+        }
+        loading.num++;
+    }
+
+    public synchronized void load(String hostUuid, Map<String, VmInstanceState> states) {
+        unload(hostUuid);
+
+        hosts.put(hostUuid, new HashMap<String, VmInstanceState>(states));
+        for (String vmUuid : states.keySet()) {
+            vmHosts.put(vmUuid, hostUuid);
+        }
+
+        Loading loading = endLoad(hostUuid);
+        if (loading != null) {
+            // the states read may miss the changes received since beginLoad(), apply them again in order
+            for (VmInstanceInventory vm : loading.updates) {
+                apply(vm);
+            }
+        }
+    }
+
+    public synchronized void cancelLoad(String hostUuid) {
+        endLoad(hostUuid);
+    }
+
+    private Loading endLoad(String hostUuid) {
+        Loading loading = loadings.get(hostUuid);
+        if (loading != null && --loading.num == 0) {
+            loadings.remove(hostUuid);
+        }
+        return loading;
+    }
+
+    public synchronized void unload(String hostUuid) {
+        Map<String, VmInstanceState> states = hosts.remove(hostUuid);
+        if (states == null) {
+            return;
+        }
+
+        for (String vmUuid : states.keySet()) {
+            if (hostUuid.equals(vmHosts.get(vmUuid))) {
+                vmHosts.remove(vmUuid);
+            }
+        }
+    }
+
+    private synchronized void update(VmInstanceInventory vm) {
+        for (Loading loading : loadings.values()) {
+            loading.updates.add(vm);
+        }
+
+        apply(vm);
+    }
+
+    private void apply(VmInstanceInventory vm) {
+        String oldHostUuid = vmHosts.remove(vm.getUuid());
+        if (oldHostUuid != null) {
+            hosts.get(oldHostUuid).remove(vm.getUuid());
+        }
+
+        VmInstanceState state = VmInstanceState.valueOf(vm.getState());
+        if (state == VmInstanceState.Destroyed || state == VmInstanceState.Destroying) {
+            return;
+        }
+
+        String hostUuid = vm.getHostUuid() != null ? vm.getHostUuid() : vm.getLastHostUuid();
+        Map<String, VmInstanceState> states = hostUuid == null ? null : hosts.get(hostUuid);
+        if (states != null) {
+            states.put(vm.getUuid(), state);
+            vmHosts.put(vm.getUuid(), hostUuid);
+        }
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(VmCanonicalEvents.VM_FULL_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                VmStateChangedData d = (VmStateChangedData) data;
+                if (d.getVmInventory() != null) {
+                    update(d.getVmInventory());
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
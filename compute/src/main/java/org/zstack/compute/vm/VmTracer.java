@@ -35,26 +35,38 @@ public abstract class VmTracer {
     private ThreadFacade thdf;
     @Autowired
     private EventFacade evtf;
+    @Autowired
+    private VmStateTable stateTable;
 
     private class Tracer {
         String hostUuid;
         Map<String, VmInstanceState> hostSideStates;
         Map<String, VmInstanceState> mgmtSideStates;
+        boolean changesOnly;
 
         @Transactional(readOnly = true)
         private void buildManagementServerSideVmStates() {
             mgmtSideStates = new HashMap<String, VmInstanceState>();
-
-            String sql = "select vm.uuid, vm.state from VmInstanceVO vm where vm.hostUuid = :huuid or (vm.hostUuid is null and vm.lastHostUuid = :huuid)" +
-                    " and vm.state not in (:vmstates)";
-            TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-            q.setParameter("huuid", hostUuid);
-            q.setParameter("vmstates", list(VmInstanceState.Destroyed, VmInstanceState.Destroying));
-            List<Tuple> ts = q.getResultList();
+            stateTable.beginLoad(hostUuid);
+
+            List<Tuple> ts;
+            try {
+                String sql = "select vm.uuid, vm.state from VmInstanceVO vm where vm.hostUuid = :huuid or (vm.hostUuid is null and vm.lastHostUuid = :huuid)" +
+                        " and vm.state not in (:vmstates)";
+                TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+                q.setParameter("huuid", hostUuid);
+                q.setParameter("vmstates", list(VmInstanceState.Destroyed, VmInstanceState.Destroying));
+                ts = q.getResultList();
+            } catch (RuntimeException e) {
+                stateTable.cancelLoad(hostUuid);
+                throw e;
+            }
 
             for (Tuple t : ts) {
                 mgmtSideStates.put(t.get(0, String.class), t.get(1, VmInstanceState.class));
             }
+
+            stateTable.load(hostUuid, mgmtSideStates);
         }
 
         private void checkFromHostSide() {
@@ -124,24 +136,39 @@ public abstract class VmTracer {
             checkFromHostSide();
             checkFromManagementServerSide();
         }
-    }
 
-    protected void reportVmState(final String hostUuid, final Map<String, VmInstanceState> vmStates) {
-        for (VmInstanceState state : vmStates.values()) {
-            if (state != VmInstanceState.Running && state != VmInstanceState.Stopped) {
-                throw new CloudRuntimeException(String.format("host can only report vm state as Running or Stopped, got %s", state));
+        // hostSideStates only contains vms changed since the last report, a vm gone from the host is reported as Stopped
+        void traceChanges() {
+            mgmtSideStates = stateTable.getVmStates(hostUuid);
+            if (mgmtSideStates == null) {
+                logger.debug(String.format("[Vm Tracer] states of vms on the host[uuid:%s] are not loaded, skip the changes reported," +
+                        " the next full sync will check them", hostUuid));
+                return;
             }
-        }
 
-        if (!CoreGlobalProperty.VM_TRACER_ON) {
-            logger.debug(String.format("vm tracer is off, skip reporting vm state on host[uuid:%s]", hostUuid));
-            return;
+            for (Map.Entry<String, VmInstanceState> e : hostSideStates.entrySet()) {
+                String vmUuid = e.getKey();
+                VmInstanceState actualState = e.getValue();
+                VmInstanceState expectedState = mgmtSideStates.get(vmUuid);
+
+                if (actualState == VmInstanceState.Stopped) {
+                    if (expectedState != null && expectedState != VmInstanceState.Stopped) {
+                        handleMissingVm(vmUuid, expectedState);
+                    }
+                } else if (expectedState == null) {
+                    handleAnonymousVm(vmUuid, actualState, expectedState);
+                } else if (actualState != expectedState) {
+                    handleStateChangeOnHostSide(vmUuid, actualState, expectedState);
+                }
+            }
         }
+    }
 
+    private void submitTrace(final Tracer t) {
         thdf.syncSubmit(new SyncTask<Object>() {
             @Override
             public String getSyncSignature() {
-                return String.format("trace-vm-state-on-host-%s", hostUuid);
+                return String.format("trace-vm-state-on-host-%s", t.hostUuid);
             }
 
             @Override
@@ -151,18 +178,72 @@ public abstract class VmTracer {
 
             @Override
             public String getName() {
-                return String.format("trace-vm-state-on-host-%s", hostUuid);
+                return String.format("trace-vm-state-on-host-%s", t.hostUuid);
             }
 
             @Override
             public Object call() throws Exception {
-                Tracer t = new Tracer();
-                t.hostUuid = hostUuid;
-                t.hostSideStates = vmStates;
-                t.trace();
+                if (t.changesOnly) {
+                    t.traceChanges();
+                } else {
+                    t.trace();
+                }
                 return null;
             }
         });
     }
 
+    protected void reportVmState(final String hostUuid, final Map<String, VmInstanceState> vmStates) {
+        for (VmInstanceState state : vmStates.values()) {
+            if (state != VmInstanceState.Running && state != VmInstanceState.Stopped) {
+                throw new CloudRuntimeException(String.format("host can only report vm state as Running or Stopped, got %s", state));
+            }
+        }
+
+        if (!CoreGlobalProperty.VM_TRACER_ON) {
+            logger.debug(String.format("vm tracer is off, skip reporting vm state on host[uuid:%s]", hostUuid));
+            return;
+        }
+
+        Tracer t = new Tracer();
+        t.hostUuid = hostUuid;
+        t.hostSideStates = vmStates;
+        submitTrace(t);
+    }
+
+    /**
+     * reports vms whose states changed on the host since the last report, a vm gone from the host is reported
+     * as Stopped. The changes are checked against VmStateTable instead of the database.
+     *
+     * @return false if the vm states of the host are not loaded by a full report, the caller should do a full
+     * report by reportVmState() then
+     */
+    protected boolean reportVmStateChanges(final String hostUuid, final Map<String, VmInstanceState> changes) {
+        for (VmInstanceState state : changes.values()) {
+            if (state != VmInstanceState.Running && state != VmInstanceState.Stopped && state != VmInstanceState.Unknown) {
+                throw new CloudRuntimeException(String.format("host can only report vm state changes as Running, Stopped or Unknown, got %s", state));
+            }
+        }
+
+        if (!CoreGlobalProperty.VM_TRACER_ON) {
+            logger.debug(String.format("vm tracer is off, skip reporting vm state changes on host[uuid:%s]", hostUuid));
+            return true;
+        }
+
+        if (!stateTable.isLoaded(hostUuid)) {
+            return false;
+        }
+
+        if (changes.isEmpty()) {
+            return true;
+        }
+
+        Tracer t = new Tracer();
+        t.hostUuid = hostUuid;
+        t.hostSideStates = changes;
+        t.changesOnly = true;
+        submitTrace(t);
+        return true;
+    }
+
 }
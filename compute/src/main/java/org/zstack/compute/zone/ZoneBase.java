@@ -3,11 +3,13 @@ package org.zstack.compute.zone;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.cascade.CascadeAction;
 import org.zstack.core.cascade.CascadeConstant;
 import org.zstack.core.cascade.CascadeFacade;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.progressbar.ProgressBarFacade;
 import org.zstack.header.core.NopeCompletion;
 import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.SysErrors;
@@ -45,6 +47,8 @@ public class ZoneBase extends AbstractZone {
     protected CascadeFacade casf;
     @Autowired
     protected ErrorFacade errf;
+    @Autowired
+    protected ProgressBarFacade pgf;
 
 	ZoneBase(ZoneVO self) {
 		this.self = self;
@@ -104,18 +108,25 @@ public class ZoneBase extends AbstractZone {
         bus.publish(evt);
     }
 
-    protected void handle(APIDeleteZoneMsg msg) {
+    private CascadeAction makeDeletionAction(String code, String issuer, Object ctx, APIDeleteZoneMsg msg) {
+        // deleting a big zone takes long, report the progress of the cascade to the API caller
+        return new CascadeAction().setRootIssuer(issuer).setRootIssuerContext(ctx).setParentIssuer(issuer)
+                .setParentIssuerContext(ctx).setActionCode(code).setProgressMessage(msg);
+    }
+
+    protected void handle(final APIDeleteZoneMsg msg) {
         final APIDeleteZoneEvent evt = new APIDeleteZoneEvent(msg.getId());
         final String issuer = ZoneVO.class.getSimpleName();
         ZoneInventory zinv = ZoneInventory.valueOf(self);
         final List<ZoneInventory> ctx = Arrays.asList(zinv);
+        pgf.setContextToApiMessage(msg);
         FlowChain chain = FlowChainBuilder.newSimpleFlowChain();
         chain.setName(String.format("delete-zone-%s", msg.getUuid()));
         if (msg.getDeletionMode() == APIDeleteMessage.DeletionMode.Permissive) {
             chain.then(new NoRollbackFlow() {
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
-                    casf.asyncCascade(CascadeConstant.DELETION_CHECK_CODE, issuer, ctx, new Completion(trigger) {
+                    casf.asyncCascade(makeDeletionAction(CascadeConstant.DELETION_CHECK_CODE, issuer, ctx, msg), new Completion(trigger) {
                         @Override
                         public void success() {
                             trigger.next();
@@ -130,7 +141,7 @@ public class ZoneBase extends AbstractZone {
             }).then(new NoRollbackFlow() {
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
-                    casf.asyncCascade(CascadeConstant.DELETION_DELETE_CODE, issuer, ctx, new Completion(trigger) {
+                    casf.asyncCascade(makeDeletionAction(CascadeConstant.DELETION_DELETE_CODE, issuer, ctx, msg), new Completion(trigger) {
                         @Override
                         public void success() {
                             trigger.next();
@@ -147,7 +158,7 @@ public class ZoneBase extends AbstractZone {
             chain.then(new NoRollbackFlow() {
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
-                    casf.asyncCascade(CascadeConstant.DELETION_FORCE_DELETE_CODE, issuer, ctx, new Completion(trigger) {
+                    casf.asyncCascade(makeDeletionAction(CascadeConstant.DELETION_FORCE_DELETE_CODE, issuer, ctx, msg), new Completion(trigger) {
                         @Override
                         public void success() {
                             trigger.next();
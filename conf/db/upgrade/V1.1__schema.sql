@@ -1 +1,8 @@
 ALTER TABLE `zstack`.`UserGroupPolicyRefVO` ADD CONSTRAINT uqUserGroupPolicyVO UNIQUE (policyUuid, groupUuid);
+
+CREATE TABLE  `zstack`.`SequenceBlockVO` (
+    `name` varchar(255) NOT NULL UNIQUE,
+    `nextValue` bigint unsigned NOT NULL,
+    `blockSize` int unsigned NOT NULL,
+    PRIMARY KEY  (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -219,10 +219,10 @@ public class ConfigurationManagerImpl extends AbstractService implements Configu
 
     private void handle(APIGenerateApiTypeScriptDefinitionMsg msg) {
         TypeScriptApiWriter writer = GroovyUtils.loadClass("scripts/TypeScriptApiWriterImpl.groovy", this.getClass().getClassLoader());
-        List<Class> apiMsgClass = BeanUtils.scanClassByType("org.zstack", APIMessage.class);
-        List<Class> apiEventClass = BeanUtils.scanClassByType("org.zstack", APIEvent.class);
-        List<Class> apiReplyClass = BeanUtils.scanClassByType("org.zstack", APIReply.class);
-        List<Class> inventoryClass = BeanUtils.scanClass("org.zstack", Inventory.class);
+        List<Class> apiMsgClass = ClassIndex.getSubTypes("org.zstack", APIMessage.class);
+        List<Class> apiEventClass = ClassIndex.getSubTypes("org.zstack", APIEvent.class);
+        List<Class> apiReplyClass = ClassIndex.getSubTypes("org.zstack", APIReply.class);
+        List<Class> inventoryClass = ClassIndex.getAnnotatedClasses("org.zstack", Inventory.class);
 
         apiMsgClass = CollectionUtils.transformToList(apiMsgClass, new Function<Class, Class>() {
             @Override
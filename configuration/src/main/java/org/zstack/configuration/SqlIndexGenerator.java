@@ -6,7 +6,7 @@ import org.zstack.header.configuration.APIGenerateSqlIndexMsg;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.vo.EO;
 import org.zstack.header.vo.Index;
-import org.zstack.utils.BeanUtils;
+import org.zstack.utils.ClassIndex;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
@@ -71,7 +71,7 @@ public class SqlIndexGenerator {
 
     public void generate() {
         for (String pkgName: basePkgs) {
-            entityClass.addAll(BeanUtils.scanClass(pkgName, Entity.class));
+            entityClass.addAll(ClassIndex.getAnnotatedClasses(pkgName, Entity.class));
         }
 
         for (Class entity : entityClass) {
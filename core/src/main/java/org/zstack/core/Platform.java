@@ -14,7 +14,7 @@ import org.zstack.core.statemachine.StateMachineImpl;
 import org.zstack.header.Component;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.tag.SystemTagVO;
-import org.zstack.utils.BeanUtils;
+import org.zstack.utils.ClassIndex;
 import org.zstack.utils.Linux;
 import org.zstack.utils.StringDSL;
 import org.zstack.utils.TypeUtils;
@@ -167,7 +167,7 @@ public class Platform {
     }
 
     private static void linkGlobalProperty() {
-        List<Class> clzs = BeanUtils.scanClass("org.zstack", GlobalPropertyDefinition.class);
+        List<Class> clzs = ClassIndex.getAnnotatedClasses("org.zstack", GlobalPropertyDefinition.class);
 
         Map<String, String> propertiesMap = new HashMap<String, String>();
         for (final String name: System.getProperties().stringPropertyNames()) {
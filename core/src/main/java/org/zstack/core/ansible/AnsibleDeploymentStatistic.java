@@ -0,0 +1,57 @@
+package org.zstack.core.ansible;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+
+/**
+ */
+public class AnsibleDeploymentStatistic {
+    private int waitingNum;
+    private int runningNum;
+    private long succeededNum;
+    private long failedNum;
+    private long averageWaitTime;
+    private long averageRunTime;
+    private Map<String, Integer> runningNumByGroup;
+
+    @ConstructorProperties({"waitingNum", "runningNum", "succeededNum", "failedNum", "averageWaitTime", "averageRunTime",
+            "runningNumByGroup"})
+    public AnsibleDeploymentStatistic(int waitingNum, int runningNum, long succeededNum, long failedNum,
+                                      long averageWaitTime, long averageRunTime, Map<String, Integer> runningNumByGroup) {
+        this.waitingNum = waitingNum;
+        this.runningNum = runningNum;
+        this.succeededNum = succeededNum;
+        this.failedNum = failedNum;
+        this.averageWaitTime = averageWaitTime;
+        this.averageRunTime = averageRunTime;
+        this.runningNumByGroup = runningNumByGroup;
+    }
+
+    public int getWaitingNum() {
+        return waitingNum;
+    }
+
+    public int getRunningNum() {
+        return runningNum;
+    }
+
+    public long getSucceededNum() {
+        return succeededNum;
+    }
+
+    public long getFailedNum() {
+        return failedNum;
+    }
+
+    public long getAverageWaitTime() {
+        return averageWaitTime;
+    }
+
+    public long getAverageRunTime() {
+        return averageRunTime;
+    }
+
+    public Map<String, Integer> getRunningNumByGroup() {
+        return runningNumByGroup;
+    }
+}
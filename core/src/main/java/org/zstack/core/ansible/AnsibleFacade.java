@@ -10,4 +10,10 @@ public interface AnsibleFacade {
     boolean isModuleChanged(String playbookName);
 
     Map<String, String> getVariables();
+
+    /**
+     * md5 of a local agent artifact, computed once per management node and recomputed only if the file's
+     * size or modification time changes
+     */
+    String getArtifactMd5(String path);
 }
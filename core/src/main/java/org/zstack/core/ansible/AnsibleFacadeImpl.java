@@ -3,6 +3,7 @@ package org.zstack.core.ansible;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.DirectoryWalker;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.ini4j.Wini;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.CoreGlobalProperty;
@@ -10,11 +11,12 @@ import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.errorcode.ErrorFacade;
-import org.zstack.core.thread.SyncTask;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.Task;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.AbstractService;
-import org.zstack.header.core.Completion;
-import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.Message;
@@ -28,16 +30,29 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * deployments run in FIFO order, at most Ansible.maxConcurrentDeployments at a time and at most
+ * Ansible.maxConcurrentDeploymentsPerGroup for the same deploy group; deployments to the same host are serialized.
  */
-public class AnsibleFacadeImpl extends AbstractService implements AnsibleFacade {
+public class AnsibleFacadeImpl extends AbstractService implements AnsibleFacade, AnsibleFacadeMXBean {
     private static final CLogger logger = Utils.getLogger(AnsibleFacadeImpl.class);
 
     private int maxForks = 100;
     private String filesDir = PathUtil.join(AnsibleConstant.ROOT_DIR, "files");
     private Map<String, Boolean> moduleChanges = new HashMap<String, Boolean>();
     private Map<String, String> variables = new HashMap<String, String>();
+    private final Map<String, Artifact> artifacts = new ConcurrentHashMap<String, Artifact>();
+
+    // guarded by this
+    private final LinkedList<Deployment> waitingDeployments = new LinkedList<Deployment>();
+    private final Map<String, Integer> runningDeploymentNumByGroup = new HashMap<String, Integer>();
+    private int runningDeploymentNum;
+    private long succeededDeploymentNum;
+    private long failedDeploymentNum;
+    private long totalDeploymentWaitTime;
+    private long totalDeploymentRunTime;
 
     @Autowired
     private CloudBus bus;
@@ -45,6 +60,18 @@ public class AnsibleFacadeImpl extends AbstractService implements AnsibleFacade
     private ErrorFacade errf;
     @Autowired
     private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private static class Artifact {
+        long size;
+        long lastModified;
+        String md5;
+
+        boolean isValid(File f) {
+            return size == f.length() && lastModified == f.lastModified();
+        }
+    }
 
     private void placePip703() {
         File pip = PathUtil.findFileOnClassPath("tools/pip-7.0.3.tar.gz");
@@ -119,83 +146,173 @@ public class AnsibleFacadeImpl extends AbstractService implements AnsibleFacade
         }
     }
 
+    private class Deployment {
+        final RunAnsibleMsg msg;
+        final SyncTaskChain chain;
+        final long createdTime = System.currentTimeMillis();
+        long startTime;
+
+        Deployment(RunAnsibleMsg msg, SyncTaskChain chain) {
+            this.msg = msg;
+            this.chain = chain;
+        }
+
+        void start() {
+            thdf.submit(new Task<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    RunAnsibleReply reply = new RunAnsibleReply();
+                    try {
+                        runAnsible(msg);
+                    } catch (OperationFailureException e) {
+                        reply.setError(e.getErrorCode());
+                    } catch (Throwable t) {
+                        logger.warn(t.getMessage(), t);
+                        reply.setError(errf.throwableToInternalError(t));
+                    }
+
+                    try {
+                        finish(Deployment.this, reply.isSuccess());
+                        bus.reply(msg, reply);
+                    } finally {
+                        chain.next();
+                    }
+                    return null;
+                }
+
+                @Override
+                public String getName() {
+                    return String.format("run-ansible-for-host-%s", msg.getTargetIp());
+                }
+            });
+        }
+    }
+
+    private List<Deployment> dispatchDeployments() {
+        List<Deployment> ret = new ArrayList<Deployment>();
+        Iterator<Deployment> it = waitingDeployments.iterator();
+        while (it.hasNext() && runningDeploymentNum < AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS) {
+            Deployment d = it.next();
+            String group = d.msg.getDeployGroup();
+            Integer groupNum = group == null ? null : runningDeploymentNumByGroup.get(group);
+            if (groupNum != null && groupNum >= AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS_PER_GROUP) {
+                continue;
+            }
+
+            it.remove();
+            runningDeploymentNum++;
+            if (group != null) {
+                runningDeploymentNumByGroup.put(group, groupNum == null ? 1 : groupNum + 1);
+            }
+            d.startTime = System.currentTimeMillis();
+            totalDeploymentWaitTime += d.startTime - d.createdTime;
+            ret.add(d);
+        }
+
+        return ret;
+    }
+
+    private void schedule(Deployment d) {
+        List<Deployment> toStart;
+        synchronized (this) {
+            waitingDeployments.add(d);
+            toStart = dispatchDeployments();
+            if (!toStart.contains(d)) {
+                logger.debug(String.format("%s ansible deployments are running, the deployment for the host[ip:%s, group:%s] waits",
+                        runningDeploymentNum, d.msg.getTargetIp(), d.msg.getDeployGroup()));
+            }
+        }
+
+        for (Deployment s : toStart) {
+            s.start();
+        }
+    }
+
+    private void finish(Deployment d, boolean success) {
+        List<Deployment> toStart;
+        synchronized (this) {
+            runningDeploymentNum--;
+            String group = d.msg.getDeployGroup();
+            if (group != null) {
+                int groupNum = runningDeploymentNumByGroup.get(group) - 1;
+                if (groupNum == 0) {
+                    runningDeploymentNumByGroup.remove(group);
+                } else {
+                    runningDeploymentNumByGroup.put(group, groupNum);
+                }
+            }
+
+            if (success) {
+                succeededDeploymentNum++;
+            } else {
+                failedDeploymentNum++;
+            }
+            totalDeploymentRunTime += System.currentTimeMillis() - d.startTime;
+
+            toStart = dispatchDeployments();
+        }
+
+        for (Deployment s : toStart) {
+            s.start();
+        }
+    }
+
     private void handle(final RunAnsibleMsg msg) {
-        thdf.syncSubmit(new SyncTask<Object>() {
+        thdf.chainSubmit(new ChainTask(msg) {
             @Override
             public String getSyncSignature() {
                 return String.format("run-anisble-for-host-%s", msg.getTargetIp());
             }
 
             @Override
-            public int getSyncLevel() {
-                return 1;
+            public void run(SyncTaskChain chain) {
+                schedule(new Deployment(msg, chain));
             }
 
             @Override
             public String getName() {
                 return getSyncSignature();
             }
+        });
+    }
 
-            private void run(Completion completion) {
-                new PrepareAnsible().setTargetIp(msg.getTargetIp()).prepare();
-
-                logger.debug(String.format("start running ansible for playbook[%s]", msg.getPlayBookPath()));
-                Map<String, Object> arguments = new HashMap<String, Object>();
-                if (msg.getArguments() != null) {
-                    arguments.putAll(msg.getArguments());
-                }
-                arguments.put("host", msg.getTargetIp());
-                arguments.put("zstack_root", AnsibleGlobalProperty.ZSTACK_ROOT);
-                arguments.put("pkg_zstacklib", AnsibleGlobalProperty.ZSTACKLIB_PACKAGE_NAME);
-                arguments.putAll(getVariables());
-                String playBookPath = msg.getPlayBookPath();
-                try {
-                    String output;
-                    if (AnsibleGlobalProperty.DEBUG_MODE2) {
-                        output = ShellUtils.run(String.format("%s %s -i %s -vvvv --private-key %s -e '%s' | tee -a %s",
-                                        AnsibleGlobalProperty.EXECUTABLE, playBookPath, AnsibleConstant.INVENTORY_FILE, msg.getPrivateKeyFile(), JSONObjectUtil.toJsonString(arguments), AnsibleConstant.LOG_PATH),
-                                AnsibleConstant.ROOT_DIR);
-                    } else if (AnsibleGlobalProperty.DEBUG_MODE) {
-                        output = ShellUtils.run(String.format("%s %s -i %s -vvvv --private-key %s -e '%s'",
-                                        AnsibleGlobalProperty.EXECUTABLE, playBookPath, AnsibleConstant.INVENTORY_FILE, msg.getPrivateKeyFile(), JSONObjectUtil.toJsonString(arguments)),
-                                AnsibleConstant.ROOT_DIR);
-                    } else {
-                        output = ShellUtils.run(String.format("%s %s -i %s --private-key %s -e '%s'",
-                                        AnsibleGlobalProperty.EXECUTABLE, playBookPath, AnsibleConstant.INVENTORY_FILE, msg.getPrivateKeyFile(), JSONObjectUtil.toJsonString(arguments)),
-                                AnsibleConstant.ROOT_DIR);
-                    }
-
-                    if (output.contains("skipping: no hosts matched")) {
-                        throw new OperationFailureException(errf.stringToOperationError(output));
-                    }
-
-                } catch (ShellException se) {
-                    logger.warn(se.getMessage(), se);
-                    throw new OperationFailureException(errf.stringToOperationError(se.getMessage()));
-                }
+    private void runAnsible(RunAnsibleMsg msg) {
+        new PrepareAnsible().setTargetIp(msg.getTargetIp()).prepare();
 
-                completion.success();
+        logger.debug(String.format("start running ansible for playbook[%s]", msg.getPlayBookPath()));
+        Map<String, Object> arguments = new HashMap<String, Object>();
+        if (msg.getArguments() != null) {
+            arguments.putAll(msg.getArguments());
+        }
+        arguments.put("host", msg.getTargetIp());
+        arguments.put("zstack_root", AnsibleGlobalProperty.ZSTACK_ROOT);
+        arguments.put("pkg_zstacklib", AnsibleGlobalProperty.ZSTACKLIB_PACKAGE_NAME);
+        arguments.putAll(getVariables());
+        String playBookPath = msg.getPlayBookPath();
+        try {
+            String output;
+            if (AnsibleGlobalProperty.DEBUG_MODE2) {
+                output = ShellUtils.run(String.format("%s %s -i %s -vvvv --private-key %s -e '%s' | tee -a %s",
+                                AnsibleGlobalProperty.EXECUTABLE, playBookPath, AnsibleConstant.INVENTORY_FILE, msg.getPrivateKeyFile(), JSONObjectUtil.toJsonString(arguments), AnsibleConstant.LOG_PATH),
+                        AnsibleConstant.ROOT_DIR);
+            } else if (AnsibleGlobalProperty.DEBUG_MODE) {
+                output = ShellUtils.run(String.format("%s %s -i %s -vvvv --private-key %s -e '%s'",
+                                AnsibleGlobalProperty.EXECUTABLE, playBookPath, AnsibleConstant.INVENTORY_FILE, msg.getPrivateKeyFile(), JSONObjectUtil.toJsonString(arguments)),
+                        AnsibleConstant.ROOT_DIR);
+            } else {
+                output = ShellUtils.run(String.format("%s %s -i %s --private-key %s -e '%s'",
+                                AnsibleGlobalProperty.EXECUTABLE, playBookPath, AnsibleConstant.INVENTORY_FILE, msg.getPrivateKeyFile(), JSONObjectUtil.toJsonString(arguments)),
+                        AnsibleConstant.ROOT_DIR);
             }
 
-            @Override
-            public Object call() throws Exception {
-                final RunAnsibleReply reply = new RunAnsibleReply();
-                run(new Completion(msg) {
-                    @Override
-                    public void success() {
-                        bus.reply(msg, reply);
-                    }
-
-                    @Override
-                    public void fail(ErrorCode errorCode) {
-                        reply.setError(errorCode);
-                        bus.reply(msg, reply);
-                    }
-                });
-
-                return null;
+            if (output.contains("skipping: no hosts matched")) {
+                throw new OperationFailureException(errf.stringToOperationError(output));
             }
-        });
+
+        } catch (ShellException se) {
+            logger.warn(se.getMessage(), se);
+            throw new OperationFailureException(errf.stringToOperationError(se.getMessage()));
+        }
     }
 
     @Override
@@ -205,6 +322,7 @@ public class AnsibleFacadeImpl extends AbstractService implements AnsibleFacade
 
     @Override
     public boolean start() {
+        jmxf.registerBean("AnsibleFacade", this);
         return true;
     }
 
@@ -253,15 +371,11 @@ public class AnsibleFacadeImpl extends AbstractService implements AnsibleFacade
 
             Map<String, String> srcMd5sum = new HashMap<String, String>(srcFiles.size());
             for (File f : srcFiles) {
-                FileInputStream fis = new FileInputStream(f);
-                String md5 = DigestUtils.md5Hex(fis);
-                srcMd5sum.put(f.getName(), md5);
+                srcMd5sum.put(f.getName(), getArtifactMd5(f.getAbsolutePath()));
             }
             Map<String, String> destMd5sum = new HashMap<String, String>(destFiles.size());
             for (File f : destFiles) {
-                FileInputStream fis = new FileInputStream(f);
-                String md5 = DigestUtils.md5Hex(fis);
-                destMd5sum.put(f.getName(), md5);
+                destMd5sum.put(f.getName(), md5(f));
             }
             for (Map.Entry<String, String> srcEntry : srcMd5sum.entrySet()) {
                 String name = srcEntry.getKey();
@@ -358,4 +472,59 @@ public class AnsibleFacadeImpl extends AbstractService implements AnsibleFacade
     public Map<String, String> getVariables() {
         return variables;
     }
+
+    private String md5(File f) {
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(f);
+            return DigestUtils.md5Hex(fis);
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("unable to calculate md5 of %s", f.getAbsolutePath()), e);
+        } finally {
+            IOUtils.closeQuietly(fis);
+        }
+    }
+
+    @Override
+    public String getArtifactMd5(String path) {
+        File f = new File(path);
+        Artifact a = artifacts.get(path);
+        if (a != null && a.isValid(f)) {
+            return a.md5;
+        }
+
+        synchronized (artifacts) {
+            a = artifacts.get(path);
+            if (a != null && a.isValid(f)) {
+                return a.md5;
+            }
+
+            a = new Artifact();
+            a.size = f.length();
+            a.lastModified = f.lastModified();
+            a.md5 = md5(f);
+            artifacts.put(path, a);
+            logger.debug(String.format("added the artifact[path:%s, md5:%s] to the manifest", path, a.md5));
+            return a.md5;
+        }
+    }
+
+    @Override
+    public synchronized AnsibleDeploymentStatistic getDeploymentStatistic() {
+        long finished = succeededDeploymentNum + failedDeploymentNum;
+        long started = finished + runningDeploymentNum;
+        return new AnsibleDeploymentStatistic(waitingDeployments.size(), runningDeploymentNum, succeededDeploymentNum,
+                failedDeploymentNum, started == 0 ? 0 : totalDeploymentWaitTime / started,
+                finished == 0 ? 0 : totalDeploymentRunTime / finished,
+                new HashMap<String, Integer>(runningDeploymentNumByGroup));
+    }
+
+    @Override
+    public Map<String, String> getArtifactManifest() {
+        Map<String, String> ret = new HashMap<String, String>();
+        for (Map.Entry<String, Artifact> e : artifacts.entrySet()) {
+            ret.put(e.getKey(), e.getValue().md5);
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,11 @@
+package org.zstack.core.ansible;
+
+import java.util.Map;
+
+/**
+ */
+public interface AnsibleFacadeMXBean {
+    AnsibleDeploymentStatistic getDeploymentStatistic();
+
+    Map<String, String> getArtifactManifest();
+}
@@ -21,4 +21,8 @@ public class AnsibleGlobalProperty {
     public static boolean DEBUG_MODE;
     @GlobalProperty(name = "Ansible.debugMode2", defaultValue = "false")
     public static boolean DEBUG_MODE2;
+    @GlobalProperty(name = "Ansible.maxConcurrentDeployments", defaultValue = "32")
+    public static int MAX_CONCURRENT_DEPLOYMENTS;
+    @GlobalProperty(name = "Ansible.maxConcurrentDeploymentsPerGroup", defaultValue = "8")
+    public static int MAX_CONCURRENT_DEPLOYMENTS_PER_GROUP;
 }
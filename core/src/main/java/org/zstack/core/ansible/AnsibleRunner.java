@@ -59,6 +59,18 @@ public class AnsibleRunner {
     private boolean localPublicKey;
     private boolean runOnLocal;
     private AnsibleNeedRun ansibleNeedRun;
+    private String deployGroup;
+
+    public String getDeployGroup() {
+        return deployGroup;
+    }
+
+    /**
+     * deployments of the same group, e.g. hosts of a cluster, are limited by Ansible.maxConcurrentDeploymentsPerGroup
+     */
+    public void setDeployGroup(String deployGroup) {
+        this.deployGroup = deployGroup;
+    }
 
     public String getPlayBookPath() {
         return playBookPath;
@@ -190,6 +202,7 @@ public class AnsibleRunner {
         msg.setTargetIp(targetIp);
         msg.setPrivateKeyFile(privKeyFile);
         msg.setArguments(arguments);
+        msg.setDeployGroup(deployGroup);
 
         if (playBookPath != null) {
             msg.setPlayBookPath(playBookPath);
@@ -11,6 +11,7 @@ public class RunAnsibleMsg extends NeedReplyMessage {
     private String targetIp;
     private String privateKeyFile;
     private String playBookPath;
+    private String deployGroup;
     private Map<String, Object> arguments = new HashMap<String, Object>();
 
     public String getTargetIp() {
@@ -37,6 +38,14 @@ public class RunAnsibleMsg extends NeedReplyMessage {
         this.playBookPath = playBookPath;
     }
 
+    public String getDeployGroup() {
+        return deployGroup;
+    }
+
+    public void setDeployGroup(String deployGroup) {
+        this.deployGroup = deployGroup;
+    }
+
     public Map<String, Object> getArguments() {
         return arguments;
     }
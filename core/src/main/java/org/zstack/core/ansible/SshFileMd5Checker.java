@@ -1,7 +1,9 @@
 package org.zstack.core.ansible;
 
-import org.zstack.utils.ShellResult;
-import org.zstack.utils.ShellUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
@@ -9,13 +11,20 @@ import org.zstack.utils.ssh.Ssh;
 import org.zstack.utils.ssh.SshResult;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * checks all files in one ssh command, md5 of the source files come from the artifact manifest of AnsibleFacade
  */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class SshFileMd5Checker implements AnsibleChecker {
     private static final CLogger logger = Utils.getLogger(SshFileMd5Checker.class);
 
+    @Autowired
+    private AnsibleFacade asf;
+
     private List<SrcDestPair> srcDestPairs = new ArrayList<SrcDestPair>();
     private String username;
     private String password;
@@ -35,51 +44,76 @@ public class SshFileMd5Checker implements AnsibleChecker {
 
     public static final String ZSTACKLIB_SRC_PATH = PathUtil.findFileOnClassPath(String.format("ansible/zstacklib/%s", AnsibleGlobalProperty.ZSTACKLIB_PACKAGE_NAME), true).getAbsolutePath();
 
+    private String destPaths() {
+        List<String> paths = new ArrayList<String>(srcDestPairs.size());
+        for (SrcDestPair b : srcDestPairs) {
+            paths.add(b.destPath);
+        }
+        return StringUtils.join(paths, " ");
+    }
+
     @Override
     public boolean needDeploy() {
+        if (srcDestPairs.isEmpty()) {
+            return false;
+        }
+
+        SshResult ret = runSsh(String.format("md5sum %s", destPaths()));
+        if (ret.getReturnCode() != 0) {
+            // some files are missing
+            logger.debug(String.format("failed to get md5 of files on the host[ip:%s], %s", targetIp, ret.getStderr()));
+            return true;
+        }
+
+        Map<String, String> destMd5s = new HashMap<String, String>();
+        for (String line : ret.getStdout().split("\n")) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            String[] pair = line.trim().split("\\s+", 2);
+            if (pair.length == 2) {
+                destMd5s.put(pair[1].trim(), pair[0]);
+            }
+        }
+
+        for (SrcDestPair b : srcDestPairs) {
+            String srcMd5 = asf.getArtifactMd5(b.srcPath);
+            String destMd5 = destMd5s.get(b.destPath);
+            if (!srcMd5.equals(destMd5)) {
+                logger.debug(String.format("file MD5 changed, src[%s, md5:%s] dest[%s, md5, %s]", b.srcPath,
+                        srcMd5, b.destPath, destMd5));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    protected SshResult runSsh(String command) {
         Ssh ssh = new Ssh();
         ssh.setUsername(username).setPrivateKey(privateKey)
                 .setPassword(password).setPort(sshPort)
                 .setHostname(targetIp);
         try {
-            for (SrcDestPair b : srcDestPairs) {
-                String sourceFilePath = b.srcPath;
-                String destFilePath = b.destPath;
-
-                ssh.command(String.format("md5sum %s", destFilePath));
-                SshResult ret = ssh.run();
-                if (ret.getReturnCode() != 0) {
-                    return true;
-                }
-                ssh.reset();
-
-                String destMd5 =  ret.getStdout().split(" ")[0];
-                ShellResult sret = ShellUtils.runAndReturn(String.format("md5sum %s", sourceFilePath));
-                sret.raiseExceptionIfFail();
-                String srcMd5 = sret.getStdout().split(" ")[0];
-                if (!destMd5.equals(srcMd5)) {
-                    logger.debug(String.format("file MD5 changed, src[%s, md5:%s] dest[%s, md5, %s]", sourceFilePath,
-                            srcMd5, destFilePath, destMd5));
-                    return true;
-                }
-            }
+            return ssh.command(command).run();
         } finally {
             ssh.close();
         }
-
-        return false;
     }
 
     @Override
     public void deleteDestFile() {
-        for (SrcDestPair b : srcDestPairs) {
-            String destFilePath = b.destPath;
-            Ssh ssh = new Ssh();
-            ssh.setUsername(username).setPrivateKey(privateKey)
-                    .setPassword(password).setPort(sshPort)
-                    .setHostname(targetIp).command(String.format("rm -f %s", destFilePath)).runAndClose();
-            logger.debug(String.format("delete dest file[%s]", destFilePath));
+        if (srcDestPairs.isEmpty()) {
+            return;
         }
+
+        String paths = destPaths();
+        Ssh ssh = new Ssh();
+        ssh.setUsername(username).setPrivateKey(privateKey)
+                .setPassword(password).setPort(sshPort)
+                .setHostname(targetIp).command(String.format("rm -f %s", paths)).runAndClose();
+        logger.debug(String.format("delete dest files[%s]", paths));
     }
 
     public void addSrcDestPair(String srcFilePath, String destFilePath) {
@@ -1,6 +1,7 @@
 package org.zstack.core.cascade;
 
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.Message;
 
 /**
  */
@@ -11,6 +12,17 @@ public class CascadeAction implements Cloneable {
     private Object rootIssuerContext;
     private String actionCode;
     private boolean fullTraverse;
+    // the message progress of an async cascade is reported to, see ProgressBarFacade
+    private Message progressMessage;
+
+    public Message getProgressMessage() {
+        return progressMessage;
+    }
+
+    public CascadeAction setProgressMessage(Message progressMessage) {
+        this.progressMessage = progressMessage;
+        return this;
+    }
 
     public boolean isFullTraverse() {
         return fullTraverse;
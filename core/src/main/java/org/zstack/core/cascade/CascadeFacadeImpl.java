@@ -2,10 +2,9 @@ package org.zstack.core.cascade;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.componentloader.PluginRegistry;
-import org.zstack.core.workflow.*;
+import org.zstack.core.progressbar.ProgressBarFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
-import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.Bucket;
@@ -14,6 +13,7 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  */
@@ -57,9 +57,13 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
 
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private ProgressBarFacade pgf;
 
     private Map<String, Node> nodes = new HashMap<String, Node>();
     private Map<String, TreeNode> cascadeTree = new HashMap<String, TreeNode>();
+    // names of the resources each resource reaches in the cascade graph
+    private Map<String, Set<String>> descendants = new HashMap<String, Set<String>>();
 
     private void doSyncCascade(TreeNode treeNode, boolean init, CascadeAction action) throws CascadeException {
         CascadeAction currentAction;
@@ -180,40 +184,156 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         DebugUtils.Assert(root!=null, String.format("found no CascadeExtension for %s", action.getRootIssuer()));
         List<Bucket> paths = new ArrayList<Bucket>();
         collectPathsForAsyncCascade(root, true, action.isFullTraverse(), action, paths);
-        FlowChain chain = FlowChainBuilder.newSimpleFlowChain();
-        for (Bucket path : paths) {
+        List<List<Bucket>> stages = makeStages(paths);
+        logger.debug(String.format("[Async cascade (%s)]: %s runs %s paths in %s stages", action.getActionCode(), action.getRootIssuer(),
+                paths.size(), stages.size()));
+        runStages(action, stages.iterator(), new AtomicInteger(0), paths.size(), completion);
+    }
+
+    private boolean isRelated(Node n1, Node n2) {
+        return n1 == n2 || descendants.get(n1.getName()).contains(n2.getName()) || descendants.get(n2.getName()).contains(n1.getName());
+    }
+
+    /**
+     * the paths are collected children first. A path goes to the stage after the last earlier path of the same or
+     * a related(ancestor or descendant) resource, so related resources keep the order of the paths and unrelated
+     * resources in a stage run in parallel
+     */
+    private List<List<Bucket>> makeStages(List<Bucket> paths) {
+        List<List<Bucket>> stages = new ArrayList<List<Bucket>>();
+        int[] stageIndexes = new int[paths.size()];
+        for (int i = 0; i < paths.size(); i++) {
+            Node node = paths.get(i).get(0);
+            int stageIndex = 0;
+            for (int j = 0; j < i; j++) {
+                if (stageIndexes[j] >= stageIndex && isRelated(node, (Node) paths.get(j).get(0))) {
+                    stageIndex = stageIndexes[j] + 1;
+                }
+            }
+
+            stageIndexes[i] = stageIndex;
+            if (stageIndex == stages.size()) {
+                stages.add(new ArrayList<Bucket>());
+            }
+            stages.get(stageIndex).add(paths.get(i));
+        }
+
+        return stages;
+    }
+
+    private void runStages(final CascadeAction action, final Iterator<List<Bucket>> it, final AtomicInteger done, final int total, final Completion completion) {
+        if (!it.hasNext()) {
+            completion.success();
+            return;
+        }
+
+        new StageRunner(action, it.next(), done, total, new Completion(completion) {
+            @Override
+            public void success() {
+                runStages(action, it, done, total, completion);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        }).start();
+    }
+
+    /**
+     * runs the paths of a stage with at most Cascade.parallelismDegree in flight. After a path fails no more paths
+     * are started, the stage fails when the running ones finish
+     */
+    private class StageRunner {
+        private final CascadeAction rootAction;
+        private final List<Bucket> paths;
+        private final AtomicInteger done;
+        private final int total;
+        private final Completion completion;
+
+        // guarded by this
+        private int nextIndex;
+        private int running;
+        private ErrorCode error;
+        private boolean finished;
+
+        StageRunner(CascadeAction rootAction, List<Bucket> paths, AtomicInteger done, int total, Completion completion) {
+            this.rootAction = rootAction;
+            this.paths = paths;
+            this.done = done;
+            this.total = total;
+            this.completion = completion;
+        }
+
+        void start() {
+            int num = Math.min(Math.max(CascadeGlobalProperty.PARALLELISM_DEGREE, 1), paths.size());
+            for (int i = 0; i < num; i++) {
+                runNext();
+            }
+        }
+
+        private void runNext() {
+            final Bucket path;
+            ErrorCode err;
+            synchronized (this) {
+                if (error == null && nextIndex < paths.size()) {
+                    path = paths.get(nextIndex++);
+                    running++;
+                } else {
+                    if (running > 0 || finished) {
+                        return;
+                    }
+
+                    finished = true;
+                    path = null;
+                }
+                err = error;
+            }
+
+            if (path == null) {
+                if (err == null) {
+                    completion.success();
+                } else {
+                    completion.fail(err);
+                }
+                return;
+            }
+
             final Node node = path.get(0);
             final CascadeAction caction = path.get(1);
-            chain.then(new NoRollbackFlow() {
+            logger.debug(String.format("[Async cascade (%s)]: %s --> %s", caction.getActionCode(), caction.getParentIssuer(), node.getName()));
+            node.getExtension().asyncCascade(caction, new Completion() {
                 @Override
-                public void run(final FlowTrigger trigger, Map data) {
-                    logger.debug(String.format("[Async cascade (%s)]: %s --> %s", caction.getActionCode(), caction.getParentIssuer(), node.getName()));
-                    node.getExtension().asyncCascade(caction, new Completion() {
-                        @Override
-                        public void success() {
-                            trigger.next();
-                        }
+                public void success() {
+                    synchronized (StageRunner.this) {
+                        running--;
+                    }
+
+                    reportProgress(node);
+                    runNext();
+                }
 
-                        @Override
-                        public void fail(ErrorCode errorCode) {
-                            trigger.fail(errorCode);
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    synchronized (StageRunner.this) {
+                        running--;
+                        if (error == null) {
+                            error = errorCode;
                         }
-                    });
+                    }
+
+                    runNext();
                 }
             });
         }
 
-        chain.done(new FlowDoneHandler() {
-            @Override
-            public void handle(Map data) {
-                completion.success();
-            }
-        }).error(new FlowErrorHandler() {
-            @Override
-            public void handle(ErrorCode errCode, Map data) {
-                completion.fail(errCode);
+        private void reportProgress(Node node) {
+            int current = done.incrementAndGet();
+            if (rootAction.getProgressMessage() != null) {
+                pgf.report(rootAction.getProgressMessage(), String.format("cascade %s of %s: %s", rootAction.getActionCode(),
+                        rootAction.getRootIssuer(), node.getName()), total, current);
             }
-        }).setName(String.format("Cascade: %s", action.getActionCode())).start();
+        }
     }
 
     @Override
@@ -386,10 +506,22 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         populateCascadeNodes(exts);
     }
 
+    private void collectDescendants(Node node, Set<String> result) {
+        for (Node e : node.getEdges()) {
+            if (result.add(e.getName())) {
+                collectDescendants(e, result);
+            }
+        }
+    }
+
     private void populateTree() {
         for (Node n : nodes.values()) {
             TreeNode tn = createTraversingTree(n.getName());
             cascadeTree.put(n.getName(), tn);
+
+            Set<String> result = new HashSet<String>();
+            collectDescendants(n, result);
+            descendants.put(n.getName(), result);
         }
     }
 
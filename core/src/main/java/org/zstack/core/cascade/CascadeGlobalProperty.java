@@ -0,0 +1,12 @@
+package org.zstack.core.cascade;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class CascadeGlobalProperty {
+    @GlobalProperty(name="Cascade.parallelismDegree", defaultValue = "4")
+    public static int PARALLELISM_DEGREE;
+}
@@ -31,4 +31,10 @@ public class CloudBusGlobalProperty {
     public static int CHANNEL_POOL_SIZE;
     @GlobalProperty(name="CloudBus.messageTTL", defaultValue = "300")
     public static int MESSAGE_TTL;
+    @GlobalProperty(name="CloudBus.serviceMaxConcurrency", defaultValue = "100")
+    public static int SERVICE_MAX_CONCURRENCY;
+    @GlobalProperty(name="CloudBus.serviceBacklogSize", defaultValue = "1000")
+    public static int SERVICE_BACKLOG_SIZE;
+    @GlobalProperty(name="CloudBus.serviceQueueTargetWaitTime", defaultValue = "1000")
+    public static int SERVICE_QUEUE_TARGET_WAIT_TIME;
 }
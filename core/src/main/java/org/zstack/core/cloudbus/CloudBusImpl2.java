@@ -9,9 +9,13 @@ import org.zstack.core.Platform;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.progressbar.InProgressEvent;
 import org.zstack.core.thread.*;
 import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
+import org.zstack.core.trace.Span;
+import org.zstack.core.trace.TraceContext;
+import org.zstack.core.trace.TraceFacade;
 import org.zstack.header.Service;
 import org.zstack.header.apimediator.APIIsReadyToGoMsg;
 import org.zstack.header.apimediator.APIIsReadyToGoReply;
@@ -34,13 +38,24 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import javax.management.MXBean;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.map;
@@ -69,6 +84,8 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private EventFacade evtf;
     @Autowired
     private ApiTimeoutManager timeoutMgr;
+    @Autowired
+    private TraceFacade tracef;
 
     private List<String> serverIps;
     private List<Service> services = new ArrayList<Service>();
@@ -99,6 +116,16 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private final String DEAD_LETTER = "dead-message";
 
     private final String AMQP_PROPERTY_HEADER__COMPRESSED = "compressed";
+    private final String TRACE_CONTEXT = "traceContext";
+    // spans of API calls in tracing, finished when their APIEvent are published on this management node
+    private final int MAX_TRACING_API_NUM = 1000;
+
+    private final Map<String, Span> tracingApis = Collections.synchronizedMap(new LinkedHashMap<String, Span>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Span> eldest) {
+            return size() > MAX_TRACING_API_NUM;
+        }
+    });
 
     private String SERVICE_ID = makeLocalServiceId("cloudbus");
 
@@ -342,8 +369,45 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
     };
 
+    // buffers kept by a thread for encoding messages larger than this are dropped after use
+    private static final int MAX_POOLED_ENCODE_BUFFER_SIZE = 1024 * 1024;
+    private static final Charset WIRE_CHARSET = Charset.forName("UTF-8");
+
+    private static class EncodeBuffer extends ByteArrayOutputStream {
+        final Deflater deflater = new Deflater();
+
+        EncodeBuffer() {
+            super(8192);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * messages are encoded by writing JSON straight into a per thread buffer, through a deflater if compressed, and
+     * decoded by parsing JSON straight from the body, through an inflater if compressed; no intermediate strings or
+     * byte arrays are made
+     */
     private class Wire implements GsonTypeCoder<Message> {
         private List<String> filterMsgNames = new ArrayList<String>();
+        private final JsonParser jsonParser = new JsonParser();
+        private final Gson rawGson = new GsonUtil().create();
+
+        private final ThreadLocal<EncodeBuffer> encodeBuffers = new ThreadLocal<EncodeBuffer>() {
+            @Override
+            protected EncodeBuffer initialValue() {
+                return new EncodeBuffer();
+            }
+        };
+
+        private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+            @Override
+            protected Inflater initialValue() {
+                return new Inflater();
+            }
+        };
 
         {
             if (CloudBusGlobalProperty.MESSAGE_LOG != null) {
@@ -425,12 +489,37 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
 
         private byte[] compressMessageIfNeeded(Message msg) throws IOException {
-            if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
-                return gson.toJson(msg, Message.class).getBytes();
+            boolean compress = CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE && !(msg instanceof APIEvent) && !(msg instanceof APIMessage);
+            if (compress) {
+                msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
             }
 
-            msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
-            return Compresser.deflate(gson.toJson(msg, Message.class).getBytes());
+            EncodeBuffer buffer = encodeBuffers.get();
+            try {
+                buffer.reset();
+                DeflaterOutputStream dos = null;
+                Writer writer;
+                if (compress) {
+                    buffer.deflater.reset();
+                    dos = new DeflaterOutputStream(buffer, buffer.deflater, 8192);
+                    writer = new OutputStreamWriter(dos, WIRE_CHARSET);
+                } else {
+                    writer = new OutputStreamWriter(buffer, WIRE_CHARSET);
+                }
+
+                gson.toJson(msg, Message.class, writer);
+                writer.flush();
+                if (dos != null) {
+                    dos.finish();
+                }
+
+                return buffer.toByteArray();
+            } finally {
+                if (buffer.capacity() > MAX_POOLED_ENCODE_BUFFER_SIZE) {
+                    buffer.deflater.end();
+                    encodeBuffers.remove();
+                }
+            }
         }
 
         public void send(Message msg, boolean makeQueueName) {
@@ -513,13 +602,13 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             return exp;
         }
 
-        private void restoreFromSchema(Message msg, byte[] binary) throws ClassNotFoundException {
+        private void restoreFromSchema(Message msg, JsonElement json) throws ClassNotFoundException {
             Map<String, List<String>> schema = msg.getHeaderEntry("schema");
             if (schema == null) {
                 return;
             }
 
-            Map raw = JSONObjectUtil.toObject(new String(binary), LinkedHashMap.class);
+            Map raw = rawGson.fromJson(json, LinkedHashMap.class);
             raw = (Map) raw.values().iterator().next();
             for (Map.Entry<String, List<String>> e : schema.entrySet()) {
                 String rawClassName = e.getKey();
@@ -548,10 +637,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        private void tryBestToReplyError(byte[] binary, String errMsg) {
+        private void tryBestToReplyError(byte[] binary, boolean compressed, String errMsg) {
             // try best to reply an error message to invalid JSON formed message
-            String msgStr = new String(binary);
+            String msgStr = null;
             try {
+                msgStr = new String(compressed ? Compresser.inflate(binary) : binary, WIRE_CHARSET);
                 Map msgObj = JSONObjectUtil.toObject(msgStr, HashMap.class);
                 if (msgObj.size() != 1) {
                     return;
@@ -584,19 +674,21 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             StopWatch watch = new StopWatch();
             watch.start();
             */
+            boolean compressed = basicProperties.getHeaders() != null && basicProperties.getHeaders().containsKey(AMQP_PROPERTY_HEADER__COMPRESSED);
             try {
-                byte[] data;
-                if (basicProperties.getHeaders() != null && basicProperties.getHeaders().containsKey(AMQP_PROPERTY_HEADER__COMPRESSED)) {
-                    data = Compresser.inflate(binary);
-                } else {
-                    data = binary;
+                InputStream in = new ByteArrayInputStream(binary);
+                if (compressed) {
+                    Inflater inflater = inflaters.get();
+                    inflater.reset();
+                    in = new InflaterInputStream(in, inflater, 8192);
                 }
 
-                Message msg = gson.fromJson(new String(data), Message.class);
+                JsonElement json = jsonParser.parse(new InputStreamReader(in, WIRE_CHARSET));
+                Message msg = gson.fromJson(json, Message.class);
                 msg.setAMQPProperties(basicProperties);
 
                 try {
-                    restoreFromSchema(msg, data);
+                    restoreFromSchema(msg, json);
                 } catch (ClassNotFoundException e) {
                     throw new CloudRuntimeException(e);
                 }
@@ -608,10 +700,8 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 return msg;
             } catch (RuntimeException je) {
                 logger.warn(je.getMessage(), je);
-                tryBestToReplyError(binary, je.getMessage());
+                tryBestToReplyError(binary, compressed, je.getMessage());
                 throw je;
-            } catch (IOException e) {
-                throw new CloudRuntimeException(e);
             }
         }
 
@@ -1195,9 +1285,36 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
 
         buildRequestMessageMetaData(msg);
+        injectTraceContext(msg);
         wire.send(msg);
     }
 
+    private void injectTraceContext(Message msg) {
+        if (msg.getHeaderEntry(TRACE_CONTEXT) != null) {
+            return;
+        }
+
+        TraceContext ctx = tracef.getCurrentContext();
+        if (ctx != null) {
+            msg.putHeaderEntry(TRACE_CONTEXT, ctx.toString());
+        }
+    }
+
+    private void runCallback(CloudBusCallBack callback, MessageReply reply, TraceContext caller, Span span) {
+        if (span == null) {
+            callback.run(reply);
+            return;
+        }
+
+        tracef.finishSpan(span, reply.isSuccess());
+        TraceContext prev = tracef.setCurrentContext(caller);
+        try {
+            callback.run(reply);
+        } finally {
+            tracef.setCurrentContext(prev);
+        }
+    }
+
     @Override
     public void send(Message msg) {
         send(msg, true);
@@ -1226,6 +1343,12 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     public void send(final NeedReplyMessage msg, final CloudBusCallBack callback) {
         evaluateMessageTimeout(msg);
 
+        final TraceContext caller = tracef.getCurrentContext();
+        final Span span = tracef.startSpan(caller, msg.getClass().getSimpleName());
+        if (span != null) {
+            msg.putHeaderEntry(TRACE_CONTEXT, span.getContext().toString());
+        }
+
         Envelope e = new Envelope() {
             AtomicBoolean called = new AtomicBoolean(false);
 
@@ -1249,7 +1372,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
                 timeoutTaskReceipt.cancel();
 
-                callback.run(reply);
+                runCallback(callback, reply, caller, span);
             }
 
             @Override
@@ -1260,7 +1383,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     return;
                 }
 
-                callback.run(createTimeoutReply(msg));
+                runCallback(callback, createTimeoutReply(msg), caller, span);
             }
 
             @Override
@@ -1558,6 +1681,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             evaluateMessageTimeout((NeedReplyMessage) msg);
         }
         buildRequestMessageMetaData(msg);
+        injectTraceContext(msg);
         wire.send(msg);
     }
 
@@ -1618,6 +1742,9 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         if (event instanceof APIEvent) {
             APIEvent aevt = (APIEvent) event;
             DebugUtils.Assert(aevt.getApiId() != null, String.format("apiId of %s cannot be null", aevt.getClass().getName()));
+            if (!tracingApis.isEmpty() && !(aevt instanceof InProgressEvent)) {
+                tracef.finishSpan(tracingApis.remove(aevt.getApiId()), aevt.isSuccess());
+            }
         }
 
         eventProperty(event);
@@ -1822,114 +1949,372 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         return res;
     }
 
-    @Override
-    public void registerService(final Service serv) throws CloudConfigureFailException {
-        final List<String> alias = serv.getAliasIds();
-        final int syncLevel = serv.getSyncLevel();
-
-        EndPoint e = new EndPoint() {
-            Channel echan;
-            Consumer handler;
-            String baseName;
-            List<String> aliasNames = new ArrayList<String>();
-
-            {
-                baseName = makeMessageQueueName(serv.getId());
-                if (alias != null) {
-                    for (String a : alias) {
-                        aliasNames.add(makeMessageQueueName(a));
+    private static final long[] QUEUE_WAIT_HISTOGRAM_BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000};
+    // the handling rate of a service is measured over windows of this length in milliseconds
+    private static final long HANDLING_RATE_WINDOW = 5000;
+    // weight of the latest window in the moving average of the handling rate
+    private static final double HANDLING_RATE_ALPHA = 0.3;
+
+    private class Delivery {
+        final Message msg;
+        final Channel channel;
+        final long deliveryTag;
+        final long arrivalTime = System.currentTimeMillis();
+        boolean expired;
+
+        Delivery(Message msg, Channel channel, long deliveryTag) {
+            this.msg = msg;
+            this.channel = channel;
+            this.deliveryTag = deliveryTag;
+        }
+    }
+
+    /**
+     * the broker delivers at most [prefetch] unacknowledged messages to a service, and a message is acknowledged after
+     * the service has handled it, so a burst stays in the broker's queue instead of piling up in the thread pool.
+     * Delivered messages wait in a backlog where API messages go before internal ones, at most [concurrency] of them
+     * are handled at a time. The prefetch follows the handling rate of the service so that a delivered message waits
+     * about CloudBus.serviceQueueTargetWaitTime milliseconds.
+     *
+     * internal messages are rejected with SERVICE_OVERLOADED_ERROR if the backlog is full, or if their senders have
+     * timed out before they are handled. Replies are consumed by the MessageTracker and never wait here.
+     */
+    private class ServiceEndPoint implements EndPoint {
+        private final Service serv;
+        private final int concurrency;
+        private final String baseName;
+        private final List<String> aliasNames = new ArrayList<String>();
+        private final Consumer handler;
+
+        private final Object consumeLock = new Object();
+        // changed with consumeLock held
+        private volatile Channel echan;
+        private final List<String> consumerTags = new ArrayList<String>();
+
+        // guarded by this
+        private final LinkedList<Delivery> apiBacklog = new LinkedList<Delivery>();
+        private final LinkedList<Delivery> backlog = new LinkedList<Delivery>();
+        private int runningNum;
+        private int prefetch;
+        private long handledNum;
+        private long shedNum;
+        private double handlingRate;
+        private long rateWindowStart = System.currentTimeMillis();
+        private long rateWindowHandledNum;
+        private final long[] queueWaitHistogram = new long[QUEUE_WAIT_HISTOGRAM_BOUNDS.length + 1];
+
+        ServiceEndPoint(final Service serv) {
+            this.serv = serv;
+            concurrency = serv.getSyncLevel() > 0 ? serv.getSyncLevel() : CloudBusGlobalProperty.SERVICE_MAX_CONCURRENCY;
+            prefetch = minPrefetch();
+
+            baseName = makeMessageQueueName(serv.getId());
+            if (serv.getAliasIds() != null) {
+                for (String a : serv.getAliasIds()) {
+                    aliasNames.add(makeMessageQueueName(a));
+                }
+            }
+
+            handler = new AbstractConsumer() {
+                @Override
+                public void handleDelivery(String s, com.rabbitmq.client.Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
+                    Channel chan = echan;
+                    Message msg;
+                    try {
+                        msg = wire.toMessage(bytes, basicProperties);
+                    } catch (Throwable t) {
+                        logger.warn("unhandled throwable", t);
+                        ack(chan, envelope.getDeliveryTag());
+                        return;
                     }
+
+                    try {
+                        if (logger.isTraceEnabled() && wire.logMessage(msg)) {
+                            logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
+                        }
+
+                        offer(new Delivery(msg, chan, envelope.getDeliveryTag()));
+                    } catch (Throwable t) {
+                        logger.warn("unhandled throwable", t);
+                    }
+                }
+            };
+        }
+
+        private int minPrefetch() {
+            return concurrency * 2;
+        }
+
+        private int maxPrefetch() {
+            return concurrency + CloudBusGlobalProperty.SERVICE_BACKLOG_SIZE;
+        }
+
+        private void ack(Channel chan, long deliveryTag) {
+            synchronized (consumeLock) {
+                // the delivery tag is only valid on the channel it was delivered on
+                if (chan == null || chan != echan) {
+                    return;
+                }
+
+                try {
+                    chan.basicAck(deliveryTag, false);
+                } catch (Exception e) {
+                    logger.warn(String.format("failed to ack the message[deliveryTag:%s] of the service[%s]", deliveryTag, serv.getId()), e);
+                }
+            }
+        }
+
+        private void consume() throws IOException {
+            consumerTags.add(echan.basicConsume(baseName, false, handler));
+            for (String aliasName : aliasNames) {
+                consumerTags.add(echan.basicConsume(aliasName, false, handler));
+            }
+        }
+
+        private void applyPrefetch(int p) {
+            synchronized (consumeLock) {
+                if (echan == null) {
+                    return;
+                }
+
+                try {
+                    // the broker applies a new prefetch to new consumers only
+                    echan.basicQos(p);
+                    for (String tag : consumerTags) {
+                        echan.basicCancel(tag);
+                    }
+                    consumerTags.clear();
+                    consume();
+                    logger.debug(String.format("changed the prefetch of the service[%s] to %s", serv.getId(), p));
+                } catch (IOException e) {
+                    logger.warn(String.format("failed to change the prefetch of the service[%s] to %s", serv.getId(), p), e);
+                }
+            }
+        }
+
+        private boolean isExpired(Delivery d, long now) {
+            if (!(d.msg instanceof NeedReplyMessage) || d.msg instanceof APIMessage) {
+                return false;
+            }
+
+            // the creating time is stamped by the clock of the sender's management node, only the local arrival
+            // time is comparable with now
+            long timeout = ((NeedReplyMessage) d.msg).getTimeout();
+            return timeout > 0 && now - d.arrivalTime > timeout;
+        }
+
+        private List<Delivery> dispatch() {
+            List<Delivery> ret = new ArrayList<Delivery>();
+            long now = System.currentTimeMillis();
+            while (runningNum < concurrency) {
+                Delivery d = apiBacklog.isEmpty() ? backlog.poll() : apiBacklog.poll();
+                if (d == null) {
+                    break;
+                }
+
+                long wait = now - d.arrivalTime;
+                int i = 0;
+                while (i < QUEUE_WAIT_HISTOGRAM_BOUNDS.length && wait > QUEUE_WAIT_HISTOGRAM_BOUNDS[i]) {
+                    i++;
+                }
+                queueWaitHistogram[i]++;
+
+                if (isExpired(d, now)) {
+                    d.expired = true;
+                    shedNum++;
+                } else {
+                    runningNum++;
+                }
+                ret.add(d);
+            }
+
+            return ret;
+        }
+
+        private void offer(Delivery d) {
+            boolean shed = false;
+            List<Delivery> toRun;
+            synchronized (this) {
+                if (d.msg instanceof APIMessage) {
+                    apiBacklog.add(d);
+                } else if (backlog.size() >= CloudBusGlobalProperty.SERVICE_BACKLOG_SIZE) {
+                    shed = true;
+                    shedNum++;
+                } else {
+                    backlog.add(d);
+                }
+
+                toRun = dispatch();
+            }
+
+            if (shed) {
+                shed(d, String.format("the backlog of the service[%s] is full, %s messages are waiting", serv.getId(),
+                        CloudBusGlobalProperty.SERVICE_BACKLOG_SIZE));
+            }
+
+            run(toRun);
+        }
+
+        private void shed(Delivery d, String reason) {
+            ack(d.channel, d.deliveryTag);
+            logger.warn(String.format("drop the message[%s, id:%s], %s", d.msg.getClass().getName(), d.msg.getId(), reason));
+            replyErrorByMessageType(d.msg, errf.instantiateErrorCode(SysErrors.SERVICE_OVERLOADED_ERROR, reason));
+        }
+
+        private void run(List<Delivery> toRun) {
+            for (final Delivery d : toRun) {
+                if (d.expired) {
+                    shed(d, String.format("the sender has timed out before the service[%s] handles the message", serv.getId()));
+                    continue;
                 }
 
-                handler = new AbstractConsumer() {
+                thdf.submit(new Task<Void>() {
                     @Override
-                    public void handleDelivery(String s, com.rabbitmq.client.Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
+                    public Void call() throws Exception {
                         try {
-                            final Message msg = wire.toMessage(bytes, basicProperties);
+                            deliver(d.msg);
+                        } finally {
+                            done(d);
+                        }
+                        return null;
+                    }
 
-                            if (logger.isTraceEnabled() && wire.logMessage(msg)) {
-                                logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
-                            }
+                    @Override
+                    public String getName() {
+                        return String.format("CloudBus EndPoint[%s]", serv.getId());
+                    }
+                });
+            }
+        }
 
-                            SyncTask<Void> task = new SyncTask<Void>() {
-                                @Override
-                                public String getSyncSignature() {
-                                    return serv.getId();
-                                }
+        private void deliver(Message msg) {
+            try {
+                List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
+                if (is != null) {
+                    for (BeforeDeliveryMessageInterceptor i : is) {
+                        i.intercept(msg);
 
-                                @Override
-                                public int getSyncLevel() {
-                                    return syncLevel;
-                                }
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
+                        }
+                    }
+                }
 
-                                @Override
-                                public String getName() {
-                                    return String.format("CloudBus EndPoint[%s]", serv.getId());
-                                }
+                for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
+                    i.intercept(msg);
 
-                                @Override
-                                public Void call() throws Exception {
-                                    try {
-                                        List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
-                                        if (is != null) {
-                                            for (BeforeDeliveryMessageInterceptor i : is) {
-                                                i.intercept(msg);
-
-                                                if (logger.isTraceEnabled()) {
-                                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                                }
-                                            }
-                                        }
-
-                                        for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
-                                            i.intercept(msg);
-
-                                            if (logger.isTraceEnabled()) {
-                                                logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                            }
-                                        }
-                                    } catch (Throwable t) {
-                                        logExceptionWithMessageDump(msg, t);
-                                        replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
-                                    }
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
+                    }
+                }
+            } catch (Throwable t) {
+                logExceptionWithMessageDump(msg, t);
+                replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
+            }
 
-                                    serv.handleMessage(msg);
-                                    return null;
-                                }
-                            };
+            TraceContext prev = tracef.setCurrentContext(extractTraceContext(msg));
+            try {
+                serv.handleMessage(msg);
+            } finally {
+                tracef.setCurrentContext(prev);
+            }
+        }
 
-                            if (syncLevel == 0) {
-                                thdf.submit(task);
-                            } else {
-                                thdf.syncSubmit(task);
-                            }
-                        } catch (Throwable t) {
-                            logger.warn("unhandled throwable", t);
-                        }
+        /**
+         * an API without a trace context is where a trace starts. An API traced by another management node gets a
+         * span here as well, so the node publishing its event can close the span
+         */
+        private TraceContext extractTraceContext(Message msg) {
+            TraceContext ctx = TraceContext.valueOf((String) msg.getHeaderEntry(TRACE_CONTEXT));
+            if (!(msg instanceof APIMessage) || msg instanceof APISyncCallMessage || tracingApis.containsKey(msg.getId())) {
+                return ctx;
+            }
+
+            Span span = ctx == null ? tracef.startTrace(msg.getClass().getSimpleName()) : tracef.startSpan(ctx, msg.getClass().getSimpleName());
+            if (span == null) {
+                return null;
+            }
+
+            tracingApis.put(msg.getId(), span);
+            return span.getContext();
+        }
+
+        private void done(Delivery d) {
+            ack(d.channel, d.deliveryTag);
+
+            int newPrefetch = 0;
+            List<Delivery> toRun;
+            synchronized (this) {
+                runningNum--;
+                handledNum++;
+                rateWindowHandledNum++;
+
+                long now = System.currentTimeMillis();
+                long elapsed = now - rateWindowStart;
+                if (elapsed >= HANDLING_RATE_WINDOW) {
+                    double rate = rateWindowHandledNum * 1000d / elapsed;
+                    handlingRate = handledNum == rateWindowHandledNum ? rate : HANDLING_RATE_ALPHA * rate + (1 - HANDLING_RATE_ALPHA) * handlingRate;
+                    rateWindowStart = now;
+                    rateWindowHandledNum = 0;
+
+                    int p = concurrency + (int) Math.ceil(handlingRate * CloudBusGlobalProperty.SERVICE_QUEUE_TARGET_WAIT_TIME / 1000d);
+                    p = Math.min(Math.max(p, minPrefetch()), maxPrefetch());
+                    // only resize for a notable change, a resize re-creates the consumers
+                    if (Math.abs(p - prefetch) * 4 >= prefetch) {
+                        prefetch = p;
+                        newPrefetch = p;
                     }
-                };
+                }
+
+                toRun = dispatch();
             }
 
-            @Override
-            public void active() {
+            if (newPrefetch != 0) {
+                applyPrefetch(newPrefetch);
+            }
+
+            run(toRun);
+        }
+
+        synchronized ServiceQueueStatistic getStatistic() {
+            return new ServiceQueueStatistic(serv.getId(), concurrency, runningNum, apiBacklog.size(), backlog.size(),
+                    prefetch, handledNum, shedNum, handlingRate, QUEUE_WAIT_HISTOGRAM_BOUNDS.clone(), queueWaitHistogram.clone());
+        }
+
+        @Override
+        public void active() {
+            int p;
+            synchronized (this) {
+                p = prefetch;
+            }
+
+            synchronized (consumeLock) {
+                if (echan != null) {
+                    // already active
+                    return;
+                }
+
                 try {
                     echan = conn.createChannel();
+                    echan.basicQos(p);
                     echan.queueDeclare(baseName, true, false, true, null);
-                    echan.basicConsume(baseName, true, handler);
                     echan.queueBind(baseName, BusExchange.P2P.toString(), baseName);
 
                     for (String aliasName : aliasNames) {
                         echan.queueDeclare(aliasName, true, false, true, null);
-                        echan.basicConsume(aliasName, true, handler);
                         echan.queueBind(aliasName, BusExchange.P2P.toString(), aliasName);
                     }
+
+                    consume();
                 } catch (IOException e1) {
                     throw new CloudRuntimeException(e1);
                 }
             }
+        }
 
-            @Override
-            public void inactive() {
+        @Override
+        public void inactive() {
+            synchronized (consumeLock) {
                 try {
                     echan.queueUnbind(baseName, BusExchange.P2P.toString(), baseName);
                     for (String aliasName: aliasNames) {
@@ -1937,6 +2322,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     }
                     echan.close();
                     echan = null;
+                    consumerTags.clear();
                 } catch (IOException e1) {
                     try {
                         if (echan != null) {
@@ -1949,11 +2335,23 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 }
             }
 
-            @Override
-            public void dismiss() {
-                endpoints.remove(serv.getId());
+            synchronized (this) {
+                // unacknowledged messages are requeued by the broker when the channel closes
+                apiBacklog.clear();
+                backlog.clear();
             }
-        };
+        }
+
+        @Override
+        public void dismiss() {
+            endpoints.remove(serv.getId());
+        }
+    }
+
+    @Override
+    public void registerService(final Service serv) throws CloudConfigureFailException {
+        final List<String> alias = serv.getAliasIds();
+        EndPoint e = new ServiceEndPoint(serv);
 
         EndPoint s = endpoints.get(serv.getId());
         if (s != null) {
@@ -2302,7 +2700,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     }
 
     private void prepareStatistics() {
-        List<Class> needReplyMsgs = BeanUtils.scanClassByType("org.zstack", NeedReplyMessage.class);
+        List<Class> needReplyMsgs = ClassIndex.getSubTypes("org.zstack", NeedReplyMessage.class);
         needReplyMsgs = CollectionUtils.transformToList(needReplyMsgs, new Function<Class, Class>() {
             @Override
             public Class call(Class arg) {
@@ -2376,6 +2774,17 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         return statistics;
     }
 
+    @Override
+    public Map<String, ServiceQueueStatistic> getServiceQueueStatistics() {
+        Map<String, ServiceQueueStatistic> ret = new HashMap<String, ServiceQueueStatistic>();
+        for (Map.Entry<String, EndPoint> e : endpoints.entrySet()) {
+            if (e.getValue() instanceof ServiceEndPoint) {
+                ret.put(e.getKey(), ((ServiceEndPoint) e.getValue()).getStatistic());
+            }
+        }
+        return ret;
+    }
+
     @Override
     public List<WaitingReplyMessageStatistic> getWaitingReplyMessageStatistic() {
         List<WaitingReplyMessageStatistic> ret = new ArrayList<WaitingReplyMessageStatistic>();
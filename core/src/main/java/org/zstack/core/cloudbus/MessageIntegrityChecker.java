@@ -1,16 +1,14 @@
 package org.zstack.core.cloudbus;
 
-import org.springframework.beans.factory.config.BeanDefinition;
-import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
-import org.springframework.core.type.filter.AnnotationTypeFilter;
-import org.springframework.core.type.filter.AssignableTypeFilter;
 import org.springframework.stereotype.Controller;
 import org.zstack.header.Component;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.APIEvent;
 import org.zstack.header.message.APIMessage;
+import org.zstack.utils.ClassIndex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -20,20 +18,11 @@ public class MessageIntegrityChecker implements Component {
     
     private void check() {
         List<String> badMessages = new ArrayList<String>();
-        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
-        scanner.addIncludeFilter(new AssignableTypeFilter(APIEvent.class));
-        scanner.addIncludeFilter(new AssignableTypeFilter(APIMessage.class));
-        scanner.addExcludeFilter(new AnnotationTypeFilter(Controller.class));
-        scanner.addExcludeFilter(new AnnotationTypeFilter(org.springframework.stereotype.Component.class));
+        List<Class> excludes = Arrays.<Class>asList(Controller.class, org.springframework.stereotype.Component.class);
         for (String pkg : getBasePkgs()) {
-            for (BeanDefinition bd : scanner.findCandidateComponents(pkg)) {
-                Class<?> clazz;
-                try {
-                    clazz = Class.forName(bd.getBeanClassName());
-                } catch (ClassNotFoundException e1) {
-                    throw new CloudRuntimeException(e1);
-                }
-                
+            List<Class> classes = ClassIndex.getSubTypes(pkg, APIEvent.class, excludes);
+            classes.addAll(ClassIndex.getSubTypes(pkg, APIMessage.class, excludes));
+            for (Class<?> clazz : classes) {
                 try {
                     clazz.getConstructor();
                 } catch (NoSuchMethodException e) {
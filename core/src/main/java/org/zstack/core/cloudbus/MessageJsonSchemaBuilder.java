@@ -6,6 +6,7 @@ import org.zstack.header.message.GsonTransient;
 import org.zstack.header.message.NeedJsonSchema;
 import org.zstack.header.message.NoJsonSchema;
 import org.zstack.header.search.Inventory;
+import org.zstack.utils.FieldAccessor;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.TypeUtils;
 
@@ -18,66 +19,51 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  */
 public class MessageJsonSchemaBuilder {
-    private static Map<Field, Field> skipMap = new ConcurrentHashMap<Field, Field>();
-
-    private static boolean isSkip(Field f) {
-        if (skipMap.containsKey(f)) {
-            return true;
-        }
-
-        if (TypeUtils.isPrimitiveOrWrapper(f.getType())) {
-            skipMap.put(f, f);
-            return true;
-        }
-
-        if (f.isAnnotationPresent(NoJsonSchema.class)) {
-            skipMap.put(f, f);
-            return true;
-        }
-
-        if (Modifier.isStatic(f.getModifiers())) {
-            skipMap.put(f, f);
-            return true;
-        }
-
-        if (f.isAnnotationPresent(GsonTransient.class)) {
-            skipMap.put(f, f);
-            return true;
+    private static Map<Class, List<FieldAccessor>> schemaFields = new ConcurrentHashMap<Class, List<FieldAccessor>>();
+
+    private static List<FieldAccessor> getSchemaFields(Class clz) {
+        List<FieldAccessor> fs = schemaFields.get(clz);
+        if (fs == null) {
+            fs = new ArrayList<FieldAccessor>();
+            for (FieldAccessor a : FieldUtils.getAccessors(clz)) {
+                if (!isSkip(a.getField())) {
+                    fs.add(a);
+                }
+            }
+            schemaFields.put(clz, fs);
         }
+        return fs;
+    }
 
-        return false;
+    private static boolean isSkip(Field f) {
+        return TypeUtils.isPrimitiveOrWrapper(f.getType()) || f.isAnnotationPresent(NoJsonSchema.class)
+                || Modifier.isStatic(f.getModifiers()) || f.isAnnotationPresent(GsonTransient.class);
     }
 
-    private static Object getValue(Field f, Object obj) throws IllegalAccessException {
-        f.setAccessible(true);
+    private static Object getValue(FieldAccessor f, Object obj) {
         return f.get(obj);
     }
 
-    private static boolean isNullValue(Field f, Object obj) throws IllegalAccessException {
+    private static boolean isNullValue(FieldAccessor f, Object obj) {
         return getValue(f, obj) == null;
     }
 
     private static void buildSchema(Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
-        List<Field> fs = FieldUtils.getAllFields(obj.getClass());
-        for (Field f : fs) {
-            if (isSkip(f)) {
-                continue;
-            }
-
+        for (FieldAccessor f : getSchemaFields(obj.getClass())) {
             if (Map.class.isAssignableFrom(f.getType())) {
                 schemaMap(f, obj, schema, trace, paths);
                 continue;
             }
 
             if (Collection.class.isAssignableFrom(f.getType())) {
-                Class genericType = FieldUtils.getGenericType(f);
+                Class genericType = FieldUtils.getGenericType(f.getField());
                 if (genericType != null && TypeUtils.isPrimitiveOrWrapper(genericType)) {
                     continue;
                 }
 
                 if (!List.class.isAssignableFrom(f.getType())) {
                     throw new CloudRuntimeException(String.format("the collection type in message can only be List, but %s.%s is %s",
-                            f.getDeclaringClass().getName(), f.getName(), f.getType().getName()));
+                            f.getField().getDeclaringClass().getName(), f.getName(), f.getType().getName()));
                 }
 
                 schemaList(f, obj, schema, trace, paths);
@@ -88,7 +74,7 @@ public class MessageJsonSchemaBuilder {
         }
     }
 
-    private static void schemaList(Field f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
+    private static void schemaList(FieldAccessor f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
         if (isNullValue(f, obj)) {
             return;
         }
@@ -129,7 +115,7 @@ public class MessageJsonSchemaBuilder {
         }
     }
 
-    private static void schemaObject(Field f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
+    private static void schemaObject(FieldAccessor f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
         if (isNullValue(f, obj)) {
             return;
         }
@@ -170,8 +156,8 @@ public class MessageJsonSchemaBuilder {
         return obj.getClass().isAnnotationPresent(Inventory.class) || obj.getClass().isAnnotationPresent(NeedJsonSchema.class);
     }
 
-    private static void schemaMap(Field f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
-        Class genericType = FieldUtils.getGenericType(f);
+    private static void schemaMap(FieldAccessor f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
+        Class genericType = FieldUtils.getGenericType(f.getField());
         if (genericType != null && TypeUtils.isPrimitiveOrWrapper(genericType)) {
             return;
         }
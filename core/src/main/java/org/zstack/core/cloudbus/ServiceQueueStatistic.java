@@ -0,0 +1,83 @@
+package org.zstack.core.cloudbus;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * queueWaitHistogram[i] counts messages that waited in the backlog no longer than queueWaitHistogramBounds[i]
+ * milliseconds, the last one counts messages that waited longer than all bounds
+ */
+public class ServiceQueueStatistic {
+    private String serviceId;
+    private int concurrency;
+    private int runningNum;
+    private int apiBacklogNum;
+    private int backlogNum;
+    private int prefetch;
+    private long handledNum;
+    private long shedNum;
+    private double handlingRate;
+    private long[] queueWaitHistogramBounds;
+    private long[] queueWaitHistogram;
+
+    @ConstructorProperties({"serviceId", "concurrency", "runningNum", "apiBacklogNum", "backlogNum", "prefetch",
+            "handledNum", "shedNum", "handlingRate", "queueWaitHistogramBounds", "queueWaitHistogram"})
+    public ServiceQueueStatistic(String serviceId, int concurrency, int runningNum, int apiBacklogNum, int backlogNum,
+                                 int prefetch, long handledNum, long shedNum, double handlingRate,
+                                 long[] queueWaitHistogramBounds, long[] queueWaitHistogram) {
+        this.serviceId = serviceId;
+        this.concurrency = concurrency;
+        this.runningNum = runningNum;
+        this.apiBacklogNum = apiBacklogNum;
+        this.backlogNum = backlogNum;
+        this.prefetch = prefetch;
+        this.handledNum = handledNum;
+        this.shedNum = shedNum;
+        this.handlingRate = handlingRate;
+        this.queueWaitHistogramBounds = queueWaitHistogramBounds;
+        this.queueWaitHistogram = queueWaitHistogram;
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getRunningNum() {
+        return runningNum;
+    }
+
+    public int getApiBacklogNum() {
+        return apiBacklogNum;
+    }
+
+    public int getBacklogNum() {
+        return backlogNum;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public long getHandledNum() {
+        return handledNum;
+    }
+
+    public long getShedNum() {
+        return shedNum;
+    }
+
+    public double getHandlingRate() {
+        return handlingRate;
+    }
+
+    public long[] getQueueWaitHistogramBounds() {
+        return queueWaitHistogramBounds;
+    }
+
+    public long[] getQueueWaitHistogram() {
+        return queueWaitHistogram;
+    }
+}
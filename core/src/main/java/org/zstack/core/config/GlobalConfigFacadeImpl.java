@@ -10,7 +10,7 @@ import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.Message;
-import org.zstack.utils.BeanUtils;
+import org.zstack.utils.ClassIndex;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
@@ -152,7 +152,7 @@ public class GlobalConfigFacadeImpl extends AbstractService implements GlobalCon
             }
 
             private void parseGlobalConfigFields() {
-                List<Class> definitionClasses = BeanUtils.scanClass("org.zstack", GlobalConfigDefinition.class);
+                List<Class> definitionClasses = ClassIndex.getAnnotatedClasses("org.zstack", GlobalConfigDefinition.class);
                 for (Class def : definitionClasses) {
                     for (Field field : def.getDeclaredFields()) {
                         if (Modifier.isStatic(field.getModifiers()) && GlobalConfig.class.isAssignableFrom(field.getType())) {
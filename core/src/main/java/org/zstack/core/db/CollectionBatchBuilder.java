@@ -0,0 +1,52 @@
+package org.zstack.core.db;
+
+import org.hibernate.engine.jdbc.batch.internal.BatchBuilderImpl;
+import org.hibernate.engine.jdbc.batch.internal.BatchingBatch;
+import org.hibernate.engine.jdbc.batch.spi.Batch;
+import org.hibernate.engine.jdbc.batch.spi.BatchKey;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+
+import java.util.Map;
+
+/**
+ * batches JDBC statements only for the collection operations of DatabaseFacade.
+ *
+ * hibernate.jdbc.batch_size applies to the whole session factory, with it a failed single insert surfaces as a
+ * BatchUpdateException, which breaks callers checking the root cause for a duplicate entry. This builder takes the
+ * size for the threads marked by begin()/end() and runs other statements one by one.
+ */
+public class CollectionBatchBuilder extends BatchBuilderImpl {
+    private static final ThreadLocal<Integer> batching = new ThreadLocal<Integer>();
+
+    private int batchSize = 1;
+
+    static void begin() {
+        Integer depth = batching.get();
+        batching.set(depth == null ? 1 : depth + 1);
+    }
+
+    static void end() {
+        Integer depth = batching.get();
+        if (depth == null || depth <= 1) {
+            batching.remove();
+        } else {
+            batching.set(depth - 1);
+        }
+    }
+
+    @Override
+    public void configure(Map configurationValues) {
+        super.configure(configurationValues);
+        batchSize = getJdbcBatchSize();
+        setJdbcBatchSize(1);
+    }
+
+    @Override
+    public Batch buildBatch(BatchKey key, JdbcCoordinator jdbcCoordinator) {
+        if (batchSize > 1 && batching.get() != null) {
+            return new BatchingBatch(key, jdbcCoordinator, batchSize);
+        }
+
+        return super.buildBatch(key, jdbcCoordinator);
+    }
+}
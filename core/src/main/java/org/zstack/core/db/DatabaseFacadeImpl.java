@@ -26,6 +26,8 @@ import javax.sql.DataSource;
 import java.lang.reflect.Field;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -50,6 +52,49 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     private Map<Class, List<HardDeleteEntityExtensionPoint>> hardDeleteExtensions = new HashMap<Class, List<HardDeleteEntityExtensionPoint>>();
     private List<HardDeleteEntityExtensionPoint> hardDeleteForAllExtensions = new ArrayList<HardDeleteEntityExtensionPoint>();
     private Map<Class, EntityInfo> entityInfoMap = new HashMap<Class, EntityInfo>();
+    private ConcurrentHashMap<String, Sequence> sequences = new ConcurrentHashMap<String, Sequence>();
+
+    private static class SequenceBlock {
+        final AtomicLong next;
+        final long end;
+
+        SequenceBlock(long start, long end) {
+            next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    /**
+     * values of a sequence are handed out from a block leased from SequenceBlockVO. A block is never leased twice,
+     * so values are unique across management nodes and increase on each node; the rest of the block leased by a
+     * node that is gone is skipped, never reused.
+     */
+    private class Sequence {
+        final Class seqTable;
+        volatile SequenceBlock block;
+
+        Sequence(Class seqTable) {
+            this.seqTable = seqTable;
+        }
+
+        long next() {
+            while (true) {
+                SequenceBlock b = block;
+                if (b != null) {
+                    long v = b.next.getAndIncrement();
+                    if (v < b.end) {
+                        return v;
+                    }
+                }
+
+                synchronized (this) {
+                    if (block == b) {
+                        block = leaseSequenceBlock(seqTable);
+                    }
+                }
+            }
+        }
+    }
 
     private class EntityInfo {
         Field voPrimaryKeyField;
@@ -380,11 +425,20 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
 
         @Transactional(propagation = Propagation.REQUIRES_NEW)
         void removeCollection(Collection entities) {
+            // entities are deleted by bulk statements of DatabaseFacade.batchSize primary keys, the deletion extensions
+            // are called once for each batch
+            List ids = new ArrayList(entities.size());
             for (Object entity : entities) {
-                if (!entity.getClass().isAnnotationPresent(EO.class)) {
-                    hardDelete(entity);
+                ids.add(hasEO() ? getEOPrimaryKeyValue(entity) : getVOPrimaryKeyValue(entity));
+            }
+
+            int batchSize = getBatchSize();
+            for (int i = 0; i < ids.size(); i += batchSize) {
+                List batch = ids.subList(i, Math.min(i + batchSize, ids.size()));
+                if (hasEO()) {
+                    softDelete(batch);
                 } else {
-                    softDelete(entity);
+                    hardDelete(batch);
                 }
             }
         }
@@ -583,33 +637,91 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
         return (T) getEntityInfo(entity.getClass()).reload(entity);
 	}
 
+    private static int getBatchSize() {
+        return Math.max(DatabaseGlobalProperty.batchSize, 1);
+    }
+
+    private void flushBatch(int count) {
+        // in the collection operations, each flush sends the pending statements as JDBC batches; clearing
+        // the persistence context keeps a large collection from piling up in the first level cache
+        if (count % getBatchSize() == 0) {
+            getEntityManager().flush();
+            getEntityManager().clear();
+        }
+    }
+
+    private Map<Class, List<Object>> groupByEntityClass(Collection entities) {
+        Map<Class, List<Object>> groups = new LinkedHashMap<Class, List<Object>>();
+        for (Object e : entities) {
+            List<Object> group = groups.get(e.getClass());
+            if (group == null) {
+                group = new ArrayList<Object>();
+                groups.put(e.getClass(), group);
+            }
+            group.add(e);
+        }
+        return groups;
+    }
+
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     private void doUpdateCollection(Collection entities) {
+        int count = 0;
         for (Object e : entities) {
             getEntityManager().merge(e);
+            flushBatch(++count);
         }
     }
 
     @Override
     @DeadlockAutoRestart
     public void updateCollection(Collection entities) {
-        doUpdateCollection(entities);
+        // the transaction commits before end(), so the last batch flushed by the commit is batched too
+        CollectionBatchBuilder.begin();
+        try {
+            doUpdateCollection(entities);
+        } finally {
+            CollectionBatchBuilder.end();
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private SequenceBlock doLeaseSequenceBlock(Class seqTable) {
+        String name = seqTable.getSimpleName();
+        SequenceBlockVO vo = getEntityManager().find(SequenceBlockVO.class, name, LockModeType.PESSIMISTIC_WRITE);
+        if (vo == null) {
+            // the first lease of the sequence, it continues from the ids the sequence table has generated.
+            // Management nodes racing here insert only one row
+            String sql = String.format("insert ignore into SequenceBlockVO (name, nextValue, blockSize)" +
+                    " select :name, ifnull(max(id), 0) + 1, :blockSize from %s", name);
+            Query q = getEntityManager().createNativeQuery(sql);
+            q.setParameter("name", name);
+            q.setParameter("blockSize", Math.max(DatabaseGlobalProperty.sequenceBlockSize, 1));
+            q.executeUpdate();
+            vo = getEntityManager().find(SequenceBlockVO.class, name, LockModeType.PESSIMISTIC_WRITE);
+        }
+
+        long start = vo.getNextValue();
+        vo.setNextValue(start + vo.getBlockSize());
+        getEntityManager().merge(vo);
+        logger.debug(String.format("leased block[%s, %s) of sequence[%s]", start, vo.getNextValue(), name));
+        return new SequenceBlock(start, vo.getNextValue());
+    }
+
+    @DeadlockAutoRestart
+    private SequenceBlock leaseSequenceBlock(Class seqTable) {
+        return doLeaseSequenceBlock(seqTable);
     }
 
     @Override
     public long generateSequenceNumber(Class<?> seqTable) {
-        try {
-            Field id = seqTable.getDeclaredField("id");
-            if (id == null) {
-                throw new CloudRuntimeException(String.format("sequence VO[%s] must have 'id' field", seqTable.getName()));
-            }
-            Object vo = seqTable.newInstance();
-            vo = persistAndRefresh(vo);
-            id.setAccessible(true);
-            return (Long) id.get(vo);
-        } catch (Exception e) {
-            throw new CloudRuntimeException(e);
+        Sequence seq = sequences.get(seqTable.getName());
+        if (seq == null) {
+            seq = new Sequence(seqTable);
+            Sequence old = sequences.putIfAbsent(seqTable.getName(), seq);
+            seq = old == null ? seq : old;
         }
+
+        return seq.next();
     }
 
     @Override
@@ -638,11 +750,26 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     }
 
     @Override
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public void persistCollection(Collection entities) {
-        for (Object e : entities) {
-            this.entityForTranscationCallback(Operation.PERSIST, e.getClass());
-            this.getEntityManager().persist(e);
+        CollectionBatchBuilder.begin();
+        try {
+            doPersistCollection(entities);
+        } finally {
+            CollectionBatchBuilder.end();
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private void doPersistCollection(Collection entities) {
+        // entities of the same class are persisted together so their inserts can be batched,
+        // the transactional callbacks are registered once for each entity class
+        for (Map.Entry<Class, List<Object>> e : groupByEntityClass(entities).entrySet()) {
+            this.entityForTranscationCallback(Operation.PERSIST, e.getKey());
+            int count = 0;
+            for (Object entity : e.getValue()) {
+                this.getEntityManager().persist(entity);
+                flushBatch(++count);
+            }
         }
     }
 
@@ -687,7 +814,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
 
     private void buildEntityInfo() {
         String[] pkgs = StringUtils.split(DbGlobalProperty.ENTITY_PACKAGES, ",");
-        List<Class> clzs = BeanUtils.scanClass(Arrays.asList(pkgs), Entity.class);
+        List<Class> clzs = ClassIndex.getAnnotatedClasses(Arrays.asList(pkgs), Entity.class);
         for (Class clz : clzs) {
             logger.debug(String.format("build entity info for %s", clz.getName()));
             entityInfoMap.put(clz, new EntityInfo(clz));
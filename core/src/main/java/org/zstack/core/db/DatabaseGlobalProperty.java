@@ -9,6 +9,10 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class DatabaseGlobalProperty {
     @GlobalProperty(name="DatabaseFacade.deadlockRetryTimes", defaultValue = "10")
     public static int retryTimes;
+    @GlobalProperty(name="DatabaseFacade.batchSize", defaultValue = "50")
+    public static int batchSize;
+    @GlobalProperty(name="DatabaseFacade.sequenceBlockSize", defaultValue = "100")
+    public static int sequenceBlockSize;
     @GlobalProperty(name="DB.url")
     public static String DbUrl;
     @GlobalProperty(name="DB.user")
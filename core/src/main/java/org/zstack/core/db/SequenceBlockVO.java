@@ -0,0 +1,47 @@
+package org.zstack.core.db;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * one row for each sequence, management nodes lease [nextValue, nextValue + blockSize) from it
+ */
+@Entity
+@Table
+public class SequenceBlockVO {
+    @Id
+    @Column
+    private String name;
+
+    @Column
+    private long nextValue;
+
+    @Column
+    private int blockSize;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getNextValue() {
+        return nextValue;
+    }
+
+    public void setNextValue(long nextValue) {
+        this.nextValue = nextValue;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+}
@@ -5,10 +5,9 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.db.DatabaseFacade;
-import org.zstack.core.db.SimpleQuery;
-import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.managementnode.ManagementNodeChangeListener;
@@ -18,13 +17,22 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.Query;
-import java.util.ArrayList;
-import java.util.List;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.zstack.utils.CollectionDSL.list;
 
 /**
  * Created by frank on 8/5/2015.
+ *
+ * pending GC jobs wait in a GCTimingWheel driven by one timeout task, the jobs of a runner expiring together run
+ * as a batch in one thread. Deadlines are rounded up by an eighth of the retry interval so jobs failing together
+ * stay together. A job failing longer than GC.backoffAfterFailingSeconds doubles its interval on each failure, up
+ * to GC.maxRetryIntervalInSeconds. A persistent job whose runner can't be created is left idle instead of retried.
+ *
+ * status changes of GarbageCollectorVO are collected and written GC.statusFlushIntervalInMillis after the first
+ * of them, a later status of a job overriding an unwritten one.
  */
 public class GCFacadeImpl implements GCFacade, ManagementNodeChangeListener, ManagementNodeReadyExtensionPoint {
     private static final CLogger logger = Utils.getLogger(GCFacadeImpl.class);
@@ -36,6 +44,14 @@ public class GCFacadeImpl implements GCFacade, ManagementNodeChangeListener, Man
     @Autowired
     private ResourceDestinationMaker destinationMaker;
 
+    // guarded by this
+    private GCTimingWheel wheel;
+    private TimeoutTaskReceipt wakeup;
+    private long wakeupTick = Long.MAX_VALUE;
+
+    // guarded by itself
+    private final Map<Long, GCStatus> statusToFlush = new LinkedHashMap<Long, GCStatus>();
+
     private GarbageCollectorVO save(GCPersistentContext context) {
         DebugUtils.Assert(context.getTimeUnit() != null, "timeUnit cannot be null");
         DebugUtils.Assert(context.getInterval() > 0, "interval must be greater than 0");
@@ -63,105 +79,298 @@ public class GCFacadeImpl implements GCFacade, ManagementNodeChangeListener, Man
         }
     }
 
-    private void scheduleTask(final GCPersistentContext context, final GarbageCollectorVO vo, boolean instant, final boolean updateDb) {
-        final GCCompletion completion = new GCCompletion() {
-            @Override
-            public void success() {
-                vo.setStatus(GCStatus.Done);
-                dbf.update(vo);
-                logger.debug(String.format("GC job[id:%s, name: %s, runner class:%s] is done", vo.getId(), context.getName(), vo.getRunnerClass()));
+    private GCJob newJob(GCContext context, Long id) {
+        String runnerName = context instanceof GCPersistentContext ?
+                ((GCPersistentContext) context).getRunnerClass().getName() : ((GCEphemeralContext) context).getRunner().getClass().getName();
+        return new GCJob(context, id, runnerName);
+    }
+
+    private void updateStatus(long id, GCStatus status) {
+        synchronized (statusToFlush) {
+            if (statusToFlush.isEmpty()) {
+                scheduleStatusFlush();
             }
+            statusToFlush.remove(id);
+            statusToFlush.put(id, status);
+        }
+    }
 
+    private void scheduleStatusFlush() {
+        thdf.submitTimeoutTask(new Runnable() {
             @Override
-            public void fail(ErrorCode errorCode) {
-                logger.debug(String.format("GC job[id:%s, name:%s, runner class:%s] failed, %s. Reschedule it", vo.getId(), context.getName(), vo.getRunnerClass(), errorCode));
-                scheduleTask(context, vo, false, false);
+            public void run() {
+                flushStatus();
             }
+        }, TimeUnit.MILLISECONDS, GCGlobalProperty.STATUS_FLUSH_INTERVAL);
+    }
 
-            @Override
-            public void cancel() {
-                vo.setStatus(GCStatus.Idle);
-                dbf.update(vo);
-                logger.debug(String.format("GC job[id:%s, name: %s, runner class:%s] is cancelled by the runner, set it to idle", vo.getId(), context.getName(), vo.getRunnerClass()));
+    @Transactional
+    private void writeStatus(Map<GCStatus, List<Long>> ids) {
+        String sql = "update GarbageCollectorVO vo set vo.status = :status where vo.id in (:ids)";
+        for (Map.Entry<GCStatus, List<Long>> e : ids.entrySet()) {
+            Query q = dbf.getEntityManager().createQuery(sql);
+            q.setParameter("status", e.getKey());
+            q.setParameter("ids", e.getValue());
+            q.executeUpdate();
+        }
+    }
+
+    private void flushStatus() {
+        Map<Long, GCStatus> toFlush;
+        synchronized (statusToFlush) {
+            if (statusToFlush.isEmpty()) {
+                return;
+            }
+            toFlush = new LinkedHashMap<Long, GCStatus>(statusToFlush);
+            statusToFlush.clear();
+        }
+
+        Map<GCStatus, List<Long>> ids = new HashMap<GCStatus, List<Long>>();
+        for (Map.Entry<Long, GCStatus> e : toFlush.entrySet()) {
+            List<Long> l = ids.get(e.getValue());
+            if (l == null) {
+                l = new ArrayList<Long>();
+                ids.put(e.getValue(), l);
+            }
+            l.add(e.getKey());
+        }
+
+        try {
+            writeStatus(ids);
+        } catch (Throwable t) {
+            logger.warn(String.format("failed to update the status of %s GC jobs, retry later", toFlush.size()), t);
+            synchronized (statusToFlush) {
+                if (statusToFlush.isEmpty()) {
+                    scheduleStatusFlush();
+                }
+                for (Map.Entry<Long, GCStatus> e : toFlush.entrySet()) {
+                    if (!statusToFlush.containsKey(e.getKey())) {
+                        statusToFlush.put(e.getKey(), e.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private long retryDelay(GCJob job) {
+        long interval = job.context.getTimeUnit().toMillis(job.context.getInterval());
+        long now = System.currentTimeMillis();
+        if (job.failingSince == 0) {
+            job.failingSince = now;
+        }
+
+        if (now - job.failingSince < TimeUnit.SECONDS.toMillis(GCGlobalProperty.BACKOFF_AFTER_FAILING_SECONDS)) {
+            return interval;
+        }
+
+        long max = Math.max(interval, TimeUnit.SECONDS.toMillis(GCGlobalProperty.MAX_RETRY_INTERVAL_SECONDS));
+        job.backoffs = Math.min(job.backoffs + 1, 30);
+        return Math.min(interval << job.backoffs, max);
+    }
+
+    private void addJob(GCJob job, long delay) {
+        long now = System.currentTimeMillis();
+        // round up by the highest power of 2 not above delay/8, jobs of close deadlines expire on the same tick
+        long granularity = Long.highestOneBit(Math.max(delay / 8, 1));
+        job.deadline = (now + delay + granularity - 1) / granularity * granularity;
+
+        synchronized (this) {
+            if (wheel == null) {
+                wheel = new GCTimingWheel(GCGlobalProperty.TIMING_WHEEL_SLOT_NUM, now);
             }
-        };
+            long tick = wheel.add(job);
+            scheduleWakeup(tick);
+        }
+    }
+
+    // called with this locked
+    private void scheduleWakeup(long tick) {
+        if (tick >= wakeupTick) {
+            return;
+        }
 
-        final GCRunner runner = getGCRunner(context);
-        Runnable r = new Runnable() {
+        if (wakeup != null) {
+            wakeup.cancel();
+        }
+
+        wakeupTick = tick;
+        wakeup = thdf.submitTimeoutTask(new Runnable() {
             @Override
             public void run() {
-                context.increaseExecutedTime();
+                expire();
+            }
+        }, TimeUnit.MILLISECONDS, Math.max(tick - System.currentTimeMillis(), 0));
+    }
 
-                if (updateDb) {
-                    vo.setStatus(GCStatus.Processing);
-                    dbf.update(vo);
-                }
+    private void expire() {
+        Map<String, List<GCJob>> expired;
+        synchronized (this) {
+            wakeup = null;
+            wakeupTick = Long.MAX_VALUE;
+            expired = wheel.expire(System.currentTimeMillis());
+            long next = wheel.nextTick();
+            if (next != -1) {
+                scheduleWakeup(next);
+            }
+        }
 
-                logger.debug(String.format("start running GC job[id:%s, name: %s, runner class:%s], already executed %s times",
-                        vo.getId(), context.getName(), vo.getRunnerClass(), context.getExecutedTimes()));
-                runner.run(context, completion);
+        List<List<GCJob>> batches = new ArrayList<List<GCJob>>();
+        for (List<GCJob> jobs : expired.values()) {
+            for (int i = 0; i < jobs.size(); i += GCGlobalProperty.BATCH_SIZE) {
+                batches.add(jobs.subList(i, Math.min(i + GCGlobalProperty.BATCH_SIZE, jobs.size())));
             }
-        };
+        }
 
-        if (instant) {
-            thdf.submitTimeoutTask(r, context.getTimeUnit(), 0);
-        } else {
-            thdf.submitTimeoutTask(r, context.getTimeUnit(), context.getInterval());
+        // the timeout task is already in a thread of the pool, run the last batch here
+        for (int i = 0; i < batches.size(); i++) {
+            if (i == batches.size() - 1) {
+                doRunBatch(batches.get(i));
+            } else {
+                runBatch(batches.get(i));
+            }
         }
     }
 
-    @Override
-    public void schedule(final GCContext context) {
-        if (context instanceof GCPersistentContext) {
-            scheduleTask((GCPersistentContext) context, save((GCPersistentContext) context), false, true);
-        } else {
-            scheduleTask((GCEphemeralContext) context, false);
+    @AsyncThread
+    private void runBatch(List<GCJob> jobs) {
+        doRunBatch(jobs);
+    }
+
+    private void doRunBatch(List<GCJob> jobs) {
+        GCRunner runner = null;
+        for (GCJob job : jobs) {
+            if (job.id != null && runner == null) {
+                try {
+                    runner = getGCRunner(job.context);
+                } catch (Throwable t) {
+                    // retrying doesn't help a runner that can't be created, leave the job idle in the database
+                    logger.warn(String.format("unable to create the runner of GC job[id:%s, name:%s, runner class:%s], set it to idle",
+                            job.id, job.context.getName(), job.runnerName), t);
+                    updateStatus(job.id, GCStatus.Idle);
+                    continue;
+                }
+            }
+
+            try {
+                runJob(job, job.id == null ? getGCRunner(job.context) : runner);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception happened when running GC job[id:%s, name:%s, runner class:%s], reschedule it",
+                        job.id, job.context.getName(), job.runnerName), t);
+                addJob(job, retryDelay(job));
+            }
         }
     }
 
-    private void scheduleTask(final GCEphemeralContext context, boolean instant) {
-        final GCCompletion completion = new GCCompletion() {
+    private void runJob(final GCJob job, GCRunner runner) {
+        job.context.increaseExecutedTime();
+        if (job.id != null && !job.started) {
+            updateStatus(job.id, GCStatus.Processing);
+        }
+        job.started = true;
+
+        logger.debug(String.format("start running GC job[id:%s, name: %s, runner class:%s], already executed %s times",
+                job.id, job.context.getName(), job.runnerName, job.context.getExecutedTimes()));
+        runner.run(job.context, new GCCompletion() {
             @Override
             public void success() {
-                logger.debug(String.format("GC ephemeral job[name:%s] is done", context.getName()));
+                if (job.id != null) {
+                    updateStatus(job.id, GCStatus.Done);
+                }
+                logger.debug(String.format("GC job[id:%s, name: %s, runner class:%s] is done", job.id, job.context.getName(), job.runnerName));
             }
 
             @Override
             public void fail(ErrorCode errorCode) {
-                logger.debug(String.format("GC ephemeral job[name:%s] failed, %s. Reschedule it", context.getName(), errorCode));
-                scheduleTask(context, false);
+                long delay = retryDelay(job);
+                logger.debug(String.format("GC job[id:%s, name:%s, runner class:%s] failed, %s. Reschedule it in %s ms",
+                        job.id, job.context.getName(), job.runnerName, errorCode, delay));
+                addJob(job, delay);
             }
 
             @Override
             public void cancel() {
-                logger.debug(String.format("GC ephemeral job[name:%s] is cancelled by the runner", context.getName()));
-            }
-        };
-
-        final GCRunner runner = getGCRunner(context);
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                context.increaseExecutedTime();
-                logger.debug(String.format("start running GC ephemeral job[name:%s], already executed %s times",
-                        context.getName(), context.getExecutedTimes()));
-                runner.run(context, completion);
+                if (job.id != null) {
+                    updateStatus(job.id, GCStatus.Idle);
+                }
+                logger.debug(String.format("GC job[id:%s, name: %s, runner class:%s] is cancelled by the runner, set it to idle", job.id, job.context.getName(), job.runnerName));
             }
-        };
+        });
+    }
 
-        if (instant) {
-            thdf.submitTimeoutTask(r, context.getTimeUnit(), 0);
+    private void schedule(GCContext context, boolean instant) {
+        GCJob job;
+        if (context instanceof GCPersistentContext) {
+            job = newJob(context, save((GCPersistentContext) context).getId());
         } else {
-            thdf.submitTimeoutTask(r, context.getTimeUnit(), context.getInterval());
+            job = newJob(context, null);
         }
+        addJob(job, instant ? 0 : context.getTimeUnit().toMillis(context.getInterval()));
+    }
+
+    @Override
+    public void schedule(final GCContext context) {
+        schedule(context, false);
     }
 
     @Override
     public void scheduleImmediately(GCContext context) {
-        if (context instanceof GCPersistentContext) {
-            scheduleTask((GCPersistentContext) context, save((GCPersistentContext) context), true, true);
-        } else {
-            scheduleTask((GCEphemeralContext)context, true);
+        schedule(context, true);
+    }
+
+    /**
+     * claims the pending jobs of the left management node, or of no management node, that hash to this node
+     */
+    @Transactional
+    private List<GarbageCollectorVO> claimJobs(String leftNodeUuid) {
+        String owner = leftNodeUuid == null ? "vo.managementNodeUuid is null" : "(vo.managementNodeUuid is null or vo.managementNodeUuid = :left)";
+        String sql = String.format("select vo.id from GarbageCollectorVO vo where vo.status in (:statuses) and %s", owner);
+        TypedQuery<Long> q = dbf.getEntityManager().createQuery(sql, Long.class);
+        q.setParameter("statuses", list(GCStatus.Idle, GCStatus.Processing));
+        if (leftNodeUuid != null) {
+            q.setParameter("left", leftNodeUuid);
+        }
+
+        List<Long> ours = new ArrayList<Long>();
+        for (long id : q.getResultList()) {
+            if (destinationMaker.isManagedByUs(String.valueOf(id))) {
+                ours.add(id);
+            }
+        }
+
+        if (ours.isEmpty()) {
+            return new ArrayList<GarbageCollectorVO>();
+        }
+
+        sql = String.format("update GarbageCollectorVO vo set vo.managementNodeUuid = :me, vo.status = :status where vo.id in (:ids) and %s", owner);
+        Query uq = dbf.getEntityManager().createQuery(sql);
+        uq.setParameter("me", Platform.getManagementServerId());
+        uq.setParameter("status", GCStatus.Idle);
+        uq.setParameter("ids", ours);
+        if (leftNodeUuid != null) {
+            uq.setParameter("left", leftNodeUuid);
+        }
+        uq.executeUpdate();
+
+        // another node may claim some of them first
+        sql = "select vo from GarbageCollectorVO vo where vo.id in (:ids) and vo.managementNodeUuid = :me";
+        TypedQuery<GarbageCollectorVO> vq = dbf.getEntityManager().createQuery(sql, GarbageCollectorVO.class);
+        vq.setParameter("ids", ours);
+        vq.setParameter("me", Platform.getManagementServerId());
+        return vq.getResultList();
+    }
+
+    private void takeOverJobs(String leftNodeUuid) {
+        List<GarbageCollectorVO> vos = claimJobs(leftNodeUuid);
+        for (GarbageCollectorVO vo : vos) {
+            try {
+                addJob(newJob(new GCPersistentContextInternal(vo).toGCContext(), vo.getId()), 0);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to load GC job[id:%s, runner class:%s], skip it", vo.getId(), vo.getRunnerClass()), t);
+            }
+        }
+
+        if (!vos.isEmpty()) {
+            logger.debug(String.format("took over %s GC jobs", vos.size()));
         }
     }
 
@@ -171,15 +380,17 @@ public class GCFacadeImpl implements GCFacade, ManagementNodeChangeListener, Man
 
     @Override
     public void nodeLeft(String nodeId) {
+        takeOverJobs(nodeId);
         setJobsToIdle(nodeId);
     }
 
     @Transactional
     private void setJobsToIdle(String mgmtUuid) {
-        String sql = "update GarbageCollectorVO vo set vo.managementNodeUuid = null, vo.status = :status where vo.managementNodeUuid = :uuid";
+        String sql = "update GarbageCollectorVO vo set vo.managementNodeUuid = null, vo.status = :status where vo.managementNodeUuid = :uuid and vo.status <> :done";
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("uuid", mgmtUuid);
         q.setParameter("status", GCStatus.Idle);
+        q.setParameter("done", GCStatus.Done);
         q.executeUpdate();
     }
 
@@ -195,28 +406,6 @@ public class GCFacadeImpl implements GCFacade, ManagementNodeChangeListener, Man
     @Override
     @AsyncThread
     public void managementNodeReady() {
-        SimpleQuery<GarbageCollectorVO> q = dbf.createQuery(GarbageCollectorVO.class);
-        q.select(GarbageCollectorVO_.id);
-        q.add(GarbageCollectorVO_.status, Op.IN, list(GCStatus.Idle, GCStatus.Processing));
-        q.add(GarbageCollectorVO_.managementNodeUuid, Op.NULL);
-        List<Long> ids = q.listValue();
-
-        List<Long> ours = new ArrayList<Long>();
-        for (long id : ids) {
-            if (destinationMaker.isManagedByUs(String.valueOf(id))) {
-                ours.add(id);
-            }
-        }
-
-        if (ours.isEmpty()) {
-            return;
-        }
-
-        q = dbf.createQuery(GarbageCollectorVO.class);
-        q.add(GarbageCollectorVO_.id, Op.IN, ours);
-        List<GarbageCollectorVO> vos = q.list();
-        for (GarbageCollectorVO vo : vos) {
-            scheduleTask(new GCPersistentContextInternal(vo).toGCContext(), vo, true, true);
-        }
+        takeOverJobs(null);
     }
 }
@@ -0,0 +1,20 @@
+package org.zstack.core.gc;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class GCGlobalProperty {
+    @GlobalProperty(name = "GC.timingWheelSlotNum", defaultValue = "4096")
+    public static int TIMING_WHEEL_SLOT_NUM;
+    @GlobalProperty(name = "GC.batchSize", defaultValue = "100")
+    public static int BATCH_SIZE;
+    @GlobalProperty(name = "GC.statusFlushIntervalInMillis", defaultValue = "500")
+    public static long STATUS_FLUSH_INTERVAL;
+    @GlobalProperty(name = "GC.backoffAfterFailingSeconds", defaultValue = "60")
+    public static long BACKOFF_AFTER_FAILING_SECONDS;
+    @GlobalProperty(name = "GC.maxRetryIntervalInSeconds", defaultValue = "600")
+    public static long MAX_RETRY_INTERVAL_SECONDS;
+}
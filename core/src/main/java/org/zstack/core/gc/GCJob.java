@@ -0,0 +1,24 @@
+package org.zstack.core.gc;
+
+/**
+ * a scheduled GC context and its retry state
+ */
+class GCJob {
+    final GCContext context;
+    // null for an ephemeral context
+    final Long id;
+    final String runnerName;
+
+    boolean started;
+    long failingSince;
+    int backoffs;
+
+    long deadline;
+    long tick;
+
+    GCJob(GCContext context, Long id, String runnerName) {
+        this.context = context;
+        this.id = id;
+        this.runnerName = runnerName;
+    }
+}
@@ -0,0 +1,114 @@
+package org.zstack.core.gc;
+
+import java.util.*;
+
+/**
+ * a hashed timing wheel of GC jobs with a tick of one millisecond. A slot groups its jobs by runner, so the jobs of
+ * a runner expiring together are run as a batch. A job more than a round away stays in its slot until its tick.
+ *
+ * not thread safe, GCFacadeImpl locks it.
+ */
+class GCTimingWheel {
+    private final List<Map<String, List<GCJob>>> slots;
+    // the last expired tick
+    private long currentTick;
+    private int size;
+
+    GCTimingWheel(int slotNum, long now) {
+        slots = new ArrayList<Map<String, List<GCJob>>>(slotNum);
+        for (int i = 0; i < slotNum; i++) {
+            slots.add(new HashMap<String, List<GCJob>>());
+        }
+        currentTick = now;
+    }
+
+    private Map<String, List<GCJob>> slot(long tick) {
+        return slots.get((int) (tick % slots.size()));
+    }
+
+    /**
+     * @return the tick the job expires at, a deadline passed expires on the next tick
+     */
+    long add(GCJob job) {
+        job.tick = Math.max(job.deadline, currentTick + 1);
+        Map<String, List<GCJob>> slot = slot(job.tick);
+        List<GCJob> jobs = slot.get(job.runnerName);
+        if (jobs == null) {
+            jobs = new ArrayList<GCJob>();
+            slot.put(job.runnerName, jobs);
+        }
+        jobs.add(job);
+        size++;
+        return job.tick;
+    }
+
+    /**
+     * @return the jobs expired up to now, grouped by runner
+     */
+    Map<String, List<GCJob>> expire(long now) {
+        Map<String, List<GCJob>> ret = new HashMap<String, List<GCJob>>();
+        if (now <= currentTick) {
+            return ret;
+        }
+
+        long ticks = Math.min(now - currentTick, slots.size());
+        for (long t = currentTick + 1; t <= currentTick + ticks; t++) {
+            Iterator<Map.Entry<String, List<GCJob>>> it = slot(t).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, List<GCJob>> e = it.next();
+                List<GCJob> expired = null;
+                Iterator<GCJob> jit = e.getValue().iterator();
+                while (jit.hasNext()) {
+                    GCJob job = jit.next();
+                    if (job.tick > now) {
+                        continue;
+                    }
+
+                    jit.remove();
+                    size--;
+                    if (expired == null) {
+                        expired = ret.get(e.getKey());
+                        if (expired == null) {
+                            expired = new ArrayList<GCJob>();
+                            ret.put(e.getKey(), expired);
+                        }
+                    }
+                    expired.add(job);
+                }
+
+                if (e.getValue().isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+
+        currentTick = now;
+        return ret;
+    }
+
+    /**
+     * @return the tick the next job expires at, or -1 if the wheel is empty
+     */
+    long nextTick() {
+        if (size == 0) {
+            return -1;
+        }
+
+        long min = Long.MAX_VALUE;
+        for (long t = currentTick + 1; t <= currentTick + slots.size(); t++) {
+            for (List<GCJob> jobs : slot(t).values()) {
+                for (GCJob job : jobs) {
+                    if (job.tick == t) {
+                        return t;
+                    }
+                    min = Math.min(min, job.tick);
+                }
+            }
+        }
+        return min;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -1,12 +1,10 @@
 package org.zstack.core.inventory;
 
-import org.springframework.beans.factory.config.BeanDefinition;
-import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
-import org.springframework.core.type.filter.AnnotationTypeFilter;
 import org.springframework.stereotype.Controller;
 import org.zstack.header.Component;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.search.Inventory;
+import org.zstack.utils.ClassIndex;
 
 import java.lang.reflect.Method;
 import java.util.*;
@@ -46,13 +44,9 @@ public class InventoryFacadeImpl implements InventoryFacade, Component {
     @Override
     public boolean start() {
         try {
-            ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
-            scanner.addIncludeFilter(new AnnotationTypeFilter(Inventory.class));
-            scanner.addExcludeFilter(new AnnotationTypeFilter(Controller.class));
-            scanner.addExcludeFilter(new AnnotationTypeFilter(org.springframework.stereotype.Component.class));
+            List<Class> excludes = Arrays.<Class>asList(Controller.class, org.springframework.stereotype.Component.class);
             for (String pkg : getBasePkgNames()) {
-                for (BeanDefinition bd : scanner.findCandidateComponents(pkg)) {
-                    Class<?> inventoryClass = Class.forName(bd.getBeanClassName());
+                for (Class<?> inventoryClass : ClassIndex.getAnnotatedClasses(pkg, Inventory.class, excludes)) {
                     Inventory invat = inventoryClass.getAnnotation(Inventory.class);
                     Info info = new Info();
                     info.inventory = invat;
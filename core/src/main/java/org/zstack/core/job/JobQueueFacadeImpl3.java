@@ -0,0 +1,864 @@
+package org.zstack.core.job;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusEventListener;
+import org.zstack.core.cloudbus.EventSubscriberReceipt;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.GLock;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.AsyncThread;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.core.Completion;
+import org.zstack.header.core.NopeCompletion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.message.Event;
+import org.zstack.utils.JsonWrapper;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.serializable.SerializableHelper;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * runs the jobs of a queue from memory on the management node working on the queue, the database keeps the jobs
+ * only for other management nodes to take over when this one dies.
+ *
+ * every database write goes through flush(), which writes all work piled up (new jobs, jobs becoming Processing,
+ * finished jobs and drained queues) in one transaction under the lock JobQueueFacadeImpl2 uses. A thread finding no
+ * flush running does the flush, others leave their work to it, so concurrent jobs share transactions.
+ *
+ * the write-ahead rules the takeover in adoptQueue() relies on:
+ * 1. execute() returns after the job is persisted
+ * 2. a job not restartable starts after it's persisted as Processing, so it never runs twice
+ * 3. a job issued by another management node is reported to its issuer by JobEvent after it's deleted
+ */
+public class JobQueueFacadeImpl3 implements JobQueueFacade, JobQueueFacadeMXBean, CloudBusEventListener, Component, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(JobQueueFacadeImpl3.class);
+    private static final String LOCK_NAME = "JobQueueFacade.lock";
+    private static final int LOCK_TIMEOUT = 60;
+    private static final int FLUSH_RETRY_INTERVAL = 1;
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private volatile boolean stopped = false;
+    private EventSubscriberReceipt unsubscriber;
+
+    private static class JobEntry {
+        final JobQueueEntryVO vo;
+        final String queueName;
+        final String owner;
+        final Job job;
+        // null for a job issued by another management node, which is told by JobEvent
+        final ReturnValueCompletion completion;
+        final CountDownLatch persisted = new CountDownLatch(1);
+        volatile Throwable persistError;
+
+        final long enqueueTime = System.currentTimeMillis();
+        long startTime;
+        Object returnValue;
+        ErrorCode error;
+
+        JobEntry(JobQueueEntryVO vo, String queueName, String owner, Job job, ReturnValueCompletion completion) {
+            this.vo = vo;
+            this.queueName = queueName;
+            this.owner = owner;
+            this.job = job;
+            this.completion = completion;
+        }
+    }
+
+    private static class JobQueue {
+        final String name;
+        final String owner;
+        final long id;
+        // the newest entry loaded, entries added by other management nodes after it are loaded by the next flush
+        long lastEntryId;
+        final LinkedList<JobEntry> runnable = new LinkedList<JobEntry>();
+        // running, or waiting for its Processing state to be persisted
+        JobEntry running;
+
+        JobQueue(String name, String owner, long id) {
+            this.name = name;
+            this.owner = owner;
+            this.id = id;
+        }
+
+        boolean idle() {
+            return running == null && runnable.isEmpty();
+        }
+
+        int depth() {
+            return runnable.size() + (running == null ? 0 : 1);
+        }
+    }
+
+    private static class Batch {
+        final List<JobEntry> inserts;
+        final List<JobEntry> marks;
+        final List<JobEntry> deletes;
+        final List<JobQueue> releases;
+        final boolean adoptOrphans;
+        // the queues of this node when the batch was taken, plus the ones it creates or adopts
+        final Map<String, JobQueue> queues;
+        final Set<String> idleQueues = new HashSet<String>();
+
+        final List<JobQueue> adopted = new ArrayList<JobQueue>();
+        final Map<JobQueue, List<JobEntry>> runnable = new LinkedHashMap<JobQueue, List<JobEntry>>();
+        final Map<JobQueue, Long> lastEntryIds = new HashMap<JobQueue, Long>();
+        final List<JobQueue> released = new ArrayList<JobQueue>();
+        final List<JobEntry> remoteInserts = new ArrayList<JobEntry>();
+        final List<JobEvent> events = new ArrayList<JobEvent>();
+
+        Batch(List<JobEntry> inserts, List<JobEntry> marks, List<JobEntry> deletes, List<JobQueue> releases,
+              boolean adoptOrphans, Map<String, JobQueue> queues) {
+            this.inserts = inserts;
+            this.marks = marks;
+            this.deletes = deletes;
+            this.releases = releases;
+            this.adoptOrphans = adoptOrphans;
+            this.queues = queues;
+        }
+
+        List<JobEntry> runnable(JobQueue queue) {
+            List<JobEntry> entries = runnable.get(queue);
+            if (entries == null) {
+                entries = new ArrayList<JobEntry>();
+                runnable.put(queue, entries);
+            }
+            return entries;
+        }
+
+        void seen(JobQueue queue, long entryId) {
+            Long last = lastEntryIds.get(queue);
+            if (last == null || last < entryId) {
+                lastEntryIds.put(queue, entryId);
+            }
+        }
+
+        int size() {
+            return inserts.size() + marks.size() + deletes.size() + releases.size();
+        }
+    }
+
+    // guarded by this
+    private final Map<String, JobQueue> queues = new HashMap<String, JobQueue>();
+    private List<JobEntry> toInsert = new ArrayList<JobEntry>();
+    private List<JobEntry> toMark = new ArrayList<JobEntry>();
+    private List<JobEntry> toDelete = new ArrayList<JobEntry>();
+    private Set<JobQueue> toRelease = new LinkedHashSet<JobQueue>();
+    private boolean orphanCheck;
+    private boolean flushing;
+
+    private long completedNum;
+    private long startedNum;
+    private long totalWaitTime;
+    private long maxWaitTime;
+    private long totalExecutionTime;
+    private long flushNum;
+    private long flushedNum;
+
+    // jobs of this node in queues other management nodes work on, by job id
+    private final Map<Long, JobEntry> remoteWaiters = new ConcurrentHashMap<Long, JobEntry>();
+
+    private boolean hasWork() {
+        return !toInsert.isEmpty() || !toMark.isEmpty() || !toDelete.isEmpty() || !toRelease.isEmpty() || orphanCheck;
+    }
+
+    private Batch takeBatch() {
+        List<JobQueue> releases = new ArrayList<JobQueue>();
+        for (JobQueue q : toRelease) {
+            // a queue got jobs after it drained is released when it drains again
+            if (q.idle()) {
+                releases.add(q);
+            }
+        }
+
+        Batch b = new Batch(toInsert, toMark, toDelete, releases, orphanCheck, new HashMap<String, JobQueue>(queues));
+        for (JobQueue q : queues.values()) {
+            if (q.idle()) {
+                b.idleQueues.add(q.name);
+            }
+        }
+
+        toInsert = new ArrayList<JobEntry>();
+        toMark = new ArrayList<JobEntry>();
+        toDelete = new ArrayList<JobEntry>();
+        toRelease = new LinkedHashSet<JobQueue>();
+        orphanCheck = false;
+        return b;
+    }
+
+    private void triggerFlush() {
+        synchronized (this) {
+            if (flushing || !hasWork()) {
+                return;
+            }
+            flushing = true;
+        }
+
+        flush();
+    }
+
+    private void flush() {
+        while (true) {
+            Batch b;
+            synchronized (this) {
+                if (!hasWork()) {
+                    flushing = false;
+                    return;
+                }
+                b = takeBatch();
+            }
+
+            try {
+                GLock lock = new GLock(LOCK_NAME, LOCK_TIMEOUT);
+                lock.lock();
+                try {
+                    writeBatch(b);
+                } finally {
+                    lock.unlock();
+                }
+            } catch (Throwable t) {
+                logger.warn(String.format("[JobQueue Flush Failed] failed to persist %s job changes, retry in %s seconds",
+                        b.size(), FLUSH_RETRY_INTERVAL), t);
+                rollbackBatch(b, t);
+                thdf.submitTimeoutTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        triggerFlush();
+                    }
+                }, TimeUnit.SECONDS, FLUSH_RETRY_INTERVAL);
+                return;
+            }
+
+            try {
+                applyBatch(b);
+
+                for (JobEvent evt : b.events) {
+                    bus.publish(evt);
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    flushing = false;
+                }
+                throw e;
+            } finally {
+                for (JobEntry e : b.inserts) {
+                    e.persisted.countDown();
+                }
+            }
+        }
+    }
+
+    private void rollbackBatch(Batch b, Throwable t) {
+        for (JobEntry e : b.remoteInserts) {
+            remoteWaiters.remove(e.vo.getId());
+        }
+
+        synchronized (this) {
+            // new jobs fail back to their callers, other work is done by the next flush
+            toMark.addAll(b.marks);
+            toDelete.addAll(b.deletes);
+            toRelease.addAll(b.releases);
+            orphanCheck = orphanCheck || b.adoptOrphans;
+            flushing = false;
+        }
+
+        for (JobEntry e : b.inserts) {
+            e.persistError = t;
+            e.persisted.countDown();
+        }
+    }
+
+    @Transactional
+    private void writeBatch(Batch b) {
+        EntityManager em = dbf.getEntityManager();
+
+        if (b.adoptOrphans) {
+            String sql = "select q from JobQueueVO q where q.workerManagementNodeId is null";
+            TypedQuery<JobQueueVO> q = em.createQuery(sql, JobQueueVO.class);
+            List<JobQueueVO> orphans = q.getResultList();
+            logger.debug(String.format("[Orphan Queue found]: management node is going to take over %s orphan queues", orphans.size()));
+            for (JobQueueVO qvo : orphans) {
+                adoptQueue(qvo, b);
+            }
+        }
+
+        loadNewEntries(b);
+        insertEntries(b);
+
+        if (!b.marks.isEmpty()) {
+            List<Long> ids = new ArrayList<Long>(b.marks.size());
+            for (JobEntry e : b.marks) {
+                ids.add(e.vo.getId());
+            }
+            String sql = "update JobQueueEntryVO e set e.state = :state where e.id in (:ids)";
+            em.createQuery(sql).setParameter("state", JobState.Processing).setParameter("ids", ids).executeUpdate();
+        }
+
+        if (!b.deletes.isEmpty()) {
+            List<Long> ids = new ArrayList<Long>(b.deletes.size());
+            for (JobEntry e : b.deletes) {
+                ids.add(e.vo.getId());
+                if (e.completion == null) {
+                    JobEvent evt = new JobEvent();
+                    evt.setJobId(e.vo.getId());
+                    if (e.error != null) {
+                        evt.setErrorCode(e.error);
+                    } else if (e.returnValue != null) {
+                        evt.setReturnValue(JsonWrapper.wrap(e.returnValue));
+                    }
+                    b.events.add(evt);
+                }
+            }
+            String sql = "delete from JobQueueEntryVO e where e.id in (:ids)";
+            em.createQuery(sql).setParameter("ids", ids).executeUpdate();
+        }
+
+        for (JobQueue queue : b.releases) {
+            if (b.runnable.containsKey(queue)) {
+                continue;
+            }
+
+            // the foreign key removes the left entries
+            em.createQuery("delete from JobQueueVO q where q.id = :id").setParameter("id", queue.id).executeUpdate();
+            b.released.add(queue);
+            logger.debug(String.format("[JobQueue released, no pending task, delete the queue] last owner: %s, queue name: %s, queue id: %s",
+                    queue.owner, queue.name, queue.id));
+        }
+    }
+
+    private void removeEntry(EntityManager em, JobQueueEntryVO vo, ErrorCode err, Batch b) {
+        em.createQuery("delete from JobQueueEntryVO e where e.id = :id").setParameter("id", vo.getId()).executeUpdate();
+        JobEvent evt = new JobEvent();
+        evt.setJobId(vo.getId());
+        evt.setErrorCode(err);
+        b.events.add(evt);
+    }
+
+    private void loadEntry(JobQueue queue, JobQueueEntryVO vo, Batch b) {
+        b.seen(queue, vo.getId());
+
+        Job job;
+        try {
+            JobContextObject ctx = SerializableHelper.readObject(vo.getContext());
+            job = ctx.load();
+        } catch (Exception e) {
+            String err = String.format("[Job de-serialize failed, the job will be removed] queue name: %s, job id: %s, %s", queue.name,
+                    vo.getId(), e.getMessage());
+            logger.warn(err, e);
+            removeEntry(dbf.getEntityManager(), vo, errf.stringToInternalError(err), b);
+            return;
+        }
+
+        b.runnable(queue).add(new JobEntry(vo, queue.name, queue.owner, job, null));
+    }
+
+    private void adoptQueue(JobQueueVO qvo, Batch b) {
+        EntityManager em = dbf.getEntityManager();
+        qvo.setWorkerManagementNodeId(Platform.getManagementServerId());
+        qvo = em.merge(qvo);
+
+        JobQueue queue = new JobQueue(qvo.getName(), qvo.getOwner(), qvo.getId());
+        b.queues.put(queue.name, queue);
+        b.adopted.add(queue);
+
+        // nobody waits for the jobs of dead issuers
+        String sql = "delete from JobQueueEntryVO e where e.jobQueueId = :qid and e.issuerManagementNodeId is null";
+        int removed = em.createQuery(sql).setParameter("qid", queue.id).executeUpdate();
+        if (removed > 0) {
+            logger.debug(String.format("[Job Removed]: %s jobs in queue[id:%s] because their issuer management nodes became unavailable",
+                    removed, queue.id));
+        }
+
+        sql = "select e from JobQueueEntryVO e where e.jobQueueId = :qid and e.state in (:states) order by e.id";
+        TypedQuery<JobQueueEntryVO> q = em.createQuery(sql, JobQueueEntryVO.class);
+        q.setParameter("qid", queue.id);
+        q.setParameter("states", Arrays.asList(JobState.Pending, JobState.Processing));
+        for (JobQueueEntryVO vo : q.getResultList()) {
+            if (vo.getState() == JobState.Processing && !vo.isRestartable()) {
+                b.seen(queue, vo.getId());
+                removeEntry(em, vo, errf.instantiateErrorCode(SysErrors.MANAGEMENT_NODE_UNAVAILABLE_ERROR,
+                        String.format("the worker management node of job[name:%s, id:%s] becomes unavailable, the job is not restartable", vo.getName(), vo.getId())), b);
+                logger.debug(String.format("[Job Removed]: job[id:%s, name:%s] because it's not restartable", vo.getId(), vo.getName()));
+                continue;
+            }
+
+            logger.debug(String.format("[Job Restart]: job[id:%s, name:%s] in queue[id:%s] is restarting as its previous worker node became unavailable",
+                    vo.getId(), vo.getName(), queue.id));
+            loadEntry(queue, vo, b);
+        }
+    }
+
+    private void loadNewEntries(Batch b) {
+        if (b.queues.isEmpty()) {
+            return;
+        }
+
+        Map<Long, JobQueue> byId = new HashMap<Long, JobQueue>();
+        long minId = Long.MAX_VALUE;
+        for (JobQueue queue : b.queues.values()) {
+            byId.put(queue.id, queue);
+            Long last = b.lastEntryIds.get(queue);
+            minId = Math.min(minId, last == null ? queue.lastEntryId : last);
+        }
+
+        String sql = "select e from JobQueueEntryVO e where e.jobQueueId in (:qids) and e.id > :id and e.state = :state order by e.id";
+        TypedQuery<JobQueueEntryVO> q = dbf.getEntityManager().createQuery(sql, JobQueueEntryVO.class);
+        q.setParameter("qids", byId.keySet());
+        q.setParameter("id", minId);
+        q.setParameter("state", JobState.Pending);
+        for (JobQueueEntryVO vo : q.getResultList()) {
+            JobQueue queue = byId.get(vo.getJobQueueId());
+            Long last = b.lastEntryIds.get(queue);
+            if (vo.getId() <= (last == null ? queue.lastEntryId : last)) {
+                continue;
+            }
+
+            logger.debug(String.format("[Job added] job queue name: %s, job class name: %s, job id: %s, issued by management node[id:%s]",
+                    queue.name, vo.getName(), vo.getId(), vo.getIssuerManagementNodeId()));
+            loadEntry(queue, vo, b);
+        }
+    }
+
+    private void insertEntries(Batch b) {
+        EntityManager em = dbf.getEntityManager();
+        Map<String, List<JobEntry>> byQueue = new LinkedHashMap<String, List<JobEntry>>();
+        for (JobEntry e : b.inserts) {
+            List<JobEntry> entries = byQueue.get(e.queueName);
+            if (entries == null) {
+                entries = new ArrayList<JobEntry>();
+                byQueue.put(e.queueName, entries);
+            }
+            entries.add(e);
+        }
+
+        for (Map.Entry<String, List<JobEntry>> me : byQueue.entrySet()) {
+            String queueName = me.getKey();
+            List<JobEntry> entries = me.getValue();
+            JobQueue queue = b.queues.get(queueName);
+            boolean idle;
+            if (queue != null) {
+                idle = b.idleQueues.contains(queueName) && !b.runnable.containsKey(queue);
+            } else {
+                String sql = "select q from JobQueueVO q where q.name = :name";
+                TypedQuery<JobQueueVO> q = em.createQuery(sql, JobQueueVO.class);
+                q.setParameter("name", queueName);
+                List<JobQueueVO> qvos = q.getResultList();
+                JobQueueVO qvo = qvos.isEmpty() ? null : qvos.get(0);
+
+                if (qvo == null) {
+                    qvo = new JobQueueVO();
+                    qvo.setName(queueName);
+                    qvo.setOwner(entries.get(0).owner);
+                    qvo.setWorkerManagementNodeId(Platform.getManagementServerId());
+                    em.persist(qvo);
+                    em.flush();
+                    logger.debug(String.format("[JobQueue created] id: %s, owner: %s, queue name: %s", qvo.getId(), qvo.getOwner(), queueName));
+
+                    queue = new JobQueue(queueName, qvo.getOwner(), qvo.getId());
+                    b.queues.put(queueName, queue);
+                    b.adopted.add(queue);
+                    idle = true;
+                } else if (qvo.getWorkerManagementNodeId() == null) {
+                    adoptQueue(qvo, b);
+                    queue = b.queues.get(queueName);
+                    idle = !b.runnable.containsKey(queue);
+                } else {
+                    // another management node works on the queue, it loads the jobs on its next flush
+                    for (JobEntry e : entries) {
+                        persistEntry(em, qvo.getId(), e, JobState.Pending);
+                        remoteWaiters.put(e.vo.getId(), e);
+                        b.remoteInserts.add(e);
+                    }
+                    continue;
+                }
+            }
+
+            for (JobEntry e : entries) {
+                // the head of an idle queue starts right after this flush
+                persistEntry(em, queue.id, e, idle && !e.vo.isRestartable() ? JobState.Processing : JobState.Pending);
+                idle = false;
+                b.seen(queue, e.vo.getId());
+                b.runnable(queue).add(e);
+            }
+        }
+    }
+
+    private void persistEntry(EntityManager em, long queueId, JobEntry e, JobState state) {
+        e.vo.setJobQueueId(queueId);
+        e.vo.setIssuerManagementNodeId(Platform.getManagementServerId());
+        e.vo.setState(state);
+        em.persist(e.vo);
+        em.flush();
+        logger.debug(String.format("[Job added] job queue name: %s, job class name: %s, job id: %s", e.queueName, e.vo.getName(), e.vo.getId()));
+    }
+
+    private void applyBatch(Batch b) {
+        synchronized (this) {
+            flushNum++;
+            flushedNum += b.size();
+
+            for (JobQueue queue : b.adopted) {
+                queues.put(queue.name, queue);
+            }
+            for (Map.Entry<JobQueue, Long> e : b.lastEntryIds.entrySet()) {
+                e.getKey().lastEntryId = e.getValue();
+            }
+            for (JobQueue queue : b.released) {
+                queues.remove(queue.name);
+            }
+
+            for (JobEntry e : b.marks) {
+                e.vo.setState(JobState.Processing);
+                JobQueue queue = queues.get(e.queueName);
+                if (queue != null && queue.running == e) {
+                    startJob(queue, e);
+                }
+            }
+
+            for (Map.Entry<JobQueue, List<JobEntry>> e : b.runnable.entrySet()) {
+                JobQueue queue = e.getKey();
+                queue.runnable.addAll(e.getValue());
+                startNext(queue);
+            }
+        }
+    }
+
+    // called with this locked
+    private void startNext(JobQueue queue) {
+        if (queue.running != null) {
+            return;
+        }
+
+        JobEntry e = queue.runnable.poll();
+        if (e == null) {
+            toRelease.add(queue);
+            return;
+        }
+
+        queue.running = e;
+        if (e.vo.isRestartable() || e.vo.getState() == JobState.Processing) {
+            startJob(queue, e);
+        } else {
+            toMark.add(e);
+        }
+    }
+
+    // called with this locked
+    private void startJob(JobQueue queue, JobEntry e) {
+        e.startTime = System.currentTimeMillis();
+        long wait = e.startTime - e.enqueueTime;
+        startedNum++;
+        totalWaitTime += wait;
+        maxWaitTime = Math.max(maxWaitTime, wait);
+        runJob(queue, e);
+    }
+
+    @AsyncThread
+    private void runJob(final JobQueue queue, final JobEntry e) {
+        if (stopped) {
+            logger.warn(String.format("[Job Facade Stopped]: stop processing job"));
+            return;
+        }
+
+        logger.debug(String.format("[Job Start] start executing job[id:%s, name:%s]", e.vo.getId(), e.vo.getName()));
+        try {
+            e.job.run(new ReturnValueCompletion<Object>() {
+                @Override
+                public void success(Object returnValue) {
+                    logger.debug(String.format("[Job Success] job[id:%s, name:%s] succeed", e.vo.getId(), e.vo.getName()));
+                    jobFinished(queue, e, returnValue, null);
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    logger.debug(String.format("[Job Failure] job[id:%s, name:%s] failed", e.vo.getId(), e.vo.getName()));
+                    jobFinished(queue, e, null, errorCode);
+                }
+            });
+        } catch (Throwable t) {
+            logger.warn(String.format("unhandled exception happened when calling %s", e.job.getClass().getName()), t);
+            jobFinished(queue, e, null, errf.stringToInternalError(t.getMessage()));
+        }
+    }
+
+    private void jobFinished(JobQueue queue, JobEntry e, Object returnValue, ErrorCode err) {
+        synchronized (this) {
+            if (queue.running != e) {
+                logger.warn(String.format("job[id:%s, name:%s] completes more than once", e.vo.getId(), e.vo.getName()));
+                return;
+            }
+
+            queue.running = null;
+            e.returnValue = returnValue;
+            e.error = err;
+            toDelete.add(e);
+            completedNum++;
+            totalExecutionTime += System.currentTimeMillis() - e.startTime;
+            startNext(queue);
+        }
+
+        triggerFlush();
+
+        // a job issued by this node is dropped by the takeover if this node dies, so no need to wait for its deletion
+        if (e.completion != null) {
+            complete(e, returnValue, err);
+        }
+    }
+
+    private void complete(JobEntry e, Object returnValue, ErrorCode err) {
+        if (err == null) {
+            e.completion.success(returnValue);
+        } else {
+            e.completion.fail(err);
+        }
+    }
+
+    @Override
+    public boolean handleEvent(Event e) {
+        if (!(e instanceof JobEvent)) {
+            return false;
+        }
+
+        JobEvent je = (JobEvent) e;
+        JobEntry entry = remoteWaiters.remove(je.getJobId());
+        if (entry == null) {
+            return false;
+        }
+
+        if (je.isSuccess()) {
+            Object ret = je.getReturnValue() != null ? je.getReturnValue().get() : null;
+            complete(entry, ret, null);
+        } else {
+            complete(entry, null, je.getErrorCode());
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean start() {
+        unsubscriber = bus.subscribeEvent(this, new JobEvent());
+        stopped = false;
+        jmxf.registerBean("JobQueueFacade", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        stopped = true;
+        if (unsubscriber != null) {
+            unsubscriber.unsubscribeAll();
+        }
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(String nodeId) {
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        logger.debug(String.format("management node[id:%s] starts taking over jobs of left management node[%s]",
+                Platform.getManagementServerId(), nodeId));
+        synchronized (this) {
+            orphanCheck = true;
+        }
+        triggerFlush();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+    }
+
+    @Override
+    public void execute(String queueName, String owner, Job job) {
+        execute(queueName, owner, job, new NopeCompletion());
+    }
+
+    @Override
+    public <T> void execute(final String queueName, final String owner, final Job job, final ReturnValueCompletion<T> completion, final Class<? extends T> returnType) {
+        if (stopped) {
+            logger.warn(String.format("[Job Facade Stopped]: skip to run job[queueName:%s, owner:%s, name:%s]",
+                    queueName, owner, job.getClass().getName()));
+            return;
+        }
+
+        JobQueueEntryVO vo = new JobQueueEntryVO();
+        try {
+            vo.setContext(SerializableHelper.writeObject(new JobContextObject(job)));
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("unable to serialize job: %s", job.getClass().getName()), e);
+        }
+        vo.setRestartable(job.getClass().isAnnotationPresent(RestartableJob.class));
+        vo.setName(job.getClass().getName());
+        vo.setOwner(owner);
+        vo.setInDate(new Date());
+
+        JobEntry e = new JobEntry(vo, queueName, owner, job, completion);
+        synchronized (this) {
+            toInsert.add(e);
+        }
+        triggerFlush();
+
+        try {
+            e.persisted.await();
+        } catch (InterruptedException ie) {
+            throw new CloudRuntimeException(String.format("interrupted when persisting job: %s", vo.getName()), ie);
+        }
+
+        if (e.persistError != null) {
+            throw new CloudRuntimeException(String.format("unable to persist job[name:%s] in queue[%s]", vo.getName(), queueName), e.persistError);
+        }
+    }
+
+    @Override
+    public void execute(String queueName, String owner, Job job, final Completion completion) {
+        execute(queueName, owner, job, new ReturnValueCompletion<Object>(completion) {
+            @Override
+            public void success(Object returnValue) {
+                completion.success();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        }, null);
+    }
+
+    @Override
+    public void deleteJobQueue(String queueName) {
+
+    }
+
+    @Override
+    public void evictOwner(String owner) {
+
+    }
+
+    @Override
+    public synchronized List<String> listAllQueue() {
+        return new ArrayList<String>(queues.keySet());
+    }
+
+    @Override
+    public List<String> listQueue(String namePattern) {
+        return null;
+    }
+
+    @Override
+    public synchronized long getPendingJobNumber(String queueName) {
+        JobQueue queue = queues.get(queueName);
+        return queue == null ? 0 : queue.runnable.size();
+    }
+
+    @Override
+    public synchronized List<String> listQueueHasPendingJob() {
+        List<String> ret = new ArrayList<String>();
+        for (JobQueue queue : queues.values()) {
+            if (!queue.runnable.isEmpty()) {
+                ret.add(queue.name);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean startQueueIfPendingJob(String queueName, String owner) {
+        return false;
+    }
+
+    @Override
+    public boolean startQueueIfPendingJob(String queueName, String owner, boolean newThread) {
+        return false;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> ret = new HashMap<String, Integer>();
+        for (JobQueue queue : queues.values()) {
+            ret.put(queue.name, queue.depth());
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized int getPendingJobNum() {
+        int num = 0;
+        for (JobQueue queue : queues.values()) {
+            num += queue.runnable.size();
+        }
+        return num;
+    }
+
+    @Override
+    public synchronized int getRunningJobNum() {
+        int num = 0;
+        for (JobQueue queue : queues.values()) {
+            if (queue.running != null) {
+                num++;
+            }
+        }
+        return num;
+    }
+
+    @Override
+    public synchronized long getCompletedJobNum() {
+        return completedNum;
+    }
+
+    @Override
+    public synchronized long getAverageWaitTime() {
+        return startedNum == 0 ? 0 : totalWaitTime / startedNum;
+    }
+
+    @Override
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    @Override
+    public synchronized long getAverageExecutionTime() {
+        return completedNum == 0 ? 0 : totalExecutionTime / completedNum;
+    }
+
+    @Override
+    public synchronized long getFlushNum() {
+        return flushNum;
+    }
+
+    @Override
+    public synchronized double getAverageFlushSize() {
+        return flushNum == 0 ? 0 : (double) flushedNum / flushNum;
+    }
+}
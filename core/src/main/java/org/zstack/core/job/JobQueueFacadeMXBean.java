@@ -0,0 +1,34 @@
+package org.zstack.core.job;
+
+import java.util.Map;
+
+/**
+ */
+public interface JobQueueFacadeMXBean {
+    /**
+     * @return the number of jobs waiting or running in each queue this management node works on
+     */
+    Map<String, Integer> getQueueDepths();
+
+    int getPendingJobNum();
+
+    int getRunningJobNum();
+
+    long getCompletedJobNum();
+
+    /**
+     * in milliseconds, from a job being issued or loaded to it starting
+     */
+    long getAverageWaitTime();
+
+    long getMaxWaitTime();
+
+    long getAverageExecutionTime();
+
+    long getFlushNum();
+
+    /**
+     * the database writes (new jobs, state changes and deletions) done in one flush on average
+     */
+    double getAverageFlushSize();
+}
@@ -0,0 +1,223 @@
+package org.zstack.core.logging;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * base of LogBackend that buffers logs in a bounded ring buffer and writes them in batches on a
+ * dedicated thread.
+ *
+ * LogFacade is called on hot paths of the control plane, so write() never does IO; when the buffer is full
+ * the log is dropped or the caller is blocked for a while according to the LogOverflowPolicy. Subclasses only
+ * implement flush() which receives up to batchSize logs at a time.
+ */
+public abstract class AsyncLogBackend implements LogBackend {
+    private static final CLogger logger = Utils.getLogger(AsyncLogBackend.class);
+    private static final long RATE_SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    @Autowired
+    protected ThreadFacade thdf;
+
+    private int queueCapacity = 10000;
+    private int batchSize = 500;
+    private long blockTimeout = 1000;
+    private LogOverflowPolicy overflowPolicy = LogOverflowPolicy.Drop;
+
+    private volatile boolean isStarted;
+    private BlockingQueue<Object> queue;
+    private final Object quitToken = new Object();
+
+    private final AtomicLong enqueuedNum = new AtomicLong();
+    private final AtomicLong droppedNum = new AtomicLong();
+    private final AtomicLong flushedNum = new AtomicLong();
+    private final AtomicLong flushFailureNum = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong totalFlushTime = new AtomicLong();
+    private final AtomicLong maxFlushTime = new AtomicLong();
+    private volatile double enqueueRate;
+    private long lastRateSampleTime = System.nanoTime();
+    private long lastRateSampleNum;
+
+    protected abstract void flush(List<LogVO> logs) throws Exception;
+
+    /**
+     * called on the log thread after the logs left in the buffer have been flushed by stop()
+     */
+    protected void afterStop() {
+    }
+
+    @Override
+    public void write(LogVO log) {
+        if (!isStarted) {
+            return;
+        }
+
+        boolean ret;
+        if (overflowPolicy == LogOverflowPolicy.Block) {
+            try {
+                ret = queue.offer(log, blockTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ret = false;
+            }
+        } else {
+            ret = queue.offer(log);
+        }
+
+        if (ret) {
+            enqueuedNum.incrementAndGet();
+        } else if (droppedNum.incrementAndGet() % queueCapacity == 1) {
+            // don't flood the log, warn once every queueCapacity drops
+            logger.warn(String.format("the buffer of LogBackend[%s] is full, %s logs have been dropped so far",
+                    getLogBackendType(), droppedNum.get()));
+        }
+    }
+
+    private void doFlush(List<LogVO> logs) {
+        long start = System.currentTimeMillis();
+        try {
+            flush(logs);
+            flushedNum.addAndGet(logs.size());
+        } catch (Throwable t) {
+            flushFailureNum.addAndGet(logs.size());
+            logger.warn(String.format("LogBackend[%s] failed to write %s logs, drop them", getLogBackendType(), logs.size()), t);
+        }
+
+        long cost = System.currentTimeMillis() - start;
+        flushCount.incrementAndGet();
+        totalFlushTime.addAndGet(cost);
+        long max = maxFlushTime.get();
+        while (cost > max && !maxFlushTime.compareAndSet(max, cost)) {
+            max = maxFlushTime.get();
+        }
+    }
+
+    private void sampleEnqueueRate() {
+        long now = System.nanoTime();
+        if (now - lastRateSampleTime < RATE_SAMPLE_INTERVAL) {
+            return;
+        }
+
+        long num = enqueuedNum.get();
+        enqueueRate = (double) (num - lastRateSampleNum) * TimeUnit.SECONDS.toNanos(1) / (now - lastRateSampleTime);
+        lastRateSampleNum = num;
+        lastRateSampleTime = now;
+    }
+
+    private void consume(BlockingQueue<Object> q) throws InterruptedException {
+        List<Object> lst = new ArrayList<Object>(batchSize);
+        List<LogVO> logs = new ArrayList<LogVO>(batchSize);
+        while (true) {
+            Object first = q.poll(1, TimeUnit.SECONDS);
+            sampleEnqueueRate();
+            if (first == null) {
+                continue;
+            }
+
+            lst.add(first);
+            q.drainTo(lst, batchSize - 1);
+
+            boolean quit = false;
+            for (Object o : lst) {
+                if (o == quitToken) {
+                    quit = true;
+                } else {
+                    logs.add((LogVO) o);
+                }
+            }
+
+            if (!logs.isEmpty()) {
+                doFlush(logs);
+            }
+
+            lst.clear();
+            logs.clear();
+
+            if (quit) {
+                // flush what's left, nothing can be enqueued after stop()
+                q.drainTo(lst);
+                for (Object o : lst) {
+                    if (o != quitToken) {
+                        logs.add((LogVO) o);
+                    }
+                }
+                if (!logs.isEmpty()) {
+                    doFlush(logs);
+                }
+                afterStop();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (isStarted) {
+            return;
+        }
+
+        final BlockingQueue<Object> q = new ArrayBlockingQueue<Object>(queueCapacity);
+        queue = q;
+        isStarted = true;
+        thdf.submit(new Task<Void>() {
+            @Override
+            public String getName() {
+                return String.format("log-thread-%s", getLogBackendType());
+            }
+
+            @Override
+            public Void call() throws Exception {
+                consume(q);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isStarted) {
+            return;
+        }
+
+        isStarted = false;
+        try {
+            queue.offer(quitToken, 60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    public LogBackendStatistic getStatistic() {
+        long count = flushCount.get();
+        BlockingQueue<Object> q = queue;
+        return new LogBackendStatistic(getLogBackendType(), queueCapacity, q == null ? 0 : q.size(), enqueuedNum.get(),
+                droppedNum.get(), flushedNum.get(), flushFailureNum.get(), enqueueRate,
+                count == 0 ? 0 : totalFlushTime.get() / count, maxFlushTime.get());
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBlockTimeout(long blockTimeout) {
+        this.blockTimeout = blockTimeout;
+    }
+
+    public void setOverflowPolicy(LogOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+}
@@ -0,0 +1,325 @@
+package org.zstack.core.logging;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.path.PathUtil;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * writes logs into append-only, memory-mapped segment files.
+ *
+ * a segment is a pair of files named by the time it was created:
+ *   [createTime].log  records of [int length][long createDate][json of the log], a zero length marks the end
+ *   [createTime].idx  sparse index of [long createDate][int position], one entry every indexInterval records
+ *
+ * a new segment is started when the current one is full or older than rotationInterval seconds, segments
+ * beyond maxSegmentNum are deleted from the oldest. read() uses the index to locate the first record
+ * of a time range without scanning segments from the beginning.
+ */
+public class FileLogBackend extends AsyncLogBackend {
+    private static final CLogger logger = Utils.getLogger(FileLogBackend.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+    private static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+    private String directory;
+    private int segmentSize = 64 * 1024 * 1024;
+    private long rotationInterval = TimeUnit.HOURS.toSeconds(1);
+    private int maxSegmentNum = 48;
+    private int indexInterval = 64;
+
+    private Segment current;
+
+    /**
+     * a mapped buffer holds the file until it's garbage collected, so a deleted segment may stay on disk
+     * for long; release the mapping at once by the cleaner of the direct buffer
+     */
+    private static void unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            logger.warn("failed to unmap a log segment, it's released when garbage collected", e);
+        }
+    }
+
+    private class Segment {
+        long createTime;
+        RandomAccessFile logFile;
+        MappedByteBuffer buffer;
+        DataOutputStream index;
+        int recordNum;
+
+        Segment(long createTime) throws IOException {
+            this.createTime = createTime;
+            logFile = new RandomAccessFile(new File(directory, createTime + LOG_SUFFIX), "rw");
+            buffer = logFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, createTime + INDEX_SUFFIX))));
+        }
+
+        boolean hasRoom(int recordSize) {
+            // keep room for the zero length marking the end
+            return buffer.remaining() >= recordSize + 4;
+        }
+
+        void append(long time, byte[] data) throws IOException {
+            int position = buffer.position();
+            if (recordNum % indexInterval == 0) {
+                index.writeLong(time);
+                index.writeInt(position);
+            }
+
+            // write the body before the length, so a reader never sees a length without its record
+            buffer.position(position + 4);
+            buffer.putLong(time);
+            buffer.put(data);
+            buffer.putInt(position, data.length);
+            recordNum++;
+        }
+
+        void sync() throws IOException {
+            index.flush();
+        }
+
+        void close() {
+            try {
+                index.close();
+                buffer.force();
+                logFile.close();
+            } catch (IOException e) {
+                logger.warn(String.format("failed to close the log segment[%s]", createTime), e);
+            } finally {
+                unmap(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    @Override
+    public String getLogBackendType() {
+        return LogConstant.FILE_BACKEND_TYPE;
+    }
+
+    private File getDirectory() {
+        if (directory == null) {
+            directory = PathUtil.getFolderUnderZStackHomeFolder("logs");
+        }
+
+        File dir = new File(directory);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new CloudRuntimeException(String.format("unable to create the log directory[%s]", directory));
+        }
+        return dir;
+    }
+
+    private List<Long> getSegments() {
+        List<Long> ret = new ArrayList<Long>();
+        String[] names = getDirectory().list();
+        if (names == null) {
+            return ret;
+        }
+
+        for (String name : names) {
+            if (name.endsWith(LOG_SUFFIX)) {
+                try {
+                    ret.add(Long.valueOf(name.substring(0, name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn(String.format("unknown file[%s] in the log directory[%s], skip it", name, directory));
+                }
+            }
+        }
+
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private void deleteOldSegments() {
+        // only the current segment is open and it's the newest one, the segments deleted have been closed and unmapped
+        List<Long> segments = getSegments();
+        for (int i = 0; i < segments.size() - maxSegmentNum; i++) {
+            new File(directory, segments.get(i) + LOG_SUFFIX).delete();
+            new File(directory, segments.get(i) + INDEX_SUFFIX).delete();
+        }
+    }
+
+    private void rotate(long now) throws IOException {
+        if (current != null) {
+            current.close();
+        }
+
+        getDirectory();
+        // segments are named by milliseconds, never reuse the name of an existing one
+        long createTime = now;
+        if (current != null && createTime <= current.createTime) {
+            createTime = current.createTime + 1;
+        }
+
+        current = null;
+        current = new Segment(createTime);
+        deleteOldSegments();
+    }
+
+    private byte[] serialize(LogVO vo) {
+        Map<String, String> m = new LinkedHashMap<String, String>();
+        m.put("content", vo.getContent());
+        m.put("type", vo.getType() == null ? null : vo.getType().toString());
+        m.put("level", vo.getLevel() == null ? null : vo.getLevel().toString());
+        m.put("resourceUuid", vo.getResourceUuid());
+        return JSONObjectUtil.toJsonString(m).getBytes(UTF8);
+    }
+
+    @Override
+    protected void flush(List<LogVO> logs) throws IOException {
+        long now = System.currentTimeMillis();
+        for (LogVO vo : logs) {
+            byte[] data = serialize(vo);
+            int recordSize = RECORD_HEADER_SIZE + data.length;
+            if (recordSize + 4 > segmentSize) {
+                logger.warn(String.format("drop a log of %s bytes which exceeds the segment size[%s]", data.length, segmentSize));
+                continue;
+            }
+
+            if (current == null || !current.hasRoom(recordSize)
+                    || now - current.createTime >= TimeUnit.SECONDS.toMillis(rotationInterval)) {
+                rotate(now);
+            }
+
+            current.append(vo.getCreateDate() == null ? now : vo.getCreateDate().getTime(), data);
+        }
+
+        if (current != null) {
+            current.sync();
+        }
+    }
+
+    @Override
+    protected void afterStop() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    private int findStartPosition(long segment, long since) throws IOException {
+        File idx = new File(directory, segment + INDEX_SUFFIX);
+        if (!idx.exists()) {
+            return 0;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)));
+        try {
+            int position = 0;
+            long size = idx.length() / INDEX_ENTRY_SIZE;
+            for (long i = 0; i < size; i++) {
+                long time = in.readLong();
+                int pos = in.readInt();
+                if (time > since) {
+                    break;
+                }
+                position = pos;
+            }
+            return position;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void readSegment(long segment, long since, int limit, List<LogVO> result) throws IOException {
+        int position = findStartPosition(segment, since);
+        RandomAccessFile file = new RandomAccessFile(new File(directory, segment + LOG_SUFFIX), "r");
+        ByteBuffer buffer = null;
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            buffer.position(position);
+            while (result.size() < limit && buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() - 8) {
+                    return;
+                }
+
+                long time = buffer.getLong();
+                byte[] data = new byte[length];
+                buffer.get(data);
+                if (time < since) {
+                    continue;
+                }
+
+                LogVO vo = JSONObjectUtil.toObject(new String(data, UTF8), LogVO.class);
+                vo.setCreateDate(new Timestamp(time));
+                result.add(vo);
+            }
+        } finally {
+            unmap(buffer);
+            file.close();
+        }
+    }
+
+    /**
+     * @return at most 'limit' logs whose createDate is not earlier than 'since', in the order they were written
+     */
+    public List<LogVO> read(long since, int limit) {
+        List<LogVO> result = new ArrayList<LogVO>();
+        List<Long> segments = getSegments();
+        int start = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            // a log is written after it's created, but in milliseconds a segment created at 'since' may follow
+            // logs of the same time in the previous segment
+            if (segments.get(i) < since) {
+                start = i;
+            }
+        }
+
+        try {
+            for (int i = start; i < segments.size() && result.size() < limit; i++) {
+                readSegment(segments.get(i), since, limit, result);
+            }
+        } catch (IOException e) {
+            throw new CloudRuntimeException(e);
+        }
+
+        return result;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setRotationInterval(long rotationInterval) {
+        this.rotationInterval = rotationInterval;
+    }
+
+    public void setMaxSegmentNum(int maxSegmentNum) {
+        this.maxSegmentNum = maxSegmentNum;
+    }
+
+    public void setIndexInterval(int indexInterval) {
+        this.indexInterval = indexInterval;
+    }
+}
@@ -0,0 +1,75 @@
+package org.zstack.core.logging;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class LogBackendStatistic {
+    private String type;
+    private int queueCapacity;
+    private int pendingNum;
+    private long enqueuedNum;
+    private long droppedNum;
+    private long flushedNum;
+    private long flushFailureNum;
+    private double enqueueRatePerSecond;
+    private long averageFlushTime;
+    private long maxFlushTime;
+
+    @ConstructorProperties({"type", "queueCapacity", "pendingNum", "enqueuedNum", "droppedNum", "flushedNum",
+            "flushFailureNum", "enqueueRatePerSecond", "averageFlushTime", "maxFlushTime"})
+    public LogBackendStatistic(String type, int queueCapacity, int pendingNum, long enqueuedNum, long droppedNum,
+                               long flushedNum, long flushFailureNum, double enqueueRatePerSecond,
+                               long averageFlushTime, long maxFlushTime) {
+        this.type = type;
+        this.queueCapacity = queueCapacity;
+        this.pendingNum = pendingNum;
+        this.enqueuedNum = enqueuedNum;
+        this.droppedNum = droppedNum;
+        this.flushedNum = flushedNum;
+        this.flushFailureNum = flushFailureNum;
+        this.enqueueRatePerSecond = enqueueRatePerSecond;
+        this.averageFlushTime = averageFlushTime;
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getPendingNum() {
+        return pendingNum;
+    }
+
+    public long getEnqueuedNum() {
+        return enqueuedNum;
+    }
+
+    public long getDroppedNum() {
+        return droppedNum;
+    }
+
+    public long getFlushedNum() {
+        return flushedNum;
+    }
+
+    public long getFlushFailureNum() {
+        return flushFailureNum;
+    }
+
+    public double getEnqueueRatePerSecond() {
+        return enqueueRatePerSecond;
+    }
+
+    public long getAverageFlushTime() {
+        return averageFlushTime;
+    }
+
+    public long getMaxFlushTime() {
+        return maxFlushTime;
+    }
+}
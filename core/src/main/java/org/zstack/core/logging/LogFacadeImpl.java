@@ -4,21 +4,25 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.GlobalConfig;
 import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.header.Component;
 import org.zstack.header.exception.CloudRuntimeException;
 
+import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  */
-public class LogFacadeImpl implements LogFacade, Component {
+public class LogFacadeImpl implements LogFacade, Component, LogFacadeMXBean {
     private LogBackend backend;
     private Map<String, LogBackend> backends = new HashMap<String, LogBackend>();
     private volatile boolean isEnabled;
 
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private JmxFacade jmxf;
 
 
     @Override
@@ -36,6 +40,7 @@ public class LogFacadeImpl implements LogFacade, Component {
         vo.setType(type);
         vo.setLevel(level);
         vo.setContent(content);
+        vo.setCreateDate(new Timestamp(System.currentTimeMillis()));
         backend.write(vo);
     }
 
@@ -70,6 +75,8 @@ public class LogFacadeImpl implements LogFacade, Component {
             throw new CloudRuntimeException(String.format("cannot find LogBackend that has type[%s]", LogGlobalProperty.LOG_FACADE_BACKEND_TYPE));
         }
 
+        jmxf.registerBean("LogFacade", this);
+
         isEnabled = LogGlobalConfig.ENABLED.value(boolean.class);
         if (isEnabled) {
             backend.start();
@@ -90,6 +97,11 @@ public class LogFacadeImpl implements LogFacade, Component {
         return true;
     }
 
+    @Override
+    public LogBackendStatistic getBackendStatistic() {
+        return backend instanceof AsyncLogBackend ? ((AsyncLogBackend) backend).getStatistic() : null;
+    }
+
     @Override
     public boolean stop() {
         backend.stop();
@@ -0,0 +1,7 @@
+package org.zstack.core.logging;
+
+/**
+ */
+public interface LogFacadeMXBean {
+    LogBackendStatistic getBackendStatistic();
+}
@@ -0,0 +1,15 @@
+package org.zstack.core.logging;
+
+/**
+ * what AsyncLogBackend does when its buffer is full
+ */
+public enum LogOverflowPolicy {
+    /**
+     * discard the new log and count it in LogBackendStatistic.droppedNum, callers are never blocked
+     */
+    Drop,
+    /**
+     * block the caller until the buffer has room or LogFacade.blockTimeout expires, then drop the log
+     */
+    Block,
+}
@@ -1,50 +1,39 @@
 package org.zstack.core.logging;
 
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.transaction.annotation.Transactional;
-import org.zstack.core.db.DatabaseFacade;
-import org.zstack.core.thread.Task;
-import org.zstack.core.thread.ThreadFacade;
-import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
-import org.zstack.utils.function.Function;
-import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 /**
+ * writes logs into LogVO with multi-row INSERT statements.
+ *
+ * logs don't need JPA entity management, and persisting them one by one through the EntityManager
+ * competes with the control plane for connections of the JPA pool; so the batch is written by plain
+ * JDBC, one statement per batch, on a small data source of its own so a slow log write never holds the
+ * connections the management node heartbeat takes from the extra data source.
  */
-public class MysqlLogBackend implements LogBackend {
+public class MysqlLogBackend extends AsyncLogBackend {
     private static final CLogger logger = Utils.getLogger(MysqlLogBackend.class);
-
-    @Autowired
-    private DatabaseFacade dbf;
-    @Autowired
-    private ThreadFacade thdf;
-
-    private volatile boolean isStarted;
-    private BlockingQueue queue = new LinkedBlockingQueue();
-    private QuitToken quitToken =new QuitToken();
-
-    class QuitToken {
-    }
-
-    @Override
-    public void write(LogVO log) {
-        if (!isStarted) {
-            return;
-        }
-
-        try {
-            queue.offer(log, 60, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            logger.warn(String.format("unable to write log %s", JSONObjectUtil.toJsonString(log)), e);
-        }
+    private static final String INSERT = "INSERT INTO LogVO (content, type, level, resourceUuid, createDate) VALUES ";
+    private static final String VALUES = "(?, ?, ?, ?, ?)";
+    // keep a statement well below the default max_allowed_packet of MySQL
+    public static final int MAX_STATEMENT_BYTES = 1024 * 1024;
+    // LogVO.content is a TEXT column
+    public static final int MAX_CONTENT_BYTES = 65535;
+    // the other columns and the placeholders of a row, on the safe side
+    public static final int ROW_OVERHEAD_BYTES = 256;
+
+    private DataSource dataSource;
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     @Override
@@ -52,66 +41,124 @@ public class MysqlLogBackend implements LogBackend {
         return LogConstant.MYSQL_BACKEND_TYPE;
     }
 
-    @Transactional
-    private void batchWrite(List lst) {
-        for (Object obj : lst) {
-            LogVO vo = (LogVO) obj;
-            dbf.getEntityManager().persist(vo);
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else {
+            return 3;
         }
     }
 
-    private void consume() throws InterruptedException {
-        while (true) {
-            List lst = new ArrayList();
-            lst.add(queue.take());
-            queue.drainTo(lst);
-            if (lst.contains(quitToken)) {
-                List ret = CollectionUtils.transformToList(lst, new Function() {
-                    @Override
-                    public Object call(Object arg) {
-                        return arg instanceof LogVO ? arg : null;
-                    }
-                });
-                batchWrite(ret);
-                return;
+    /**
+     * @return the number of bytes of the string encoded in utf8
+     */
+    public static int utf8Length(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += utf8Length(c);
             }
-
-            batchWrite(lst);
         }
+        return length;
     }
 
-    private void startLogThread() {
-        thdf.submit(new Task<Void>() {
-            @Override
-            public String getName() {
-                return "log-thread";
+    /**
+     * @return the longest prefix of the string within maxBytes when encoded in utf8, a surrogate pair is never split
+     */
+    public static String truncate(String str, int maxBytes) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            boolean pair = Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1));
+            int bytes = pair ? 4 : utf8Length(c);
+            if (length + bytes > maxBytes) {
+                return str.substring(0, i);
             }
 
-            @Override
-            public Void call() throws Exception {
-                consume();
-                return null;
+            length += bytes;
+            if (pair) {
+                i++;
             }
-        });
+        }
+        return str;
     }
 
-    @Override
-    public void start() {
-        isStarted = true;
-        startLogThread();
-    }
+    /**
+     * splits the logs into batches whose statement stays within maxStatementBytes, a batch is closed before
+     * the row that would take it over the limit; a row larger than the limit on its own goes in a batch by itself
+     */
+    public static List<List<LogVO>> split(List<LogVO> logs, int maxStatementBytes) {
+        List<List<LogVO>> batches = new ArrayList<List<LogVO>>();
+        int start = 0;
+        long bytes = 0;
+        for (int i = 0; i < logs.size(); i++) {
+            String content = logs.get(i).getContent();
+            int rowBytes = ROW_OVERHEAD_BYTES + (content == null ? 0 : utf8Length(content));
+            if (i > start && bytes + rowBytes > maxStatementBytes) {
+                batches.add(logs.subList(start, i));
+                start = i;
+                bytes = 0;
+            }
+            bytes += rowBytes;
+        }
 
-    private void quit() {
-        try {
-            queue.offer(quitToken, 60, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            logger.warn(e.getMessage(), e);
+        if (start < logs.size()) {
+            batches.add(logs.subList(start, logs.size()));
         }
+        return batches;
     }
 
     @Override
-    public void stop() {
-        isStarted = false;
-        quit();
+    protected void flush(List<LogVO> logs) throws SQLException {
+        for (LogVO vo : logs) {
+            // a content exceeding the column is cut here rather than failing the whole statement, so no row
+            // is larger than a statement
+            if (vo.getContent() != null && vo.getContent().length() * 3 > MAX_CONTENT_BYTES && utf8Length(vo.getContent()) > MAX_CONTENT_BYTES) {
+                logger.warn(String.format("truncate a log of %s bytes to %s bytes", utf8Length(vo.getContent()), MAX_CONTENT_BYTES));
+                vo.setContent(truncate(vo.getContent(), MAX_CONTENT_BYTES));
+            }
+        }
+
+        for (List<LogVO> batch : split(logs, MAX_STATEMENT_BYTES)) {
+            insert(batch);
+        }
+    }
+
+    protected void insert(List<LogVO> logs) throws SQLException {
+        StringBuilder sql = new StringBuilder(INSERT);
+        for (int i = 0; i < logs.size(); i++) {
+            if (i != 0) {
+                sql.append(", ");
+            }
+            sql.append(VALUES);
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Connection conn = dataSource.getConnection();
+        try {
+            conn.setAutoCommit(true);
+            PreparedStatement stmt = conn.prepareStatement(sql.toString());
+            try {
+                int index = 1;
+                for (LogVO vo : logs) {
+                    stmt.setString(index++, vo.getContent());
+                    stmt.setString(index++, vo.getType().toString());
+                    stmt.setString(index++, vo.getLevel() == null ? null : vo.getLevel().toString());
+                    stmt.setString(index++, vo.getResourceUuid());
+                    stmt.setTimestamp(index++, vo.getCreateDate() == null ? now : vo.getCreateDate());
+                }
+                stmt.executeUpdate();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
     }
 }
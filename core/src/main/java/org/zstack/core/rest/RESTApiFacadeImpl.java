@@ -1,11 +1,9 @@
 package org.zstack.core.rest;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.config.BeanDefinition;
-import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
-import org.springframework.core.type.filter.AssignableTypeFilter;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusEventListener;
+import org.zstack.core.progressbar.InProgressEvent;
 import org.zstack.header.apimediator.ApiMediatorConstant;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.*;
@@ -14,6 +12,7 @@ import org.zstack.header.rest.RestAPIResponse;
 import org.zstack.header.rest.RestAPIState;
 import org.zstack.header.rest.RestAPIVO;
 import org.zstack.header.search.APISearchMessage;
+import org.zstack.utils.ClassIndex;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
@@ -36,12 +35,8 @@ public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
 
     void init() throws ClassNotFoundException, InstantiationException, IllegalAccessException {
         Set<APIEvent> boundEvents = new HashSet<APIEvent>(100);
-        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
-        scanner.resetFilters(false);
-        scanner.addIncludeFilter(new AssignableTypeFilter(APIEvent.class));
         for (String pkg : getBasePkgNames()) {
-            for (BeanDefinition bd : scanner.findCandidateComponents(pkg)) {
-                Class<?> clazz = Class.forName(bd.getBeanClassName());
+            for (Class<?> clazz : ClassIndex.getSubTypes(pkg, APIEvent.class)) {
                 if (clazz == APIEvent.class) {
                     continue;
                 }
@@ -167,6 +162,11 @@ public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
     @Override
     public boolean handleEvent(Event e) {
         try {
+            if (e instanceof InProgressEvent) {
+                // progress of a running API, not its result
+                return false;
+            }
+
             if (e instanceof APIEvent) {
                 APIEvent ae = (APIEvent) e;
                 if (processingRequests.contains(ae.getApiId())) {
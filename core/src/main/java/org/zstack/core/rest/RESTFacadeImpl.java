@@ -14,6 +14,9 @@ import org.zstack.core.thread.CancelablePeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
+import org.zstack.core.trace.Span;
+import org.zstack.core.trace.TraceContext;
+import org.zstack.core.trace.TraceFacade;
 import org.zstack.core.validation.ValidationFacade;
 import org.zstack.header.core.Completion;
 import org.zstack.header.errorcode.ErrorCode;
@@ -48,6 +51,8 @@ public class RESTFacadeImpl implements RESTFacade {
     private ApiTimeoutManager timeoutMgr;
     @Autowired
     private ValidationFacade vf;
+    @Autowired
+    private TraceFacade tracef;
 
     private String hostname;
     private int port = 8080;
@@ -213,6 +218,8 @@ public class RESTFacadeImpl implements RESTFacade {
 
         final String taskUuid = Platform.getUuid();
         final long finalStime = stime;
+        final TraceContext caller = tracef.getCurrentContext();
+        final Span span = tracef.startSpan(caller, url);
         AsyncHttpWrapper wrapper = new AsyncHttpWrapper() {
             AtomicBoolean called = new AtomicBoolean(false);
 
@@ -241,7 +248,18 @@ public class RESTFacadeImpl implements RESTFacade {
                     cancelTimeout();
                 }
 
-                callback.fail(err);
+                if (span == null) {
+                    callback.fail(err);
+                    return;
+                }
+
+                tracef.finishSpan(span, false);
+                TraceContext prev = tracef.setCurrentContext(caller);
+                try {
+                    callback.fail(err);
+                } finally {
+                    tracef.setCurrentContext(prev);
+                }
             }
 
             @Override
@@ -259,6 +277,21 @@ public class RESTFacadeImpl implements RESTFacade {
                 wrappers.remove(taskUuid);
                 cancelTimeout();
 
+                if (span == null) {
+                    handleResponse(responseEntity);
+                    return;
+                }
+
+                tracef.finishSpan(span, true);
+                TraceContext prev = tracef.setCurrentContext(caller);
+                try {
+                    handleResponse(responseEntity);
+                } finally {
+                    tracef.setCurrentContext(prev);
+                }
+            }
+
+            private void handleResponse(HttpEntity<String> responseEntity) {
                 if (logger.isTraceEnabled()) {
                     logger.trace(String.format("[http response(url: %s)] %s", url, responseEntity.getBody()));
                 }
@@ -291,6 +324,10 @@ public class RESTFacadeImpl implements RESTFacade {
             requestHeaders.setContentLength(body.length());
             requestHeaders.set(RESTConstant.TASK_UUID, taskUuid);
             requestHeaders.set(RESTConstant.CALLBACK_URL, callbackUrl);
+            if (span != null) {
+                requestHeaders.set(RESTConstant.TRACE_ID, span.getTraceId());
+                requestHeaders.set(RESTConstant.SPAN_ID, span.getSpanId());
+            }
             HttpEntity<String> req = new HttpEntity<String>(body, requestHeaders);
             if (logger.isTraceEnabled()) {
                 logger.trace(String.format("json post[%s], %s", url, req.toString()));
@@ -2,7 +2,7 @@ package org.zstack.core.timeout;
 
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.APIMessage;
-import org.zstack.utils.BeanUtils;
+import org.zstack.utils.ClassIndex;
 import org.zstack.utils.BootErrorLog;
 import org.zstack.utils.StringDSL;
 import org.zstack.utils.Utils;
@@ -41,7 +41,7 @@ public class ApiTimeoutManagerImpl implements ApiTimeoutManager {
     }
 
     private void collectTimeoutForDerivedApi() {
-        List<Class> allApis = BeanUtils.scanClassByType("org.zstack", APIMessage.class);
+        List<Class> allApis = ClassIndex.getSubTypes("org.zstack", APIMessage.class);
         Set<Class> origin = new HashSet<Class>();
         origin.addAll(apiTimeouts.keySet());
 
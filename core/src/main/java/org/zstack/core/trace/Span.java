@@ -0,0 +1,72 @@
+package org.zstack.core.trace;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * startTime is in milliseconds since the epoch, duration is in milliseconds and is -1 until the span finishes.
+ * parentSpanId is null for the root span of a trace
+ */
+public class Span {
+    private String traceId;
+    private String spanId;
+    private String parentSpanId;
+    private String name;
+    private String managementNodeId;
+    private long startTime;
+    private long duration = -1;
+    private boolean success;
+
+    @ConstructorProperties({"traceId", "spanId", "parentSpanId", "name", "managementNodeId", "startTime", "duration", "success"})
+    public Span(String traceId, String spanId, String parentSpanId, String name, String managementNodeId,
+                long startTime, long duration, boolean success) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.managementNodeId = managementNodeId;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.success = success;
+    }
+
+    void finish(boolean success) {
+        this.duration = System.currentTimeMillis() - startTime;
+        this.success = success;
+    }
+
+    public TraceContext getContext() {
+        return new TraceContext(traceId, spanId);
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getManagementNodeId() {
+        return managementNodeId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+}
@@ -0,0 +1,41 @@
+package org.zstack.core.trace;
+
+/**
+ * identifies the span the current work belongs to, it's carried across management nodes by the message
+ * header and across agents by the http headers, in the form of "traceId:spanId"
+ */
+public class TraceContext {
+    private final String traceId;
+    private final String spanId;
+
+    public TraceContext(String traceId, String spanId) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public static TraceContext valueOf(String str) {
+        if (str == null) {
+            return null;
+        }
+
+        int index = str.indexOf(':');
+        if (index <= 0 || index == str.length() - 1) {
+            return null;
+        }
+
+        return new TraceContext(str.substring(0, index), str.substring(index + 1));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%s", traceId, spanId);
+    }
+}
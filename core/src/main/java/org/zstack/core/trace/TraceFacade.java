@@ -0,0 +1,23 @@
+package org.zstack.core.trace;
+
+/**
+ * all methods are cheap when the current thread is not in a sampled trace: the span methods return null
+ * and callers skip the rest of the tracing work
+ */
+public interface TraceFacade {
+    TraceContext getCurrentContext();
+
+    /**
+     * @return the context replaced, callers restore it when the work is done because threads are pooled
+     */
+    TraceContext setCurrentContext(TraceContext ctx);
+
+    /**
+     * starts a new trace if the sampling picks it, otherwise returns null
+     */
+    Span startTrace(String name);
+
+    Span startSpan(TraceContext parent, String name);
+
+    void finishSpan(Span span, boolean success);
+}
@@ -0,0 +1,202 @@
+package org.zstack.core.trace;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * finished spans are kept in a ring buffer of Trace.ringBufferSize, the oldest are overwritten. Spans of a trace
+ * spreading over management nodes are stored on the nodes they ran on and share the same trace id.
+ *
+ * when the sampling is off, the only cost on the hot path is reading the thread local context.
+ */
+public class TraceFacadeImpl implements TraceFacade, TraceFacadeMXBean, Component {
+    private static final CLogger logger = Utils.getLogger(TraceFacadeImpl.class);
+
+    @Autowired
+    private JmxFacade jmxf;
+
+    private final ThreadLocal<TraceContext> currentContext = new ThreadLocal<TraceContext>();
+    private final AtomicLong apiNum = new AtomicLong();
+    private final AtomicLong sampledNum = new AtomicLong();
+
+    // guarded by this
+    private Span[] ring;
+    private int ringIndex;
+
+    @Override
+    public TraceContext getCurrentContext() {
+        return currentContext.get();
+    }
+
+    @Override
+    public TraceContext setCurrentContext(TraceContext ctx) {
+        TraceContext prev = currentContext.get();
+        if (ctx == null) {
+            currentContext.remove();
+        } else {
+            currentContext.set(ctx);
+        }
+        return prev;
+    }
+
+    @Override
+    public Span startTrace(String name) {
+        long interval = TraceGlobalConfig.SAMPLING_INTERVAL.value(Long.class);
+        if (interval <= 0 || apiNum.incrementAndGet() % interval != 0) {
+            return null;
+        }
+
+        sampledNum.incrementAndGet();
+        return new Span(Platform.getUuid(), Platform.getUuid(), null, name, Platform.getManagementServerId(),
+                System.currentTimeMillis(), -1, false);
+    }
+
+    @Override
+    public Span startSpan(TraceContext parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+
+        return new Span(parent.getTraceId(), Platform.getUuid(), parent.getSpanId(), name, Platform.getManagementServerId(),
+                System.currentTimeMillis(), -1, false);
+    }
+
+    @Override
+    public void finishSpan(Span span, boolean success) {
+        if (span == null) {
+            return;
+        }
+
+        span.finish(success);
+        synchronized (this) {
+            ring[ringIndex] = span;
+            ringIndex = (ringIndex + 1) % ring.length;
+        }
+    }
+
+    private synchronized List<Span> snapshot() {
+        List<Span> spans = new ArrayList<Span>(ring.length);
+        for (int i = 0; i < ring.length; i++) {
+            Span s = ring[(ringIndex + i) % ring.length];
+            if (s != null) {
+                spans.add(s);
+            }
+        }
+        return spans;
+    }
+
+    @Override
+    public List<TraceSummary> getSlowestTraces(int num) {
+        Map<String, List<Span>> traces = new HashMap<String, List<Span>>();
+        for (Span s : snapshot()) {
+            List<Span> spans = traces.get(s.getTraceId());
+            if (spans == null) {
+                spans = new ArrayList<Span>();
+                traces.put(s.getTraceId(), spans);
+            }
+            spans.add(s);
+        }
+
+        List<TraceSummary> ret = new ArrayList<TraceSummary>(traces.size());
+        for (Map.Entry<String, List<Span>> e : traces.entrySet()) {
+            long start = Long.MAX_VALUE;
+            long end = 0;
+            boolean success = true;
+            Span root = null;
+            for (Span s : e.getValue()) {
+                start = Math.min(start, s.getStartTime());
+                end = Math.max(end, s.getStartTime() + s.getDuration());
+                success = success && s.isSuccess();
+                // the root span may be on another management node, then the earliest span names the trace
+                if (root == null || (root.getParentSpanId() != null &&
+                        (s.getParentSpanId() == null || s.getStartTime() < root.getStartTime()))) {
+                    root = s;
+                }
+            }
+
+            ret.add(new TraceSummary(e.getKey(), root.getName(), start, end - start, e.getValue().size(), success));
+        }
+
+        Collections.sort(ret, new Comparator<TraceSummary>() {
+            @Override
+            public int compare(TraceSummary o1, TraceSummary o2) {
+                return o1.getDuration() > o2.getDuration() ? -1 : o1.getDuration() == o2.getDuration() ? 0 : 1;
+            }
+        });
+
+        return ret.size() > num ? new ArrayList<TraceSummary>(ret.subList(0, num)) : ret;
+    }
+
+    @Override
+    public List<Span> getTrace(String traceId) {
+        List<Span> ret = new ArrayList<Span>();
+        for (Span s : snapshot()) {
+            if (s.getTraceId().equals(traceId)) {
+                ret.add(s);
+            }
+        }
+
+        Collections.sort(ret, new Comparator<Span>() {
+            @Override
+            public int compare(Span o1, Span o2) {
+                return o1.getStartTime() < o2.getStartTime() ? -1 : o1.getStartTime() == o2.getStartTime() ? 0 : 1;
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * writes the spans in the ring buffer to the file as json lines, returns the number of spans written
+     */
+    @Override
+    public int exportTraces(String path) {
+        List<Span> spans = snapshot();
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(path));
+            try {
+                for (Span s : spans) {
+                    writer.write(JSONObjectUtil.toJsonString(s));
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("unable to export traces to %s", path), e);
+        }
+
+        logger.debug(String.format("exported %s spans to %s", spans.size(), path));
+        return spans.size();
+    }
+
+    @Override
+    public long getSampledTraceNum() {
+        return sampledNum.get();
+    }
+
+    @Override
+    public boolean start() {
+        synchronized (this) {
+            ring = new Span[Math.max(TraceGlobalProperty.RING_BUFFER_SIZE, 1)];
+        }
+        jmxf.registerBean("TraceFacade", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,15 @@
+package org.zstack.core.trace;
+
+import java.util.List;
+
+/**
+ */
+public interface TraceFacadeMXBean {
+    List<TraceSummary> getSlowestTraces(int num);
+
+    List<Span> getTrace(String traceId);
+
+    int exportTraces(String path);
+
+    long getSampledTraceNum();
+}
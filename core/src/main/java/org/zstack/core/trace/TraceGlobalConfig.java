@@ -0,0 +1,15 @@
+package org.zstack.core.trace;
+
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigDefinition;
+import org.zstack.core.config.GlobalConfigValidation;
+
+/**
+ */
+@GlobalConfigDefinition
+public class TraceGlobalConfig {
+    public static final String CATEGORY = "trace";
+
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig SAMPLING_INTERVAL = new GlobalConfig(CATEGORY, "sampling.interval");
+}
@@ -0,0 +1,12 @@
+package org.zstack.core.trace;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class TraceGlobalProperty {
+    @GlobalProperty(name="Trace.ringBufferSize", defaultValue = "10000")
+    public static int RING_BUFFER_SIZE;
+}
@@ -0,0 +1,50 @@
+package org.zstack.core.trace;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * duration is from the start of the earliest span to the end of the latest span of the trace recorded
+ * on this management node
+ */
+public class TraceSummary {
+    private String traceId;
+    private String name;
+    private long startTime;
+    private long duration;
+    private int spanNum;
+    private boolean success;
+
+    @ConstructorProperties({"traceId", "name", "startTime", "duration", "spanNum", "success"})
+    public TraceSummary(String traceId, String name, long startTime, long duration, int spanNum, boolean success) {
+        this.traceId = traceId;
+        this.name = name;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.spanNum = spanNum;
+        this.success = success;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public int getSpanNum() {
+        return spanNum;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+}
@@ -10,12 +10,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.trace.Span;
+import org.zstack.core.trace.TraceContext;
+import org.zstack.core.trace.TraceFacade;
 import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
+import org.zstack.utils.FieldAccessor;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
@@ -23,6 +27,8 @@ import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created with IntelliJ IDEA.
@@ -35,7 +41,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
     private static final CLogger logger = Utils.getLogger(SimpleFlowChain.class);
 
     private List<Flow> flows = new ArrayList<Flow>();
-    private Stack<Flow> rollBackFlows = new Stack<Flow>();
+    private List<Flow> rollBackFlows = new ArrayList<Flow>();
     private Map data = new HashMap();
     private Iterator<Flow> it;
     private boolean isStart = false;
@@ -52,52 +58,50 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
 
     private boolean isFailCalled;
 
-    private static final Map<String, WorkFlowStatistic> statistics = new ConcurrentHashMap<String, WorkFlowStatistic>();
-
-    private class FlowStopWatch {
-        Map<String, Long> beginTime = new HashMap<String, Long>();
-        void start(Flow flow) {
-            long btime = System.currentTimeMillis();
-            if (currentFlow != null) {
-                String cname = getFlowName(currentFlow);
-                long stime = beginTime.get(cname);
-                WorkFlowStatistic stat = statistics.get(cname);
-                stat.addStatistic(btime - stime);
-
-                logger.debug(String.format("[FlowChain:%s, flow:%s] takes %sms to complete", name, cname, stat.getTotalTime()));
+    private static final ConcurrentMap<String, WorkFlowStatistic> statistics = new ConcurrentHashMap<String, WorkFlowStatistic>();
+
+    private long currentFlowStartTime;
+    private String currentFlowName;
+    // the trace the chain is started in, every flow gets a span under it
+    private TraceContext traceContext;
+    private Span currentFlowSpan;
+
+    private static WorkFlowStatistic getStatistic(String flowName) {
+        WorkFlowStatistic stat = statistics.get(flowName);
+        if (stat == null) {
+            stat = new WorkFlowStatistic();
+            stat.setName(flowName);
+            WorkFlowStatistic old = statistics.putIfAbsent(flowName, stat);
+            if (old != null) {
+                stat = old;
             }
+        }
+        return stat;
+    }
 
-            String fname = getFlowName(flow);
-            beginTime.put(fname, btime);
-            WorkFlowStatistic stat = statistics.get(fname);
-            if (stat == null) {
-                stat = new WorkFlowStatistic();
-                stat.setName(fname);
-                statistics.put(fname, stat);
-            }
+    private void recordCurrentFlowTime(boolean success) {
+        if (currentFlow == null) {
+            return;
         }
 
-        void stop() {
-            long etime = System.currentTimeMillis();
-            if (currentFlow != null) {
-                String fname = getFlowName(currentFlow);
-                long stime = beginTime.get(fname);
-                WorkFlowStatistic stat = statistics.get(fname);
-                stat.addStatistic(etime - stime);
-            }
+        if (currentFlowSpan != null) {
+            tracef.finishSpan(currentFlowSpan, success);
+            currentFlowSpan = null;
         }
-    }
 
-    private FlowStopWatch stopWath;
+        long cost = System.nanoTime() - currentFlowStartTime;
+        getStatistic(currentFlowName).addStatisticInNanos(cost);
 
-    {
         if (CoreGlobalProperty.PROFILER_WORKFLOW) {
-            stopWath = new FlowStopWatch();
+            logger.debug(String.format("[FlowChain:%s, flow:%s] takes %sms to complete", name, currentFlowName,
+                    TimeUnit.NANOSECONDS.toMillis(cost)));
         }
     }
 
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private TraceFacade tracef;
 
     public SimpleFlowChain() {
     }
@@ -178,15 +182,24 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
                 toRun = flow;
             }
 
-            if (CoreGlobalProperty.PROFILER_WORKFLOW) {
-                stopWath.start(toRun);
-            }
-
             currentFlow = toRun;
+            currentFlowName = getFlowName(currentFlow);
+            currentFlowStartTime = System.nanoTime();
 
-            String info = String.format("[FlowChain: %s] start executing flow[%s]", name, getFlowName(currentFlow));
+            String info = String.format("[FlowChain: %s] start executing flow[%s]", name, currentFlowName);
             logger.debug(info);
-            toRun.run(this, data);
+
+            if (traceContext == null) {
+                toRun.run(this, data);
+            } else {
+                currentFlowSpan = tracef.startSpan(traceContext, currentFlowName);
+                TraceContext prev = tracef.setCurrentContext(currentFlowSpan.getContext());
+                try {
+                    toRun.run(this, data);
+                } finally {
+                    tracef.setCurrentContext(prev);
+                }
+            }
         } catch (OperationFailureException oe) {
             String errInfo = oe.getErrorCode() != null ? oe.getErrorCode().toString() : "";
             logger.warn(errInfo, oe);
@@ -223,7 +236,13 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
     }
 
     private String getFlowName(Flow flow) {
-        String name = FieldUtils.getFieldValue("__name__", flow);
+        String name = null;
+        // the accessor lookup is cached by FieldUtils, flow classes are few and fixed
+        FieldAccessor f = FieldUtils.getAccessor("__name__", flow.getClass());
+        if (f != null) {
+            name = f.get(flow);
+        }
+
         if (name == null) {
             name = flow.getClass().getSimpleName();
             if (name.equals("")) {
@@ -262,7 +281,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
         }
 
         isRollbackStart = true;
-        if (rollBackFlows.empty()) {
+        if (rollBackFlows.isEmpty()) {
             callErrorHandler(true);
             return;
         }
@@ -286,7 +305,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
             logger.debug(String.format("[FlowChain: %s] start to rollback", name));
         }
 
-        Flow flow = rollBackFlows.pop();
+        Flow flow = rollBackFlows.remove(rollBackFlows.size() - 1);
         currentRollbackFlow = flow;
         rollbackFlow(flow);
     }
@@ -302,10 +321,6 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
     }
 
     private void callDoneHandler() {
-        if (CoreGlobalProperty.PROFILER_WORKFLOW) {
-            stopWath.stop();
-        }
-
         // NOTE: don't wrap the code with try ... catch
         // the throwable is handled by AsyncBackupAspect.aj
         if (doneHandler != null) {
@@ -318,7 +333,8 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
     public void fail(ErrorCode errorCode) {
         isFailCalled = true;
         setErrorCode(errorCode);
-        rollBackFlows.push(currentFlow);
+        recordCurrentFlowTime(false);
+        rollBackFlows.add(currentFlow);
         rollback();
     }
 
@@ -332,9 +348,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
             throw new CloudRuntimeException(String.format("[FlowChain: %s] rollback has started, you can't call next()", name));
         }
 
-        rollBackFlows.push(currentFlow);
+        recordCurrentFlowTime(true);
+        rollBackFlows.add(currentFlow);
 
-        logger.debug(String.format("[FlowChain: %s] successfully executed flow[%s]", name, getFlowName(currentFlow)));
+        logger.debug(String.format("[FlowChain: %s] successfully executed flow[%s]", name, currentFlowName));
 
         if (!it.hasNext()) {
             if (errorCode == null) {
@@ -370,6 +387,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain {
         }
 
         logger.debug(String.format("[FlowChain: %s] starts", name));
+        traceContext = tracef.getCurrentContext();
 
         if (logger.isTraceEnabled()) {
             List<String> names = CollectionUtils.transformToList(flows, new Function<String, Flow>() {
@@ -1,13 +1,23 @@
 package org.zstack.core.workflow;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
+ * latency statistic of a flow, always collected by SimpleFlowChain.
+ *
+ * besides the total/average time, a coarse histogram is kept whose bucket i counts the executions
+ * taking less than 2^i milliseconds; the last bucket counts everything slower. Recording is lock-free
+ * so flows running concurrently in different chains don't contend.
  */
 public class WorkFlowStatistic {
-    private volatile long totalTime;
-    private volatile long count;
-    private volatile long averageTime;
+    private static final int BUCKET_NUM = 20;
+
+    private final AtomicLong totalTimeInNanos = new AtomicLong();
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong maxTimeInNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NUM);
     private String name;
 
     public String getName() {
@@ -19,41 +29,77 @@ public class WorkFlowStatistic {
     }
 
     public long getTotalTime() {
-        return totalTime;
+        return TimeUnit.NANOSECONDS.toMillis(totalTimeInNanos.get());
     }
 
-    public void setTotalTime(long totalTime) {
-        this.totalTime = totalTime;
+    public long getCount() {
+        return count.get();
     }
 
-    public long getCount() {
-        return count;
+    public long getAverageTime() {
+        long c = count.get();
+        return c == 0 ? 0 : getTotalTime() / c;
     }
 
-    public void setCount(long count) {
-        this.count = count;
+    public long getMaxTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxTimeInNanos.get());
     }
 
-    public long getAverageTime() {
-        return averageTime;
+    public long[] getHistogram() {
+        long[] ret = new long[BUCKET_NUM];
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            ret[i] = buckets.get(i);
+        }
+        return ret;
     }
 
-    public void setAverageTime(long averageTime) {
-        this.averageTime = averageTime;
+    /**
+     * @return the upper bound, in milliseconds, of the histogram bucket the percentile falls in
+     */
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(c * percentile / 100);
+        long sum = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            sum += buckets.get(i);
+            if (sum >= target) {
+                return 1L << i;
+            }
+        }
+
+        return getMaxTime();
+    }
+
+    public void addStatistic(long timeInMillis) {
+        addStatisticInNanos(TimeUnit.MILLISECONDS.toNanos(timeInMillis));
     }
 
-    public void addStatistic(long time) {
-        totalTime += time;
-        count ++;
-        averageTime = totalTime / count;
+    public void addStatisticInNanos(long nanos) {
+        totalTimeInNanos.addAndGet(nanos);
+        count.incrementAndGet();
+
+        long max = maxTimeInNanos.get();
+        while (nanos > max && !maxTimeInNanos.compareAndSet(max, nanos)) {
+            max = maxTimeInNanos.get();
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int index = 64 - Long.numberOfLeadingZeros(millis);
+        buckets.incrementAndGet(Math.min(index, BUCKET_NUM - 1));
     }
 
     @Override
     public String toString() {
-        return String.format("Flow[%s]: total time: %s secs, total count: %s, average time: %s secs",
+        return String.format("Flow[%s]: total time: %s secs, total count: %s, average time: %s ms, 99th percentile: %s ms, max time: %s ms",
                 name,
-                TimeUnit.MILLISECONDS.toSeconds(totalTime),
-                count,
-                TimeUnit.MILLISECONDS.toSeconds(averageTime));
+                TimeUnit.MILLISECONDS.toSeconds(getTotalTime()),
+                getCount(),
+                getAverageTime(),
+                getPercentile(99),
+                getMaxTime());
     }
 }
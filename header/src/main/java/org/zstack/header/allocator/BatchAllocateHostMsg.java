@@ -0,0 +1,17 @@
+package org.zstack.header.allocator;
+
+/**
+ * allocates hosts for vmNum identical vms in one pass of the allocator chain, the reply may carry fewer hosts
+ * than vmNum if the candidates run out of cpu/memory
+ */
+public class BatchAllocateHostMsg extends DesignatedAllocateHostMsg {
+    private int vmNum;
+
+    public int getVmNum() {
+        return vmNum;
+    }
+
+    public void setVmNum(int vmNum) {
+        this.vmNum = vmNum;
+    }
+}
@@ -0,0 +1,19 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.message.MessageReply;
+
+import java.util.List;
+
+public class BatchAllocateHostReply extends MessageReply {
+    // a host for each vm, capacity has been reserved for every entry
+    private List<HostInventory> hosts;
+
+    public List<HostInventory> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(List<HostInventory> hosts) {
+        this.hosts = hosts;
+    }
+}
@@ -17,7 +17,8 @@ public enum SysErrors {
     UNDELIVERABLE_ERROR(1011),
     MANAGEMENT_NODE_UNAVAILABLE_ERROR(1012),
     NO_CAPABILITY_ERROR(1013),
-    UNIMPLEMENTED_OPERATION_ERROR(1014);
+    UNIMPLEMENTED_OPERATION_ERROR(1014),
+    SERVICE_OVERLOADED_ERROR(1015);
 
     private String code;
 
@@ -0,0 +1,31 @@
+package org.zstack.header.managementnode;
+
+import org.zstack.header.message.LocalEvent;
+
+/**
+ * published by every management node on the bus at node.busHeartbeatInterval, it's the input
+ * of the phi accrual failure detector
+ */
+public class ManagementNodeHeartbeatEvent extends LocalEvent {
+    private String nodeId;
+
+    public ManagementNodeHeartbeatEvent() {
+    }
+
+    public ManagementNodeHeartbeatEvent(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String getSubCategory() {
+        return ManagementNodeConstant.MANAGEMENT_NODE_EVENT;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+}
@@ -0,0 +1,38 @@
+package org.zstack.header.network.l3;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ * reserves ipNum ips of the l3 network at once, the reply may carry fewer ips than ipNum if the l3 network
+ * runs out of ips
+ */
+public class AllocateIpsMsg extends NeedReplyMessage implements L3NetworkMessage {
+    private String allocateStrategy;
+    private String l3NetworkUuid;
+    private int ipNum;
+
+    public String getAllocateStrategy() {
+        return allocateStrategy;
+    }
+
+    public void setAllocateStrategy(String allocateStrategy) {
+        this.allocateStrategy = allocateStrategy;
+    }
+
+    public void setL3NetworkUuid(String l3NetworkUuid) {
+        this.l3NetworkUuid = l3NetworkUuid;
+    }
+
+    @Override
+    public String getL3NetworkUuid() {
+        return l3NetworkUuid;
+    }
+
+    public int getIpNum() {
+        return ipNum;
+    }
+
+    public void setIpNum(int ipNum) {
+        this.ipNum = ipNum;
+    }
+}
@@ -4,6 +4,9 @@ import org.zstack.header.rest.APINoSee;
 
 import java.io.Serializable;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 public class UsedIpInventory implements Serializable{
     private String uuid;
@@ -34,6 +37,14 @@ public class UsedIpInventory implements Serializable{
         inv.setLastOpDate(vo.getLastOpDate());
         return inv;
     }
+
+    public static List<UsedIpInventory> valueOf(Collection<UsedIpVO> vos) {
+        List<UsedIpInventory> invs = new ArrayList<UsedIpInventory>(vos.size());
+        for (UsedIpVO vo : vos) {
+            invs.add(valueOf(vo));
+        }
+        return invs;
+    }
     
     public String getUuid() {
         return uuid;
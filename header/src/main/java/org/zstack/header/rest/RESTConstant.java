@@ -5,6 +5,8 @@ public interface RESTConstant {
     static final String COMMAND_CHANNEL_PATH = "/asyncrest/sendcommand";
     public static final String TASK_UUID = "taskuuid";
     public static final String CALLBACK_URL = "callbackurl";
+    public static final String TRACE_ID = "traceid";
+    public static final String SPAN_ID = "spanid";
     public static final String REST_API_RESULT = "/api/result/";
     public static final String REST_API_CALL = "/api";
     static final String COMMAND_PATH = "commandpath";
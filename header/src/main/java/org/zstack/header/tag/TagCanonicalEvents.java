@@ -0,0 +1,42 @@
+package org.zstack.header.tag;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.List;
+
+/**
+ */
+public class TagCanonicalEvents {
+    public static final String TAG_CHANGED_PATH = "/tag/change";
+
+    @NeedJsonSchema
+    public static class TagChangedData {
+        private String managementNodeId;
+        private List<String> resourceUuids;
+        private List<String> resourceTypes;
+
+        public String getManagementNodeId() {
+            return managementNodeId;
+        }
+
+        public void setManagementNodeId(String managementNodeId) {
+            this.managementNodeId = managementNodeId;
+        }
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+
+        public List<String> getResourceTypes() {
+            return resourceTypes;
+        }
+
+        public void setResourceTypes(List<String> resourceTypes) {
+            this.resourceTypes = resourceTypes;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.zstack.header.vm;
+
+import org.zstack.header.message.APIEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *@apiResult
+ *
+ * api event for message :ref:`APICreateVmInstancesMsg`. The event succeeds as long as one vm is created,
+ * the outcome of every vm is reported in 'results'
+ *
+ *@since 0.1.0
+ *
+ *@example
+ *
+ * {
+"org.zstack.header.vm.APICreateVmInstancesEvent": {
+"results": [
+{
+"vmInstanceUuid": "e979b10eb753412e8588d26b4b544fdc",
+"name": "TestVm-0",
+"success": true,
+"inventory": {
+"uuid": "e979b10eb753412e8588d26b4b544fdc",
+"name": "TestVm-0",
+"state": "Running"
+}
+}
+],
+"success": true
+}
+}
+ */
+public class APICreateVmInstancesEvent extends APIEvent {
+    /**
+     * @desc a list of per vm results. See :ref:`CreateVmInstanceResultStruct`
+     */
+    private List<CreateVmInstanceResultStruct> results = new ArrayList<CreateVmInstanceResultStruct>();
+
+    public APICreateVmInstancesEvent() {
+        super(null);
+    }
+
+    public APICreateVmInstancesEvent(String apiId) {
+        super(apiId);
+    }
+
+    public List<CreateVmInstanceResultStruct> getResults() {
+        return results;
+    }
+
+    public void setResults(List<CreateVmInstanceResultStruct> results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,53 @@
+package org.zstack.header.vm;
+
+import org.zstack.header.identity.Action;
+import org.zstack.header.message.APIParam;
+import org.zstack.header.tag.TagResourceType;
+
+/**
+ * @api
+ *
+ * create a batch of identical user vm instances in one API call. The VMs share every parameter of
+ * :ref:`APICreateVmInstanceMsg`; their names are suffixed with the index in the batch
+ *
+ * @since 0.1.0
+ *
+ * @cli
+ *
+ * @httpMsg
+ *{
+"org.zstack.header.vm.APICreateVmInstancesMsg": {
+"name": "TestVm",
+"count": 3,
+"instanceOfferingUuid": "1618154b462a48749ca9b114cf4a2979",
+"imageUuid": "99a5eea648954ef7be2b8ede8f34fe26",
+"l3NetworkUuids": [
+"c4f6a370f80443798cc460ee07d56ff1"
+],
+"session": {
+"uuid": "49c7e4c1fc18499a9477dd426436a8a4"
+}
+}
+}
+ *
+ * @result
+ *
+ * See :ref:`APICreateVmInstancesEvent`
+ */
+@TagResourceType(VmInstanceVO.class)
+@Action(category = VmInstanceConstant.ACTION_CATEGORY)
+public class APICreateVmInstancesMsg extends APICreateVmInstanceMsg {
+    /**
+     * @desc number of vm instances to create, the upper limit is controlled by global config 'vm.batchCreate.maxVmNum'
+     */
+    @APIParam(numberRange = {1, Integer.MAX_VALUE})
+    private int count;
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,54 @@
+package org.zstack.header.vm;
+
+import org.zstack.header.errorcode.ErrorCode;
+
+/**
+ * outcome of a single vm in a batch creation
+ */
+public class CreateVmInstanceResultStruct {
+    private String vmInstanceUuid;
+    private String name;
+    private boolean success;
+    private VmInstanceInventory inventory;
+    private ErrorCode error;
+
+    public String getVmInstanceUuid() {
+        return vmInstanceUuid;
+    }
+
+    public void setVmInstanceUuid(String vmInstanceUuid) {
+        this.vmInstanceUuid = vmInstanceUuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public VmInstanceInventory getInventory() {
+        return inventory;
+    }
+
+    public void setInventory(VmInstanceInventory inventory) {
+        this.inventory = inventory;
+    }
+
+    public ErrorCode getError() {
+        return error;
+    }
+
+    public void setError(ErrorCode error) {
+        this.error = error;
+    }
+}
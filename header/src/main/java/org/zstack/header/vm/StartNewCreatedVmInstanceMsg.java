@@ -1,6 +1,8 @@
 package org.zstack.header.vm;
 
+import org.zstack.header.host.HostInventory;
 import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.network.l3.UsedIpInventory;
 
 import java.util.List;
 
@@ -9,6 +11,9 @@ public class StartNewCreatedVmInstanceMsg extends NeedReplyMessage implements Vm
     private List<String> l3NetworkUuids;
     private List<String> dataDiskOfferingUuids;
     private String rootDiskOfferingUuid;
+    // set when the vm is created in a batch, capacity has been reserved on the host and the ips have been reserved
+    private HostInventory preAllocatedHost;
+    private List<UsedIpInventory> preAllocatedIps;
     
     public VmInstanceInventory getVmInstanceInventory() {
         return vmInstanceInventory;
@@ -42,6 +47,22 @@ public class StartNewCreatedVmInstanceMsg extends NeedReplyMessage implements Vm
         this.rootDiskOfferingUuid = rootDiskOfferingUuid;
     }
 
+    public HostInventory getPreAllocatedHost() {
+        return preAllocatedHost;
+    }
+
+    public void setPreAllocatedHost(HostInventory preAllocatedHost) {
+        this.preAllocatedHost = preAllocatedHost;
+    }
+
+    public List<UsedIpInventory> getPreAllocatedIps() {
+        return preAllocatedIps;
+    }
+
+    public void setPreAllocatedIps(List<UsedIpInventory> preAllocatedIps) {
+        this.preAllocatedIps = preAllocatedIps;
+    }
+
     @Override
     public String getVmInstanceUuid() {
         return getVmInstanceInventory().getUuid();
@@ -7,6 +7,7 @@ import org.zstack.header.image.ImageBackupStorageRefInventory;
 import org.zstack.header.image.ImageInventory;
 import org.zstack.header.message.Message;
 import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.network.l3.UsedIpInventory;
 import org.zstack.header.network.service.NetworkServiceL3NetworkRefInventory;
 import org.zstack.header.storage.primary.PrimaryStorageInventory;
 import org.zstack.header.vm.VmInstanceConstant.VmOperation;
@@ -168,6 +169,9 @@ public class VmInstanceSpec implements Serializable {
 
     private List<HostName> hostnames = new ArrayList<HostName>();
     private HostInventory destHost;
+    // reserved before the create-vm flow chain when vms are created in a batch
+    private HostInventory preAllocatedHost;
+    private List<UsedIpInventory> preAllocatedIps = new ArrayList<UsedIpInventory>();
     private List<VmNicInventory> destNics = new ArrayList<VmNicInventory>();
     private List<VolumeInventory> destDataVolumes = new ArrayList<VolumeInventory>();
     private VolumeInventory destRootVolume;
@@ -296,6 +300,22 @@ public class VmInstanceSpec implements Serializable {
 		return destHost;
 	}
 
+    public HostInventory getPreAllocatedHost() {
+        return preAllocatedHost;
+    }
+
+    public void setPreAllocatedHost(HostInventory preAllocatedHost) {
+        this.preAllocatedHost = preAllocatedHost;
+    }
+
+    public List<UsedIpInventory> getPreAllocatedIps() {
+        return preAllocatedIps;
+    }
+
+    public void setPreAllocatedIps(List<UsedIpInventory> preAllocatedIps) {
+        this.preAllocatedIps = preAllocatedIps;
+    }
+
 	public void setDestHost(HostInventory destHost) {
 		this.destHost = destHost;
 	}
@@ -7,6 +7,8 @@ import java.util.Map;
 
 public interface AccountManager {
     void createAccountResourceRef(String accountUuid, String resourceUuid, Class<?> resourceClass);
+
+    void createAccountResourceRefs(String accountUuid, List<String> resourceUuids, Class<?> resourceClass);
     
     String getOwnerAccountUuidOfResource(String resourceUuid);
     
@@ -131,7 +131,7 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         List<String> adminMsgs = new ArrayList<String>();
         List<String> userMsgs = new ArrayList<String>();
 
-        List<Class> apiMsgClasses = BeanUtils.scanClassByType("org.zstack", APIMessage.class);
+        List<Class> apiMsgClasses = ClassIndex.getSubTypes("org.zstack", APIMessage.class);
         for (Class clz : apiMsgClasses) {
             if (APISearchMessage.class.isAssignableFrom(clz) || APIGetMessage.class.isAssignableFrom(clz)
                     || APIListMessage.class.isAssignableFrom(clz)) {
@@ -620,7 +620,7 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     }
 
     private void buildActions() {
-        List<Class> apiMsgClasses = BeanUtils.scanClassByType("org.zstack", APIMessage.class);
+        List<Class> apiMsgClasses = ClassIndex.getSubTypes("org.zstack", APIMessage.class);
         for (Class clz : apiMsgClasses) {
             Action a = (Action) clz.getAnnotation(Action.class);
             if (a == null) {
@@ -707,6 +707,19 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         dbf.persist(ref);
     }
 
+    @Override
+    public void createAccountResourceRefs(String accountUuid, List<String> resourceUuids, Class<?> resourceClass) {
+        if (!resourceTypes.contains(resourceClass)) {
+           throw new CloudRuntimeException(String.format("%s is not listed in resourceTypeForAccountRef of AccountManager.xml that is spring configuration. you forgot it???", resourceClass.getName()));
+        }
+
+        List<AccountResourceRefVO> refs = new ArrayList<AccountResourceRefVO>(resourceUuids.size());
+        for (String resourceUuid : resourceUuids) {
+            refs.add(AccountResourceRefVO.newOwn(accountUuid, resourceUuid, resourceClass));
+        }
+        dbf.persistCollection(refs);
+    }
+
     @Override
     public boolean isResourceHavingAccountReference(Class entityClass) {
         return resourceTypes.contains(entityClass);
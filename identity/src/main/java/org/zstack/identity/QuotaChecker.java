@@ -42,7 +42,7 @@ public class QuotaChecker implements GlobalApiMessageInterceptor {
             return msg;
         }
 
-        Quota quota = acntMgr.getMessageQuotaMap().get(msg.getClass());
+        Quota quota = findQuota(msg.getClass());
         if (quota == null) {
             return msg;
         }
@@ -59,6 +59,21 @@ public class QuotaChecker implements GlobalApiMessageInterceptor {
         return msg;
     }
 
+    private Quota findQuota(Class msgClass) {
+        // a message extending another quota-checked message, e.g. APICreateVmInstancesMsg,
+        // is validated by the quota of its parent
+        Class c = msgClass;
+        while (c != null && APIMessage.class.isAssignableFrom(c)) {
+            Quota quota = acntMgr.getMessageQuotaMap().get(c);
+            if (quota != null) {
+                return quota;
+            }
+            c = c.getSuperclass();
+        }
+
+        return null;
+    }
+
     private Map<String, QuotaPair> makeQuotaPairs(Quota quota, SessionInventory session) {
         List<String> names = new ArrayList<String>();
         for (QuotaPair p : quota.getQuotaPairs()) {
@@ -36,8 +36,10 @@ import org.zstack.utils.network.NetworkUtils;
 import javax.persistence.Tuple;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class L3BasicNetwork implements L3Network {
@@ -127,6 +129,8 @@ public class L3BasicNetwork implements L3Network {
     private void handleLocalMessage(Message msg) {
         if (msg instanceof AllocateIpMsg) {
             handle((AllocateIpMsg)msg);
+        } else if (msg instanceof AllocateIpsMsg) {
+            handle((AllocateIpsMsg) msg);
         } else if (msg instanceof ReturnIpMsg) {
             handle((ReturnIpMsg)msg);
         } else if (msg instanceof L3NetworkDeletionMsg) {
@@ -208,6 +212,54 @@ public class L3BasicNetwork implements L3Network {
         bus.reply(msg, reply);
     }
 
+    private List<String> findFreeIps(IpRangeVO ipr, int num, boolean random) {
+        List<Long> used = l3NwMgr.getUsedIpInRange(ipr.getUuid());
+        int total = ipr.size();
+        List<String> ips = new ArrayList<String>(num);
+        if (used.size() >= total) {
+            return ips;
+        }
+
+        long s = NetworkUtils.ipv4StringToLong(ipr.getStartIp());
+        int offset = random ? new Random().nextInt(total) : 0;
+        for (int i = 0; i < total && ips.size() < num; i++) {
+            long ip = s + (offset + i) % total;
+            if (Collections.binarySearch(used, ip) < 0) {
+                ips.add(NetworkUtils.longToIpv4String(ip));
+            }
+        }
+        return ips;
+    }
+
+    private void handle(AllocateIpsMsg msg) {
+        // the used ips of a range are read once and the free ones found are reserved together,
+        // instead of going through the allocator strategy for each ip
+        boolean random = !L3NetworkConstant.FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY.equals(msg.getAllocateStrategy());
+        SimpleQuery<IpRangeVO> q = dbf.createQuery(IpRangeVO.class);
+        q.add(IpRangeVO_.l3NetworkUuid, Op.EQ, self.getUuid());
+        List<IpRangeVO> ranges = q.list();
+        if (random) {
+            Collections.shuffle(ranges);
+        }
+
+        List<UsedIpInventory> ips = new ArrayList<UsedIpInventory>(msg.getIpNum());
+        for (IpRangeVO r : ranges) {
+            while (ips.size() < msg.getIpNum()) {
+                List<String> free = findFreeIps(r, msg.getIpNum() - ips.size(), random);
+                if (free.isEmpty()) {
+                    break;
+                }
+
+                ips.addAll(l3NwMgr.reserveIps(IpRangeInventory.valueOf(r), free));
+            }
+        }
+
+        logger.debug(String.format("reserved %s of %s ips requested in l3Network[name:%s, uuid:%s]", ips.size(), msg.getIpNum(), self.getName(), self.getUuid()));
+        AllocateIpsReply reply = new AllocateIpsReply();
+        reply.setIpInventories(ips);
+        bus.reply(msg, reply);
+    }
+
     private void handleApiMessage(APIMessage msg) {
         if (msg instanceof APIDeleteL3NetworkMsg) {
             handle((APIDeleteL3NetworkMsg) msg);
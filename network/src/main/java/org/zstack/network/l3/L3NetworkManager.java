@@ -9,6 +9,11 @@ public interface L3NetworkManager {
     
     UsedIpInventory reserveIp(IpRangeInventory ipRange, String ip);
 
+    /**
+     * @return the ips reserved, an ip taken by others concurrently is left out
+     */
+    List<UsedIpInventory> reserveIps(IpRangeInventory ipRange, List<String> ips);
+
     boolean isIpRangeFull(IpRangeVO vo);
     
     List<Long> getUsedIpInRange(String ipRangeUuid);
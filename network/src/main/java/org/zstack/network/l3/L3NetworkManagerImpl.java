@@ -39,6 +39,7 @@ import org.zstack.utils.network.NetworkUtils;
 
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.Callable;
 
@@ -46,6 +47,7 @@ import static org.zstack.utils.CollectionDSL.list;
 
 public class L3NetworkManagerImpl extends AbstractService implements L3NetworkManager, ReportQuotaExtensionPoint {
     private static final CLogger logger = Utils.getLogger(L3NetworkManagerImpl.class);
+    private static final int MYSQL_DUPLICATE_ENTRY_ERROR = 1062;
 
     @Autowired
     private CloudBus bus;
@@ -340,17 +342,77 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
         return factory;
     }
 
+    private boolean isDuplicateEntry(Throwable t) {
+        // persistCollection() batches the inserts, the driver may report the violation as a BatchUpdateException
+        // carrying the error code instead of a MySQLIntegrityConstraintViolationException
+        while (t != null) {
+            if (t instanceof MySQLIntegrityConstraintViolationException) {
+                return true;
+            }
+
+            if (t instanceof SQLException) {
+                SQLException se = (SQLException) t;
+                if (se.getErrorCode() == MYSQL_DUPLICATE_ENTRY_ERROR || se.getNextException() instanceof MySQLIntegrityConstraintViolationException) {
+                    return true;
+                }
+            }
+
+            t = t.getCause();
+        }
+
+        return false;
+    }
+
+    private UsedIpVO newUsedIpVO(IpRangeInventory ipRange, String ip) {
+        UsedIpVO vo = new UsedIpVO(ipRange.getUuid(), ip);
+        vo.setIpInLong(NetworkUtils.ipv4StringToLong(ip));
+        String uuid = ipRange.getUuid() + ip;
+        uuid = UUID.nameUUIDFromBytes(uuid.getBytes()).toString().replaceAll("-", "");
+        vo.setUuid(uuid);
+        vo.setL3NetworkUuid(ipRange.getL3NetworkUuid());
+        vo.setNetmask(ipRange.getNetmask());
+        vo.setGateway(ipRange.getGateway());
+        return vo;
+    }
+
+    @Override
+    public List<UsedIpInventory> reserveIps(IpRangeInventory ipRange, List<String> ips) {
+        List<UsedIpVO> vos = new ArrayList<UsedIpVO>(ips.size());
+        List<String> uuids = new ArrayList<String>(ips.size());
+        for (String ip : ips) {
+            UsedIpVO vo = newUsedIpVO(ipRange, ip);
+            vos.add(vo);
+            uuids.add(vo.getUuid());
+        }
+
+        try {
+            dbf.persistCollection(vos);
+            return UsedIpInventory.valueOf(dbf.listByPrimaryKeys(uuids, UsedIpVO.class));
+        } catch (RuntimeException e) {
+            if (!isDuplicateEntry(e)) {
+                throw e;
+            }
+
+            // the collection is persisted in one transaction, nothing of it is left; some ips have been
+            // allocated by others concurrently, reserve the ips one by one to skip them
+            logger.debug(String.format("Concurrent ip allocation. Some of %s ips in ip range[uuid:%s] have been allocated, reserve them one by one",
+                    ips.size(), ipRange.getUuid()));
+            logger.trace("", e);
+            List<UsedIpInventory> ret = new ArrayList<UsedIpInventory>(ips.size());
+            for (String ip : ips) {
+                UsedIpInventory inv = reserveIp(ipRange, ip);
+                if (inv != null) {
+                    ret.add(inv);
+                }
+            }
+            return ret;
+        }
+    }
+
     @Override
     public UsedIpInventory reserveIp(IpRangeInventory ipRange, String ip) {
         try {
-            UsedIpVO vo = new UsedIpVO(ipRange.getUuid(), ip);
-            vo.setIpInLong(NetworkUtils.ipv4StringToLong(ip));
-            String uuid = ipRange.getUuid() + ip;
-            uuid = UUID.nameUUIDFromBytes(uuid.getBytes()).toString().replaceAll("-", "");
-            vo.setUuid(uuid);
-            vo.setL3NetworkUuid(ipRange.getL3NetworkUuid());
-            vo.setNetmask(ipRange.getNetmask());
-            vo.setGateway(ipRange.getGateway());
+            UsedIpVO vo = newUsedIpVO(ipRange, ip);
             vo = dbf.persistAndRefresh(vo);
             return UsedIpInventory.valueOf(vo);
         } catch (JpaSystemException e) {
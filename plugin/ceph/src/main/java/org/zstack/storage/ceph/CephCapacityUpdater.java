@@ -7,11 +7,20 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.GLock;
+import org.zstack.core.thread.ThreadFacade;
 
 import javax.persistence.LockModeType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by frank on 7/28/2015.
+ *
+ * almost every agent response carries the cluster capacity, writing it each time makes every ceph command
+ * take a row lock on CephCapacityVO. update(fsid, total, avail) writes immediately only if the total changes
+ * or the available capacity changes by more than ceph.capacity.update.threshold percent of the total; smaller
+ * changes are coalesced and written once every ceph.capacity.update.interval seconds.
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class CephCapacityUpdater {
@@ -19,9 +28,103 @@ public class CephCapacityUpdater {
     private DatabaseFacade dbf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private static class CapacityState {
+        long total;
+        long avail;
+        long lastWriteTime;
+        long pendingTotal;
+        long pendingAvail;
+        boolean pending;
+        boolean flushScheduled;
+    }
+
+    private static final Map<String, CapacityState> states = new ConcurrentHashMap<String, CapacityState>();
+
+    private static CapacityState getState(String fsid) {
+        CapacityState s = states.get(fsid);
+        if (s == null) {
+            synchronized (states) {
+                s = states.get(fsid);
+                if (s == null) {
+                    s = new CapacityState();
+                    states.put(fsid, s);
+                }
+            }
+        }
+        return s;
+    }
 
     public void update(String fsid, long total, long avail) {
-        update(fsid, total, avail, true);
+        CapacityState s = getState(fsid);
+        long interval = TimeUnit.SECONDS.toMillis(CephGlobalConfig.CAPACITY_UPDATE_INTERVAL.value(Long.class));
+        long threshold = total * CephGlobalConfig.CAPACITY_UPDATE_THRESHOLD.value(Integer.class) / 100;
+        long delay;
+
+        synchronized (s) {
+            long now = System.currentTimeMillis();
+            boolean intervalElapsed = now - s.lastWriteTime >= interval;
+            if (s.lastWriteTime != 0 && s.total == total && s.avail == avail && !intervalElapsed) {
+                s.pending = false;
+                return;
+            }
+
+            boolean write = s.lastWriteTime == 0 || s.total != total || intervalElapsed
+                    || Math.abs(s.avail - avail) >= threshold;
+            if (write) {
+                s.pending = false;
+                delay = -1;
+            } else {
+                s.pendingTotal = total;
+                s.pendingAvail = avail;
+                s.pending = true;
+                if (s.flushScheduled) {
+                    return;
+                }
+
+                s.flushScheduled = true;
+                delay = s.lastWriteTime + interval - now;
+            }
+        }
+
+        if (delay < 0) {
+            update(fsid, total, avail, true);
+        } else {
+            scheduleFlush(fsid, s, delay);
+        }
+    }
+
+    private void scheduleFlush(final String fsid, final CapacityState s, long delay) {
+        thdf.submitTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                long total;
+                long avail;
+                synchronized (s) {
+                    s.flushScheduled = false;
+                    if (!s.pending) {
+                        return;
+                    }
+
+                    s.pending = false;
+                    total = s.pendingTotal;
+                    avail = s.pendingAvail;
+                }
+
+                new CephCapacityUpdater().update(fsid, total, avail, true);
+            }
+        }, TimeUnit.MILLISECONDS, Math.max(delay, 1));
+    }
+
+    private void recordWritten(String fsid, long total, long avail) {
+        CapacityState s = getState(fsid);
+        synchronized (s) {
+            s.total = total;
+            s.avail = avail;
+            s.lastWriteTime = System.currentTimeMillis();
+        }
     }
 
     @Transactional
@@ -61,6 +164,8 @@ public class CephCapacityUpdater {
             }
         }
 
+        recordWritten(fsid, total, avail);
+
         if (updatedAnyway || updated) {
             for (CephCapacityUpdateExtensionPoint ext : pluginRgty.getExtensionList(CephCapacityUpdateExtensionPoint.class)) {
                 ext.update(fsid, total, avail);
@@ -17,4 +17,10 @@ public class CephGlobalConfig {
     public static GlobalConfig BACKUP_STORAGE_DOWNLOAD_IMAGE_TIMEOUT = new GlobalConfig(CATEGORY, "backupStorage.image.download.timeout");
     @GlobalConfigValidation
     public static GlobalConfig PRIMARY_STORAGE_DELETE_POOL = new GlobalConfig(CATEGORY, "primaryStorage.deletePool");
+    @GlobalConfigValidation(numberGreaterThan = -1, numberLessThan = 101)
+    public static GlobalConfig MON_HEDGE_PERCENTILE = new GlobalConfig(CATEGORY, "mon.hedge.percentile");
+    @GlobalConfigValidation(numberGreaterThan = -1, numberLessThan = 101)
+    public static GlobalConfig CAPACITY_UPDATE_THRESHOLD = new GlobalConfig(CATEGORY, "capacity.update.threshold");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig CAPACITY_UPDATE_INTERVAL = new GlobalConfig(CATEGORY, "capacity.update.interval");
 }
@@ -0,0 +1,168 @@
+package org.zstack.storage.ceph;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * sends a command to mons of a ceph storage in the order given by CephMonSelector, failing over to the next mon on
+ * errors.
+ *
+ * if the command is hedgeable, i.e. read-only or idempotent, and the first mon doesn't answer within the latency
+ * percentile of the command (ceph.mon.hedge.percentile), the command is also sent to the next mon and whichever
+ * responds first wins. Mutating commands are never hedged.
+ *
+ * a mon answering that it doesn't serve the path, e.g. an agent of an older version, is failed over like other
+ * errors but not recorded as a failure of the mon, it says nothing about the health of the mon.
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+public abstract class CephMonRequest<T> {
+    private static final CLogger logger = Utils.getLogger(CephMonRequest.class);
+    // 'http status: 404' from RESTFacade, or '404 Not Found' from the exception of RestTemplate
+    private static final Pattern NOT_FOUND = Pattern.compile("(http status: 404\\b)|(^404 Not Found)");
+
+    @Autowired
+    private ThreadFacade thdf;
+
+    private CephMonSelector selector;
+    private String path;
+    private Iterator<String> it;
+    private int inflight;
+    private boolean finished;
+    private List<ErrorCode> errors = new ArrayList<ErrorCode>();
+    private TimeoutTaskReceipt hedgeTimer;
+
+    protected abstract void send(String hostname, ReturnValueCompletion<T> completion);
+
+    protected abstract void done(T ret);
+
+    protected abstract void allFailed(List<ErrorCode> errors);
+
+    static boolean isUnsupportedPath(ErrorCode errorCode) {
+        return errorCode.getDetails() != null && NOT_FOUND.matcher(errorCode.getDetails()).find();
+    }
+
+    public void call(String storageUuid, String path, List<String> hostnames, boolean hedgeable) {
+        selector = CephMonSelector.get(storageUuid);
+        this.path = path;
+        it = selector.order(path, hostnames).iterator();
+
+        long delay = -1;
+        if (hedgeable && hostnames.size() > 1) {
+            delay = selector.getHedgeDelay(path, CephGlobalConfig.MON_HEDGE_PERCENTILE.value(Integer.class));
+        }
+
+        sendToNextMon();
+
+        if (delay > 0) {
+            synchronized (this) {
+                if (!finished) {
+                    hedgeTimer = thdf.submitTimeoutTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            hedge();
+                        }
+                    }, TimeUnit.MILLISECONDS, delay);
+                }
+            }
+        }
+    }
+
+    private void hedge() {
+        synchronized (this) {
+            if (finished || !it.hasNext()) {
+                return;
+            }
+        }
+
+        logger.debug(String.format("no response of http call[%s] in the hedge delay, send it to another mon", path));
+        sendToNextMon();
+    }
+
+    private synchronized String nextMon() {
+        if (!it.hasNext()) {
+            return null;
+        }
+
+        inflight++;
+        return it.next();
+    }
+
+    private synchronized void cancelHedge() {
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel();
+        }
+    }
+
+    private void sendToNextMon() {
+        final String hostname = nextMon();
+        if (hostname == null) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        send(hostname, new ReturnValueCompletion<T>() {
+            @Override
+            public void success(T ret) {
+                selector.record(hostname, path, System.currentTimeMillis() - start, true);
+
+                synchronized (CephMonRequest.this) {
+                    inflight--;
+                    if (finished) {
+                        return;
+                    }
+                    finished = true;
+                }
+
+                cancelHedge();
+                done(ret);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                if (isUnsupportedPath(errorCode)) {
+                    logger.debug(String.format("mon[%s] doesn't serve the http call[%s], %s", hostname, path, errorCode));
+                } else {
+                    selector.record(hostname, path, System.currentTimeMillis() - start, false);
+                }
+
+                boolean next = false;
+                synchronized (CephMonRequest.this) {
+                    inflight--;
+                    if (finished) {
+                        return;
+                    }
+
+                    errors.add(errorCode);
+                    if (it.hasNext()) {
+                        next = true;
+                    } else if (inflight == 0) {
+                        finished = true;
+                    } else {
+                        // a hedged request is still in flight
+                        return;
+                    }
+                }
+
+                if (next) {
+                    sendToNextMon();
+                } else {
+                    cancelHedge();
+                    allFailed(errors);
+                }
+            }
+        });
+    }
+}
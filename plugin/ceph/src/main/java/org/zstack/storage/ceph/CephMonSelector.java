@@ -0,0 +1,146 @@
+package org.zstack.storage.ceph;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tracks latency and error rate of mons of a ceph primary/backup storage, and tells which mon a command should go first.
+ *
+ * commands to the ceph agents differ a lot in time cost (e.g. downloading an image vs deleting a volume), so latencies
+ * are kept per mon per agent path as EWMA, and mons are only compared by the latency of the same path. A mon is
+ * unhealthy if its EWMA error rate is high and it failed recently; unhealthy mons are tried last, and get traffic
+ * again after UNHEALTHY_PERIOD so they can recover.
+ */
+public class CephMonSelector {
+    private static final double ALPHA = 0.3;
+    private static final double UNHEALTHY_ERROR_RATE = 0.5;
+    private static final long UNHEALTHY_PERIOD = TimeUnit.SECONDS.toMillis(60);
+    private static final int SAMPLE_NUM = 128;
+    private static final int MIN_SAMPLE_NUM_TO_HEDGE = 20;
+
+    private static final Map<String, CephMonSelector> selectors = new ConcurrentHashMap<String, CephMonSelector>();
+
+    private final Map<String, MonStatistic> mons = new HashMap<String, MonStatistic>();
+    private final Map<String, LatencySamples> samples = new HashMap<String, LatencySamples>();
+
+    private static class MonStatistic {
+        double errorRate;
+        long lastFailureTime;
+        Map<String, Double> latencies = new HashMap<String, Double>();
+
+        boolean isHealthy(long now) {
+            return errorRate < UNHEALTHY_ERROR_RATE || now - lastFailureTime > UNHEALTHY_PERIOD;
+        }
+
+        double getLatency(String path) {
+            Double l = latencies.get(path);
+            // a mon never tried for the path goes first, so every mon gets sampled
+            return l == null ? 0 : l;
+        }
+    }
+
+    private static class LatencySamples {
+        long[] values = new long[SAMPLE_NUM];
+        int count;
+        int next;
+
+        void add(long v) {
+            values[next] = v;
+            next = (next + 1) % SAMPLE_NUM;
+            count = Math.min(count + 1, SAMPLE_NUM);
+        }
+
+        long percentile(int percentile) {
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(count * percentile / 100.0) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+
+    public static CephMonSelector get(String storageUuid) {
+        CephMonSelector s = selectors.get(storageUuid);
+        if (s == null) {
+            synchronized (selectors) {
+                s = selectors.get(storageUuid);
+                if (s == null) {
+                    s = new CephMonSelector();
+                    selectors.put(storageUuid, s);
+                }
+            }
+        }
+        return s;
+    }
+
+    public static void remove(String storageUuid) {
+        selectors.remove(storageUuid);
+    }
+
+    private MonStatistic getMon(String hostname) {
+        MonStatistic s = mons.get(hostname);
+        if (s == null) {
+            s = new MonStatistic();
+            mons.put(hostname, s);
+        }
+        return s;
+    }
+
+    /**
+     * @return the hostnames in the order they should be tried for the path: healthy mons by latency ascending,
+     * then unhealthy ones. Mons with equal latency are shuffled to spread the load.
+     */
+    public synchronized List<String> order(final String path, List<String> hostnames) {
+        final long now = System.currentTimeMillis();
+        List<String> ret = new ArrayList<String>(hostnames);
+        Collections.shuffle(ret);
+        Collections.sort(ret, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                MonStatistic s1 = getMon(o1);
+                MonStatistic s2 = getMon(o2);
+                boolean h1 = s1.isHealthy(now);
+                boolean h2 = s2.isHealthy(now);
+                if (h1 != h2) {
+                    return h1 ? -1 : 1;
+                }
+
+                return Double.compare(s1.getLatency(path), s2.getLatency(path));
+            }
+        });
+
+        return ret;
+    }
+
+    public synchronized void record(String hostname, String path, long latency, boolean success) {
+        MonStatistic s = getMon(hostname);
+        s.errorRate = ALPHA * (success ? 0 : 1) + (1 - ALPHA) * s.errorRate;
+        if (!success) {
+            s.lastFailureTime = System.currentTimeMillis();
+            return;
+        }
+
+        Double l = s.latencies.get(path);
+        s.latencies.put(path, l == null ? latency : ALPHA * latency + (1 - ALPHA) * l);
+
+        LatencySamples ls = samples.get(path);
+        if (ls == null) {
+            ls = new LatencySamples();
+            samples.put(path, ls);
+        }
+        ls.add(latency);
+    }
+
+    /**
+     * @return the latency percentile, in milliseconds, of the path across all mons; or -1 if there are not enough
+     * samples yet or the percentile is not positive
+     */
+    public synchronized long getHedgeDelay(String path, int percentile) {
+        LatencySamples ls = samples.get(path);
+        if (percentile <= 0 || ls == null || ls.count < MIN_SAMPLE_NUM_TO_HEDGE) {
+            return -1;
+        }
+
+        return ls.percentile(Math.min(percentile, 100));
+    }
+}
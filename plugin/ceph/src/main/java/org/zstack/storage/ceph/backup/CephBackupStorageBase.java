@@ -195,54 +195,31 @@ public class CephBackupStorageBase extends BackupStorageBase {
         cmd.setFsid(getSelf().getFsid());
         cmd.setUuid(self.getUuid());
 
-        final List<CephBackupStorageMonBase> mons = new ArrayList<CephBackupStorageMonBase>();
+        final List<String> hostnames = new ArrayList<String>();
         for (CephBackupStorageMonVO monvo : getSelf().getMons()) {
             if (monvo.getStatus() == MonStatus.Connected) {
-                mons.add(new CephBackupStorageMonBase(monvo));
+                hostnames.add(monvo.getHostname());
             }
         }
 
-        if (mons.isEmpty()) {
+        if (hostnames.isEmpty()) {
             throw new OperationFailureException(errf.stringToOperationError(
                     String.format("all ceph mons are Disconnected in ceph backup storage[uuid:%s]", self.getUuid())
             ));
         }
 
-        Collections.shuffle(mons);
-
-        class HttpCaller {
-            Iterator<CephBackupStorageMonBase> it = mons.iterator();
-            List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
-
-            void call() {
-                if (!it.hasNext()) {
-                    callback.fail(errf.stringToOperationError(
-                            String.format("all mons failed to execute http call[%s], errors are %s", path, JSONObjectUtil.toJsonString(errorCodes))
-                    ));
-
-                    return;
-                }
-
-                CephBackupStorageMonBase base = it.next();
-
-                restf.asyncJsonPost(makeHttpPath(base.getSelf().getHostname(), path), cmd, new JsonAsyncRESTCallback<T>() {
+        new CephMonRequest<T>() {
+            @Override
+            protected void send(String hostname, final ReturnValueCompletion<T> completion) {
+                restf.asyncJsonPost(makeHttpPath(hostname, path), cmd, new JsonAsyncRESTCallback<T>() {
                     @Override
                     public void fail(ErrorCode err) {
-                        errorCodes.add(err);
-                        call();
+                        completion.fail(err);
                     }
 
                     @Override
                     public void success(T ret) {
-                        if (!ret.success) {
-                            callback.fail(errf.stringToOperationError(ret.error));
-                        } else {
-                            if (!(cmd instanceof InitCmd)) {
-                                updateCapacityIfNeeded(ret);
-                            }
-
-                            callback.success(ret);
-                        }
+                        completion.success(ret);
                     }
 
                     @Override
@@ -251,9 +228,26 @@ public class CephBackupStorageBase extends BackupStorageBase {
                     }
                 });
             }
-        }
 
-        new HttpCaller().call();
+            @Override
+            protected void done(T ret) {
+                if (!ret.success) {
+                    callback.fail(errf.stringToOperationError(ret.error));
+                } else {
+                    if (!(cmd instanceof InitCmd)) {
+                        updateCapacityIfNeeded(ret);
+                    }
+                    callback.success(ret);
+                }
+            }
+
+            @Override
+            protected void allFailed(List<ErrorCode> errorCodes) {
+                callback.fail(errf.stringToOperationError(
+                        String.format("all mons failed to execute http call[%s], errors are %s", path, JSONObjectUtil.toJsonString(errorCodes))
+                ));
+            }
+        }.call(self.getUuid(), path, hostnames, PING_PATH.equals(path));
     }
 
     public CephBackupStorageBase(BackupStorageVO self) {
@@ -619,5 +613,6 @@ public class CephBackupStorageBase extends BackupStorageBase {
     @Override
     public void deleteHook() {
         dbf.removeCollection(getSelf().getMons(), CephBackupStorageMonVO.class);
+        CephMonSelector.remove(self.getUuid());
     }
 }
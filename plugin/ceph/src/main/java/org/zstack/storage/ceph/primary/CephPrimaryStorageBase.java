@@ -50,6 +50,9 @@ import org.zstack.storage.backup.sftp.SftpBackupStorageConstant;
 import org.zstack.storage.ceph.*;
 import org.zstack.storage.ceph.backup.CephBackupStorageVO;
 import org.zstack.storage.ceph.backup.CephBackupStorageVO_;
+import org.zstack.storage.primary.ImageCacheKey;
+import org.zstack.storage.primary.ImageCacheLoader;
+import org.zstack.storage.primary.ImageCacheManager;
 import org.zstack.storage.primary.PrimaryStorageBase;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
@@ -75,6 +78,8 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
     private ThreadFacade thdf;
     @Autowired
     private ApiTimeoutManager timeoutMgr;
+    @Autowired
+    private ImageCacheManager imageCacheMgr;
 
 
     public static class AgentCommand {
@@ -965,15 +970,6 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         ImageSpec image;
 
         private void doDownload(final ReturnValueCompletion<ImageCacheVO> completion) {
-            SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
-            q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getInventory().getUuid());
-            q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, self.getUuid());
-            ImageCacheVO cache = q.find();
-            if (cache != null) {
-                completion.success(cache);
-                return;
-            }
-
             final FlowChain chain = FlowChainBuilder.newShareFlowChain();
             chain.setName(String.format("prepare-image-cache-ceph-%s", self.getUuid()));
             chain.then(new ShareFlow() {
@@ -1172,34 +1168,12 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         }
 
         void download(final ReturnValueCompletion<ImageCacheVO> completion) {
-            thdf.chainSubmit(new ChainTask(completion) {
-                @Override
-                public String getSyncSignature() {
-                    return String.format("ceph-p-%s-download-image-%s", self.getUuid(), image.getInventory().getUuid());
-                }
-
-                @Override
-                public void run(final SyncTaskChain chain) {
-                    doDownload(new ReturnValueCompletion<ImageCacheVO>(chain) {
-                        @Override
-                        public void success(ImageCacheVO returnValue) {
-                            completion.success(returnValue);
-                            chain.next();
-                        }
-
-                        @Override
-                        public void fail(ErrorCode errorCode) {
-                            completion.fail(errorCode);
-                            chain.next();
-                        }
-                    });
-                }
-
+            imageCacheMgr.populate(new ImageCacheKey(self.getUuid(), image.getInventory().getUuid()), new ImageCacheLoader() {
                 @Override
-                public String getName() {
-                    return getSyncSignature();
+                public void load(ReturnValueCompletion<ImageCacheVO> completion) {
+                    doDownload(completion);
                 }
-            });
+            }, completion);
         }
     }
 
@@ -1426,53 +1400,32 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         cmd.setUuid(self.getUuid());
         cmd.setFsId(getSelf().getFsid());
 
-        final List<CephPrimaryStorageMonBase> mons = new ArrayList<CephPrimaryStorageMonBase>();
+        final List<String> hostnames = new ArrayList<String>();
         for (CephPrimaryStorageMonVO monvo : getSelf().getMons()) {
             if (monvo.getStatus() == MonStatus.Connected) {
-                mons.add(new CephPrimaryStorageMonBase(monvo));
+                hostnames.add(monvo.getHostname());
             }
         }
 
-        if (mons.isEmpty()) {
+        if (hostnames.isEmpty()) {
             throw new OperationFailureException(errf.stringToOperationError(
                     String.format("all ceph mons of primary storage[uuid:%s] are not in Connected state", self.getUuid())
             ));
         }
 
-        Collections.shuffle(mons);
-
-        class HttpCaller {
-            Iterator<CephPrimaryStorageMonBase> it = mons.iterator();
-            List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
-
-            void call() {
-                if (!it.hasNext()) {
-                    callback.fail(errf.stringToOperationError(
-                            String.format("all mons failed to execute http call[%s], errors are %s", path, JSONObjectUtil.toJsonString(errorCodes))
-                    ));
-
-                    return;
-                }
-
-                CephPrimaryStorageMonBase base = it.next();
-
-                restf.asyncJsonPost(makeHttpPath(base.getSelf().getHostname(), path), cmd, new JsonAsyncRESTCallback<T>(callback) {
+        // every command of the primary storage agent mutates images or pools, so none is hedged
+        new CephMonRequest<T>() {
+            @Override
+            protected void send(String hostname, final ReturnValueCompletion<T> completion) {
+                restf.asyncJsonPost(makeHttpPath(hostname, path), cmd, new JsonAsyncRESTCallback<T>(callback) {
                     @Override
                     public void fail(ErrorCode err) {
-                        errorCodes.add(err);
-                        call();
+                        completion.fail(err);
                     }
 
                     @Override
                     public void success(T ret) {
-                        if (!ret.success) {
-                            callback.fail(errf.stringToOperationError(ret.error));
-                        } else {
-                            if (!(cmd instanceof InitCmd)) {
-                                updateCapacityIfNeeded(ret);
-                            }
-                            callback.success(ret);
-                        }
+                        completion.success(ret);
                     }
 
                     @Override
@@ -1481,9 +1434,26 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
                     }
                 });
             }
-        }
 
-        new HttpCaller().call();
+            @Override
+            protected void done(T ret) {
+                if (!ret.success) {
+                    callback.fail(errf.stringToOperationError(ret.error));
+                } else {
+                    if (!(cmd instanceof InitCmd)) {
+                        updateCapacityIfNeeded(ret);
+                    }
+                    callback.success(ret);
+                }
+            }
+
+            @Override
+            protected void allFailed(List<ErrorCode> errorCodes) {
+                callback.fail(errf.stringToOperationError(
+                        String.format("all mons failed to execute http call[%s], errors are %s", path, JSONObjectUtil.toJsonString(errorCodes))
+                ));
+            }
+        }.call(self.getUuid(), path, hostnames, false);
     }
 
     protected String makeHttpPath(String ip, String path) {
@@ -1792,11 +1762,108 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             handle((BackupVolumeSnapshotFromPrimaryStorageToBackupStorageMsg) msg);
         } else if (msg instanceof CreateKvmSecretMsg) {
             handle((CreateKvmSecretMsg) msg);
+        } else if (msg instanceof PrimaryStorageRemoveCachedImageMsg) {
+            handle((PrimaryStorageRemoveCachedImageMsg) msg);
         } else {
             super.handleLocalMessage(msg);
         }
     }
 
+    private void handle(final PrimaryStorageRemoveCachedImageMsg msg) {
+        final PrimaryStorageRemoveCachedImageReply reply = new PrimaryStorageRemoveCachedImageReply();
+        // the install url of a cache is the snapshot protected when downloading the cache, rbd refuses to
+        // remove an image having snapshots, so unprotect and delete the snapshot before the image
+        final String snapshotPath = msg.getInventory().getInstallUrl();
+        final String imagePath = snapshotPath.split("@")[0];
+
+        FlowChain chain = FlowChainBuilder.newShareFlowChain();
+        chain.setName(String.format("remove-image-cache-%s-on-ceph-primary-storage-%s", msg.getInventory().getId(), self.getUuid()));
+        chain.then(new ShareFlow() {
+            @Override
+            public void setup() {
+                if (!snapshotPath.equals(imagePath)) {
+                    flow(new NoRollbackFlow() {
+                        String __name__ = "unprotect-snapshot";
+
+                        @Override
+                        public void run(final FlowTrigger trigger, Map data) {
+                            UnprotectedSnapshotCmd cmd = new UnprotectedSnapshotCmd();
+                            cmd.snapshotPath = snapshotPath;
+                            httpCall(UNPROTECT_SNAPSHOT_PATH, cmd, UnprotectedSnapshotRsp.class, new ReturnValueCompletion<UnprotectedSnapshotRsp>(trigger) {
+                                @Override
+                                public void success(UnprotectedSnapshotRsp returnValue) {
+                                    trigger.next();
+                                }
+
+                                @Override
+                                public void fail(ErrorCode errorCode) {
+                                    trigger.fail(errorCode);
+                                }
+                            });
+                        }
+                    });
+
+                    flow(new NoRollbackFlow() {
+                        String __name__ = "delete-snapshot";
+
+                        @Override
+                        public void run(final FlowTrigger trigger, Map data) {
+                            DeleteSnapshotCmd cmd = new DeleteSnapshotCmd();
+                            cmd.snapshotPath = snapshotPath;
+                            httpCall(DELETE_SNAPSHOT_PATH, cmd, DeleteSnapshotRsp.class, new ReturnValueCompletion<DeleteSnapshotRsp>(trigger) {
+                                @Override
+                                public void success(DeleteSnapshotRsp returnValue) {
+                                    trigger.next();
+                                }
+
+                                @Override
+                                public void fail(ErrorCode errorCode) {
+                                    trigger.fail(errorCode);
+                                }
+                            });
+                        }
+                    });
+                }
+
+                flow(new NoRollbackFlow() {
+                    String __name__ = "delete-image";
+
+                    @Override
+                    public void run(final FlowTrigger trigger, Map data) {
+                        DeleteCmd cmd = new DeleteCmd();
+                        cmd.installPath = imagePath;
+                        httpCall(DELETE_PATH, cmd, DeleteRsp.class, new ReturnValueCompletion<DeleteRsp>(trigger) {
+                            @Override
+                            public void success(DeleteRsp returnValue) {
+                                trigger.next();
+                            }
+
+                            @Override
+                            public void fail(ErrorCode errorCode) {
+                                trigger.fail(errorCode);
+                            }
+                        });
+                    }
+                });
+
+                done(new FlowDoneHandler(msg) {
+                    @Override
+                    public void handle(Map data) {
+                        bus.reply(msg, reply);
+                    }
+                });
+
+                error(new FlowErrorHandler(msg) {
+                    @Override
+                    public void handle(ErrorCode errCode, Map data) {
+                        reply.setError(errCode);
+                        bus.reply(msg, reply);
+                    }
+                });
+            }
+        }).start();
+    }
+
     private void handle(final CreateKvmSecretMsg msg) {
         final CreateKvmSecretReply reply = new CreateKvmSecretReply();
         createSecretOnKvmHosts(msg.getHostUuids(), new Completion(msg) {
@@ -2065,5 +2132,6 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             }
         }
         dbf.removeCollection(getSelf().getMons(), CephPrimaryStorageMonVO.class);
+        CephMonSelector.remove(self.getUuid());
     }
 }
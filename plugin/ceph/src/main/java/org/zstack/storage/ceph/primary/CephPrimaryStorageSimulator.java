@@ -127,6 +127,19 @@ public class CephPrimaryStorageSimulator {
         size = size == null ? 0 : size;
 
         DeleteRsp rsp = new DeleteRsp();
+        if (config.checkSnapshots) {
+            synchronized (config.snapshots) {
+                for (String sp : config.snapshots) {
+                    if (sp.startsWith(cmd.getInstallPath() + "@")) {
+                        rsp.success = false;
+                        rsp.error = String.format("image %s has snapshots", cmd.getInstallPath());
+                        reply(entity, rsp);
+                        return null;
+                    }
+                }
+            }
+        }
+
         setCapacity(cmd, rsp, size);
         reply(entity, rsp);
         return null;
@@ -137,6 +150,7 @@ public class CephPrimaryStorageSimulator {
     String createSnapshot(HttpEntity<String> entity) {
         CreateSnapshotCmd cmd = JSONObjectUtil.toObject(entity.getBody(), CreateSnapshotCmd.class);
         config.createSnapshotCmds.add(cmd);
+        config.snapshots.add(cmd.getSnapshotPath());
 
         reply(entity, new CreateSnapshotRsp());
         return null;
@@ -148,7 +162,14 @@ public class CephPrimaryStorageSimulator {
         DeleteSnapshotCmd cmd = JSONObjectUtil.toObject(entity.getBody(), DeleteSnapshotCmd.class);
         config.deleteSnapshotCmds.add(cmd);
 
-        reply(entity, new DeleteSnapshotRsp());
+        DeleteSnapshotRsp rsp = new DeleteSnapshotRsp();
+        if (config.checkSnapshots && config.protectedSnapshots.contains(cmd.getSnapshotPath())) {
+            rsp.success = false;
+            rsp.error = String.format("snapshot %s is protected", cmd.getSnapshotPath());
+        } else {
+            config.snapshots.remove(cmd.getSnapshotPath());
+        }
+        reply(entity, rsp);
         return null;
     }
 
@@ -157,6 +178,7 @@ public class CephPrimaryStorageSimulator {
     String protectSnapshot(HttpEntity<String> entity) {
         ProtectSnapshotCmd cmd = JSONObjectUtil.toObject(entity.getBody(), ProtectSnapshotCmd.class);
         config.protectSnapshotCmds.add(cmd);
+        config.protectedSnapshots.add(cmd.getSnapshotPath());
 
         reply(entity, new ProtectSnapshotRsp());
         return null;
@@ -167,6 +189,7 @@ public class CephPrimaryStorageSimulator {
     String unprotectSnapshot(HttpEntity<String> entity) {
         UnprotectedSnapshotCmd cmd = JSONObjectUtil.toObject(entity.getBody(), UnprotectedSnapshotCmd.class);
         config.unprotectedSnapshotCmds.add(cmd);
+        config.protectedSnapshots.remove(cmd.getSnapshotPath());
 
         reply(entity, new UnprotectedSnapshotRsp());
         return null;
@@ -2,10 +2,7 @@ package org.zstack.storage.ceph.primary;
 
 import org.zstack.storage.ceph.primary.CephPrimaryStorageBase.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Created by frank on 7/28/2015.
@@ -32,4 +29,9 @@ public class CephPrimaryStorageSimulatorConfig {
     public List<RollbackSnapshotCmd> rollbackSnapshotCmds = new ArrayList<RollbackSnapshotCmd>();
     public List<CreateKvmSecretCmd> createKvmSecretCmds = new ArrayList<CreateKvmSecretCmd>();
     public List<DeletePoolCmd> deletePoolCmds = new ArrayList<DeletePoolCmd>();
+    // snapshots existing and protected on the simulated cluster
+    public Set<String> snapshots = Collections.synchronizedSet(new HashSet<String>());
+    public Set<String> protectedSnapshots = Collections.synchronizedSet(new HashSet<String>());
+    // fail deleting a protected snapshot or an image having snapshots, as rbd does
+    public volatile boolean checkSnapshots;
 }
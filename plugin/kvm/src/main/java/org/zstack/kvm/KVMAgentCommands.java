@@ -801,10 +801,26 @@ public class KVMAgentCommands {
     
     
     public static class VmSyncCmd extends AgentCommand {
+        // the epoch of the last vm sync the management node has processed, the agent
+        // reports only vms changed since then. Null asks for all vms
+        private Long sinceEpoch;
+
+        public Long getSinceEpoch() {
+            return sinceEpoch;
+        }
+
+        public void setSinceEpoch(Long sinceEpoch) {
+            this.sinceEpoch = sinceEpoch;
+        }
     }
     
     public static class VmSyncResponse extends AgentResponse {
         private HashMap<String, String> states;
+        // the current epoch of the agent, null if the agent doesn't support incremental vm sync
+        private Long epoch;
+        // true if states only contains vms changed since VmSyncCmd.sinceEpoch, vms gone from the
+        // host are reported as Shutdown; false if states contains all vms on the host
+        private boolean changesOnly;
 
         public HashMap<String, String> getStates() {
             return states;
@@ -812,6 +828,22 @@ public class KVMAgentCommands {
         public void setStates(HashMap<String, String> states) {
             this.states = states;
         }
+
+        public Long getEpoch() {
+            return epoch;
+        }
+
+        public void setEpoch(Long epoch) {
+            this.epoch = epoch;
+        }
+
+        public boolean isChangesOnly() {
+            return changesOnly;
+        }
+
+        public void setChangesOnly(boolean changesOnly) {
+            this.changesOnly = changesOnly;
+        }
     }
     
     public static class RefreshAllRulesOnHostCmd extends AgentCommand {
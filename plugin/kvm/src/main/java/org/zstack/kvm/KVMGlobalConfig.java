@@ -32,4 +32,6 @@ public class KVMGlobalConfig {
     public static GlobalConfig NESTED_VIRTUALIZATION = new GlobalConfig(CATEGORY, "vm.cpuMode");
     @GlobalConfigValidation
     public static GlobalConfig VM_SYNC_ON_HOST_PING = new GlobalConfig(CATEGORY, "vmSyncOnHostPing");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig VM_FULL_SYNC_INTERVAL = new GlobalConfig(CATEGORY, "vmFullSyncInterval");
 }
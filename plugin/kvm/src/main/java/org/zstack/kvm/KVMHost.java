@@ -1857,6 +1857,7 @@ public class KVMHost extends HostBase implements Host {
                             runner.setAgentPort(KVMGlobalProperty.AGENT_PORT);
                             runner.setTargetIp(getSelf().getManagementIp());
                             runner.setPlayBookName(KVMConstant.ANSIBLE_PLAYBOOK_NAME);
+                            runner.setDeployGroup(self.getClusterUuid());
                             runner.setUsername(getSelf().getUsername());
                             runner.setPassword(getSelf().getPassword());
                             if (info.isNewAdded()) {
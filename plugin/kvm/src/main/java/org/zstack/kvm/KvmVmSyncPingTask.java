@@ -33,6 +33,7 @@ import org.zstack.utils.logging.CLogger;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtensionPoint, KVMHostConnectExtensionPoint,
         HostConnectionReestablishExtensionPoint, HostAfterConnectedExtensionPoint, Component {
@@ -51,9 +52,40 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
     @Autowired
     private ApiTimeoutManager timeoutMgr;
 
+    /**
+     * the epoch of the last vm sync of a host and the number of incremental syncs after the last full one.
+     * A sync without epoch, e.g. after the host connects or a sync fails, is a full one
+     */
+    private static class SyncEpoch {
+        Long epoch;
+        int changesOnlySyncNum;
+    }
+
+    private Map<String, SyncEpoch> syncEpochs = new ConcurrentHashMap<String, SyncEpoch>();
+
+    private Long getEpochToSyncFrom(String hostUuid) {
+        SyncEpoch e = syncEpochs.get(hostUuid);
+        if (e == null || e.epoch == null) {
+            return null;
+        }
+
+        if (e.changesOnlySyncNum + 1 >= KVMGlobalConfig.VM_FULL_SYNC_INTERVAL.value(Integer.class)) {
+            return null;
+        }
+
+        return e.epoch;
+    }
+
     private void syncVm(final HostInventory host, final Completion completion) {
+        syncVm(host, false, completion);
+    }
+
+    private void syncVm(final HostInventory host, boolean full, final Completion completion) {
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         VmSyncCmd cmd = new VmSyncCmd();
+        if (!full) {
+            cmd.setSinceEpoch(getEpochToSyncFrom(host.getUuid()));
+        }
         msg.setCommand(cmd);
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
         msg.setNoStatusCheck(true);
@@ -64,6 +96,7 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
+                    syncEpochs.remove(host.getUuid());
                     completion.fail(reply.getError());
                     return;
                 }
@@ -74,14 +107,32 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
                     Map<String, VmInstanceState> states = new HashMap<String, VmInstanceState>(ret.getStates().size());
                     for (Map.Entry<String, String> e : ret.getStates().entrySet()) {
                         VmInstanceState state = KvmVmState.valueOf(e.getValue()).toVmInstanceState();
-                        if (state == VmInstanceState.Running || state == VmInstanceState.Unknown) {
+                        if (ret.isChangesOnly() || state == VmInstanceState.Running || state == VmInstanceState.Unknown) {
                             states.put(e.getKey(), state);
                         }
                     }
 
-                    reportVmState(host.getUuid(), states);
+                    SyncEpoch epoch = syncEpochs.get(host.getUuid());
+                    if (epoch == null) {
+                        epoch = new SyncEpoch();
+                        syncEpochs.put(host.getUuid(), epoch);
+                    }
+
+                    if (!ret.isChangesOnly()) {
+                        reportVmState(host.getUuid(), states);
+                        epoch.epoch = ret.getEpoch();
+                        epoch.changesOnlySyncNum = 0;
+                    } else if (reportVmStateChanges(host.getUuid(), states)) {
+                        epoch.epoch = ret.getEpoch();
+                        epoch.changesOnlySyncNum++;
+                    } else {
+                        // the management node has no vm states of the host to compare the changes with
+                        epoch.epoch = null;
+                    }
+
                     completion.success();
                 } else {
+                    syncEpochs.remove(host.getUuid());
                     ErrorCode errorCode = errf.stringToOperationError(String.format("unable to do vm sync on host[uuid:%s, ip:%s] because %s", host.getUuid(), host.getManagementIp(), ret.getError()));
                     logger.warn(errorCode.toString());
                     completion.fail(errorCode);
@@ -107,7 +158,7 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
     @Override
     public void kvmHostConnected(KVMHostConnectedContext context) throws KVMHostConnectException {
         FutureCompletion completion = new FutureCompletion();
-        syncVm(context.getInventory(), completion);
+        syncVm(context.getInventory(), true, completion);
         completion.await();
         if (completion.getErrorCode() != null) {
             throw new OperationFailureException(completion.getErrorCode());
@@ -116,7 +167,7 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
 
     @Override
     public void connectionReestablished(HostInventory inv) throws HostException {
-        syncVm(inv, new NopeCompletion());
+        syncVm(inv, true, new NopeCompletion());
     }
 
     @Override
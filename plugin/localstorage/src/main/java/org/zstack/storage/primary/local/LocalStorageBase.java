@@ -67,6 +67,8 @@ public class LocalStorageBase extends PrimaryStorageBase {
     protected PrimaryStorageOverProvisioningManager ratioMgr;
     @Autowired
     protected PrimaryStoragePhysicalCapacityManager physicalCapacityMgr;
+    @Autowired
+    protected LocalStorageResourceRefIndex refIndex;
 
     static class FactoryCluster {
         LocalStorageHypervisorFactory factory;
@@ -277,6 +279,12 @@ public class LocalStorageBase extends PrimaryStorageBase {
                         }
 
                         dbf.updateCollection(refs);
+
+                        List<String> resUuids = new ArrayList<String>();
+                        for (LocalStorageResourceRefVO r : refs) {
+                            resUuids.add(r.getResourceUuid());
+                        }
+                        refIndex.refsMoved(self.getUuid(), resUuids, msg.getDestHostUuid());
                         trigger.next();
                     }
                 });
@@ -386,6 +394,8 @@ public class LocalStorageBase extends PrimaryStorageBase {
             handle((LocalStorageReturnHostCapacityMsg) msg);
         } else if (msg instanceof LocalStorageHypervisorSpecificMessage) {
             handle((LocalStorageHypervisorSpecificMessage) msg);
+        } else if (msg instanceof PrimaryStorageRemoveCachedImageMsg) {
+            handle((PrimaryStorageRemoveCachedImageMsg) msg);
         } else {
             super.handleLocalMessage(msg);
         }
@@ -397,6 +407,39 @@ public class LocalStorageBase extends PrimaryStorageBase {
         bkd.handleHypervisorSpecificMessage(msg);
     }
 
+    private void handle(final PrimaryStorageRemoveCachedImageMsg msg) {
+        final PrimaryStorageRemoveCachedImageReply reply = new PrimaryStorageRemoveCachedImageReply();
+        final ImageCacheInventory cache = msg.getInventory();
+        final LocalStorageKvmBackend.CacheInstallPath path = new LocalStorageKvmBackend.CacheInstallPath();
+        path.fullPath = cache.getInstallUrl();
+        path.disassemble();
+
+        LocalStorageHypervisorFactory f = getHypervisorBackendFactoryByHostUuid(path.hostUuid);
+        LocalStorageHypervisorBackend bkd = f.getHypervisorBackend(self);
+        bkd.deleteBits(path.installPath, path.hostUuid, new Completion(msg) {
+            @Override
+            public void success() {
+                // the cache was allocated without over-provisioning on the host, see ImageCache in the backend
+                returnCapacityToHost(path.hostUuid, cache.getSize());
+
+                ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
+                rmsg.setPrimaryStorageUuid(self.getUuid());
+                rmsg.setDiskSize(cache.getSize());
+                rmsg.setNoOverProvisioning(true);
+                bus.makeLocalServiceId(rmsg, PrimaryStorageConstant.SERVICE_ID);
+                bus.send(rmsg);
+
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
     private void handle(LocalStorageReturnHostCapacityMsg msg) {
         LocalStorageReturnHostCapacityReply reply = new LocalStorageReturnHostCapacityReply();
         long size = msg.isNoOverProvisioning() ? msg.getSize() : ratioMgr.calculateByRatio(self.getUuid(), msg.getSize());
@@ -794,10 +837,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
     }
 
     private String getHostUuidByResourceUuid(String resUuid) {
-        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
-        q.select(LocalStorageResourceRefVO_.hostUuid);
-        q.add(LocalStorageResourceRefVO_.resourceUuid, Op.EQ, resUuid);
-        return q.findValue();
+        return refIndex.getHostUuid(self.getUuid(), resUuid);
     }
 
     private void handle(final DeleteSnapshotOnPrimaryStorageMsg msg) {
@@ -847,6 +887,8 @@ public class LocalStorageBase extends PrimaryStorageBase {
         // on remove, substract the total capacity from every capacity
         decreaseCapacity(ref.getTotalCapacity(), ref.getTotalCapacity(), ref.getTotalCapacity(), ref.getTotalCapacity(), ref.getSystemUsedCapacity());
         dbf.remove(ref);
+        // refs of resources on the host are deleted by the database when the host is cleaned up
+        refIndex.invalidate(self.getUuid());
         bus.reply(msg, new RemoveHostFromLocalStorageReply());
     }
 
@@ -1084,6 +1126,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
         q.add(LocalStorageResourceRefVO_.resourceUuid, Op.EQ, resourceUuid);
         LocalStorageResourceRefVO ref = q.find();
         dbf.remove(ref);
+        refIndex.refDeleted(self.getUuid(), resourceUuid);
     }
 
     private void createResourceRefVO(String resUuid, String resType, long size, String hostUuid) {
@@ -1094,14 +1137,12 @@ public class LocalStorageBase extends PrimaryStorageBase {
         ref.setResourceUuid(resUuid);
         ref.setHostUuid(hostUuid);
         dbf.persist(ref);
+        refIndex.refCreated(ref);
     }
 
     @Override
     protected void handle(final DeleteVolumeOnPrimaryStorageMsg msg) {
-        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
-        q.add(LocalStorageResourceRefVO_.resourceUuid, Op.EQ, msg.getVolume().getUuid());
-        q.add(LocalStorageResourceRefVO_.resourceType, Op.EQ, VolumeVO.class.getSimpleName());
-        if (!q.isExists()) {
+        if (!refIndex.isOnPrimaryStorage(self.getUuid(), msg.getVolume().getUuid(), VolumeVO.class.getSimpleName())) {
             logger.debug(String.format("volume[uuid:%s] is not on the local storage[uuid:%s, name:%s]," +
                             "the host the volume is on may have been deleted",
                     msg.getVolume().getUuid(), self.getUuid(), self.getName()));
@@ -1372,11 +1413,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
                 done(new FlowDoneHandler(msg) {
                     @Override
                     public void handle(Map data) {
-                        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
-                        q.add(LocalStorageResourceRefVO_.resourceUuid, Op.EQ, msg.getIsoSpec().getInventory().getUuid());
-                        q.add(LocalStorageResourceRefVO_.primaryStorageUuid, Op.EQ, self.getUuid());
-                        q.add(LocalStorageResourceRefVO_.resourceType, Op.EQ, ImageVO.class.getSimpleName());
-                        if (!q.isExists()) {
+                        if (!refIndex.isOnPrimaryStorage(self.getUuid(), msg.getIsoSpec().getInventory().getUuid(), ImageVO.class.getSimpleName())) {
                             createResourceRefVO(msg.getIsoSpec().getInventory().getUuid(), ImageVO.class.getSimpleName(),
                                     msg.getIsoSpec().getInventory().getSize(), msg.getDestHostUuid());
                         }
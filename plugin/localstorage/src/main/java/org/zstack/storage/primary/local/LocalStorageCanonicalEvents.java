@@ -0,0 +1,52 @@
+package org.zstack.storage.primary.local;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.List;
+
+/**
+ */
+public class LocalStorageCanonicalEvents {
+    public static final String RESOURCE_REF_CHANGED_PATH = "/localStorage/resourceRef/change";
+
+    @NeedJsonSchema
+    public static class ResourceRefChangedData {
+        private String managementNodeId;
+        private String primaryStorageUuid;
+        private List<String> resourceUuids;
+        // the host the resources moved to, null if the resources are deleted
+        private String hostUuid;
+
+        public String getManagementNodeId() {
+            return managementNodeId;
+        }
+
+        public void setManagementNodeId(String managementNodeId) {
+            this.managementNodeId = managementNodeId;
+        }
+
+        public String getPrimaryStorageUuid() {
+            return primaryStorageUuid;
+        }
+
+        public void setPrimaryStorageUuid(String primaryStorageUuid) {
+            this.primaryStorageUuid = primaryStorageUuid;
+        }
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+
+        public String getHostUuid() {
+            return hostUuid;
+        }
+
+        public void setHostUuid(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+    }
+}
@@ -65,6 +65,8 @@ public class LocalStorageFactory implements PrimaryStorageFactory, Component,
     private CloudBus bus;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private LocalStorageResourceRefIndex refIndex;
 
     private Map<String, LocalStorageBackupStorageMediator> backupStorageMediatorMap = new HashMap<String, LocalStorageBackupStorageMediator>();
 
@@ -80,6 +82,7 @@ public class LocalStorageFactory implements PrimaryStorageFactory, Component,
 
     @Override
     public void afterRecalculatePrimaryStorageCapacity(RecalculatePrimaryStorageCapacityStruct struct) {
+        refIndex.invalidate(struct.getPrimaryStorageUuid());
         new LocalStorageCapacityRecalculator().calculateByPrimaryStorageUuid(struct.getPrimaryStorageUuid());
     }
 
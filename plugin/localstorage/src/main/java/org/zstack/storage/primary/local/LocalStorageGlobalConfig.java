@@ -0,0 +1,17 @@
+package org.zstack.storage.primary.local;
+
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigDefinition;
+import org.zstack.core.config.GlobalConfigValidation;
+
+/**
+ */
+@GlobalConfigDefinition
+public class LocalStorageGlobalConfig {
+    public static final String CATEGORY = "localStoragePrimaryStorage";
+
+    @GlobalConfigValidation
+    public static GlobalConfig IMAGE_CACHE_PEER_DISTRIBUTION = new GlobalConfig(CATEGORY, "imageCache.peerDistribution");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_PEER_DISTRIBUTION_MAX_COPIES_PER_SOURCE = new GlobalConfig(CATEGORY, "imageCache.peerDistribution.maxCopiesPerSource");
+}
@@ -0,0 +1,196 @@
+package org.zstack.storage.primary.local;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.host.HostStatus;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.host.HostVO_;
+import org.zstack.header.storage.primary.ImageCacheState;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.ImageCacheVO_;
+import org.zstack.storage.primary.local.LocalStorageKvmBackend.CacheInstallPath;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+
+/**
+ * plans where a host gets an image cache from when imageCache.peerDistribution is on.
+ *
+ * sources of an image are the backup storage and the connected hosts of the local primary storage having the image
+ * cached at the same path. Each source serves at most imageCache.peerDistribution.maxCopiesPerSource hosts at a time;
+ * hosts coming when all sources are busy wait, and every host finishing its copy becomes a new source, so the image
+ * spreads as a fan-out tree instead of every host pulling it from the backup storage. Hosts are preferred over the
+ * backup storage, the least busy one first.
+ */
+public class LocalStorageImageCacheDistributor {
+    private static final CLogger logger = Utils.getLogger(LocalStorageImageCacheDistributor.class);
+
+    private static final String BACKUP_STORAGE = "backup-storage";
+
+    @Autowired
+    private DatabaseFacade dbf;
+
+    private final Map<String, Distribution> distributions = new HashMap<String, Distribution>();
+
+    private class Waiter {
+        String dstHostUuid;
+        boolean backupStorageOnly;
+        ReturnValueCompletion<String> completion;
+    }
+
+    private class Distribution {
+        Map<String, Integer> copies = new HashMap<String, Integer>();
+        LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+        int getCopies(String source) {
+            Integer c = copies.get(source);
+            return c == null ? 0 : c;
+        }
+
+        String pick(List<String> hosts, String dstHostUuid) {
+            int max = LocalStorageGlobalConfig.IMAGE_CACHE_PEER_DISTRIBUTION_MAX_COPIES_PER_SOURCE.value(Integer.class);
+            String ret = null;
+            for (String h : hosts) {
+                if (!h.equals(dstHostUuid) && getCopies(h) < max && (ret == null || getCopies(h) < getCopies(ret))) {
+                    ret = h;
+                }
+            }
+
+            if (ret == null && getCopies(BACKUP_STORAGE) < max) {
+                ret = BACKUP_STORAGE;
+            }
+
+            if (ret != null) {
+                copies.put(ret, getCopies(ret) + 1);
+            }
+            return ret;
+        }
+
+        void release(String source) {
+            int c = getCopies(source) - 1;
+            if (c <= 0) {
+                copies.remove(source);
+            } else {
+                copies.put(source, c);
+            }
+        }
+
+        boolean isIdle() {
+            return copies.isEmpty() && waiters.isEmpty();
+        }
+    }
+
+    private String makeKey(String psUuid, String imageUuid) {
+        return String.format("%s-%s", psUuid, imageUuid);
+    }
+
+    private List<String> getSourceHosts(String psUuid, String imageUuid, String installPath) {
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.select(ImageCacheVO_.installUrl);
+        q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, psUuid);
+        q.add(ImageCacheVO_.imageUuid, Op.EQ, imageUuid);
+        q.add(ImageCacheVO_.state, Op.EQ, ImageCacheState.ready);
+        List<String> urls = q.listValue();
+
+        List<String> hosts = new ArrayList<String>();
+        for (String url : urls) {
+            CacheInstallPath path = new CacheInstallPath();
+            path.fullPath = url;
+            path.disassemble();
+            if (path.installPath.equals(installPath)) {
+                hosts.add(path.hostUuid);
+            }
+        }
+
+        if (hosts.isEmpty()) {
+            return hosts;
+        }
+
+        SimpleQuery<HostVO> hq = dbf.createQuery(HostVO.class);
+        hq.select(HostVO_.uuid);
+        hq.add(HostVO_.uuid, Op.IN, hosts);
+        hq.add(HostVO_.status, Op.EQ, HostStatus.Connected);
+        return hq.listValue();
+    }
+
+    /**
+     * replies the uuid of the host to copy the image cache from, or null if it should be downloaded from the backup
+     * storage. The caller must call release() with the reply after the ImageCacheVO of the destination host is
+     * persisted or the copy fails.
+     */
+    public void acquire(String psUuid, String imageUuid, String installPath, String dstHostUuid, ReturnValueCompletion<String> completion) {
+        doAcquire(psUuid, imageUuid, getSourceHosts(psUuid, imageUuid, installPath), dstHostUuid, false, completion);
+    }
+
+    /**
+     * replies when the backup storage can serve one more copy, for falling back after a copy from a host fails. The
+     * caller must call release() with null after the ImageCacheVO of the destination host is persisted or the
+     * download fails.
+     */
+    public void acquireBackupStorage(String psUuid, String imageUuid, String dstHostUuid, ReturnValueCompletion<String> completion) {
+        doAcquire(psUuid, imageUuid, new ArrayList<String>(), dstHostUuid, true, completion);
+    }
+
+    private void doAcquire(String psUuid, String imageUuid, List<String> hosts, String dstHostUuid, boolean backupStorageOnly, ReturnValueCompletion<String> completion) {
+        String source;
+        synchronized (this) {
+            String key = makeKey(psUuid, imageUuid);
+            Distribution d = distributions.get(key);
+            if (d == null) {
+                d = new Distribution();
+                distributions.put(key, d);
+            }
+
+            source = d.pick(hosts, dstHostUuid);
+            if (source == null) {
+                Waiter w = new Waiter();
+                w.dstHostUuid = dstHostUuid;
+                w.backupStorageOnly = backupStorageOnly;
+                w.completion = completion;
+                d.waiters.add(w);
+                logger.debug(String.format("all sources of image[uuid:%s] on local primary storage[uuid:%s] are busy, host[uuid:%s] waits for one",
+                        imageUuid, psUuid, dstHostUuid));
+                return;
+            }
+        }
+
+        completion.success(BACKUP_STORAGE.equals(source) ? null : source);
+    }
+
+    public void release(String psUuid, String imageUuid, String installPath, String sourceHostUuid) {
+        String key = makeKey(psUuid, imageUuid);
+        List<String> hosts = getSourceHosts(psUuid, imageUuid, installPath);
+        Map<Waiter, String> granted = new LinkedHashMap<Waiter, String>();
+        synchronized (this) {
+            Distribution d = distributions.get(key);
+            if (d == null) {
+                return;
+            }
+
+            d.release(sourceHostUuid == null ? BACKUP_STORAGE : sourceHostUuid);
+            Iterator<Waiter> it = d.waiters.iterator();
+            while (it.hasNext()) {
+                Waiter w = it.next();
+                String source = d.pick(w.backupStorageOnly ? new ArrayList<String>() : hosts, w.dstHostUuid);
+                if (source == null) {
+                    break;
+                }
+
+                it.remove();
+                granted.put(w, source);
+            }
+
+            if (d.isIdle()) {
+                distributions.remove(key);
+            }
+        }
+
+        for (Map.Entry<Waiter, String> e : granted.entrySet()) {
+            e.getKey().completion.success(BACKUP_STORAGE.equals(e.getValue()) ? null : e.getValue());
+        }
+    }
+}
@@ -44,6 +44,9 @@ import org.zstack.header.volume.VolumeType;
 import org.zstack.header.volume.VolumeVO;
 import org.zstack.identity.AccountManager;
 import org.zstack.kvm.*;
+import org.zstack.storage.primary.ImageCacheKey;
+import org.zstack.storage.primary.ImageCacheLoader;
+import org.zstack.storage.primary.ImageCacheManager;
 import org.zstack.storage.primary.PrimaryStoragePathMaker;
 import org.zstack.storage.primary.local.LocalStorageKvmMigrateVmFlow.CopyBitsFromRemoteCmd;
 import org.zstack.storage.primary.local.MigrateBitsStruct.ResourceInfo;
@@ -72,6 +75,10 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
     private LocalStorageFactory localStorageFactory;
     @Autowired
     private ApiTimeoutManager timeoutMgr;
+    @Autowired
+    private ImageCacheManager imageCacheMgr;
+    @Autowired
+    private LocalStorageImageCacheDistributor imageCacheDistributor;
 
     public static class AgentCommand {
     }
@@ -673,12 +680,7 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
     }
 
     private String getHostUuidByResourceUuid(String resUuid, String resType) {
-        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
-        q.select(LocalStorageResourceRefVO_.hostUuid);
-        q.add(LocalStorageResourceRefVO_.primaryStorageUuid, Op.EQ, self.getUuid());
-        q.add(LocalStorageResourceRefVO_.resourceUuid, Op.EQ, resUuid);
-        String hostUuid = q.findValue();
-
+        String hostUuid = refIndex.getHostUuid(self.getUuid(), resUuid);
         if (hostUuid == null) {
             throw new CloudRuntimeException(String.format("resource[uuid:%s, type:%s] is not any on any host of local primary storage[uuid:%s]",
                     resUuid, resType, self.getUuid()));
@@ -715,204 +717,274 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
         String primaryStorageInstallPath;
         String backupStorageInstallPath;
 
-        void download(final ReturnValueCompletion<String> completion) {
-            DebugUtils.Assert(image != null, "image cannot be null");
-            DebugUtils.Assert(backupStorage != null, "backup storage cannot be null");
-            DebugUtils.Assert(hostUuid != null, "host uuid cannot be null");
-            DebugUtils.Assert(primaryStorageInstallPath != null, "primaryStorageInstallPath cannot be null");
-            DebugUtils.Assert(backupStorageInstallPath != null, "backupStorageInstallPath cannot be null");
-
-            thdf.chainSubmit(new ChainTask(completion) {
-                @Override
-                public String getSyncSignature() {
-                    return String.format("download-image-%s-to-localstorage-%s-cache-host-%s", image.getUuid(), self.getUuid(), hostUuid);
+        private void doDownload(final ReturnValueCompletion<ImageCacheVO> completion) {
+            FlowChain fchain = FlowChainBuilder.newShareFlowChain();
+            fchain.setName(String.format("download-image-%s-to-local-storage-%s-cache-host-%s",
+                    image.getUuid(), self.getUuid(), hostUuid));
+            fchain.then(new ShareFlow() {
+                boolean sourceAcquired;
+                String sourceHostUuid;
+
+                private void releaseSource() {
+                    if (sourceAcquired) {
+                        sourceAcquired = false;
+                        imageCacheDistributor.release(self.getUuid(), image.getUuid(), primaryStorageInstallPath, sourceHostUuid);
+                    }
                 }
 
-                private void doDownload(final SyncTaskChain chain) {
-                    FlowChain fchain = FlowChainBuilder.newShareFlowChain();
-                    fchain.setName(String.format("download-image-%s-to-local-storage-%s-cache-host-%s",
-                            image.getUuid(), self.getUuid(), hostUuid));
-                    fchain.then(new ShareFlow() {
-                        @Override
-                        public void setup() {
-                            flow(new Flow() {
-                                String __name__ = "allocate-primary-storage";
-
-                                boolean s = false;
+                @Override
+                public void setup() {
+                    flow(new Flow() {
+                        String __name__ = "allocate-primary-storage";
 
-                                @Override
-                                public void run(final FlowTrigger trigger, Map data) {
-                                    AllocatePrimaryStorageMsg amsg = new AllocatePrimaryStorageMsg();
-                                    amsg.setRequiredPrimaryStorageUuid(self.getUuid());
-                                    amsg.setRequiredHostUuid(hostUuid);
-                                    amsg.setSize(image.getSize());
-                                    amsg.setPurpose(PrimaryStorageAllocationPurpose.DownloadImage.toString());
-                                    amsg.setNoOverProvisioning(true);
-                                    bus.makeLocalServiceId(amsg, PrimaryStorageConstant.SERVICE_ID);
-                                    bus.send(amsg, new CloudBusCallBack(trigger) {
-                                        @Override
-                                        public void run(MessageReply reply) {
-                                            if (reply.isSuccess()) {
-                                                s = true;
-                                                trigger.next();
-                                            } else {
-                                                trigger.fail(reply.getError());
-                                            }
-                                        }
-                                    });
-                                }
+                        boolean s = false;
 
+                        @Override
+                        public void run(final FlowTrigger trigger, Map data) {
+                            AllocatePrimaryStorageMsg amsg = new AllocatePrimaryStorageMsg();
+                            amsg.setRequiredPrimaryStorageUuid(self.getUuid());
+                            amsg.setRequiredHostUuid(hostUuid);
+                            amsg.setSize(image.getSize());
+                            amsg.setPurpose(PrimaryStorageAllocationPurpose.DownloadImage.toString());
+                            amsg.setNoOverProvisioning(true);
+                            bus.makeLocalServiceId(amsg, PrimaryStorageConstant.SERVICE_ID);
+                            bus.send(amsg, new CloudBusCallBack(trigger) {
                                 @Override
-                                public void rollback(FlowRollback trigger, Map data) {
-                                    if (s) {
-                                        ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
-                                        rmsg.setDiskSize(image.getSize());
-                                        rmsg.setNoOverProvisioning(true);
-                                        rmsg.setPrimaryStorageUuid(self.getUuid());
-                                        bus.makeLocalServiceId(rmsg, PrimaryStorageConstant.SERVICE_ID);
-                                        bus.send(rmsg);
+                                public void run(MessageReply reply) {
+                                    if (reply.isSuccess()) {
+                                        s = true;
+                                        trigger.next();
+                                    } else {
+                                        trigger.fail(reply.getError());
                                     }
-
-                                    trigger.rollback();
                                 }
                             });
+                        }
 
-                            flow(new Flow() {
-                                String __name__ = "allocate-capacity-on-host";
+                        @Override
+                        public void rollback(FlowRollback trigger, Map data) {
+                            if (s) {
+                                ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
+                                rmsg.setDiskSize(image.getSize());
+                                rmsg.setNoOverProvisioning(true);
+                                rmsg.setPrimaryStorageUuid(self.getUuid());
+                                bus.makeLocalServiceId(rmsg, PrimaryStorageConstant.SERVICE_ID);
+                                bus.send(rmsg);
+                            }
 
+                            trigger.rollback();
+                        }
+                    });
+
+                    flow(new Flow() {
+                        String __name__ = "allocate-capacity-on-host";
+
+                        @Override
+                        public void run(FlowTrigger trigger, Map data) {
+                            reserveCapacityOnHost(hostUuid, image.getSize());
+                            trigger.next();
+                        }
+
+                        @Override
+                        public void rollback(FlowRollback trigger, Map data) {
+                            returnCapacityToHost(hostUuid, image.getSize());
+                            trigger.rollback();
+                        }
+                    });
+
+
+                    flow(new NoRollbackFlow() {
+                        String __name__ = "acquire-source";
+
+                        @Override
+                        public void run(final FlowTrigger trigger, Map data) {
+                            if (!LocalStorageGlobalConfig.IMAGE_CACHE_PEER_DISTRIBUTION.value(Boolean.class)) {
+                                trigger.next();
+                                return;
+                            }
+
+                            imageCacheDistributor.acquire(self.getUuid(), image.getUuid(), primaryStorageInstallPath, hostUuid, new ReturnValueCompletion<String>(trigger) {
                                 @Override
-                                public void run(FlowTrigger trigger, Map data) {
-                                    reserveCapacityOnHost(hostUuid, image.getSize());
+                                public void success(String returnValue) {
+                                    sourceAcquired = true;
+                                    sourceHostUuid = returnValue;
                                     trigger.next();
                                 }
 
                                 @Override
-                                public void rollback(FlowRollback trigger, Map data) {
-                                    returnCapacityToHost(hostUuid, image.getSize());
-                                    trigger.rollback();
+                                public void fail(ErrorCode errorCode) {
+                                    trigger.fail(errorCode);
                                 }
                             });
+                        }
+                    });
 
+                    flow(new NoRollbackFlow() {
+                        String __name__ = "download";
 
-                            flow(new NoRollbackFlow() {
-                                String __name__ = "download";
+                        private void downloadFromBackupStorage(final FlowTrigger trigger) {
+                            LocalStorageBackupStorageMediator m = localStorageFactory.getBackupStorageMediator(KVMConstant.KVM_HYPERVISOR_TYPE, backupStorage.getType());
+                            m.downloadBits(getSelfInventory(), backupStorage,
+                                    backupStorageInstallPath, primaryStorageInstallPath,
+                                    hostUuid, new Completion(trigger) {
+                                        @Override
+                                        public void success() {
+                                            trigger.next();
+                                        }
 
-                                @Override
-                                public void run(final FlowTrigger trigger, Map data) {
-                                    LocalStorageBackupStorageMediator m = localStorageFactory.getBackupStorageMediator(KVMConstant.KVM_HYPERVISOR_TYPE, backupStorage.getType());
-                                    m.downloadBits(getSelfInventory(), backupStorage,
-                                            backupStorageInstallPath, primaryStorageInstallPath,
-                                            hostUuid, new Completion(completion, chain) {
-                                                @Override
-                                                public void success() {
-                                                    trigger.next();
-                                                }
-
-                                                @Override
-                                                public void fail(ErrorCode errorCode) {
-                                                    trigger.fail(errorCode);
-                                                }
-                                            });
-                                }
-                            });
+                                        @Override
+                                        public void fail(ErrorCode errorCode) {
+                                            trigger.fail(errorCode);
+                                        }
+                                    });
+                        }
 
-                            done(new FlowDoneHandler(completion, chain) {
+                        @Override
+                        public void run(final FlowTrigger trigger, Map data) {
+                            if (sourceHostUuid == null) {
+                                downloadFromBackupStorage(trigger);
+                                return;
+                            }
+
+                            KVMHostVO dstHost = dbf.findByUuid(hostUuid, KVMHostVO.class);
+                            CopyBitsFromRemoteCmd cmd = new CopyBitsFromRemoteCmd();
+                            cmd.paths = list(primaryStorageInstallPath);
+                            cmd.dstIp = dstHost.getManagementIp();
+                            cmd.dstUsername = dstHost.getUsername();
+                            cmd.dstPassword = dstHost.getPassword();
+                            httpCall(LocalStorageKvmMigrateVmFlow.COPY_TO_REMOTE_BITS_PATH, sourceHostUuid, cmd, AgentResponse.class, new ReturnValueCompletion<AgentResponse>(trigger) {
                                 @Override
-                                public void handle(Map data) {
-                                    ImageCacheVO vo = new ImageCacheVO();
-                                    vo.setState(ImageCacheState.ready);
-                                    vo.setMediaType(ImageMediaType.valueOf(image.getMediaType()));
-                                    vo.setImageUuid(image.getUuid());
-                                    vo.setPrimaryStorageUuid(self.getUuid());
-                                    vo.setSize(image.getSize());
-                                    vo.setMd5sum("not calculated");
-
-                                    CacheInstallPath path = new CacheInstallPath();
-                                    path.installPath = primaryStorageInstallPath;
-                                    path.hostUuid = hostUuid;
-                                    vo.setInstallUrl(path.makeFullPath());
-                                    dbf.persist(vo);
-
-                                    logger.debug(String.format("downloaded image[uuid:%s, name:%s] to the image cache of local primary storage[uuid: %s, installPath: %s] on host[uuid: %s]",
-                                            image.getUuid(), image.getName(), self.getUuid(), primaryStorageInstallPath, hostUuid));
-
-                                    completion.success(primaryStorageInstallPath);
-                                    chain.next();
+                                public void success(AgentResponse rsp) {
+                                    logger.debug(String.format("copied the image cache of image[uuid:%s] from host[uuid:%s] to host[uuid:%s]",
+                                            image.getUuid(), sourceHostUuid, hostUuid));
+                                    trigger.next();
                                 }
-                            });
 
-                            error(new FlowErrorHandler(completion, chain) {
                                 @Override
-                                public void handle(ErrorCode errCode, Map data) {
-                                    completion.fail(errCode);
-                                    chain.next();
+                                public void fail(ErrorCode errorCode) {
+                                    logger.warn(String.format("failed to copy the image cache of image[uuid:%s] from host[uuid:%s] to host[uuid:%s], %s;" +
+                                            " download it from the backup storage instead", image.getUuid(), sourceHostUuid, hostUuid, errorCode));
+                                    releaseSource();
+                                    imageCacheDistributor.acquireBackupStorage(self.getUuid(), image.getUuid(), hostUuid, new ReturnValueCompletion<String>(trigger) {
+                                        @Override
+                                        public void success(String returnValue) {
+                                            sourceAcquired = true;
+                                            sourceHostUuid = null;
+                                            downloadFromBackupStorage(trigger);
+                                        }
+
+                                        @Override
+                                        public void fail(ErrorCode errorCode) {
+                                            trigger.fail(errorCode);
+                                        }
+                                    });
                                 }
                             });
                         }
-                    }).start();
+                    });
+
+                    done(new FlowDoneHandler(completion) {
+                        @Override
+                        public void handle(Map data) {
+                            ImageCacheVO vo = new ImageCacheVO();
+                            vo.setState(ImageCacheState.ready);
+                            vo.setMediaType(ImageMediaType.valueOf(image.getMediaType()));
+                            vo.setImageUuid(image.getUuid());
+                            vo.setPrimaryStorageUuid(self.getUuid());
+                            vo.setSize(image.getSize());
+                            vo.setMd5sum("not calculated");
+
+                            CacheInstallPath path = new CacheInstallPath();
+                            path.installPath = primaryStorageInstallPath;
+                            path.hostUuid = hostUuid;
+                            vo.setInstallUrl(path.makeFullPath());
+                            vo = dbf.persistAndRefresh(vo);
+                            releaseSource();
+
+                            logger.debug(String.format("downloaded image[uuid:%s, name:%s] to the image cache of local primary storage[uuid: %s, installPath: %s] on host[uuid: %s]",
+                                    image.getUuid(), image.getName(), self.getUuid(), primaryStorageInstallPath, hostUuid));
+
+                            completion.success(vo);
+                        }
+                    });
+
+                    error(new FlowErrorHandler(completion) {
+                        @Override
+                        public void handle(ErrorCode errCode, Map data) {
+                            releaseSource();
+                            completion.fail(errCode);
+                        }
+                    });
                 }
+            }).start();
+        }
+
+        private void checkBits(final ImageCacheVO cvo, final ReturnValueCompletion<Boolean> completion) {
+            CacheInstallPath path = new CacheInstallPath();
+            path.fullPath = cvo.getInstallUrl();
+            final String installPath = path.disassemble().installPath;
+            CheckBitsCmd cmd = new CheckBitsCmd();
+            cmd.path = installPath;
 
+            httpCall(CHECK_BITS_PATH, hostUuid, cmd, CheckBitsRsp.class, new ReturnValueCompletion<CheckBitsRsp>(completion) {
                 @Override
-                public void run(final SyncTaskChain chain) {
-                    SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
-                    q.select(ImageCacheVO_.installUrl);
-                    q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, self.getUuid());
-                    q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getUuid());
-                    q.add(ImageCacheVO_.installUrl, Op.LIKE, String.format("%%hostUuid://%s%%", hostUuid));
-                    String fullPath = q.findValue();
-                    if (fullPath == null) {
-                        doDownload(chain);
+                public void success(CheckBitsRsp rsp) {
+                    if (rsp.existing) {
+                        logger.debug(String.format("found image[uuid: %s, name: %s] in the image cache of local primary storage[uuid:%s, installPath: %s]",
+                                image.getUuid(), image.getName(), self.getUuid(), installPath));
+                        completion.success(true);
                         return;
                     }
 
-                    CacheInstallPath path = new CacheInstallPath();
-                    path.fullPath = fullPath;
-                    final String installPath = path.disassemble().installPath;
-                    CheckBitsCmd cmd = new CheckBitsCmd();
-                    cmd.path = installPath;
+                    // the image is removed on the host
+                    // delete the cache object and re-download it
+                    ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
+                    rmsg.setDiskSize(cvo.getSize());
+                    rmsg.setPrimaryStorageUuid(cvo.getPrimaryStorageUuid());
+                    bus.makeTargetServiceIdByResourceUuid(rmsg, PrimaryStorageConstant.SERVICE_ID, cvo.getPrimaryStorageUuid());
+                    bus.send(rmsg);
 
-                    httpCall(CHECK_BITS_PATH, hostUuid, cmd, CheckBitsRsp.class, new ReturnValueCompletion<CheckBitsRsp>(completion, chain) {
-                        @Override
-                        public void success(CheckBitsRsp rsp) {
-                            if (rsp.existing) {
-                                logger.debug(String.format("found image[uuid: %s, name: %s] in the image cache of local primary storage[uuid:%s, installPath: %s]",
-                                        image.getUuid(), image.getName(), self.getUuid(), installPath));
-                                completion.success(installPath);
-                                chain.next();
-                                return;
-                            }
+                    returnCapacityToHost(hostUuid, image.getSize());
+                    dbf.remove(cvo);
 
-                            // the image is removed on the host
-                            // delete the cache object and re-download it
-                            SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
-                            q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, self.getUuid());
-                            q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getUuid());
-                            q.add(ImageCacheVO_.installUrl, Op.LIKE, String.format("%%hostUuid://%s%%", hostUuid));
-                            ImageCacheVO cvo = q.find();
+                    completion.success(false);
+                }
 
-                            ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
-                            rmsg.setDiskSize(cvo.getSize());
-                            rmsg.setPrimaryStorageUuid(cvo.getPrimaryStorageUuid());
-                            bus.makeTargetServiceIdByResourceUuid(rmsg, PrimaryStorageConstant.SERVICE_ID, cvo.getPrimaryStorageUuid());
-                            bus.send(rmsg);
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    completion.fail(errorCode);
+                }
+            });
+        }
 
-                            returnCapacityToHost(hostUuid, image.getSize());
-                            dbf.remove(cvo);
+        void download(final ReturnValueCompletion<String> completion) {
+            DebugUtils.Assert(image != null, "image cannot be null");
+            DebugUtils.Assert(backupStorage != null, "backup storage cannot be null");
+            DebugUtils.Assert(hostUuid != null, "host uuid cannot be null");
+            DebugUtils.Assert(primaryStorageInstallPath != null, "primaryStorageInstallPath cannot be null");
+            DebugUtils.Assert(backupStorageInstallPath != null, "backupStorageInstallPath cannot be null");
 
-                            doDownload(chain);
-                        }
+            imageCacheMgr.populate(new ImageCacheKey(self.getUuid(), image.getUuid(), hostUuid), new ImageCacheLoader() {
+                @Override
+                public void check(ImageCacheVO cache, ReturnValueCompletion<Boolean> completion) {
+                    checkBits(cache, completion);
+                }
 
-                        @Override
-                        public void fail(ErrorCode errorCode) {
-                            completion.fail(errorCode);
-                            chain.next();
-                        }
-                    });
+                @Override
+                public void load(ReturnValueCompletion<ImageCacheVO> completion) {
+                    doDownload(completion);
+                }
+            }, new ReturnValueCompletion<ImageCacheVO>(completion) {
+                @Override
+                public void success(ImageCacheVO cache) {
+                    CacheInstallPath path = new CacheInstallPath();
+                    path.fullPath = cache.getInstallUrl();
+                    completion.success(path.disassemble().installPath);
                 }
 
                 @Override
-                public String getName() {
-                    return getSyncSignature();
+                public void fail(ErrorCode errorCode) {
+                    completion.fail(errorCode);
                 }
             });
         }
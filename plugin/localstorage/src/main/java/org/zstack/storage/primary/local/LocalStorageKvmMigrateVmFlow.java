@@ -69,6 +69,8 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
     private ThreadFacade thdf;
     @Autowired
     private ApiTimeoutManager timeoutMgr;
+    @Autowired
+    private LocalStorageResourceRefIndex refIndex;
 
     public static final String VERIFY_SNAPSHOT_CHAIN_PATH = "/localstorage/snapshot/verifychain";
     public static final String REBASE_SNAPSHOT_BACKING_FILES_PATH = "/localstorage/snapshot/rebasebackingfiles";
@@ -595,6 +597,7 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                         }
 
                         dbf.updateCollection(refs);
+                        refIndex.refsMoved(ref.getPrimaryStorageUuid(), volUuids, dstHostUuid);
                         trigger.next();
                     }
                 });
@@ -621,6 +624,7 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                             }
 
                             dbf.updateCollection(refs);
+                            refIndex.refsMoved(ref.getPrimaryStorageUuid(), spUuids, dstHostUuid);
                             trigger.next();
                         }
                     });
@@ -0,0 +1,419 @@
+package org.zstack.storage.primary.local;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.db.SoftDeleteEntityExtensionPoint;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.storage.primary.PrimaryStorageVO;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.storage.primary.local.LocalStorageCanonicalEvents.ResourceRefChangedData;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * an in-memory index of LocalStorageResourceRefVO for the local primary storage managed by this management node:
+ * the host a resource is on, and the size of resources on each host.
+ *
+ * the refs of a primary storage are loaded in one query on first use into a LocalStorageResourceRefTable; changes
+ * made during the load are replayed on the loaded table. LocalStorageBase tells the index the refs it creates, deletes
+ * and moves; refs changed on other management nodes, by vm migration or soft deletion of volumes and snapshots, are
+ * told by the canonical event RESOURCE_REF_CHANGED_PATH. As primary storage move among management nodes when a node
+ * joins or leaves, the index is dropped then and rebuilt from the database on next use.
+ *
+ * a resource not in the index, or of a primary storage not indexed, is looked up in the database.
+ */
+public class LocalStorageResourceRefIndex implements LocalStorageResourceRefIndexMXBean, Component,
+        ManagementNodeChangeListener, SoftDeleteEntityExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(LocalStorageResourceRefIndex.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    private interface Change {
+        void apply(LocalStorageResourceRefTable table);
+    }
+
+    // guarded by this
+    private final Map<String, LocalStorageResourceRefTable> tables = new HashMap<String, LocalStorageResourceRefTable>();
+    // changes to the primary storage being loaded, a null list means the load is invalidated
+    private final Map<String, List<Change>> loading = new HashMap<String, List<Change>>();
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong missNum = new AtomicLong();
+    private final AtomicLong loadNum = new AtomicLong();
+
+    private LocalStorageResourceRefTable load(String psUuid) {
+        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
+        q.select(LocalStorageResourceRefVO_.resourceUuid, LocalStorageResourceRefVO_.hostUuid,
+                LocalStorageResourceRefVO_.resourceType, LocalStorageResourceRefVO_.size);
+        q.add(LocalStorageResourceRefVO_.primaryStorageUuid, Op.EQ, psUuid);
+        List<Tuple> ts = q.listTuple();
+
+        LocalStorageResourceRefTable table = new LocalStorageResourceRefTable(ts.size());
+        for (Tuple t : ts) {
+            table.put(t.get(0, String.class), t.get(1, String.class), t.get(2, String.class), t.get(3, Long.class));
+        }
+
+        loadNum.incrementAndGet();
+        logger.debug(String.format("loaded %s resource refs of the local primary storage[uuid:%s] into the index", ts.size(), psUuid));
+        return table;
+    }
+
+    /**
+     * @return the table of the primary storage, loaded if it's managed by us; null if it's not indexed
+     */
+    private LocalStorageResourceRefTable getTable(String psUuid) {
+        synchronized (this) {
+            LocalStorageResourceRefTable table = tables.get(psUuid);
+            if (table != null) {
+                return table;
+            }
+
+            if (loading.containsKey(psUuid) || !destMaker.isManagedByUs(psUuid)) {
+                return null;
+            }
+            loading.put(psUuid, new ArrayList<Change>());
+        }
+
+        LocalStorageResourceRefTable table = null;
+        try {
+            table = load(psUuid);
+        } finally {
+            synchronized (this) {
+                List<Change> changes = loading.remove(psUuid);
+                if (table != null && changes != null) {
+                    for (Change c : changes) {
+                        c.apply(table);
+                    }
+                    tables.put(psUuid, table);
+                } else {
+                    table = null;
+                }
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * @return the host the resource is on, or null if the resource is not on the primary storage
+     */
+    public String getHostUuid(String psUuid, String resourceUuid) {
+        LocalStorageResourceRefTable table = getTable(psUuid);
+        if (table != null) {
+            synchronized (this) {
+                String hostUuid = table.getHostUuid(resourceUuid);
+                if (hostUuid != null) {
+                    hitNum.incrementAndGet();
+                    return hostUuid;
+                }
+            }
+        }
+
+        missNum.incrementAndGet();
+        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
+        q.select(LocalStorageResourceRefVO_.hostUuid);
+        q.add(LocalStorageResourceRefVO_.primaryStorageUuid, Op.EQ, psUuid);
+        q.add(LocalStorageResourceRefVO_.resourceUuid, Op.EQ, resourceUuid);
+        return q.findValue();
+    }
+
+    public boolean isOnPrimaryStorage(String psUuid, String resourceUuid, String resourceType) {
+        LocalStorageResourceRefTable table = getTable(psUuid);
+        if (table != null) {
+            synchronized (this) {
+                if (resourceType.equals(table.getResourceType(resourceUuid))) {
+                    hitNum.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        missNum.incrementAndGet();
+        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
+        q.add(LocalStorageResourceRefVO_.primaryStorageUuid, Op.EQ, psUuid);
+        q.add(LocalStorageResourceRefVO_.resourceUuid, Op.EQ, resourceUuid);
+        q.add(LocalStorageResourceRefVO_.resourceType, Op.EQ, resourceType);
+        return q.isExists();
+    }
+
+    /**
+     * @return the size of resources of the type, as recorded in their refs, on each host of the primary storage
+     * having them
+     */
+    public Map<String, Long> getUsedSizes(String psUuid, String resourceType) {
+        LocalStorageResourceRefTable table = getTable(psUuid);
+        if (table != null) {
+            synchronized (this) {
+                hitNum.incrementAndGet();
+                return table.getUsedSizes(resourceType);
+            }
+        }
+
+        missNum.incrementAndGet();
+        return sumUsedSizes(psUuid, resourceType);
+    }
+
+    @Transactional(readOnly = true)
+    private Map<String, Long> sumUsedSizes(String psUuid, String resourceType) {
+        String sql = "select ref.hostUuid, sum(ref.size) from LocalStorageResourceRefVO ref where ref.primaryStorageUuid = :psUuid" +
+                " and ref.resourceType = :rtype group by ref.hostUuid";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setParameter("psUuid", psUuid);
+        q.setParameter("rtype", resourceType);
+
+        Map<String, Long> ret = new HashMap<String, Long>();
+        for (Tuple t : q.getResultList()) {
+            Long size = t.get(1, Long.class);
+            if (size != null && size != 0) {
+                ret.put(t.get(0, String.class), size);
+            }
+        }
+        return ret;
+    }
+
+    private synchronized void change(String psUuid, Change c) {
+        LocalStorageResourceRefTable table = tables.get(psUuid);
+        if (table != null) {
+            c.apply(table);
+            return;
+        }
+
+        List<Change> changes = loading.get(psUuid);
+        if (changes != null) {
+            changes.add(c);
+        }
+    }
+
+    private synchronized void changeAll(Change c) {
+        for (LocalStorageResourceRefTable table : tables.values()) {
+            c.apply(table);
+        }
+
+        for (List<Change> changes : loading.values()) {
+            if (changes != null) {
+                changes.add(c);
+            }
+        }
+    }
+
+    private synchronized void drop(String psUuid) {
+        tables.remove(psUuid);
+        if (loading.containsKey(psUuid)) {
+            loading.put(psUuid, null);
+        }
+    }
+
+    private void fire(String psUuid, List<String> resourceUuids, String hostUuid) {
+        ResourceRefChangedData d = new ResourceRefChangedData();
+        d.setManagementNodeId(Platform.getManagementServerId());
+        d.setPrimaryStorageUuid(psUuid);
+        d.setResourceUuids(resourceUuids);
+        d.setHostUuid(hostUuid);
+        evtf.fire(LocalStorageCanonicalEvents.RESOURCE_REF_CHANGED_PATH, d);
+    }
+
+    private void delete(String psUuid, final Collection<String> resourceUuids) {
+        Change c = new Change() {
+            @Override
+            public void apply(LocalStorageResourceRefTable table) {
+                for (String uuid : resourceUuids) {
+                    table.remove(uuid);
+                }
+            }
+        };
+
+        if (psUuid == null) {
+            changeAll(c);
+        } else {
+            change(psUuid, c);
+        }
+    }
+
+    private void move(String psUuid, final Collection<String> resourceUuids, final String hostUuid) {
+        change(psUuid, new Change() {
+            @Override
+            public void apply(LocalStorageResourceRefTable table) {
+                for (String uuid : resourceUuids) {
+                    table.move(uuid, hostUuid);
+                }
+            }
+        });
+    }
+
+    /**
+     * call it after the ref is persisted
+     */
+    public void refCreated(final LocalStorageResourceRefVO ref) {
+        change(ref.getPrimaryStorageUuid(), new Change() {
+            @Override
+            public void apply(LocalStorageResourceRefTable table) {
+                table.put(ref.getResourceUuid(), ref.getHostUuid(), ref.getResourceType(), ref.getSize());
+            }
+        });
+
+        if (!destMaker.isManagedByUs(ref.getPrimaryStorageUuid())) {
+            fire(ref.getPrimaryStorageUuid(), null, null);
+        }
+    }
+
+    /**
+     * call it after the ref is removed
+     */
+    public void refDeleted(String psUuid, String resourceUuid) {
+        delete(psUuid, Collections.singletonList(resourceUuid));
+        if (!destMaker.isManagedByUs(psUuid)) {
+            fire(psUuid, Collections.singletonList(resourceUuid), null);
+        }
+    }
+
+    /**
+     * call it after the refs are updated to the host
+     */
+    public void refsMoved(String psUuid, Collection<String> resourceUuids, String hostUuid) {
+        move(psUuid, resourceUuids, hostUuid);
+        if (!destMaker.isManagedByUs(psUuid)) {
+            fire(psUuid, new ArrayList<String>(resourceUuids), hostUuid);
+        }
+    }
+
+    /**
+     * call it after refs of the primary storage are changed other than by the methods above, the primary storage
+     * will be loaded again
+     */
+    public void invalidate(String psUuid) {
+        drop(psUuid);
+        if (!destMaker.isManagedByUs(psUuid)) {
+            fire(psUuid, null, null);
+        }
+    }
+
+    @Override
+    public List<Class> getEntityClassForSoftDeleteEntityExtension() {
+        List<Class> clzs = new ArrayList<Class>();
+        clzs.add(VolumeVO.class);
+        clzs.add(VolumeSnapshotVO.class);
+        clzs.add(PrimaryStorageVO.class);
+        return clzs;
+    }
+
+    @Override
+    public void postSoftDelete(Collection entityIds, Class entityClass) {
+        if (entityClass == PrimaryStorageVO.class) {
+            for (Object id : entityIds) {
+                drop(id.toString());
+            }
+            return;
+        }
+
+        // refs of the volumes or snapshots are deleted by @SoftDeletionCascade
+        List<String> uuids = new ArrayList<String>(entityIds.size());
+        for (Object id : entityIds) {
+            uuids.add(id.toString());
+        }
+        delete(null, uuids);
+        fire(null, uuids, null);
+    }
+
+    @Override
+    public long getHitNum() {
+        return hitNum.get();
+    }
+
+    @Override
+    public long getMissNum() {
+        return missNum.get();
+    }
+
+    @Override
+    public long getLoadNum() {
+        return loadNum.get();
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getIndexedRefNums() {
+        Map<String, Integer> ret = new HashMap<String, Integer>();
+        for (Map.Entry<String, LocalStorageResourceRefTable> e : tables.entrySet()) {
+            ret.put(e.getKey(), e.getValue().size());
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized void clean() {
+        tables.clear();
+        for (String psUuid : loading.keySet()) {
+            loading.put(psUuid, null);
+        }
+    }
+
+    @Override
+    public void nodeJoin(String nodeId) {
+        clean();
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        clean();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+        clean();
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+        clean();
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(LocalStorageCanonicalEvents.RESOURCE_REF_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                ResourceRefChangedData d = (ResourceRefChangedData) data;
+                if (Platform.getManagementServerId().equals(d.getManagementNodeId())) {
+                    return;
+                }
+
+                if (d.getResourceUuids() == null) {
+                    drop(d.getPrimaryStorageUuid());
+                } else if (d.getHostUuid() != null) {
+                    move(d.getPrimaryStorageUuid(), d.getResourceUuids(), d.getHostUuid());
+                } else {
+                    delete(d.getPrimaryStorageUuid(), d.getResourceUuids());
+                }
+            }
+        });
+
+        jmxf.registerBean("LocalStorageResourceRefIndex", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,20 @@
+package org.zstack.storage.primary.local;
+
+import java.util.Map;
+
+/**
+ */
+public interface LocalStorageResourceRefIndexMXBean {
+    long getHitNum();
+
+    long getMissNum();
+
+    long getLoadNum();
+
+    /**
+     * @return the number of refs indexed for each local primary storage
+     */
+    Map<String, Integer> getIndexedRefNums();
+
+    void clean();
+}
@@ -0,0 +1,282 @@
+package org.zstack.storage.primary.local;
+
+import java.util.*;
+
+/**
+ * the resource refs of a local primary storage kept in primitive columns, a row for a resource.
+ *
+ * a resource uuid of 32 lowercase hex digits, which is what ZStack generates, is kept as two longs and found by an
+ * open addressing table with linear probing; other uuids are found by a side map. Hosts and resource types are kept
+ * as ordinals, and the size of resources on each host is summed up per resource type as rows change.
+ *
+ * not thread safe, LocalStorageResourceRefIndex locks it.
+ */
+class LocalStorageResourceRefTable {
+    // columns of rows
+    private long[] uuidHighs;
+    private long[] uuidLows;
+    private int[] hosts;
+    private byte[] types;
+    private long[] sizes;
+    // rows ever used, rows below it not in freeRows are alive
+    private int rowNum;
+    private int[] freeRows;
+    private int freeRowNum;
+    private int size;
+
+    // row + 1 of a hex uuid, 0 means empty
+    private int[] slots;
+    private final Map<String, Integer> otherUuids = new HashMap<String, Integer>();
+
+    private final List<String> hostUuids = new ArrayList<String>();
+    private final Map<String, Integer> hostOrdinals = new HashMap<String, Integer>();
+    private final List<String> typeNames = new ArrayList<String>();
+    // [type][host]
+    private long[][] usedSizes = new long[0][];
+
+    LocalStorageResourceRefTable(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        uuidHighs = new long[capacity];
+        uuidLows = new long[capacity];
+        hosts = new int[capacity];
+        types = new byte[capacity];
+        sizes = new long[capacity];
+        freeRows = new int[capacity];
+        // keep the load factor under 0.5
+        slots = new int[Integer.highestOneBit(capacity) << 2];
+    }
+
+    private static boolean isHexUuid(String uuid) {
+        if (uuid.length() != 32) {
+            return false;
+        }
+
+        for (int i = 0; i < 32; i++) {
+            char c = uuid.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String uuid, int from) {
+        long v = 0;
+        for (int i = from; i < from + 16; i++) {
+            v = (v << 4) | Character.digit(uuid.charAt(i), 16);
+        }
+        return v;
+    }
+
+    private static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int findSlot(long high, long low) {
+        int mask = slots.length - 1;
+        int i = hash(high, low) & mask;
+        while (slots[i] != 0) {
+            int row = slots[i] - 1;
+            if (uuidHighs[row] == high && uuidLows[row] == low) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private int findRow(String uuid) {
+        if (!isHexUuid(uuid)) {
+            Integer row = otherUuids.get(uuid);
+            return row == null ? -1 : row;
+        }
+
+        return slots[findSlot(parseHex(uuid, 0), parseHex(uuid, 16))] - 1;
+    }
+
+    private void deleteSlot(int i) {
+        // backward shift deletion, moves up the following entries that can't be found past the emptied slot
+        int mask = slots.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (slots[j] == 0) {
+                break;
+            }
+
+            int row = slots[j] - 1;
+            int k = hash(uuidHighs[row], uuidLows[row]) & mask;
+            boolean stays = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!stays) {
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = 0;
+    }
+
+    private void growSlots() {
+        int[] old = slots;
+        slots = new int[old.length << 1];
+        for (int s : old) {
+            if (s != 0) {
+                int row = s - 1;
+                slots[findSlot(uuidHighs[row], uuidLows[row])] = s;
+            }
+        }
+    }
+
+    private int allocateRow() {
+        if (freeRowNum > 0) {
+            return freeRows[--freeRowNum];
+        }
+
+        if (rowNum == hosts.length) {
+            int capacity = hosts.length << 1;
+            uuidHighs = Arrays.copyOf(uuidHighs, capacity);
+            uuidLows = Arrays.copyOf(uuidLows, capacity);
+            hosts = Arrays.copyOf(hosts, capacity);
+            types = Arrays.copyOf(types, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            freeRows = Arrays.copyOf(freeRows, capacity);
+        }
+        return rowNum++;
+    }
+
+    private int hostOrdinal(String hostUuid) {
+        Integer ordinal = hostOrdinals.get(hostUuid);
+        if (ordinal == null) {
+            ordinal = hostUuids.size();
+            hostUuids.add(hostUuid);
+            hostOrdinals.put(hostUuid, ordinal);
+            for (int t = 0; t < usedSizes.length; t++) {
+                if (usedSizes[t].length <= ordinal) {
+                    usedSizes[t] = Arrays.copyOf(usedSizes[t], Math.max(4, usedSizes[t].length << 1));
+                }
+            }
+        }
+        return ordinal;
+    }
+
+    private byte typeOrdinal(String type) {
+        int ordinal = typeNames.indexOf(type);
+        if (ordinal < 0) {
+            ordinal = typeNames.size();
+            if (ordinal > Byte.MAX_VALUE) {
+                throw new IllegalStateException(String.format("too many resource types on local storage, cannot add %s", type));
+            }
+
+            typeNames.add(type);
+            usedSizes = Arrays.copyOf(usedSizes, ordinal + 1);
+            usedSizes[ordinal] = new long[Math.max(4, hostUuids.size())];
+        }
+        return (byte) ordinal;
+    }
+
+    void put(String uuid, String hostUuid, String type, long size) {
+        int row = findRow(uuid);
+        if (row >= 0) {
+            usedSizes[types[row]][hosts[row]] -= sizes[row];
+        } else {
+            row = allocateRow();
+            if (isHexUuid(uuid)) {
+                uuidHighs[row] = parseHex(uuid, 0);
+                uuidLows[row] = parseHex(uuid, 16);
+                slots[findSlot(uuidHighs[row], uuidLows[row])] = row + 1;
+            } else {
+                otherUuids.put(uuid, row);
+            }
+
+            this.size++;
+            if (this.size << 1 > slots.length) {
+                growSlots();
+            }
+        }
+
+        hosts[row] = hostOrdinal(hostUuid);
+        types[row] = typeOrdinal(type);
+        sizes[row] = size;
+        usedSizes[types[row]][hosts[row]] += size;
+    }
+
+    boolean remove(String uuid) {
+        int row;
+        if (isHexUuid(uuid)) {
+            int slot = findSlot(parseHex(uuid, 0), parseHex(uuid, 16));
+            if (slots[slot] == 0) {
+                return false;
+            }
+            row = slots[slot] - 1;
+            deleteSlot(slot);
+        } else {
+            Integer r = otherUuids.remove(uuid);
+            if (r == null) {
+                return false;
+            }
+            row = r;
+        }
+
+        usedSizes[types[row]][hosts[row]] -= sizes[row];
+        freeRows[freeRowNum++] = row;
+        size--;
+        return true;
+    }
+
+    boolean move(String uuid, String hostUuid) {
+        int row = findRow(uuid);
+        if (row < 0) {
+            return false;
+        }
+
+        usedSizes[types[row]][hosts[row]] -= sizes[row];
+        hosts[row] = hostOrdinal(hostUuid);
+        usedSizes[types[row]][hosts[row]] += sizes[row];
+        return true;
+    }
+
+    String getHostUuid(String uuid) {
+        int row = findRow(uuid);
+        return row < 0 ? null : hostUuids.get(hosts[row]);
+    }
+
+    String getResourceType(String uuid) {
+        int row = findRow(uuid);
+        return row < 0 ? null : typeNames.get(types[row]);
+    }
+
+    /**
+     * @return the size of resources of the type on the host, 0 if none
+     */
+    long getUsedSize(String hostUuid, String type) {
+        Integer host = hostOrdinals.get(hostUuid);
+        int t = typeNames.indexOf(type);
+        return host == null || t < 0 ? 0 : usedSizes[t][host];
+    }
+
+    /**
+     * @return the size of resources of the type on each host having them
+     */
+    Map<String, Long> getUsedSizes(String type) {
+        Map<String, Long> ret = new HashMap<String, Long>();
+        int t = typeNames.indexOf(type);
+        if (t < 0) {
+            return ret;
+        }
+
+        for (int host = 0; host < hostUuids.size(); host++) {
+            if (usedSizes[t][host] != 0) {
+                ret.put(hostUuids.get(host), usedSizes[t][host]);
+            }
+        }
+        return ret;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getHostNum() {
+        return hostUuids.size();
+    }
+}
@@ -33,6 +33,9 @@ import org.zstack.utils.function.Function;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by frank on 7/1/2015.
  */
@@ -108,11 +111,14 @@ public class LocalStorageSimulator {
 
     @RequestMapping(value=LocalStorageKvmMigrateVmFlow.COPY_TO_REMOTE_BITS_PATH, method= RequestMethod.POST)
     public @ResponseBody
-    String copyBitsFromRemote(HttpEntity<String> entity) {
+    String copyBitsFromRemote(HttpServletRequest req) {
+        HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
         CopyBitsFromRemoteCmd cmd = JSONObjectUtil.toObject(entity.getBody(), CopyBitsFromRemoteCmd.class);
         AgentResponse rsp = new AgentResponse();
         if (config.copyBitsFromRemoteSuccess) {
             config.copyBitsFromRemoteCmds.add(cmd);
+            // the management ip of the host the copy is sent to, i.e. the source
+            config.copyBitsFromRemoteSourceIps.add(req.getServerName());
         } else {
             rsp.setError("on purpose");
             rsp.setSuccess(false);
@@ -236,9 +242,12 @@ public class LocalStorageSimulator {
 
     @RequestMapping(value=LocalStorageKvmSftpBackupStorageMediatorImpl.DOWNLOAD_BIT_PATH, method= RequestMethod.POST)
     public @ResponseBody
-    String download(HttpEntity<String> entity) {
+    String download(HttpEntity<String> entity) throws InterruptedException {
         SftpDownloadBitsCmd cmd = JSONObjectUtil.toObject(entity.getBody(), SftpDownloadBitsCmd.class);
         config.downloadBitsCmds.add(cmd);
+        if (config.downloadBitsDelay > 0) {
+            TimeUnit.MILLISECONDS.sleep(config.downloadBitsDelay);
+        }
         reply(entity, new SftpDownloadBitsRsp());
         return null;
     }
@@ -39,6 +39,7 @@ public class LocalStorageSimulatorConfig {
     public List<RebaseSnapshotBackingFilesCmd> rebaseSnapshotBackingFilesCmds = new ArrayList<RebaseSnapshotBackingFilesCmd>();
     public List<VerifySnapshotChainCmd> verifySnapshotChainCmds = new ArrayList<VerifySnapshotChainCmd>();
     public List<CopyBitsFromRemoteCmd> copyBitsFromRemoteCmds = new ArrayList<CopyBitsFromRemoteCmd>();
+    public List<String> copyBitsFromRemoteSourceIps = new ArrayList<String>();
     public List<GetMd5Cmd> getMd5Cmds = new ArrayList<GetMd5Cmd>();
     public List<CheckMd5sumCmd> checkMd5sumCmds = new ArrayList<CheckMd5sumCmd>();
     public List<GetBackingFileCmd> getBackingFileCmds = new ArrayList<GetBackingFileCmd>();
@@ -47,4 +48,5 @@ public class LocalStorageSimulatorConfig {
     public volatile boolean checkMd5Success = true;
     public volatile boolean checkBitsSuccess = true;
     public volatile boolean copyBitsFromRemoteSuccess = true;
+    public volatile long downloadBitsDelay;
 }
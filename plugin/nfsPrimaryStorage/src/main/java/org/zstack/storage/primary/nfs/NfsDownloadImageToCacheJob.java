@@ -6,7 +6,6 @@ import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.db.DatabaseFacade;
-import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.job.Job;
 import org.zstack.core.job.JobContext;
 import org.zstack.core.workflow.FlowChainBuilder;
@@ -22,6 +21,9 @@ import org.zstack.header.storage.backup.BackupStorageType;
 import org.zstack.header.storage.backup.BackupStorageVO;
 import org.zstack.header.storage.primary.*;
 import org.zstack.header.vm.VmInstanceSpec.ImageSpec;
+import org.zstack.storage.primary.ImageCacheKey;
+import org.zstack.storage.primary.ImageCacheLoader;
+import org.zstack.storage.primary.ImageCacheManager;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
@@ -46,22 +48,52 @@ public class NfsDownloadImageToCacheJob implements Job {
     private NfsPrimaryStorageManager nfsMgr;
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private ImageCacheManager imageCacheMgr;
 
     @Override
     public void run(final ReturnValueCompletion<Object> completion) {
-        SimpleQuery<ImageCacheVO> query = dbf.createQuery(ImageCacheVO.class);
-        query.add(ImageCacheVO_.primaryStorageUuid, SimpleQuery.Op.EQ, primaryStorage.getUuid());
-        query.add(ImageCacheVO_.imageUuid, SimpleQuery.Op.EQ, image.getInventory().getUuid());
-        ImageCacheVO cvo = query.find();
-        if (cvo != null) {
-            useExistingCache(cvo, completion);
-            return;
-        }
-
-        download(completion);
+        download(new ReturnValueCompletion<ImageCacheInventory>(completion) {
+            @Override
+            public void success(ImageCacheInventory returnValue) {
+                completion.success(returnValue);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        });
+    }
+
+    /**
+     * populates the image cache through ImageCacheManager, concurrent callers of the same image share one download
+     */
+    public void download(final ReturnValueCompletion<ImageCacheInventory> completion) {
+        imageCacheMgr.populate(new ImageCacheKey(primaryStorage.getUuid(), image.getInventory().getUuid()), new ImageCacheLoader() {
+            @Override
+            public void check(ImageCacheVO cache, ReturnValueCompletion<Boolean> completion) {
+                checkExistingCache(cache, completion);
+            }
+
+            @Override
+            public void load(ReturnValueCompletion<ImageCacheVO> completion) {
+                doDownload(completion);
+            }
+        }, new ReturnValueCompletion<ImageCacheVO>(completion) {
+            @Override
+            public void success(ImageCacheVO cache) {
+                completion.success(ImageCacheInventory.valueOf(cache));
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        });
     }
 
-    private void download(final ReturnValueCompletion<Object> completion) {
+    private void doDownload(final ReturnValueCompletion<ImageCacheVO> completion) {
         BackupStorageVO bsvo = dbf.findByUuid(image.getSelectedBackupStorage().getBackupStorageUuid(), BackupStorageVO.class);
         final BackupStorageInventory backupStorage = BackupStorageInventory.valueOf(bsvo);
         final NfsPrimaryToBackupStorageMediator mediator = nfsFactory.getPrimaryToBackupStorageMediator(
@@ -150,7 +182,7 @@ public class NfsDownloadImageToCacheJob implements Job {
                         logger.debug(String.format("successfully downloaded image[uuid:%s] in image cache[id:%s, path:%s]",
                                 image.getInventory().getUuid(), cvo.getId(), cvo.getInstallUrl()));
 
-                        completion.success(ImageCacheInventory.valueOf(cvo));
+                        completion.success(cvo);
                     }
                 });
 
@@ -164,7 +196,7 @@ public class NfsDownloadImageToCacheJob implements Job {
         }).start();
     }
 
-    private void useExistingCache(final ImageCacheVO cvo, final ReturnValueCompletion<Object> completion) {
+    private void checkExistingCache(final ImageCacheVO cvo, final ReturnValueCompletion<Boolean> completion) {
         NfsPrimaryStorageBackend bkd = nfsFactory.getHypervisorBackend(nfsMgr.findHypervisorTypeByImageFormatAndPrimaryStorageUuid(image.getInventory().getFormat(), primaryStorage.getUuid()));
         bkd.checkIsBitsExisting(primaryStorage, cvo.getInstallUrl(), new ReturnValueCompletion<Boolean>(completion) {
             @Override
@@ -172,7 +204,7 @@ public class NfsDownloadImageToCacheJob implements Job {
                 if (returnValue) {
                     logger.debug(String.format("found image[uuid:%s] in image cache[id:%s, path:%s]",
                             image.getInventory().getUuid(), cvo.getId(), cvo.getInstallUrl()));
-                    completion.success(ImageCacheInventory.valueOf(cvo));
+                    completion.success(true);
                     return;
                 }
 
@@ -184,7 +216,7 @@ public class NfsDownloadImageToCacheJob implements Job {
                 bus.send(rmsg);
                 dbf.remove(cvo);
 
-                download(completion);
+                completion.success(false);
             }
 
             @Override
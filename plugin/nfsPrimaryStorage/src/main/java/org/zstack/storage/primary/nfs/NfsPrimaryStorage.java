@@ -549,17 +549,37 @@ public class NfsPrimaryStorage extends PrimaryStorageBase {
         });
     }
 
-    private void handle(PrimaryStorageRemoveCachedImageMsg msg) {
+    private void handle(final PrimaryStorageRemoveCachedImageMsg msg) {
+        final PrimaryStorageRemoveCachedImageReply reply = new PrimaryStorageRemoveCachedImageReply();
         if (self.getAttachedClusterRefs().isEmpty()) {
-            PrimaryStorageRemoveCachedImageReply reply = new PrimaryStorageRemoveCachedImageReply();
-            errf.stringToOperationError(String.format("primary storage[uuid:%s] doesn't attach to any cluster", self.getUuid()));
+            reply.setError(errf.stringToOperationError(String.format("primary storage[uuid:%s] doesn't attach to any cluster", self.getUuid())));
             bus.reply(msg, reply);
             return;
         }
         
         PrimaryStorageClusterRefVO ref = self.getAttachedClusterRefs().iterator().next();
         ClusterVO cluster = dbf.findByUuid(ref.getClusterUuid(), ClusterVO.class);
-        getBackend(HypervisorType.valueOf(cluster.getHypervisorType())).deleteImageCache(msg.getInventory());
+        final ImageCacheInventory cache = msg.getInventory();
+        getBackend(HypervisorType.valueOf(cluster.getHypervisorType())).deleteImageCache(cache, new Completion(msg) {
+            @Override
+            public void success() {
+                // the cache was allocated without over-provisioning, see NfsDownloadImageToCacheJob
+                ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
+                rmsg.setPrimaryStorageUuid(self.getUuid());
+                rmsg.setDiskSize(cache.getSize());
+                rmsg.setNoOverProvisioning(true);
+                bus.makeLocalServiceId(rmsg, PrimaryStorageConstant.SERVICE_ID);
+                bus.send(rmsg);
+
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
     }
 
     @Transactional(readOnly = true)
@@ -651,20 +671,18 @@ public class NfsPrimaryStorage extends PrimaryStorageBase {
                             job.setImage(ispec);
                             job.setPrimaryStorage(primaryStorage);
 
-                            jobf.execute(NfsPrimaryStorageKvmHelper.makeDownloadImageJobName(image, primaryStorage),
-                                    NfsPrimaryStorageKvmHelper.makeJobOwnerName(primaryStorage), job,
-                                    new ReturnValueCompletion<ImageCacheInventory>(trigger) {
-                                        @Override
-                                        public void success(ImageCacheInventory returnValue) {
-                                            imageCache = returnValue;
-                                            trigger.next();
-                                        }
+                            job.download(new ReturnValueCompletion<ImageCacheInventory>(trigger) {
+                                @Override
+                                public void success(ImageCacheInventory returnValue) {
+                                    imageCache = returnValue;
+                                    trigger.next();
+                                }
 
-                                        @Override
-                                        public void fail(ErrorCode errorCode) {
-                                            trigger.fail(errorCode);
-                                        }
-                                    }, ImageCacheInventory.class);
+                                @Override
+                                public void fail(ErrorCode errorCode) {
+                                    trigger.fail(errorCode);
+                                }
+                            });
                         }
                     });
 
@@ -932,30 +950,27 @@ public class NfsPrimaryStorage extends PrimaryStorageBase {
         job.setImage(msg.getIsoSpec());
 
         final ImageInventory img = msg.getIsoSpec().getInventory();
-        jobf.execute(NfsPrimaryStorageKvmHelper.makeDownloadImageJobName(msg.getIsoSpec().getInventory(), pinv),
-                NfsPrimaryStorageKvmHelper.makeJobOwnerName(pinv), job,
-                new ReturnValueCompletion<ImageCacheInventory>(msg) {
-
-                    @Override
-                    public void success(ImageCacheInventory returnValue) {
-                        logger.debug(String.format("successfully downloaded iso[uuid:%s, name:%s] from backup storage[uuid:%s] to primary storage[uuid:%s, name:%s], path in cache: %s",
-                                img.getUuid(), img.getName(), msg.getIsoSpec().getSelectedBackupStorage().getBackupStorageUuid(),
-                                pinv.getUuid(), pinv.getName(), returnValue.getInstallUrl()));
+        job.download(new ReturnValueCompletion<ImageCacheInventory>(msg) {
+            @Override
+            public void success(ImageCacheInventory returnValue) {
+                logger.debug(String.format("successfully downloaded iso[uuid:%s, name:%s] from backup storage[uuid:%s] to primary storage[uuid:%s, name:%s], path in cache: %s",
+                        img.getUuid(), img.getName(), msg.getIsoSpec().getSelectedBackupStorage().getBackupStorageUuid(),
+                        pinv.getUuid(), pinv.getName(), returnValue.getInstallUrl()));
 
-                        reply.setInstallPath(returnValue.getInstallUrl());
-                        bus.reply(msg, reply);
-                    }
+                reply.setInstallPath(returnValue.getInstallUrl());
+                bus.reply(msg, reply);
+            }
 
-                    @Override
-                    public void fail(ErrorCode errorCode) {
-                        String err = String.format("failed to downloaded iso[uuid:%s, name:%s] from backup storage[uuid:%s] to primary storage[uuid:%s, name:%s]",
-                                img.getUuid(), img.getName(), msg.getIsoSpec().getSelectedBackupStorage().getBackupStorageUuid(),
-                                pinv.getUuid(), pinv.getName());
-                        logger.warn(err);
-                        reply.setError(errorCode);
-                        bus.reply(msg, reply);
-                    }
-                }, ImageCacheInventory.class);
+            @Override
+            public void fail(ErrorCode errorCode) {
+                String err = String.format("failed to downloaded iso[uuid:%s, name:%s] from backup storage[uuid:%s] to primary storage[uuid:%s, name:%s]",
+                        img.getUuid(), img.getName(), msg.getIsoSpec().getSelectedBackupStorage().getBackupStorageUuid(),
+                        pinv.getUuid(), pinv.getName());
+                logger.warn(err);
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
 
     }
 
@@ -48,7 +48,7 @@ public interface NfsPrimaryStorageBackend {
     
     void instantiateVolume(PrimaryStorageInventory pinv, VolumeInventory volume, ReturnValueCompletion<VolumeInventory> complete);
 
-    void deleteImageCache(ImageCacheInventory imageCache);
+    void deleteImageCache(ImageCacheInventory imageCache, Completion completion);
 
     void delete(PrimaryStorageInventory pinv, String installPath, Completion completion);
 
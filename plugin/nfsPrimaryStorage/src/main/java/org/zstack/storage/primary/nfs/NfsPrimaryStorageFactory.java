@@ -2,34 +2,44 @@ package org.zstack.storage.primary.nfs;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.GlobalConfigException;
 import org.zstack.core.config.GlobalConfigValidatorExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.Component;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.*;
+import org.zstack.header.message.MessageReply;
 import org.zstack.header.storage.backup.BackupStorageType;
 import org.zstack.header.storage.primary.*;
 import org.zstack.header.volume.VolumeFormat;
 import org.zstack.kvm.KVMConstant;
+import org.zstack.kvm.KVMHostAsyncHttpCallMsg;
 import org.zstack.storage.primary.PrimaryStorageCapacityUpdater;
 import org.zstack.header.storage.primary.PrimaryStorageManager;
 import org.zstack.storage.primary.PrimaryStorageSystemTags;
+import org.zstack.storage.primary.StorageExecutorSelector;
+import org.zstack.storage.primary.StorageExecutorTicket;
 import org.zstack.storage.primary.nfs.NfsPrimaryStorageKVMBackendCommands.NfsPrimaryStorageAgentResponse;
 import org.zstack.tag.TagManager;
 import org.zstack.utils.path.PathUtil;
 
 import javax.persistence.TypedQuery;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import static org.zstack.utils.CollectionDSL.e;
+import static org.zstack.utils.CollectionDSL.list;
 import static org.zstack.utils.CollectionDSL.map;
 
 public class NfsPrimaryStorageFactory implements NfsPrimaryStorageManager, PrimaryStorageFactory, Component {
@@ -43,6 +53,20 @@ public class NfsPrimaryStorageFactory implements NfsPrimaryStorageManager, Prima
     private PrimaryStorageManager psMgr;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private StorageExecutorSelector executorSelector;
+
+    // commands copying or converting bits, which can run for minutes and load the host's disk and network
+    private static final Set<String> HEAVY_COMMAND_PATHS = new HashSet<String>(list(
+            NfsPrimaryStorageKVMBackend.CREATE_TEMPLATE_FROM_VOLUME_PATH,
+            NfsPrimaryStorageKVMBackend.MERGE_SNAPSHOT_PATH,
+            NfsPrimaryStorageKVMBackend.OFFLINE_SNAPSHOT_MERGE,
+            NfsPrimaryStorageKVMBackend.MOVE_BITS_PATH,
+            NfsPrimaryToSftpBackupKVMBackend.DOWNLOAD_FROM_SFTP_PATH,
+            NfsPrimaryToSftpBackupKVMBackend.UPLOAD_TO_SFTP_PATH
+    ));
 
     private Map<String, NfsPrimaryStorageBackend> backends = new HashMap<String, NfsPrimaryStorageBackend>();
     private Map<BackupStorageType, Map<HypervisorType, NfsPrimaryToBackupStorageMediator>> mediators = new HashMap<BackupStorageType, Map<HypervisorType, NfsPrimaryToBackupStorageMediator>>();
@@ -144,29 +168,84 @@ public class NfsPrimaryStorageFactory implements NfsPrimaryStorageManager, Prima
         return backend;
     }
     
-    @Transactional
-    public HostInventory getConnectedHostForOperation(PrimaryStorageInventory pri) {
+    @Transactional(readOnly = true)
+    private List<String> getConnectedHostUuidsForOperation(PrimaryStorageInventory pri) {
         if (pri.getAttachedClusterUuids().isEmpty()) {
             throw new OperationFailureException(errf.stringToOperationError(
                     String.format("cannot find a Connected host to execute command for nfs primary storage[uuid:%s]", pri.getUuid())
             ));
         }
         
-        String sql = "select h from HostVO h where h.state = :state and h.status = :connectionState and h.clusterUuid in (:clusterUuids)";
-        TypedQuery<HostVO> q = dbf.getEntityManager().createQuery(sql, HostVO.class);
+        String sql = "select h.uuid from HostVO h where h.state = :state and h.status = :connectionState and h.clusterUuid in (:clusterUuids)";
+        TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
         q.setParameter("state", HostState.Enabled);
         q.setParameter("connectionState", HostStatus.Connected);
         q.setParameter("clusterUuids", pri.getAttachedClusterUuids());
-        q.setMaxResults(1);
-        List<HostVO> ret = q.getResultList();
+        List<String> ret = q.getResultList();
         if (ret.isEmpty()) {
             throw new OperationFailureException(errf.stringToOperationError(
                     String.format("cannot find a Connected host to execute command for nfs primary storage[uuid:%s]", pri.getUuid())
             ));
-        } else {
-            Collections.shuffle(ret);
-            return HostInventory.valueOf(ret.get(0));
         }
+
+        return ret;
+    }
+
+    /**
+     * chooses the least loaded connected host without taking a command slot, use asyncHttpCall() to send
+     * a command to the host if possible
+     */
+    public HostInventory getConnectedHostForOperation(PrimaryStorageInventory pri) {
+        String huuid = executorSelector.choose(getConnectedHostUuidsForOperation(pri));
+        return HostInventory.valueOf(dbf.findByUuid(huuid, HostVO.class));
+    }
+
+    /**
+     * sends the command to a connected host chosen by StorageExecutorSelector. Commands copying or converting
+     * bits (HEAVY_COMMAND_PATHS) keep a command slot on the host until the reply comes back, so they are capped
+     * by primaryStorage.executor.maxConcurrentCommandsPerHost; other commands are short and sent to the least
+     * loaded host at once. The host is set to msg.getHostUuid() when the callback is called
+     */
+    public void asyncHttpCall(PrimaryStorageInventory pri, final KVMHostAsyncHttpCallMsg msg, final CloudBusCallBack callback) {
+        List<String> huuids;
+        try {
+            huuids = getConnectedHostUuidsForOperation(pri);
+        } catch (OperationFailureException e) {
+            MessageReply reply = new MessageReply();
+            reply.setError(e.getErrorCode());
+            callback.run(reply);
+            return;
+        }
+
+        if (!HEAVY_COMMAND_PATHS.contains(msg.getPath())) {
+            String huuid = executorSelector.choose(huuids);
+            msg.setHostUuid(huuid);
+            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, huuid);
+            bus.send(msg, callback);
+            return;
+        }
+
+        executorSelector.acquire(huuids, new ReturnValueCompletion<StorageExecutorTicket>(callback) {
+            @Override
+            public void success(final StorageExecutorTicket ticket) {
+                msg.setHostUuid(ticket.getHostUuid());
+                bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, ticket.getHostUuid());
+                bus.send(msg, new CloudBusCallBack(callback) {
+                    @Override
+                    public void run(MessageReply reply) {
+                        ticket.release(reply.isSuccess());
+                        callback.run(reply);
+                    }
+                });
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                MessageReply reply = new MessageReply();
+                reply.setError(errorCode);
+                callback.run(reply);
+            }
+        });
     }
 
     @Override
@@ -230,19 +230,15 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
 
     @Override
     public void getPhysicalCapacity(PrimaryStorageInventory inv, final ReturnValueCompletion<PhysicalCapacityUsage> completion) {
-        final HostInventory host = nfsFactory.getConnectedHostForOperation(inv);
-
         GetCapacityCmd cmd = new GetCapacityCmd();
         cmd.setMountPath(inv.getMountPath());
         cmd.setUuid(inv.getUuid());
 
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
-        msg.setHostUuid(host.getUuid());
         msg.setPath(GET_CAPACITY_PATH);
         msg.setCommand(cmd);
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        nfsFactory.asyncHttpCall(inv, msg, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -267,7 +263,6 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
 
     @Override
     public void checkIsBitsExisting(final PrimaryStorageInventory inv, final String installPath, final ReturnValueCompletion<Boolean> completion) {
-        HostInventory host = nfsFactory.getConnectedHostForOperation(inv);
         CheckIsBitsExistingCmd cmd = new CheckIsBitsExistingCmd();
         cmd.setUuid(inv.getUuid());
         cmd.setInstallPath(installPath);
@@ -276,9 +271,7 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
         msg.setCommand(cmd);
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
         msg.setPath(CHECK_BITS_PATH);
-        msg.setHostUuid(host.getUuid());
-        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        nfsFactory.asyncHttpCall(inv, msg, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -413,15 +406,11 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
             cmd.setInstallUrl(NfsPrimaryStorageKvmHelper.makeDataVolumeInstallUrl(pinv, volume.getUuid()));
         }
 
-        final HostInventory host = nfsFactory.getConnectedHostForOperation(pinv);
-
-        KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
+        final KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         msg.setCommand(cmd);
         msg.setPath(CREATE_EMPTY_VOLUME_PATH);
-        msg.setHostUuid(host.getUuid());
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-        bus.send(msg, new CloudBusCallBack(complete) {
+        nfsFactory.asyncHttpCall(pinv, msg, new CloudBusCallBack(complete) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -431,8 +420,8 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
 
                 CreateEmptyVolumeResponse rsp = ((KVMHostAsyncHttpCallReply)reply).toResponse(CreateEmptyVolumeResponse.class);
                 if (!rsp.isSuccess()) {
-                    String err = String.format("unable to create empty volume[uuid:%s,  name:%s] on kvm host[uuid:%s, ip:%s], because %s",
-                            volume.getUuid(), volume.getName(), host.getUuid(), host.getManagementIp(), rsp.getError());
+                    String err = String.format("unable to create empty volume[uuid:%s,  name:%s] on kvm host[uuid:%s], because %s",
+                            volume.getUuid(), volume.getName(), msg.getHostUuid(), rsp.getError());
                     logger.warn(err);
                     complete.fail(errf.stringToOperationError(err));
                     return;
@@ -477,12 +466,13 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
     }
 
     @Override
-    public void deleteImageCache(ImageCacheInventory imageCache) {
+    public void deleteImageCache(ImageCacheInventory imageCache, Completion completion) {
+        PrimaryStorageVO ps = dbf.findByUuid(imageCache.getPrimaryStorageUuid(), PrimaryStorageVO.class);
+        delete(PrimaryStorageInventory.valueOf(ps), imageCache.getInstallUrl(), false, completion);
     }
 
 
     private void delete(final PrimaryStorageInventory pinv, final String installPath, boolean isFolder, final Completion completion) {
-        HostInventory host = nfsFactory.getConnectedHostForOperation(pinv);
         DeleteCmd cmd = new DeleteCmd();
         cmd.setFolder(isFolder);
         cmd.setInstallPath(installPath);
@@ -491,10 +481,8 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         msg.setCommand(cmd);
         msg.setPath(DELETE_PATH);
-        msg.setHostUuid(host.getUuid());
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        nfsFactory.asyncHttpCall(pinv, msg, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -561,21 +549,17 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
 
     @Override
     public void createTemplateFromVolume(final PrimaryStorageInventory primaryStorage, final VolumeInventory volume, final ImageInventory image, final ReturnValueCompletion<String> completion) {
-        final HostInventory destHost = nfsFactory.getConnectedHostForOperation(primaryStorage);
-
         final String installPath = NfsPrimaryStorageKvmHelper.makeTemplateFromVolumeInWorkspacePath(primaryStorage, image.getUuid());
         CreateTemplateFromVolumeCmd cmd = new CreateTemplateFromVolumeCmd();
         cmd.setInstallPath(installPath);
         cmd.setVolumePath(volume.getInstallPath());
         cmd.setUuid(primaryStorage.getUuid());
 
-        KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
+        final KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         msg.setCommand(cmd);
-        msg.setHostUuid(destHost.getUuid());
         msg.setPath(CREATE_TEMPLATE_FROM_VOLUME_PATH);
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, destHost.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        nfsFactory.asyncHttpCall(primaryStorage, msg, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -590,7 +574,7 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
                     sb.append(String.format("\ntemplate:%s", JSONObjectUtil.toJsonString(image)));
                     sb.append(String.format("\nvolume:%s", JSONObjectUtil.toJsonString(volume)));
                     sb.append(String.format("\nnfs primary storage uuid:%s", primaryStorage.getUuid()));
-                    sb.append(String.format("\nKVM host uuid:%s, management ip:%s", destHost.getUuid(), destHost.getManagementIp()));
+                    sb.append(String.format("\nKVM host uuid:%s", msg.getHostUuid()));
                     completion.fail(errf.stringToOperationError(sb.toString()));
                     return;
                 }
@@ -600,7 +584,7 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
                 sb.append(String.format("\ntemplate:%s", JSONObjectUtil.toJsonString(image)));
                 sb.append(String.format("\nvolume:%s", JSONObjectUtil.toJsonString(volume)));
                 sb.append(String.format("\nnfs primary storage uuid:%s", primaryStorage.getUuid()));
-                sb.append(String.format("\nKVM host uuid:%s, management ip:%s", destHost.getUuid(), destHost.getManagementIp()));
+                sb.append(String.format("\nKVM host uuid:%s", msg.getHostUuid()));
 
                 logger.debug(sb.toString());
                 nfsMgr.reportCapacityIfNeeded(primaryStorage.getUuid(), rsp);
@@ -613,7 +597,6 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
                                               final String bitsUuid, final String bitsName, boolean needDownload,
                                               final ReturnValueCompletion<CreateBitsFromSnapshotResult> completion) {
         if (!needDownload) {
-            HostInventory host = nfsFactory.getConnectedHostForOperation(pinv);
             final VolumeSnapshotInventory latest = snapshots.get(snapshots.size()-1).getSnapshot();
             final String workspaceInstallPath = NfsPrimaryStorageKvmHelper.makeSnapshotWorkspacePath(pinv, bitsUuid);
             MergeSnapshotCmd cmd = new MergeSnapshotCmd();
@@ -625,9 +608,7 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
             msg.setCommand(cmd);
             msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
             msg.setPath(MERGE_SNAPSHOT_PATH);
-            msg.setHostUuid(host.getUuid());
-            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-            bus.send(msg, new CloudBusCallBack(completion) {
+            nfsFactory.asyncHttpCall(pinv, msg, new CloudBusCallBack(completion) {
                 @Override
                 public void run(MessageReply reply) {
                     if (!reply.isSuccess()) {
@@ -672,7 +653,6 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
 
     @Override
     public void moveBits(final PrimaryStorageInventory pinv, String srcPath, String destPath, final Completion completion) {
-        HostInventory host = nfsFactory.getConnectedHostForOperation(pinv);
         MoveBitsCmd cmd = new MoveBitsCmd();
         cmd.setSrcPath(srcPath);
         cmd.setDestPath(destPath);
@@ -681,10 +661,8 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         msg.setCommand(cmd);
         msg.setPath(MOVE_BITS_PATH);
-        msg.setHostUuid(host.getUuid());
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        nfsFactory.asyncHttpCall(pinv, msg, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -717,8 +695,6 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
             offline = (state == VmInstanceState.Stopped);
         }
 
-        HostInventory host = nfsFactory.getConnectedHostForOperation(pinv);
-
         if (offline) {
             OfflineMergeSnapshotCmd cmd = new OfflineMergeSnapshotCmd();
             cmd.setFullRebase(fullRebase);
@@ -729,10 +705,8 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
             KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
             msg.setCommand(cmd);
             msg.setPath(OFFLINE_SNAPSHOT_MERGE);
-            msg.setHostUuid(host.getUuid());
             msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-            bus.send(msg, new CloudBusCallBack(completion) {
+            nfsFactory.asyncHttpCall(pinv, msg, new CloudBusCallBack(completion) {
                 @Override
                 public void run(MessageReply reply) {
                     if (!reply.isSuccess()) {
@@ -751,6 +725,7 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
                 }
             });
         } else {
+            HostInventory host = nfsFactory.getConnectedHostForOperation(pinv);
             MergeVolumeSnapshotOnKvmMsg msg = new MergeVolumeSnapshotOnKvmMsg();
             msg.setFullRebase(fullRebase);
             msg.setHostUuid(host.getUuid());
@@ -9,8 +9,6 @@ import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.ReturnValueCompletion;
-import org.zstack.header.host.HostConstant;
-import org.zstack.header.host.HostInventory;
 import org.zstack.header.host.HypervisorType;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.storage.backup.BackupStorageConstant;
@@ -73,8 +71,6 @@ public class NfsPrimaryToSftpBackupKVMBackend implements NfsPrimaryToBackupStora
     @Override
     public void createVolumeFromImageCache(final PrimaryStorageInventory primaryStorage, final ImageCacheInventory image,
                                            final VolumeInventory volume, final ReturnValueCompletion<String> completion) {
-        HostInventory host = primaryStorageFactory.getConnectedHostForOperation(primaryStorage);
-
         final String installPath = NfsPrimaryStorageKvmHelper.makeRootVolumeInstallUrl(primaryStorage, volume);
         final String accountUuid = acntMgr.getOwnerAccountUuidOfResource(volume.getUuid());
         final CreateRootVolumeFromTemplateCmd cmd = new CreateRootVolumeFromTemplateCmd();
@@ -88,10 +84,8 @@ public class NfsPrimaryToSftpBackupKVMBackend implements NfsPrimaryToBackupStora
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         msg.setCommand(cmd);
         msg.setPath(CREATE_VOLUME_FROM_TEMPLATE_PATH);
-        msg.setHostUuid(host.getUuid());
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        primaryStorageFactory.asyncHttpCall(primaryStorage, msg, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -129,7 +123,6 @@ public class NfsPrimaryToSftpBackupKVMBackend implements NfsPrimaryToBackupStora
                     return;
                 }
 
-                HostInventory host = primaryStorageFactory.getConnectedHostForOperation(pinv);
                 final GetSftpBackupStorageDownloadCredentialReply greply = reply.castReply();
                 DownloadBitsFromSftpBackupStorageCmd cmd = new DownloadBitsFromSftpBackupStorageCmd();
                 cmd.setHostname(greply.getHostname());
@@ -141,10 +134,8 @@ public class NfsPrimaryToSftpBackupKVMBackend implements NfsPrimaryToBackupStora
                 KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
                 msg.setCommand(cmd);
                 msg.setPath(DOWNLOAD_FROM_SFTP_PATH);
-                msg.setHostUuid(host.getUuid());
                 msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-                bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-                bus.send(msg, new CloudBusCallBack(completion) {
+                primaryStorageFactory.asyncHttpCall(pinv, msg, new CloudBusCallBack(completion) {
                     @Override
                     public void run(MessageReply reply) {
                         if (!reply.isSuccess()) {
@@ -187,7 +178,6 @@ public class NfsPrimaryToSftpBackupKVMBackend implements NfsPrimaryToBackupStora
             }
 
             private void upload(final String hostname, String sshKey) {
-                final HostInventory host = primaryStorageFactory.getConnectedHostForOperation(pinv);
                 UploadToSftpCmd cmd = new UploadToSftpCmd();
                 cmd.setBackupStorageHostName(hostname);
                 cmd.setBackupStorageSshKey(sshKey);
@@ -198,10 +188,8 @@ public class NfsPrimaryToSftpBackupKVMBackend implements NfsPrimaryToBackupStora
                 KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
                 msg.setCommand(cmd);
                 msg.setPath(UPLOAD_TO_SFTP_PATH);
-                msg.setHostUuid(host.getUuid());
                 msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
-                bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
-                bus.send(msg, new CloudBusCallBack(completion) {
+                primaryStorageFactory.asyncHttpCall(pinv, msg, new CloudBusCallBack(completion) {
                     @Override
                     public void run(MessageReply reply) {
                         if (!reply.isSuccess()) {
@@ -0,0 +1,177 @@
+package org.zstack.portal.apimediator;
+
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.identity.AccountConstant;
+import org.zstack.header.message.APIMessage;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a lane of API dispatching, at most 'width' API messages of the lane are dispatched concurrently.
+ *
+ * pending messages are queued per account and the accounts are served in weighted round-robin,
+ * so a burst from one account only delays that account. The system admin account has 'adminWeight'
+ * turns per round, all others have one. Once 'queueLimit' messages are pending, new messages are rejected.
+ */
+public class ApiDispatchLane {
+    private static final CLogger logger = Utils.getLogger(ApiDispatchLane.class);
+    private static final String ANONYMOUS = "anonymous";
+
+    public interface ApiHandler {
+        void handle(APIMessage msg);
+    }
+
+    private static class PendingApi {
+        APIMessage msg;
+        long enqueueTime;
+    }
+
+    private static class OwnerQueue {
+        String owner;
+        int credit;
+        LinkedList<PendingApi> pending = new LinkedList<PendingApi>();
+    }
+
+    private final String name;
+    private final int width;
+    private final int queueLimit;
+    private final int adminWeight;
+    private final ThreadFacade thdf;
+
+    private final Map<String, OwnerQueue> ownerQueues = new HashMap<String, OwnerQueue>();
+    private final LinkedList<OwnerQueue> ring = new LinkedList<OwnerQueue>();
+    private int pendingNum;
+    private int runningNum;
+
+    private long processedNum;
+    private long droppedNum;
+    private long totalQueueTime;
+    private long maxQueueTime;
+
+    public ApiDispatchLane(String name, int width, int queueLimit, int adminWeight, ThreadFacade thdf) {
+        this.name = name;
+        this.width = width;
+        this.queueLimit = queueLimit;
+        this.adminWeight = adminWeight;
+        this.thdf = thdf;
+    }
+
+    private String getOwner(APIMessage msg) {
+        return msg.getSession() == null ? ANONYMOUS : msg.getSession().getAccountUuid();
+    }
+
+    private int getWeight(String owner) {
+        return AccountConstant.INITIAL_SYSTEM_ADMIN_UUID.equals(owner) ? adminWeight : 1;
+    }
+
+    /**
+     * @return false if the lane is full and the message is not accepted
+     */
+    public boolean submit(APIMessage msg, ApiHandler handler) {
+        synchronized (this) {
+            if (pendingNum >= queueLimit) {
+                droppedNum ++;
+                return false;
+            }
+
+            String owner = getOwner(msg);
+            OwnerQueue q = ownerQueues.get(owner);
+            if (q == null) {
+                q = new OwnerQueue();
+                q.owner = owner;
+                q.credit = getWeight(owner);
+                ownerQueues.put(owner, q);
+                ring.add(q);
+            }
+
+            PendingApi p = new PendingApi();
+            p.msg = msg;
+            p.enqueueTime = System.nanoTime();
+            q.pending.add(p);
+            pendingNum ++;
+        }
+
+        schedule(handler);
+        return true;
+    }
+
+    private synchronized PendingApi pollNext() {
+        if (runningNum >= width || pendingNum == 0) {
+            return null;
+        }
+
+        OwnerQueue q = ring.getFirst();
+        PendingApi p = q.pending.removeFirst();
+        q.credit --;
+        if (q.pending.isEmpty()) {
+            ring.removeFirst();
+            ownerQueues.remove(q.owner);
+        } else if (q.credit == 0) {
+            q.credit = getWeight(q.owner);
+            ring.add(ring.removeFirst());
+        }
+
+        pendingNum --;
+        runningNum ++;
+
+        long queueTime = System.nanoTime() - p.enqueueTime;
+        totalQueueTime += queueTime;
+        maxQueueTime = Math.max(maxQueueTime, queueTime);
+        processedNum ++;
+        return p;
+    }
+
+    private synchronized void release() {
+        runningNum --;
+    }
+
+    private void schedule(final ApiHandler handler) {
+        while (true) {
+            final PendingApi p = pollNext();
+            if (p == null) {
+                return;
+            }
+
+            thdf.submit(new Task<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        handler.handle(p.msg);
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception when dispatching API message[%s] in lane[%s]",
+                                p.msg.getMessageName(), name), t);
+                    } finally {
+                        release();
+                        schedule(handler);
+                    }
+                    return null;
+                }
+
+                @Override
+                public String getName() {
+                    return String.format("api.lane.%s", name);
+                }
+            });
+        }
+    }
+
+    public synchronized ApiLaneStatistic getStatistic() {
+        long avg = processedNum == 0 ? 0 : totalQueueTime / processedNum;
+        return new ApiLaneStatistic(name, width, queueLimit, runningNum, pendingNum, processedNum, droppedNum,
+                TimeUnit.NANOSECONDS.toMillis(avg), TimeUnit.NANOSECONDS.toMillis(maxQueueTime));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+}
@@ -0,0 +1,68 @@
+package org.zstack.portal.apimediator;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class ApiLaneStatistic {
+    private String name;
+    private int width;
+    private int queueLimit;
+    private int runningNum;
+    private int pendingNum;
+    private long processedNum;
+    private long droppedNum;
+    private long averageQueueTime;
+    private long maxQueueTime;
+
+    @ConstructorProperties({"name", "width", "queueLimit", "runningNum", "pendingNum", "processedNum", "droppedNum",
+            "averageQueueTime", "maxQueueTime"})
+    public ApiLaneStatistic(String name, int width, int queueLimit, int runningNum, int pendingNum, long processedNum,
+                            long droppedNum, long averageQueueTime, long maxQueueTime) {
+        this.name = name;
+        this.width = width;
+        this.queueLimit = queueLimit;
+        this.runningNum = runningNum;
+        this.pendingNum = pendingNum;
+        this.processedNum = processedNum;
+        this.droppedNum = droppedNum;
+        this.averageQueueTime = averageQueueTime;
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    public int getRunningNum() {
+        return runningNum;
+    }
+
+    public int getPendingNum() {
+        return pendingNum;
+    }
+
+    public long getProcessedNum() {
+        return processedNum;
+    }
+
+    public long getDroppedNum() {
+        return droppedNum;
+    }
+
+    public long getAverageQueueTime() {
+        return averageQueueTime;
+    }
+
+    public long getMaxQueueTime() {
+        return maxQueueTime;
+    }
+}
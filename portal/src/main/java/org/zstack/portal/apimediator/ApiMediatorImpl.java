@@ -8,16 +8,20 @@ import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
-import org.zstack.core.thread.SyncTask;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.apimediator.*;
 import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.managementnode.*;
 import org.zstack.header.message.APICreateMessage;
+import org.zstack.header.message.APIListMessage;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
+import org.zstack.header.query.APIQueryMessage;
+import org.zstack.header.search.APIGetMessage;
+import org.zstack.header.search.APISearchMessage;
 import org.zstack.utils.StringDSL;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
@@ -30,9 +34,10 @@ import java.util.List;
 import java.util.Map;
 
 import static org.zstack.utils.CollectionDSL.e;
+import static org.zstack.utils.CollectionDSL.list;
 import static org.zstack.utils.CollectionDSL.map;
 
-public class ApiMediatorImpl extends AbstractService implements ApiMediator, GlobalApiMessageInterceptor {
+public class ApiMediatorImpl extends AbstractService implements ApiMediator, GlobalApiMessageInterceptor, ApiMediatorMXBean {
     private static final CLogger logger = Utils.getLogger(ApiMediator.class);
 
     @Autowired
@@ -43,11 +48,21 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
     private ErrorFacade errf;
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private ApiMessageProcessor processor;
 
     private List<String> serviceConfigFolders;
     private int apiWorkerNum = 5;
+    private int queryWorkerNum = 5;
+    private int systemWorkerNum = 2;
+    private int laneQueueLimit = 5000;
+    private int adminWeight = 4;
+
+    private ApiDispatchLane systemLane;
+    private ApiDispatchLane queryLane;
+    private ApiDispatchLane mutateLane;
 
     private void dispatchMessage(APIMessage msg) {
         ApiMessageDescriptor desc = processor.getApiMessageDescriptor(msg);
@@ -86,41 +101,49 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
     }
 
 
+    private ApiDispatchLane getLane(Message msg) {
+        if (msg instanceof APIIsReadyToGoMsg || msg instanceof APIGetVersionMsg) {
+            return systemLane;
+        } else if (msg instanceof APIQueryMessage || msg instanceof APIListMessage
+                || msg instanceof APISearchMessage || msg instanceof APIGetMessage) {
+            return queryLane;
+        } else {
+            return mutateLane;
+        }
+    }
+
     @Override
     public void handleMessage(final Message msg) {
-        thdf.syncSubmit(new SyncTask<Object>() {
-            @Override
-            public String getSyncSignature() {
-                return "api.worker";
-            }
-
-            @Override
-            public int getSyncLevel() {
-                return apiWorkerNum;
-            }
-
+        ApiDispatchLane lane = getLane(msg);
+        boolean accepted = lane.submit((APIMessage) msg, new ApiDispatchLane.ApiHandler() {
             @Override
-            public String getName() {
-                return "api.worker";
-            }
-
             @MessageSafe
-            public void handleMessage(Message msg) {
+            public void handle(APIMessage msg) {
                 if (msg instanceof APIIsReadyToGoMsg) {
-                    handle((APIIsReadyToGoMsg) msg);
+                    ApiMediatorImpl.this.handle((APIIsReadyToGoMsg) msg);
                 } else if (msg instanceof APIGetVersionMsg) {
-                    handle((APIGetVersionMsg) msg);
+                    ApiMediatorImpl.this.handle((APIGetVersionMsg) msg);
                 } else {
-                    dispatchMessage((APIMessage) msg);
+                    dispatchMessage(msg);
                 }
             }
-
-            @Override
-            public Object call() throws Exception {
-                handleMessage(msg);
-                return null;
-            }
         });
+
+        if (!accepted) {
+            String err = String.format("too many pending API messages in the %s lane[limit:%s], the API message[%s] is rejected, please retry later",
+                    lane.getName(), lane.getQueueLimit(), msg.getMessageName());
+            logger.warn(err);
+            bus.replyErrorByMessageType(msg, errf.instantiateErrorCode(PortalErrors.TOO_MANY_PENDING_API, err));
+        }
+    }
+
+    @Override
+    public Map<String, ApiLaneStatistic> getLaneStatistics() {
+        Map<String, ApiLaneStatistic> ret = new HashMap<String, ApiLaneStatistic>();
+        for (ApiDispatchLane lane : list(systemLane, queryLane, mutateLane)) {
+            ret.put(lane.getName(), lane.getStatistic());
+        }
+        return ret;
     }
 
     @Transactional(readOnly = true)
@@ -176,6 +199,10 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
         Map<String, Object> config = new HashMap<String, Object>();
         config.put("serviceConfigFolders", serviceConfigFolders);
         processor = new ApiMessageProcessorImpl(config);
+        systemLane = new ApiDispatchLane("system", systemWorkerNum, laneQueueLimit, adminWeight, thdf);
+        queryLane = new ApiDispatchLane("query", queryWorkerNum, laneQueueLimit, adminWeight, thdf);
+        mutateLane = new ApiDispatchLane("mutate", apiWorkerNum, laneQueueLimit, adminWeight, thdf);
+        jmxf.registerBean("ApiMediator", this);
         bus.registerService(this);
         return true;
     }
@@ -194,6 +221,22 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
         this.apiWorkerNum = apiWorkerNum;
     }
 
+    public void setQueryWorkerNum(int queryWorkerNum) {
+        this.queryWorkerNum = queryWorkerNum;
+    }
+
+    public void setSystemWorkerNum(int systemWorkerNum) {
+        this.systemWorkerNum = systemWorkerNum;
+    }
+
+    public void setLaneQueueLimit(int laneQueueLimit) {
+        this.laneQueueLimit = laneQueueLimit;
+    }
+
+    public void setAdminWeight(int adminWeight) {
+        this.adminWeight = adminWeight;
+    }
+
     @Override
     public List<Class> getMessageClassToIntercept() {
         List<Class> lst = new ArrayList<Class>();
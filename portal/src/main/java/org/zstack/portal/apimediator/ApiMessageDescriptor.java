@@ -2,8 +2,8 @@ package org.zstack.portal.apimediator;
 
 import org.zstack.header.apimediator.ApiMessageInterceptor;
 import org.zstack.header.message.APIParam;
+import org.zstack.utils.FieldAccessor;
 
-import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,13 +21,13 @@ public class ApiMessageDescriptor {
     private List<String> roles;
     private List<ApiMessageInterceptor> interceptors;
     private Class<?> clazz;
-    private Map<Field, APIParam> fieldApiParams = new HashMap<Field, APIParam>();
+    private Map<FieldAccessor, APIParam> fieldApiParams = new HashMap<FieldAccessor, APIParam>();
 
-    public Map<Field, APIParam> getFieldApiParams() {
+    public Map<FieldAccessor, APIParam> getFieldApiParams() {
         return fieldApiParams;
     }
 
-    public void setFieldApiParams(Map<Field, APIParam> fieldApiParams) {
+    public void setFieldApiParams(Map<FieldAccessor, APIParam> fieldApiParams) {
         this.fieldApiParams = fieldApiParams;
     }
 
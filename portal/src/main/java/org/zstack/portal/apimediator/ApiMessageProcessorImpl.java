@@ -21,6 +21,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.*;
 import org.zstack.portal.apimediator.schema.Service;
 import org.zstack.utils.DebugUtils;
+import org.zstack.utils.FieldAccessor;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
@@ -240,18 +241,17 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
         }
 
         for (FP fp : fmap.values()) {
-            desc.getFieldApiParams().put(fp.field, fp.param);
+            desc.getFieldApiParams().put(FieldUtils.getAccessor(fp.field), fp.param);
         }
     }
 
 
     private void apiParamValidation(Message msg, ApiMessageDescriptor desc) {
         try {
-            for (Map.Entry<Field, APIParam> fp : desc.getFieldApiParams().entrySet()) {
-                Field f = fp.getKey();
+            for (Map.Entry<FieldAccessor, APIParam> fp : desc.getFieldApiParams().entrySet()) {
+                FieldAccessor f = fp.getKey();
                 final APIParam at = fp.getValue();
 
-                f.setAccessible(true);
                 Object value = f.get(msg);
 
                 if (value != null && at.maxLength() != Integer.MIN_VALUE && (value instanceof String)) {
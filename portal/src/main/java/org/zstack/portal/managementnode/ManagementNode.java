@@ -21,6 +21,7 @@ import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.defer.Deferred;
 import org.zstack.core.defer.Defer;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.Task;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.exception.CloudRuntimeException;
@@ -49,12 +50,16 @@ public class ManagementNode implements CloudBusEventListener {
     private ThreadFacade thdf;
     @Autowired
     private CloudBusIN bus;
+    @Autowired
+    private JmxFacade jmxf;
 
     private static final CLogger logger = Utils.getLogger(ManagementNode.class);
     private Event[] myEvents;
 
     private volatile ManagementNodeVO node = null;
     private Future<Void> heartBeatTask = null;
+    private Future<Void> busHeartbeatTask = null;
+    private PhiAccrualFailureDetector failureDetector = new PhiAccrualFailureDetector();
     private volatile AtomicBoolean isLeft = new AtomicBoolean(false);
 
     private JdbcTemplate jdbc;
@@ -85,7 +90,7 @@ public class ManagementNode implements CloudBusEventListener {
     }
 
     public ManagementNode() {
-        myEvents = new Event[] { new ManagementNodeJoinEvent(), new ManagementNodeLeftEvent(), };
+        myEvents = new Event[] { new ManagementNodeJoinEvent(), new ManagementNodeLeftEvent(), new ManagementNodeHeartbeatEvent() };
         createJdbcTemplate();
     }
 
@@ -164,12 +169,12 @@ public class ManagementNode implements CloudBusEventListener {
                 String sql = "select * from ManagementNodeVO where state = 'RUNNING'";
                 List<ManagementNodeVO> all = jdbc.query(sql, new BeanPropertyRowMapper(ManagementNodeVO.class));
                 suspects.clear();
+                Timestamp curr = dbf.getCurrentSqlTime();
                 for (ManagementNodeVO vo : all) {
                     if (vo.getUuid().equals(node.getUuid())) {
                         continue;
                     }
 
-                    Timestamp curr = dbf.getCurrentSqlTime();
                     Timestamp lastHeartbeat = vo.getHeartBeat();
                     long end = lastHeartbeat.getTime() + TimeUnit.SECONDS.toMillis(2 * ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.value(Integer.class));
                     if (end < curr.getTime()) {
@@ -223,6 +228,123 @@ public class ManagementNode implements CloudBusEventListener {
         logger.debug(String.format("started heartbeat thread for management node[uuid:%s]", Platform.getManagementServerId()));
     }
 
+    /**
+     * the phi accrual detector suspects a node in about a second after its bus heartbeats stop, instead of
+     * 2 * node.heartbeatInterval of the database heartbeat. The database confirms and fences the suspect:
+     *
+     * 1. a node that doesn't receive its own heartbeats has problems with the bus itself, it fences nobody
+     * 2. a suspect that has written its database heartbeat in node.heartbeatInterval + node.fenceGraceTime is
+     *    alive, for example in a GC pause or with its bus publishes delayed; it's not fenced. A dead node is
+     *    fenced once it misses the database heartbeat it's due, half a node.heartbeatInterval after its death
+     *    on average, still earlier than the 2 * node.heartbeatInterval of the database heartbeat check
+     * 3. the suspect is fenced by deleting its ManagementNodeVO only if its database heartbeat is unchanged,
+     *    only one node succeeds and publishes ManagementNodeLeftEvent; the fenced node quits once it finds
+     *    its ManagementNodeVO gone, as it does with the database heartbeat
+     */
+    private void startBusHeartbeat() {
+        if (busHeartbeatTask != null) {
+            busHeartbeatTask.cancel(true);
+        }
+
+        busHeartbeatTask = thdf.submit(new Task<Void>() {
+            @Override
+            public String getName() {
+                return String.format("managementNode-%s-bus-heartbeat", Platform.getManagementServerId());
+            }
+
+            @Transactional
+            private boolean fence(String nodeId, Timestamp heartbeat) {
+                String sql = "delete from ManagementNodeVO m where m.uuid = :uuid and m.heartBeat = :heartbeat";
+                Query q = dbf.getEntityManager().createQuery(sql);
+                q.setParameter("uuid", nodeId);
+                q.setParameter("heartbeat", heartbeat);
+                return q.executeUpdate() > 0;
+            }
+
+            private void confirmAndFence(String nodeId) {
+                ManagementNodeVO vo = dbf.findByUuid(nodeId, ManagementNodeVO.class);
+                if (vo == null) {
+                    // fenced by others or left
+                    failureDetector.remove(nodeId);
+                    return;
+                }
+                if (vo.getHeartBeat() == null) {
+                    return;
+                }
+
+                long sinceDbHeartbeat = dbf.getCurrentSqlTime().getTime() - vo.getHeartBeat().getTime();
+                long sinceBusHeartbeat = System.currentTimeMillis() - failureDetector.getLastHeartbeat(nodeId);
+                long dbHeartbeatDue = TimeUnit.SECONDS.toMillis(ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.value(Integer.class))
+                        + ManagementNodeGlobalConfig.NODE_FENCE_GRACE_TIME.value(Integer.class);
+                if (sinceDbHeartbeat <= dbHeartbeatDue) {
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("management node[uuid:%s, hostname: %s] is suspected dead by its bus heartbeats, but it has" +
+                                " written database heartbeat %s ms ago, don't fence it", vo.getUuid(), vo.getHostName(), sinceDbHeartbeat));
+                    }
+                    return;
+                }
+
+                if (fence(vo.getUuid(), vo.getHeartBeat())) {
+                    failureDetector.fenced(vo.getUuid(), System.currentTimeMillis());
+                    ManagementNodeLeftEvent evt = new ManagementNodeLeftEvent(vo.getUuid(), node.getUuid(), true);
+                    bus.publish(evt);
+                    logger.debug(String.format("Node %s has gone, its bus heartbeat stopped %s ms ago", vo.getUuid(), sinceBusHeartbeat));
+                }
+            }
+
+            private void checkSuspects() {
+                long now = System.currentTimeMillis();
+                int threshold = ManagementNodeGlobalConfig.NODE_PHI_THRESHOLD.value(Integer.class);
+                if (failureDetector.phi(node.getUuid(), now) > threshold) {
+                    logger.warn(String.format("I[uuid:%s] don't receive my own bus heartbeats, skip checking other management nodes", node.getUuid()));
+                    return;
+                }
+
+                for (String nodeId : failureDetector.getNodes()) {
+                    if (nodeId.equals(node.getUuid())) {
+                        continue;
+                    }
+
+                    double phi = failureDetector.phi(nodeId, now);
+                    if (phi > threshold) {
+                        if (failureDetector.suspect(nodeId)) {
+                            logger.warn(String.format("management node[uuid:%s]'s phi is %s, add it in suspicious list", nodeId, phi));
+                        }
+                        confirmAndFence(nodeId);
+                    }
+                }
+            }
+
+            @Override
+            public Void call() throws Exception {
+                while (true) {
+                    int interval = ManagementNodeGlobalConfig.NODE_BUS_HEARTBEAT_INTERVAL.value(Integer.class);
+                    try {
+                        failureDetector.setExpectedInterval(interval);
+                        failureDetector.setWindowSize(ManagementNodeGlobalConfig.NODE_PHI_WINDOW_SIZE.value(Integer.class));
+                        bus.publish(new ManagementNodeHeartbeatEvent(node.getUuid()));
+                        checkSuspects();
+                    } catch (Throwable t) {
+                        logger.warn("unhandled exception happened", t);
+                    }
+
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(interval);
+                    } catch (InterruptedException ie) {
+                    }
+
+                    if (busHeartbeatTask.isCancelled()) {
+                        break;
+                    }
+                }
+
+                return null;
+            }
+        });
+
+        logger.debug(String.format("started bus heartbeat thread for management node[uuid:%s]", Platform.getManagementServerId()));
+    }
+
     private void setupHeartbeat() {
         ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
             @Override
@@ -232,6 +354,8 @@ public class ManagementNode implements CloudBusEventListener {
         });
 
         startHeartbeat();
+        startBusHeartbeat();
+        jmxf.registerBean("ManagementNodeFailureDetector", failureDetector);
     }
 
     @Deferred
@@ -329,6 +453,7 @@ public class ManagementNode implements CloudBusEventListener {
             throw new CloudRuntimeException("Node fails to leave", e);
         } finally {
             heartBeatTask.cancel(true);
+            busHeartbeatTask.cancel(true);
             try {
                 heartbeatDbConnection.close();
             } catch (SQLException e) {
@@ -347,6 +472,10 @@ public class ManagementNode implements CloudBusEventListener {
         }
     }
 
+    private void handleEvent(ManagementNodeHeartbeatEvent evt) {
+        failureDetector.heartbeat(evt.getNodeId(), System.currentTimeMillis());
+    }
+
     private void handleEvent(ManagementNodeLeftEvent evt) throws IOException {
         if (evt.getLeftNodeId().equals(node.getUuid())) {
             if (!evt.getSponsorNodeId().equals(node.getUuid())) {
@@ -358,6 +487,7 @@ public class ManagementNode implements CloudBusEventListener {
                 bus.send(msg);
             }
         } else {
+            failureDetector.remove(evt.getLeftNodeId());
             notifyNodeLeft(evt.getLeftNodeId());
         }
     }
@@ -381,6 +511,8 @@ public class ManagementNode implements CloudBusEventListener {
                 handleEvent((ManagementNodeJoinEvent) e);
             } else if (e instanceof ManagementNodeLeftEvent) {
                 handleEvent((ManagementNodeLeftEvent) e);
+            } else if (e instanceof ManagementNodeHeartbeatEvent) {
+                handleEvent((ManagementNodeHeartbeatEvent) e);
             } else {
             	bus.dealWithUnknownMessage(e);
             }
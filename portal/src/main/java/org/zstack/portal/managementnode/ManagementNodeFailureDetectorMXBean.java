@@ -0,0 +1,19 @@
+package org.zstack.portal.managementnode;
+
+import java.util.Map;
+
+/**
+ */
+public interface ManagementNodeFailureDetectorMXBean {
+    Map<String, Double> getPhis();
+
+    long getSuspicionNum();
+
+    long getFalsePositiveNum();
+
+    long getFencedNum();
+
+    long getLastDetectionTime();
+
+    long getAverageDetectionTime();
+}
@@ -14,4 +14,12 @@ public class ManagementNodeGlobalConfig {
     public static GlobalConfig NODE_HEARTBEAT_INTERVAL = new GlobalConfig(CATEGORY, "node.heartbeatInterval");
     @GlobalConfigValidation(numberGreaterThan = -1)
     public static GlobalConfig NODE_JOIN_DELAY = new GlobalConfig(CATEGORY, "node.joinDelay");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig NODE_BUS_HEARTBEAT_INTERVAL = new GlobalConfig(CATEGORY, "node.busHeartbeatInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig NODE_PHI_THRESHOLD = new GlobalConfig(CATEGORY, "node.phiThreshold");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig NODE_PHI_WINDOW_SIZE = new GlobalConfig(CATEGORY, "node.phiWindowSize");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig NODE_FENCE_GRACE_TIME = new GlobalConfig(CATEGORY, "node.fenceGraceTime");
 }
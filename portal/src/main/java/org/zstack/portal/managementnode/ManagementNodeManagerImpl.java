@@ -73,6 +73,10 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
     private ThreadFacade thdf;
 
     private List<ManagementNodeChangeListener> lifeCycleExtension = new ArrayList<ManagementNodeChangeListener>();
+    // time cost, in milliseconds, of each boot phase and each component start, logged after the node starts
+    private Map<String, Long> bootPhaseTimes = new LinkedHashMap<String, Long>();
+    private Map<String, Long> componentStartTimes = new HashMap<String, Long>();
+    private static final int SLOWEST_COMPONENT_NUM = 10;
 
     private interface ComponentWrapper {
         void start();
@@ -226,8 +230,11 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 @Override
                 public void start() {
                     logger.info("starting component: " + c.getClass().getName());
+                    long startTime = System.currentTimeMillis();
                     c.start();
-                    logger.info(String.format("component[%s] starts successfully", c.getClass()));
+                    long cost = System.currentTimeMillis() - startTime;
+                    componentStartTimes.put(c.getClass().getName(), cost);
+                    logger.info(String.format("component[%s] starts successfully in %s ms", c.getClass(), cost));
                     isStart = true;
                 }
 
@@ -260,6 +267,32 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
         lifeCycleExtension = pluginRgty.getExtensionList(ManagementNodeChangeListener.class);
     }
 
+    private void recordBootPhase(String phase, long startTime) {
+        bootPhaseTimes.put(phase, System.currentTimeMillis() - startTime);
+    }
+
+    private void logBootTimes(long startTime) {
+        StringBuilder sb = new StringBuilder(String.format("management node[%s] booted in %s ms, time cost of boot phases:",
+                Platform.getManagementServerId(), System.currentTimeMillis() - startTime));
+        for (Map.Entry<String, Long> e : bootPhaseTimes.entrySet()) {
+            sb.append(String.format("\n  %s: %s ms", e.getKey(), e.getValue()));
+        }
+
+        List<Map.Entry<String, Long>> cts = new ArrayList<Map.Entry<String, Long>>(componentStartTimes.entrySet());
+        Collections.sort(cts, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        sb.append(String.format("\nthe slowest %s of %s components:", Math.min(SLOWEST_COMPONENT_NUM, cts.size()), cts.size()));
+        for (Map.Entry<String, Long> e : cts.subList(0, Math.min(SLOWEST_COMPONENT_NUM, cts.size()))) {
+            sb.append(String.format("\n  %s: %s ms", e.getKey(), e.getValue()));
+        }
+
+        logger.info(sb.toString());
+    }
+
 	@Override
 	public boolean start() {
 	    if (started) {
@@ -279,6 +312,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
         }
 
         final Result ret = new Result();
+        final long bootStartTime = System.currentTimeMillis();
 
         GLock lock = new GLock(INVENTORY_LOCK, INVENTORY_LOCK_TIMEOUT);
 		/*
@@ -311,8 +345,10 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
             }).then(new NoRollbackFlow() {
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
+                    long startTime = System.currentTimeMillis();
                     loader = Platform.getComponentLoader();
                     populateComponents();
+                    recordBootPhase("populate-components", startTime);
                     trigger.next();
                 }
             }).then(new Flow() {
@@ -332,7 +368,9 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 String __name__ = "start-components";
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
+                    long startTime = System.currentTimeMillis();
                     startComponents();
+                    recordBootPhase(__name__, startTime);
                     trigger.next();
                 }
 
@@ -345,7 +383,9 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 String __name__ = "check-management-node-inventory";
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
+                    long startTime = System.currentTimeMillis();
                     checkInventory();
+                    recordBootPhase(__name__, startTime);
                     trigger.next();
                 }
 
@@ -358,16 +398,20 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 String __name__ = "call-prepare-db-extension";
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
+                    long startTime = System.currentTimeMillis();
                     callPrepareDbExtensions();
+                    recordBootPhase(__name__, startTime);
                     trigger.next();
                 }
             }).then(new Flow() {
                 String __name__ = "join-management-node";
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
+                    long startTime = System.currentTimeMillis();
                     node = new ManagementNode();
                     node.addNodeManagerCallback(self);
                     node.join();
+                    recordBootPhase(__name__, startTime);
                     trigger.next();
                 }
 
@@ -380,7 +424,9 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 String __name__ = "start-api-mediator";
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
+                    long startTime = System.currentTimeMillis();
                     apim.start();
+                    recordBootPhase(__name__, startTime);
                     trigger.next();
                 }
 
@@ -421,9 +467,12 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
 
 		installShutdownHook();
 
+        long readyStartTime = System.currentTimeMillis();
         for (ManagementNodeReadyExtensionPoint ext : pluginRgty.getExtensionList(ManagementNodeReadyExtensionPoint.class)) {
             ext.managementNodeReady();
         }
+        recordBootPhase("management-node-ready-extensions", readyStartTime);
+        logBootTimes(bootStartTime);
 
         logger.info("Management node: " + getId() + " starts successfully");
 
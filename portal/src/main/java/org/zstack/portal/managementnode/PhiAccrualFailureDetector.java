@@ -0,0 +1,179 @@
+package org.zstack.portal.managementnode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the phi accrual failure detector(Hayashibara et al.) on the heartbeats management nodes publish on the bus.
+ *
+ * phi is the suspicion level of a node given the time since its last heartbeat, computed from the normal
+ * distribution of the latest heartbeat intervals of the node; phi = 8 means the chance the heartbeat is just late
+ * is 1e-8. A node is tracked from its first heartbeat, before the first interval the expected interval is used.
+ *
+ * a suspected node that sends a heartbeat again is counted as a false positive; the time from the last heartbeat
+ * to the fencing of a node is counted as the detection time.
+ */
+public class PhiAccrualFailureDetector implements ManagementNodeFailureDetectorMXBean {
+    private static class History {
+        long[] intervals;
+        int index;
+        int size;
+        long sum;
+        long squareSum;
+        long lastHeartbeat;
+        boolean suspected;
+
+        History(int windowSize, long now) {
+            intervals = new long[Math.max(windowSize, 1)];
+            lastHeartbeat = now;
+        }
+
+        void add(long interval) {
+            if (size == intervals.length) {
+                long old = intervals[index];
+                sum -= old;
+                squareSum -= old * old;
+            } else {
+                size++;
+            }
+
+            intervals[index] = interval;
+            index = (index + 1) % intervals.length;
+            sum += interval;
+            squareSum += interval * interval;
+        }
+    }
+
+    // guarded by this
+    private final Map<String, History> histories = new HashMap<String, History>();
+    private long suspicionNum;
+    private long falsePositiveNum;
+    private long fencedNum;
+    private long lastDetectionTime;
+    private long totalDetectionTime;
+
+    private volatile long expectedInterval = 1000;
+    private volatile int windowSize = 100;
+
+    public void setExpectedInterval(long expectedInterval) {
+        this.expectedInterval = Math.max(expectedInterval, 1);
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public synchronized void heartbeat(String nodeId, long now) {
+        History h = histories.get(nodeId);
+        if (h == null) {
+            histories.put(nodeId, new History(windowSize, now));
+            return;
+        }
+
+        h.add(Math.max(now - h.lastHeartbeat, 0));
+        h.lastHeartbeat = now;
+        if (h.suspected) {
+            h.suspected = false;
+            falsePositiveNum++;
+        }
+    }
+
+    private double phi(History h, long now) {
+        double mean = h.size == 0 ? expectedInterval : (double) h.sum / h.size;
+        double variance = h.size == 0 ? 0 : (double) h.squareSum / h.size - mean * mean;
+        // a too small deviation of steady heartbeats makes phi jump on any jitter
+        double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0)), expectedInterval / 4.0);
+
+        // the logistic approximation of the cumulative normal distribution
+        double y = (now - h.lastHeartbeat - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        double p = now - h.lastHeartbeat > mean ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+        return p <= 0 ? Double.MAX_VALUE : -Math.log10(p);
+    }
+
+    /**
+     * @return the phi of the node, 0 if the node has never sent a heartbeat
+     */
+    public synchronized double phi(String nodeId, long now) {
+        History h = histories.get(nodeId);
+        return h == null ? 0 : phi(h, now);
+    }
+
+    /**
+     * @return the time of the last heartbeat of the node, -1 if the node has never sent a heartbeat
+     */
+    public synchronized long getLastHeartbeat(String nodeId) {
+        History h = histories.get(nodeId);
+        return h == null ? -1 : h.lastHeartbeat;
+    }
+
+    public synchronized List<String> getNodes() {
+        return new ArrayList<String>(histories.keySet());
+    }
+
+    /**
+     * @return true if the node is suspected the first time since its last heartbeat
+     */
+    public synchronized boolean suspect(String nodeId) {
+        History h = histories.get(nodeId);
+        if (h == null || h.suspected) {
+            return false;
+        }
+
+        h.suspected = true;
+        suspicionNum++;
+        return true;
+    }
+
+    public synchronized void fenced(String nodeId, long now) {
+        History h = histories.remove(nodeId);
+        if (h == null) {
+            return;
+        }
+
+        fencedNum++;
+        lastDetectionTime = now - h.lastHeartbeat;
+        totalDetectionTime += lastDetectionTime;
+    }
+
+    public synchronized void remove(String nodeId) {
+        histories.remove(nodeId);
+    }
+
+    @Override
+    public synchronized Map<String, Double> getPhis() {
+        long now = System.currentTimeMillis();
+        Map<String, Double> ret = new HashMap<String, Double>();
+        for (Map.Entry<String, History> e : histories.entrySet()) {
+            ret.put(e.getKey(), phi(e.getValue(), now));
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized long getSuspicionNum() {
+        return suspicionNum;
+    }
+
+    @Override
+    public synchronized long getFalsePositiveNum() {
+        return falsePositiveNum;
+    }
+
+    @Override
+    public synchronized long getFencedNum() {
+        return fencedNum;
+    }
+
+    @Override
+    public synchronized long getLastDetectionTime() {
+        return lastDetectionTime;
+    }
+
+    @Override
+    public synchronized long getAverageDetectionTime() {
+        return fencedNum == 0 ? 0 : totalDetectionTime / fencedNum;
+    }
+}
@@ -300,13 +300,13 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     }
 
     private void populateEntityInfo() throws NoSuchMethodException {
-        List<Class> metaClasses = BeanUtils.scanClass("org.zstack", StaticMetamodel.class);
+        List<Class> metaClasses = ClassIndex.getAnnotatedClasses("org.zstack", StaticMetamodel.class);
         for (Class it : metaClasses) {
             StaticMetamodel at = (StaticMetamodel) it.getAnnotation(StaticMetamodel.class);
             metaModelClasses.put(at.value(), it);
         }
 
-        List<Class> invClasses = BeanUtils.scanClass("org.zstack", Inventory.class);
+        List<Class> invClasses = ClassIndex.getAnnotatedClasses("org.zstack", Inventory.class);
 
         for (Class invClass : invClasses) {
             EntityInfo info = buildEntityInfo(invClass);
@@ -1123,7 +1123,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     }
 
     private void buildExpandedQueryAliasInfo() {
-        List<Class> invClasses = BeanUtils.scanClass("org.zstack", Inventory.class);
+        List<Class> invClasses = ClassIndex.getAnnotatedClasses("org.zstack", Inventory.class);
 
         for (Class invClass : invClasses) {
             ExpandedQueryAliases aliases = (ExpandedQueryAliases) invClass.getAnnotation(ExpandedQueryAliases.class);
@@ -1156,7 +1156,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     @Override
     public boolean start() {
         try {
-            List<Class> queryMessageClasses = BeanUtils.scanClassByType("org.zstack", APIQueryMessage.class);
+            List<Class> queryMessageClasses = ClassIndex.getSubTypes("org.zstack", APIQueryMessage.class);
 
             for (Class msgClass : queryMessageClasses) {
                 AutoQuery at = (AutoQuery) msgClass.getAnnotation(AutoQuery.class);
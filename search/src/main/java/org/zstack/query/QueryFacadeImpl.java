@@ -18,7 +18,7 @@ import org.zstack.header.query.*;
 import org.zstack.header.rest.APINoSee;
 import org.zstack.header.search.Inventory;
 import org.zstack.header.search.SearchConstant;
-import org.zstack.utils.BeanUtils;
+import org.zstack.utils.ClassIndex;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
@@ -90,7 +90,7 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
             return;
         }
 
-        List<Class> inventoryClasses = BeanUtils.scanClass("org.zstack", Inventory.class);
+        List<Class> inventoryClasses = ClassIndex.getAnnotatedClasses("org.zstack", Inventory.class);
         List<String> errors = new ArrayList<String>();
         for (Class clz : inventoryClasses) {
             boolean error = false;
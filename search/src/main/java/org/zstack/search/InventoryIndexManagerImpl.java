@@ -33,6 +33,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.search.*;
+import org.zstack.utils.ClassIndex;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.data.Pair;
@@ -147,12 +148,9 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     }
     
     private void populateTriggerVOs() throws ClassNotFoundException {
-        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
-        scanner.addIncludeFilter(new AnnotationTypeFilter(TriggerIndex.class));
-        scanner.addExcludeFilter(new AnnotationTypeFilter(Controller.class));
+        List<Class> excludes = Arrays.<Class>asList(Controller.class);
         for (String pkg : getBasePkgNames()) {
-            for (BeanDefinition bd : scanner.findCandidateComponents(pkg)) {
-                Class<?> triggerVO = Class.forName(bd.getBeanClassName());
+            for (Class<?> triggerVO : ClassIndex.getAnnotatedClasses(pkg, TriggerIndex.class, excludes)) {
                 if (!triggerVO.isAnnotationPresent(Entity.class)) {
                     throw new IllegalArgumentException(String.format("Class[%s] is annotated by @TriggerIndex, but not annotated by @Entity",
                             triggerVO.getName()));
@@ -164,12 +162,9 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     }
 
     private void populateInventoryIndexer() throws URISyntaxException, ClassNotFoundException, NoSuchMethodException {
-        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
-        scanner.addIncludeFilter(new AnnotationTypeFilter(Inventory.class));
-        scanner.addExcludeFilter(new AnnotationTypeFilter(Controller.class));
+        List<Class> excludes = Arrays.<Class>asList(Controller.class);
         for (String pkg : getBasePkgNames()) {
-            for (BeanDefinition bd : scanner.findCandidateComponents(pkg)) {
-                Class<?> inventoryClass = Class.forName(bd.getBeanClassName());
+            for (Class<?> inventoryClass : ClassIndex.getAnnotatedClasses(pkg, Inventory.class, excludes)) {
                 Inventory invat = inventoryClass.getAnnotation(Inventory.class);
                 if (!triggerVOs.contains(invat.mappingVOClass())) {
                     String err = String.format("Inventory[%s]'s mapping VO class[%s] is not annotated by @TriggerIndex", inventoryClass.getName(), invat
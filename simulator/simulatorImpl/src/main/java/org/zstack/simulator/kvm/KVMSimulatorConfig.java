@@ -75,4 +75,9 @@ public class KVMSimulatorConfig {
     public volatile List<CheckVmStateCmd> checkVmStateCmds = new ArrayList<CheckVmStateCmd>();
     public volatile Map<String, Map<String, String>> checkVmStatesConfig = new HashMap<String, Map<String, String>>();
     public volatile boolean vmSyncSuccess = true;
+    public volatile boolean vmSyncChangesOnlySupported = true;
+    public volatile List<VmSyncCmd> vmSyncCmds = new ArrayList<VmSyncCmd>();
+    // guarded by this config; the vm states reported at each epoch, to answer incremental vm syncs
+    public long vmSyncEpoch;
+    public Map<Long, Map<String, KvmVmState>> vmSyncSnapshots = new HashMap<Long, Map<String, KvmVmState>>();
 }
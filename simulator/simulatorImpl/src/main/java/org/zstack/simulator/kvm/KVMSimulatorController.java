@@ -217,6 +217,8 @@ public class KVMSimulatorController {
     @AsyncThread
     private void doVmSync(HttpEntity<String> entity) {
         synchronized (config) {
+            VmSyncCmd cmd = JSONObjectUtil.toObject(entity.getBody(), VmSyncCmd.class);
+            config.vmSyncCmds.add(cmd);
             VmSyncResponse rsp = new VmSyncResponse();
             if (!config.vmSyncSuccess) {
                 rsp.setSuccess(false);
@@ -226,10 +228,33 @@ public class KVMSimulatorController {
             }
 
             HashMap<String, String> vms = new HashMap<String, String>();
-            for (Map.Entry<String, KvmVmState> e : config.vms.entrySet()) {
-                vms.put(e.getKey(), e.getValue().toString());
+            Map<String, KvmVmState> since = cmd.getSinceEpoch() == null ? null : config.vmSyncSnapshots.get(cmd.getSinceEpoch());
+            if (since == null) {
+                for (Map.Entry<String, KvmVmState> e : config.vms.entrySet()) {
+                    vms.put(e.getKey(), e.getValue().toString());
+                }
+            } else {
+                for (Map.Entry<String, KvmVmState> e : config.vms.entrySet()) {
+                    if (e.getValue() != since.get(e.getKey())) {
+                        vms.put(e.getKey(), e.getValue().toString());
+                    }
+                }
+                for (String vmUuid : since.keySet()) {
+                    if (!config.vms.containsKey(vmUuid)) {
+                        vms.put(vmUuid, KvmVmState.Shutdown.toString());
+                    }
+                }
             }
             rsp.setStates(vms);
+
+            if (config.vmSyncChangesOnlySupported) {
+                rsp.setChangesOnly(since != null);
+                rsp.setEpoch(++config.vmSyncEpoch);
+                config.vmSyncSnapshots.put(config.vmSyncEpoch, new HashMap<String, KvmVmState>(config.vms));
+                // hosts sync at most every few epochs, older snapshots are never asked
+                config.vmSyncSnapshots.remove(config.vmSyncEpoch - 100);
+            }
+
             reply(entity, rsp);
         }
     }
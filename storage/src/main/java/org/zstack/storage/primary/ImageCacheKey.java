@@ -0,0 +1,80 @@
+package org.zstack.storage.primary;
+
+import org.zstack.header.storage.primary.ImageCacheVO;
+
+/**
+ * identifies an image cache: the image, the primary storage and, for primary storage keeping caches on each host
+ * like local storage, the host. Caches on a host carry the host in their install url as 'hostUuid://[uuid]'.
+ */
+public class ImageCacheKey {
+    public static final String HOST_UUID_MARK = "hostUuid://";
+
+    private final String primaryStorageUuid;
+    private final String imageUuid;
+    private final String hostUuid;
+
+    public ImageCacheKey(String primaryStorageUuid, String imageUuid) {
+        this(primaryStorageUuid, imageUuid, null);
+    }
+
+    public ImageCacheKey(String primaryStorageUuid, String imageUuid, String hostUuid) {
+        this.primaryStorageUuid = primaryStorageUuid;
+        this.imageUuid = imageUuid;
+        this.hostUuid = hostUuid;
+    }
+
+    public static ImageCacheKey valueOf(ImageCacheVO vo) {
+        String url = vo.getInstallUrl();
+        int index = url == null ? -1 : url.lastIndexOf(HOST_UUID_MARK);
+        String hostUuid = index == -1 ? null : url.substring(index + HOST_UUID_MARK.length());
+        return new ImageCacheKey(vo.getPrimaryStorageUuid(), vo.getImageUuid(), hostUuid);
+    }
+
+    public String getPrimaryStorageUuid() {
+        return primaryStorageUuid;
+    }
+
+    public String getImageUuid() {
+        return imageUuid;
+    }
+
+    public String getHostUuid() {
+        return hostUuid;
+    }
+
+    public boolean matches(ImageCacheVO vo) {
+        if (!primaryStorageUuid.equals(vo.getPrimaryStorageUuid()) || !imageUuid.equals(vo.getImageUuid())) {
+            return false;
+        }
+
+        return hostUuid == null || (vo.getInstallUrl() != null && vo.getInstallUrl().endsWith(HOST_UUID_MARK + hostUuid));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImageCacheKey)) {
+            return false;
+        }
+
+        ImageCacheKey k = (ImageCacheKey) o;
+        return primaryStorageUuid.equals(k.primaryStorageUuid) && imageUuid.equals(k.imageUuid)
+                && (hostUuid == null ? k.hostUuid == null : hostUuid.equals(k.hostUuid));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = primaryStorageUuid.hashCode();
+        result = 31 * result + imageUuid.hashCode();
+        result = 31 * result + (hostUuid != null ? hostUuid.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("image[uuid:%s] on primary storage[uuid:%s]%s", imageUuid, primaryStorageUuid,
+                hostUuid == null ? "" : String.format(" host[uuid:%s]", hostUuid));
+    }
+}
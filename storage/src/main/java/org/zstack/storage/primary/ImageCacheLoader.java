@@ -0,0 +1,23 @@
+package org.zstack.storage.primary;
+
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.storage.primary.ImageCacheVO;
+
+/**
+ * backend specific part of populating an image cache, see ImageCacheManager.populate()
+ */
+public abstract class ImageCacheLoader {
+    /**
+     * checks an image cache found in database still exists on the primary storage. If it doesn't, the implementation
+     * cleans up the cache, e.g. returns the capacity and deletes the ImageCacheVO, and replies false so that
+     * the image is loaded again. By default the cache is trusted.
+     */
+    public void check(ImageCacheVO cache, ReturnValueCompletion<Boolean> completion) {
+        completion.success(true);
+    }
+
+    /**
+     * downloads the image to the primary storage and persists the ImageCacheVO
+     */
+    public abstract void load(ReturnValueCompletion<ImageCacheVO> completion);
+}
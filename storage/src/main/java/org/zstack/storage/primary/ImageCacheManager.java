@@ -0,0 +1,23 @@
+package org.zstack.storage.primary;
+
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.storage.primary.ImageCacheVO;
+
+/**
+ */
+public interface ImageCacheManager {
+    /**
+     * gets the image cache identified by the key, loading it with the loader if it doesn't exist.
+     *
+     * there is at most one population in flight for a key, concurrent callers of the same key wait for
+     * it and get its result instead of queuing up to check and download the image one by one.
+     */
+    void populate(ImageCacheKey key, ImageCacheLoader loader, ReturnValueCompletion<ImageCacheVO> completion);
+
+    /**
+     * evicts least recently used image caches of the primary storage if its used capacity is above
+     * the high watermark, until it's below the low watermark. It returns immediately, eviction is done
+     * in background and at most one eviction runs for a primary storage at a time.
+     */
+    void reclaim(String primaryStorageUuid);
+}
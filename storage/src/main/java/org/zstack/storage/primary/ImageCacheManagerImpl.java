@@ -0,0 +1,627 @@
+package org.zstack.storage.primary;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.image.ImageConstant.ImageMediaType;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.storage.primary.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * single-flight population of image caches for all primary storage.
+ *
+ * the first caller of a key starts a flight which looks up the cache, checks it with the loader and downloads
+ * it if needed; callers coming while the flight is running are attached to it. Found caches are remembered in
+ * an in-memory index from key to ImageCacheVO id, so a later lookup is a primary key find; on an index miss the
+ * caches of the image on the primary storage are queried by equality and matched in memory, no LIKE query is
+ * issued. The index is only a hint, every hit is confirmed against database, so caches deleted by other
+ * components or management nodes are never returned.
+ *
+ * the manager also evicts image caches under capacity pressure. Every time a cache is returned its last use
+ * time and use count are recorded; when the used capacity of a primary storage exceeds the high watermark, caches
+ * are evicted from the least recently used until the usage drops to the low watermark. A cache is never evicted
+ * if any volume may still be based on it (it's referenced in ImageCacheVolumeRefVO or a volume on the primary
+ * storage is created from its image), if it's used recently, or if it's hot i.e. pinned by being used at least
+ * imageCache.pin.threshold times within imageCache.pin.period. ISO caches and caches of deleted images are left
+ * to ImageCacheGarbageCollector. While a cache is being evicted, populate() of its key waits for the eviction.
+ */
+public class ImageCacheManagerImpl implements ImageCacheManager, ImageCacheManagerMXBean, Component {
+    private static final CLogger logger = Utils.getLogger(ImageCacheManagerImpl.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private JmxFacade jmxf;
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    private final Map<ImageCacheKey, Long> index = new ConcurrentHashMap<ImageCacheKey, Long>();
+    private final Map<ImageCacheKey, Flight> flights = new HashMap<ImageCacheKey, Flight>();
+    // guarded by flights, populate() calls of the key waiting for the eviction
+    private final Map<ImageCacheKey, List<Runnable>> evicting = new HashMap<ImageCacheKey, List<Runnable>>();
+    private final ConcurrentMap<Long, CacheUsage> usages = new ConcurrentHashMap<Long, CacheUsage>();
+    private final ConcurrentMap<String, EvictionCounter> evictionCounters = new ConcurrentHashMap<String, EvictionCounter>();
+    private final Set<String> reclaiming = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Future<Void> reclaimTask;
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong downloadNum = new AtomicLong();
+    private final AtomicLong waitNum = new AtomicLong();
+    private final AtomicLong failureNum = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong downloadTime = new AtomicLong();
+
+    private static class CacheUsage {
+        long lastUseTime;
+        long periodStart;
+        int useNum;
+        int lastPeriodUseNum;
+
+        private void roll(long now, long period) {
+            if (now - periodStart >= period) {
+                lastPeriodUseNum = now - periodStart >= 2 * period ? 0 : useNum;
+                useNum = 0;
+                periodStart = now;
+            }
+        }
+
+        synchronized void use(long now, long period) {
+            roll(now, period);
+            useNum++;
+            lastUseTime = now;
+        }
+
+        synchronized boolean isHot(long now, long period, int threshold) {
+            roll(now, period);
+            return Math.max(useNum, lastPeriodUseNum) >= threshold;
+        }
+
+        synchronized long getLastUseTime() {
+            return lastUseTime;
+        }
+    }
+
+    private static class EvictionCounter {
+        final AtomicLong evictionNum = new AtomicLong();
+        final AtomicLong evictedBytes = new AtomicLong();
+        volatile long lastEvictionTime;
+    }
+
+    private class Flight {
+        ImageCacheKey key;
+        ImageCacheLoader loader;
+        List<ReturnValueCompletion<ImageCacheVO>> waiters = new ArrayList<ReturnValueCompletion<ImageCacheVO>>();
+
+        Flight(ImageCacheKey key, ImageCacheLoader loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+
+        void run() {
+            try {
+                final ImageCacheVO cache = find(key);
+                if (cache == null) {
+                    load();
+                    return;
+                }
+
+                loader.check(cache, new ReturnValueCompletion<Boolean>() {
+                    @Override
+                    public void success(Boolean existing) {
+                        if (existing) {
+                            hitNum.incrementAndGet();
+                            done(cache, null);
+                        } else {
+                            logger.debug(String.format("the image cache[id:%s] of %s is gone, load it again", cache.getId(), key));
+                            index.remove(key);
+                            load();
+                        }
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        done(null, errorCode);
+                    }
+                });
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when populating the image cache of %s", key), t);
+                done(null, errf.throwableToInternalError(t));
+            }
+        }
+
+        void load() {
+            final long start = System.currentTimeMillis();
+            loader.load(new ReturnValueCompletion<ImageCacheVO>() {
+                @Override
+                public void success(ImageCacheVO cache) {
+                    downloadNum.incrementAndGet();
+                    downloadedBytes.addAndGet(cache.getSize());
+                    downloadTime.addAndGet(System.currentTimeMillis() - start);
+                    index.put(key, cache.getId());
+                    done(cache, null);
+                    reclaim(key.getPrimaryStorageUuid());
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    failureNum.incrementAndGet();
+                    done(null, errorCode);
+                }
+            });
+        }
+
+        void done(ImageCacheVO cache, ErrorCode error) {
+            List<ReturnValueCompletion<ImageCacheVO>> ws;
+            synchronized (flights) {
+                if (flights.get(key) != this) {
+                    // already done
+                    return;
+                }
+
+                flights.remove(key);
+                ws = waiters;
+            }
+
+            if (cache != null) {
+                used(cache.getId());
+            }
+
+            for (ReturnValueCompletion<ImageCacheVO> w : ws) {
+                try {
+                    if (error == null) {
+                        w.success(cache);
+                    } else {
+                        w.fail(error);
+                    }
+                } catch (Throwable t) {
+                    logger.warn(String.format("unhandled exception when replying the image cache of %s", key), t);
+                }
+            }
+        }
+    }
+
+    private ImageCacheVO find(ImageCacheKey key) {
+        Long id = index.get(key);
+        if (id != null) {
+            ImageCacheVO vo = dbf.findById(id, ImageCacheVO.class);
+            if (vo != null && key.matches(vo)) {
+                return vo;
+            }
+
+            index.remove(key);
+        }
+
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, key.getPrimaryStorageUuid());
+        q.add(ImageCacheVO_.imageUuid, Op.EQ, key.getImageUuid());
+        for (ImageCacheVO vo : q.list()) {
+            if (key.matches(vo)) {
+                index.put(key, vo.getId());
+                return vo;
+            }
+        }
+
+        return null;
+    }
+
+    private void used(long cacheId) {
+        CacheUsage usage = usages.get(cacheId);
+        if (usage == null) {
+            usage = new CacheUsage();
+            CacheUsage old = usages.putIfAbsent(cacheId, usage);
+            usage = old == null ? usage : old;
+        }
+
+        usage.use(System.currentTimeMillis(), getPinPeriod());
+    }
+
+    private long getPinPeriod() {
+        return TimeUnit.SECONDS.toMillis(PrimaryStorageGlobalConfig.IMAGE_CACHE_PIN_PERIOD.value(Long.class));
+    }
+
+    @Override
+    public void populate(final ImageCacheKey key, final ImageCacheLoader loader, final ReturnValueCompletion<ImageCacheVO> completion) {
+        Flight flight;
+        boolean first = false;
+        synchronized (flights) {
+            List<Runnable> evictionWaiters = evicting.get(key);
+            if (evictionWaiters != null) {
+                evictionWaiters.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        populate(key, loader, completion);
+                    }
+                });
+                logger.debug(String.format("the image cache of %s is being evicted, wait for it", key));
+                return;
+            }
+
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight(key, loader);
+                flights.put(key, flight);
+                first = true;
+            }
+            flight.waiters.add(completion);
+        }
+
+        if (first) {
+            flight.run();
+        } else {
+            waitNum.incrementAndGet();
+            logger.debug(String.format("the image cache of %s is being populated, wait for it", key));
+        }
+    }
+
+    @Override
+    public void reclaim(final String primaryStorageUuid) {
+        if (!PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_ENABLE.value(Boolean.class)
+                || !destMaker.isManagedByUs(primaryStorageUuid) || !reclaiming.add(primaryStorageUuid)) {
+            return;
+        }
+
+        thdf.submit(new Task<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    long bytesToFree = getBytesToFree(primaryStorageUuid);
+                    if (bytesToFree <= 0) {
+                        reclaiming.remove(primaryStorageUuid);
+                        return null;
+                    }
+
+                    List<ImageCacheVO> candidates = getEvictionCandidates(primaryStorageUuid);
+                    logger.debug(String.format("primary storage[uuid:%s] is above the high watermark of image cache eviction, %s bytes" +
+                            " to free, %s image caches can be evicted", primaryStorageUuid, bytesToFree, candidates.size()));
+                    evict(primaryStorageUuid, candidates.iterator(), bytesToFree);
+                } catch (Throwable t) {
+                    logger.warn(String.format("unhandled exception when evicting image caches of primary storage[uuid:%s]", primaryStorageUuid), t);
+                    reclaiming.remove(primaryStorageUuid);
+                }
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return String.format("reclaim-image-cache-on-primary-storage-%s", primaryStorageUuid);
+            }
+        });
+    }
+
+    private long getBytesToFree(String psUuid) {
+        PrimaryStorageCapacityVO cap = dbf.findByUuid(psUuid, PrimaryStorageCapacityVO.class);
+        if (cap == null || cap.getTotalCapacity() <= 0) {
+            return 0;
+        }
+
+        int high = PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_HIGH_WATERMARK.value(Integer.class);
+        int low = Math.min(high, PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_LOW_WATERMARK.value(Integer.class));
+        long used = cap.getTotalCapacity() - cap.getAvailableCapacity();
+        if (used * 100 <= cap.getTotalCapacity() * high) {
+            return 0;
+        }
+
+        return used - cap.getTotalCapacity() * low / 100;
+    }
+
+    private long getLastUseTime(ImageCacheVO cache) {
+        CacheUsage usage = usages.get(cache.getId());
+        if (usage != null) {
+            return usage.getLastUseTime();
+        }
+
+        // not used since the management node started
+        return cache.getLastOpDate() == null ? 0 : cache.getLastOpDate().getTime();
+    }
+
+    private List<ImageCacheVO> getEvictionCandidates(String psUuid) {
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, psUuid);
+        q.add(ImageCacheVO_.state, Op.EQ, ImageCacheState.ready);
+        q.add(ImageCacheVO_.imageUuid, Op.NOT_NULL);
+        q.add(ImageCacheVO_.mediaType, Op.NOT_EQ, ImageMediaType.ISO);
+        List<ImageCacheVO> caches = q.list();
+
+        long now = System.currentTimeMillis();
+        long minIdleTime = TimeUnit.SECONDS.toMillis(PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MIN_IDLE_TIME.value(Long.class));
+        long pinPeriod = getPinPeriod();
+        int pinThreshold = PrimaryStorageGlobalConfig.IMAGE_CACHE_PIN_THRESHOLD.value(Integer.class);
+
+        final Map<Long, Long> lastUseTimes = new HashMap<Long, Long>();
+        List<ImageCacheVO> ret = new ArrayList<ImageCacheVO>();
+        for (ImageCacheVO cache : caches) {
+            long lastUseTime = getLastUseTime(cache);
+            if (now - lastUseTime < minIdleTime) {
+                continue;
+            }
+
+            CacheUsage usage = usages.get(cache.getId());
+            if (usage != null && usage.isHot(now, pinPeriod, pinThreshold)) {
+                continue;
+            }
+
+            lastUseTimes.put(cache.getId(), lastUseTime);
+            ret.add(cache);
+        }
+
+        Collections.sort(ret, new Comparator<ImageCacheVO>() {
+            @Override
+            public int compare(ImageCacheVO o1, ImageCacheVO o2) {
+                long t1 = lastUseTimes.get(o1.getId());
+                long t2 = lastUseTimes.get(o2.getId());
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        return ret;
+    }
+
+    @Transactional(readOnly = true)
+    private boolean isReferenced(ImageCacheVO cache) {
+        String sql = "select count(ref) from ImageCacheVolumeRefVO ref where ref.imageCacheId = :id";
+        TypedQuery<Long> q = dbf.getEntityManager().createQuery(sql, Long.class);
+        q.setParameter("id", cache.getId());
+        if (q.getSingleResult() > 0) {
+            return true;
+        }
+
+        // only some primary storage record ImageCacheVolumeRefVO, volumes created from the image may still
+        // be based on the cache
+        sql = "select count(vol) from VolumeVO vol where vol.rootImageUuid = :imageUuid and vol.primaryStorageUuid = :psUuid";
+        q = dbf.getEntityManager().createQuery(sql, Long.class);
+        q.setParameter("imageUuid", cache.getImageUuid());
+        q.setParameter("psUuid", cache.getPrimaryStorageUuid());
+        return q.getSingleResult() > 0;
+    }
+
+    @Transactional
+    private boolean changeState(long cacheId, ImageCacheState from, ImageCacheState to) {
+        String sql = "update ImageCacheVO c set c.state = :to where c.id = :id and c.state = :from";
+        TypedQuery<ImageCacheVO> q = dbf.getEntityManager().createQuery(sql, ImageCacheVO.class);
+        q.setParameter("to", to);
+        q.setParameter("from", from);
+        q.setParameter("id", cacheId);
+        return q.executeUpdate() == 1;
+    }
+
+    private boolean lockForEviction(ImageCacheKey key) {
+        synchronized (flights) {
+            if (flights.containsKey(key) || evicting.containsKey(key)) {
+                return false;
+            }
+
+            evicting.put(key, new ArrayList<Runnable>());
+            return true;
+        }
+    }
+
+    private void unlockForEviction(ImageCacheKey key) {
+        List<Runnable> waiters;
+        synchronized (flights) {
+            waiters = evicting.remove(key);
+        }
+
+        if (waiters != null) {
+            for (Runnable r : waiters) {
+                r.run();
+            }
+        }
+    }
+
+    private void evict(final String psUuid, final Iterator<ImageCacheVO> it, final long bytesToFree) {
+        if (bytesToFree <= 0) {
+            reclaiming.remove(psUuid);
+            return;
+        }
+
+        while (it.hasNext()) {
+            final ImageCacheVO cache = it.next();
+            final ImageCacheKey key = ImageCacheKey.valueOf(cache);
+            if (!lockForEviction(key)) {
+                continue;
+            }
+
+            boolean toEvict = false;
+            try {
+                toEvict = !isReferenced(cache) && changeState(cache.getId(), ImageCacheState.ready, ImageCacheState.deleting);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when checking the image cache[id:%s] for eviction", cache.getId()), t);
+            } finally {
+                if (!toEvict) {
+                    unlockForEviction(key);
+                }
+            }
+
+            if (!toEvict) {
+                continue;
+            }
+
+            PrimaryStorageRemoveCachedImageMsg msg = new PrimaryStorageRemoveCachedImageMsg();
+            msg.setInventory(ImageCacheInventory.valueOf(cache));
+            bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, psUuid);
+            bus.send(msg, new CloudBusCallBack() {
+                @Override
+                public void run(MessageReply reply) {
+                    long left = bytesToFree;
+                    try {
+                        if (reply.isSuccess()) {
+                            dbf.removeByPrimaryKey(cache.getId(), ImageCacheVO.class);
+                            index.remove(key);
+                            usages.remove(cache.getId());
+
+                            EvictionCounter counter = getEvictionCounter(psUuid);
+                            counter.evictionNum.incrementAndGet();
+                            counter.evictedBytes.addAndGet(cache.getSize());
+                            counter.lastEvictionTime = System.currentTimeMillis();
+                            left -= cache.getSize();
+                            logger.debug(String.format("evicted the image cache[id:%s, install url:%s] of %s bytes on primary storage[uuid:%s]",
+                                    cache.getId(), cache.getInstallUrl(), cache.getSize(), psUuid));
+                        } else {
+                            changeState(cache.getId(), ImageCacheState.deleting, ImageCacheState.ready);
+                            logger.warn(String.format("failed to evict the image cache[id:%s, install url:%s] on primary storage[uuid:%s], %s",
+                                    cache.getId(), cache.getInstallUrl(), psUuid, reply.getError()));
+                        }
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception when evicting the image cache[id:%s]", cache.getId()), t);
+                    } finally {
+                        unlockForEviction(key);
+                    }
+
+                    evict(psUuid, it, left);
+                }
+            });
+
+            return;
+        }
+
+        logger.warn(String.format("no more image cache can be evicted on primary storage[uuid:%s], %s bytes are still to free" +
+                " to reach the low watermark", psUuid, bytesToFree));
+        reclaiming.remove(psUuid);
+    }
+
+    private EvictionCounter getEvictionCounter(String psUuid) {
+        EvictionCounter counter = evictionCounters.get(psUuid);
+        if (counter == null) {
+            counter = new EvictionCounter();
+            EvictionCounter old = evictionCounters.putIfAbsent(psUuid, counter);
+            counter = old == null ? counter : old;
+        }
+        return counter;
+    }
+
+    private void startReclaimTask() {
+        if (reclaimTask != null) {
+            reclaimTask.cancel(true);
+        }
+
+        reclaimTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "image-cache-eviction-checker";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    SimpleQuery<PrimaryStorageVO> q = dbf.createQuery(PrimaryStorageVO.class);
+                    q.select(PrimaryStorageVO_.uuid);
+                    List<String> psUuids = q.listValue();
+                    for (String psUuid : psUuids) {
+                        reclaim(psUuid);
+                    }
+                } catch (Throwable t) {
+                    logger.warn("unhandled exception when checking image cache eviction", t);
+                }
+            }
+        });
+    }
+
+    @Transactional(readOnly = true)
+    private Map<String, long[]> getCacheOccupancy() {
+        String sql = "select c.primaryStorageUuid, count(c), sum(c.size) from ImageCacheVO c group by c.primaryStorageUuid";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        Map<String, long[]> ret = new HashMap<String, long[]>();
+        for (Tuple t : q.getResultList()) {
+            ret.put(t.get(0, String.class), new long[]{t.get(1, Long.class), t.get(2, Long.class)});
+        }
+        return ret;
+    }
+
+    @Override
+    public List<PrimaryStorageImageCacheStatistic> getPrimaryStorageStatistics() {
+        Map<String, long[]> occupancy = getCacheOccupancy();
+        Set<String> psUuids = new HashSet<String>(occupancy.keySet());
+        psUuids.addAll(evictionCounters.keySet());
+
+        List<PrimaryStorageImageCacheStatistic> ret = new ArrayList<PrimaryStorageImageCacheStatistic>();
+        for (String psUuid : psUuids) {
+            long[] o = occupancy.get(psUuid);
+            EvictionCounter counter = evictionCounters.get(psUuid);
+            PrimaryStorageCapacityVO cap = dbf.findByUuid(psUuid, PrimaryStorageCapacityVO.class);
+            int usedPercent = cap == null || cap.getTotalCapacity() <= 0 ? 0 :
+                    (int) ((cap.getTotalCapacity() - cap.getAvailableCapacity()) * 100 / cap.getTotalCapacity());
+            ret.add(new PrimaryStorageImageCacheStatistic(psUuid,
+                    o == null ? 0 : o[0],
+                    o == null ? 0 : o[1],
+                    usedPercent,
+                    counter == null ? 0 : counter.evictionNum.get(),
+                    counter == null ? 0 : counter.evictedBytes.get(),
+                    counter == null ? 0 : counter.lastEvictionTime));
+        }
+        return ret;
+    }
+
+    @Override
+    public ImageCacheStatistic getStatistic() {
+        int inflight;
+        synchronized (flights) {
+            inflight = flights.size();
+        }
+
+        long time = downloadTime.get();
+        long bytes = downloadedBytes.get();
+        return new ImageCacheStatistic(hitNum.get(), downloadNum.get(), waitNum.get(), failureNum.get(),
+                inflight, index.size(), bytes, time == 0 ? 0 : bytes * 1000 / time);
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("ImageCacheManager", this);
+
+        startReclaimTask();
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startReclaimTask();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package org.zstack.storage.primary;
+
+import java.util.List;
+
+/**
+ */
+public interface ImageCacheManagerMXBean {
+    ImageCacheStatistic getStatistic();
+
+    List<PrimaryStorageImageCacheStatistic> getPrimaryStorageStatistics();
+}
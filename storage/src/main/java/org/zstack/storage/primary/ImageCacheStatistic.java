@@ -0,0 +1,62 @@
+package org.zstack.storage.primary;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class ImageCacheStatistic {
+    private long hitNum;
+    private long downloadNum;
+    private long waitNum;
+    private long failureNum;
+    private int inflightNum;
+    private int indexSize;
+    private long downloadedBytes;
+    private long downloadBytesPerSecond;
+
+    @ConstructorProperties({"hitNum", "downloadNum", "waitNum", "failureNum", "inflightNum", "indexSize",
+            "downloadedBytes", "downloadBytesPerSecond"})
+    public ImageCacheStatistic(long hitNum, long downloadNum, long waitNum, long failureNum, int inflightNum,
+                               int indexSize, long downloadedBytes, long downloadBytesPerSecond) {
+        this.hitNum = hitNum;
+        this.downloadNum = downloadNum;
+        this.waitNum = waitNum;
+        this.failureNum = failureNum;
+        this.inflightNum = inflightNum;
+        this.indexSize = indexSize;
+        this.downloadedBytes = downloadedBytes;
+        this.downloadBytesPerSecond = downloadBytesPerSecond;
+    }
+
+    public long getHitNum() {
+        return hitNum;
+    }
+
+    public long getDownloadNum() {
+        return downloadNum;
+    }
+
+    public long getWaitNum() {
+        return waitNum;
+    }
+
+    public long getFailureNum() {
+        return failureNum;
+    }
+
+    public int getInflightNum() {
+        return inflightNum;
+    }
+
+    public int getIndexSize() {
+        return indexSize;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public long getDownloadBytesPerSecond() {
+        return downloadBytesPerSecond;
+    }
+}
@@ -14,4 +14,22 @@ public class PrimaryStorageGlobalConfig {
     public static GlobalConfig IMAGE_CACHE_GARBAGE_COLLECTOR_INTERVAL = new GlobalConfig(CATEGORY, "imageCache.garbageCollector.interval");
     @GlobalConfigValidation
     public static GlobalConfig RESERVED_CAPACITY = new GlobalConfig(CATEGORY, "reservedCapacity");
+    @GlobalConfigValidation
+    public static GlobalConfig IMAGE_CACHE_EVICTION_ENABLE = new GlobalConfig(CATEGORY, "imageCache.eviction.enable");
+    @GlobalConfigValidation(numberGreaterThan = 0, numberLessThan = 101)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_HIGH_WATERMARK = new GlobalConfig(CATEGORY, "imageCache.eviction.highWatermark");
+    @GlobalConfigValidation(numberGreaterThan = -1, numberLessThan = 101)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_LOW_WATERMARK = new GlobalConfig(CATEGORY, "imageCache.eviction.lowWatermark");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_INTERVAL = new GlobalConfig(CATEGORY, "imageCache.eviction.interval");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_MIN_IDLE_TIME = new GlobalConfig(CATEGORY, "imageCache.eviction.minIdleTime");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_PIN_THRESHOLD = new GlobalConfig(CATEGORY, "imageCache.pin.threshold");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_PIN_PERIOD = new GlobalConfig(CATEGORY, "imageCache.pin.period");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig EXECUTOR_MAX_CONCURRENT_COMMANDS_PER_HOST = new GlobalConfig(CATEGORY, "executor.maxConcurrentCommandsPerHost");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig EXECUTOR_WAIT_TIMEOUT = new GlobalConfig(CATEGORY, "executor.waitTimeout");
 }
@@ -0,0 +1,56 @@
+package org.zstack.storage.primary;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class PrimaryStorageImageCacheStatistic {
+    private String primaryStorageUuid;
+    private long cacheNum;
+    private long cacheSize;
+    private int usedCapacityPercent;
+    private long evictionNum;
+    private long evictedBytes;
+    private long lastEvictionTime;
+
+    @ConstructorProperties({"primaryStorageUuid", "cacheNum", "cacheSize", "usedCapacityPercent", "evictionNum",
+            "evictedBytes", "lastEvictionTime"})
+    public PrimaryStorageImageCacheStatistic(String primaryStorageUuid, long cacheNum, long cacheSize, int usedCapacityPercent,
+                                             long evictionNum, long evictedBytes, long lastEvictionTime) {
+        this.primaryStorageUuid = primaryStorageUuid;
+        this.cacheNum = cacheNum;
+        this.cacheSize = cacheSize;
+        this.usedCapacityPercent = usedCapacityPercent;
+        this.evictionNum = evictionNum;
+        this.evictedBytes = evictedBytes;
+        this.lastEvictionTime = lastEvictionTime;
+    }
+
+    public String getPrimaryStorageUuid() {
+        return primaryStorageUuid;
+    }
+
+    public long getCacheNum() {
+        return cacheNum;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public int getUsedCapacityPercent() {
+        return usedCapacityPercent;
+    }
+
+    public long getEvictionNum() {
+        return evictionNum;
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    public long getLastEvictionTime() {
+        return lastEvictionTime;
+    }
+}
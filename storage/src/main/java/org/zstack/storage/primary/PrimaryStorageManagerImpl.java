@@ -64,6 +64,8 @@ public class PrimaryStorageManagerImpl extends AbstractService implements Primar
     private PrimaryStorageOverProvisioningManager ratioMgr;
     @Autowired
     private PrimaryStoragePhysicalCapacityManager physicalCapacityMgr;
+    @Autowired
+    private ImageCacheManager imageCacheMgr;
 
     private Map<String, RecalculatePrimaryStorageCapacityExtensionPoint> recalculateCapacityExtensions = new HashMap<String, RecalculatePrimaryStorageCapacityExtensionPoint>();
     private Map<String, PrimaryStorageFactory> primaryStorageFactories = Collections.synchronizedMap(new HashMap<String, PrimaryStorageFactory>());
@@ -448,7 +450,13 @@ public class PrimaryStorageManagerImpl extends AbstractService implements Primar
         spec.setTags(msg.getTags());
         spec.setAllocationMessage(msg);
         spec.setAvoidPrimaryStorageUuids(msg.getExcludePrimaryStorageUuids());
-        List<PrimaryStorageInventory> ret = strategy.allocateAllCandidates(spec);
+        List<PrimaryStorageInventory> ret;
+        try {
+            ret = strategy.allocateAllCandidates(spec);
+        } catch (OperationFailureException e) {
+            reclaimImageCache(msg);
+            throw e;
+        }
         Iterator<PrimaryStorageInventory> it = ret.iterator();
 
         List<String> errs = new ArrayList<String>();
@@ -476,6 +484,7 @@ public class PrimaryStorageManagerImpl extends AbstractService implements Primar
         }
 
         if (target == null) {
+            reclaimImageCache(msg);
             throw new OperationFailureException(errf.stringToOperationError(String.format("cannot find any qualified primary storage, errors are %s", errs)));
         }
 
@@ -484,6 +493,13 @@ public class PrimaryStorageManagerImpl extends AbstractService implements Primar
         bus.reply(msg, reply);
     }
 
+    private void reclaimImageCache(AllocatePrimaryStorageMsg msg) {
+        // the required primary storage may be filled by image caches, evict them so a retry can succeed
+        if (msg.getRequiredPrimaryStorageUuid() != null) {
+            imageCacheMgr.reclaim(msg.getRequiredPrimaryStorageUuid());
+        }
+    }
+
     private boolean reserve(final PrimaryStorageInventory inv, final long size) {
         PrimaryStorageCapacityUpdater updater = new PrimaryStorageCapacityUpdater(inv.getUuid());
         return updater.run(new PrimaryStorageCapacityUpdaterRunnable() {
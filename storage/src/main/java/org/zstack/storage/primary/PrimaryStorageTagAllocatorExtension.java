@@ -15,12 +15,13 @@ import org.zstack.header.storage.primary.PrimaryStorageVO;
 import org.zstack.header.tag.SystemTagInventory;
 import org.zstack.header.tag.TagInventory;
 import org.zstack.header.vm.VmInstanceConstant.VmOperation;
+import org.zstack.tag.TagInvertedIndex;
+import org.zstack.tag.TagPredicate;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.function.Function;
 
 import javax.persistence.TypedQuery;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  */
@@ -30,21 +31,38 @@ public class PrimaryStorageTagAllocatorExtension implements InstanceOfferingTagA
     private DatabaseFacade dbf;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private TagInvertedIndex tagIndex;
+
+    private static final Function<String, PrimaryStorageVO> PRIMARY_STORAGE_UUID = new Function<String, PrimaryStorageVO>() {
+        @Override
+        public String call(PrimaryStorageVO arg) {
+            return arg.getUuid();
+        }
+    };
 
+    // the candidates are filtered in memory by cluster, instead of passing thousands of host uuids to the database
     @Transactional(readOnly = true)
-    private List<HostVO> uuidTagAllocateHost(List<HostVO> candidates, String psUuid) {
-        List<String> hostUuids = CollectionUtils.transformToList(candidates, new Function<String, HostVO>() {
+    private List<HostVO> filterHostsByAttachedCluster(List<HostVO> candidates, Collection<String> psUuids) {
+        if (psUuids.isEmpty()) {
+            return new ArrayList<HostVO>();
+        }
+
+        String sql = "select ref.clusterUuid from PrimaryStorageClusterRefVO ref where ref.primaryStorageUuid in (:psUuids)";
+        TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
+        q.setParameter("psUuids", psUuids);
+        final Set<String> clusterUuids = new HashSet<String>(q.getResultList());
+
+        return CollectionUtils.transformToList(candidates, new Function<HostVO, HostVO>() {
             @Override
-            public String call(HostVO arg) {
-                return arg.getUuid();
+            public HostVO call(HostVO arg) {
+                return clusterUuids.contains(arg.getClusterUuid()) ? arg : null;
             }
         });
+    }
 
-        String sql = "select h from HostVO h where h.clusterUuid in (select ref.clusterUuid from PrimaryStorageClusterRefVO ref where ref.primaryStorageUuid = :psUuid) and h.uuid in (:huuids)";
-        TypedQuery<HostVO> q = dbf.getEntityManager().createQuery(sql, HostVO.class);
-        q.setParameter("psUuid", psUuid);
-        q.setParameter("huuids", hostUuids);
-        candidates = q.getResultList();
+    private List<HostVO> uuidTagAllocateHost(List<HostVO> candidates, String psUuid) {
+        candidates = filterHostsByAttachedCluster(candidates, Arrays.asList(psUuid));
 
         if (candidates.isEmpty()) {
             throw new OperationFailureException(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST,
@@ -81,21 +99,9 @@ public class PrimaryStorageTagAllocatorExtension implements InstanceOfferingTagA
         return candidates;
     }
 
-    @Transactional(readOnly = true)
     private List<HostVO> userTagAllocateHost(List<HostVO> candidates, String tag, boolean required) {
-        List<String> hostUuids = CollectionUtils.transformToList(candidates, new Function<String, HostVO>() {
-            @Override
-            public String call(HostVO arg) {
-                return arg.getUuid();
-            }
-        });
-
-        String sql = "select h from HostVO h where h.clusterUuid in (select ref.clusterUuid from PrimaryStorageClusterRefVO ref where ref.primaryStorageUuid in (select t.resourceUuid from UserTagVO t where t.tag = :tag and t.resourceType = :resourceType)) and h.uuid in (:huuids)";
-        TypedQuery<HostVO> q = dbf.getEntityManager().createQuery(sql, HostVO.class);
-        q.setParameter("tag", tag);
-        q.setParameter("resourceType", PrimaryStorageVO.class.getSimpleName());
-        q.setParameter("huuids", hostUuids);
-        List<HostVO> vos = q.getResultList();
+        Set<String> psUuids = tagIndex.find(PrimaryStorageVO.class.getSimpleName(), TagPredicate.hasUserTag(tag));
+        List<HostVO> vos = filterHostsByAttachedCluster(candidates, psUuids);
 
         if (vos.isEmpty() && required) {
             throw new OperationFailureException(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST,
@@ -144,21 +150,9 @@ public class PrimaryStorageTagAllocatorExtension implements InstanceOfferingTagA
     }
 
 
-    @Transactional(readOnly = true)
     private List<PrimaryStorageVO> allocatePrimaryStorageByUserTag(String tag, List<PrimaryStorageVO> candidates, boolean required) {
-        List<String> uuids = CollectionUtils.transformToList(candidates, new Function<String, PrimaryStorageVO>() {
-            @Override
-            public String call(PrimaryStorageVO arg) {
-                return arg.getUuid();
-            }
-        });
-
-        String sql = "select ps from PrimaryStorageVO ps where ps.uuid in (:uuids) and ps.uuid in (select t.resourceUuid from UserTagVO t where t.tag = :tag and t.resourceType = :resourceType)";
-        TypedQuery<PrimaryStorageVO> q = dbf.getEntityManager().createQuery(sql, PrimaryStorageVO.class);
-        q.setParameter("uuids", uuids);
-        q.setParameter("tag", tag);
-        q.setParameter("resourceType", PrimaryStorageVO.class.getSimpleName());
-        List<PrimaryStorageVO> vos = q.getResultList();
+        List<PrimaryStorageVO> vos = tagIndex.filter(candidates, PrimaryStorageVO.class.getSimpleName(),
+                TagPredicate.hasUserTag(tag), PRIMARY_STORAGE_UUID);
 
         if (vos.isEmpty() && required) {
             throw new OperationFailureException(errf.stringToOperationError(String.format("cannot find primary storage having user tag[%s]. The user tag is specified in instance offering or disk offering", tag)));
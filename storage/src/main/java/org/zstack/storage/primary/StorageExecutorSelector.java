@@ -0,0 +1,26 @@
+package org.zstack.storage.primary;
+
+import org.zstack.header.core.ReturnValueCompletion;
+
+import java.util.List;
+
+/**
+ * chooses the host executing a command for shared storage, e.g. a KVM host running commands of NFS primary storage.
+ *
+ * in-flight commands and recent command latency are tracked per host; the least loaded of two randomly picked
+ * candidates is chosen, and a host never runs more than primaryStorage.executor.maxConcurrentCommandsPerHost
+ * commands at a time.
+ */
+public interface StorageExecutorSelector {
+    /**
+     * takes a command slot on one of the hosts. If all hosts are busy the completion is called when a slot
+     * is freed, or fails after primaryStorage.executor.waitTimeout seconds. The caller must release the ticket
+     * when the command is done.
+     */
+    void acquire(List<String> hostUuids, ReturnValueCompletion<StorageExecutorTicket> completion);
+
+    /**
+     * chooses the least loaded host without taking a slot, for commands not tracked by acquire()
+     */
+    String choose(List<String> hostUuids);
+}
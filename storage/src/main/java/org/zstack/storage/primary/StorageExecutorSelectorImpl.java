@@ -0,0 +1,253 @@
+package org.zstack.storage.primary;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.header.Component;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the load of a host is (in-flight commands + 1) * moving average of its command latency, so a host running
+ * few but slow commands, e.g. creating templates, is as loaded as one running many fast ones. Comparing two
+ * random candidates instead of all avoids every caller flocking to the same least loaded host between updates.
+ *
+ * requests finding all their hosts at the concurrency cap wait in FIFO order; a freed slot goes to the first
+ * waiting request that can use the host.
+ */
+public class StorageExecutorSelectorImpl implements StorageExecutorSelector, StorageExecutorSelectorMXBean, Component {
+    private static final CLogger logger = Utils.getLogger(StorageExecutorSelectorImpl.class);
+    // weight of the latest command in the latency moving average
+    private static final double LATENCY_ALPHA = 0.2;
+
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private final Random random = new Random();
+    // guarded by this
+    private final Map<String, HostLoad> loads = new HashMap<String, HostLoad>();
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+    private static class HostLoad {
+        int inflight;
+        long commandNum;
+        long failureNum;
+        double latency;
+
+        double score() {
+            return (inflight + 1) * Math.max(latency, 1);
+        }
+    }
+
+    private class Ticket implements StorageExecutorTicket {
+        final String hostUuid;
+        final long startTime = System.currentTimeMillis();
+        boolean released;
+
+        Ticket(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+
+        @Override
+        public String getHostUuid() {
+            return hostUuid;
+        }
+
+        @Override
+        public void release(boolean success) {
+            List<Grant> grants;
+            synchronized (StorageExecutorSelectorImpl.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+
+                HostLoad load = getLoad(hostUuid);
+                long latency = System.currentTimeMillis() - startTime;
+                load.inflight--;
+                load.commandNum++;
+                if (!success) {
+                    load.failureNum++;
+                }
+                load.latency = load.commandNum == 1 ? latency : LATENCY_ALPHA * latency + (1 - LATENCY_ALPHA) * load.latency;
+
+                grants = dispatch();
+            }
+
+            for (Grant g : grants) {
+                g.run();
+            }
+        }
+    }
+
+    private class Waiter {
+        List<String> hostUuids;
+        ReturnValueCompletion<StorageExecutorTicket> completion;
+        TimeoutTaskReceipt timeout;
+    }
+
+    private class Grant {
+        Waiter waiter;
+        Ticket ticket;
+
+        Grant(Waiter waiter, Ticket ticket) {
+            this.waiter = waiter;
+            this.ticket = ticket;
+        }
+
+        void run() {
+            try {
+                waiter.completion.success(ticket);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when running a command on the host[uuid:%s]", ticket.hostUuid), t);
+                ticket.release(false);
+            }
+        }
+    }
+
+    private HostLoad getLoad(String hostUuid) {
+        HostLoad load = loads.get(hostUuid);
+        if (load == null) {
+            load = new HostLoad();
+            loads.put(hostUuid, load);
+        }
+        return load;
+    }
+
+    private String pick(List<String> hostUuids, int maxConcurrency) {
+        List<String> candidates = new ArrayList<String>(hostUuids.size());
+        for (String huuid : hostUuids) {
+            if (getLoad(huuid).inflight < maxConcurrency) {
+                candidates.add(huuid);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return null;
+        } else if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        int i = random.nextInt(candidates.size());
+        int j = random.nextInt(candidates.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+
+        String h1 = candidates.get(i);
+        String h2 = candidates.get(j);
+        return getLoad(h1).score() <= getLoad(h2).score() ? h1 : h2;
+    }
+
+    private Ticket take(String hostUuid) {
+        getLoad(hostUuid).inflight++;
+        return new Ticket(hostUuid);
+    }
+
+    private List<Grant> dispatch() {
+        List<Grant> grants = new ArrayList<Grant>();
+        int maxConcurrency = getMaxConcurrency();
+        Iterator<Waiter> it = waiters.iterator();
+        while (it.hasNext()) {
+            Waiter w = it.next();
+            String huuid = pick(w.hostUuids, maxConcurrency);
+            if (huuid == null) {
+                continue;
+            }
+
+            it.remove();
+            if (w.timeout != null) {
+                w.timeout.cancel();
+            }
+            grants.add(new Grant(w, take(huuid)));
+        }
+        return grants;
+    }
+
+    private int getMaxConcurrency() {
+        return PrimaryStorageGlobalConfig.EXECUTOR_MAX_CONCURRENT_COMMANDS_PER_HOST.value(Integer.class);
+    }
+
+    @Override
+    public void acquire(List<String> hostUuids, final ReturnValueCompletion<StorageExecutorTicket> completion) {
+        DebugUtils.Assert(!hostUuids.isEmpty(), "hostUuids cannot be empty");
+
+        Grant grant = null;
+        synchronized (this) {
+            final Waiter w = new Waiter();
+            w.hostUuids = hostUuids;
+            w.completion = completion;
+
+            String huuid = pick(hostUuids, getMaxConcurrency());
+            if (huuid != null) {
+                grant = new Grant(w, take(huuid));
+            } else {
+                waiters.add(w);
+                final long waitTimeout = PrimaryStorageGlobalConfig.EXECUTOR_WAIT_TIMEOUT.value(Long.class);
+                w.timeout = thdf.submitTimeoutTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean removed;
+                        synchronized (StorageExecutorSelectorImpl.this) {
+                            removed = waiters.remove(w);
+                        }
+
+                        if (removed) {
+                            completion.fail(errf.stringToTimeoutError(String.format("hosts%s are all running %s commands, no one" +
+                                    " is free in %s seconds", w.hostUuids, getMaxConcurrency(), waitTimeout)));
+                        }
+                    }
+                }, TimeUnit.SECONDS, waitTimeout);
+
+                logger.debug(String.format("hosts%s are all running %s commands, wait for a free one", hostUuids, getMaxConcurrency()));
+            }
+        }
+
+        if (grant != null) {
+            grant.run();
+        }
+    }
+
+    @Override
+    public synchronized String choose(List<String> hostUuids) {
+        DebugUtils.Assert(!hostUuids.isEmpty(), "hostUuids cannot be empty");
+        return pick(hostUuids, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized List<StorageExecutorStatistic> getStatistics() {
+        List<StorageExecutorStatistic> ret = new ArrayList<StorageExecutorStatistic>();
+        for (Map.Entry<String, HostLoad> e : loads.entrySet()) {
+            HostLoad l = e.getValue();
+            ret.add(new StorageExecutorStatistic(e.getKey(), l.inflight, l.commandNum, l.failureNum, (long) l.latency));
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized int getWaitingNum() {
+        return waiters.size();
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("StorageExecutorSelector", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package org.zstack.storage.primary;
+
+import java.util.List;
+
+/**
+ */
+public interface StorageExecutorSelectorMXBean {
+    List<StorageExecutorStatistic> getStatistics();
+
+    int getWaitingNum();
+}
@@ -0,0 +1,42 @@
+package org.zstack.storage.primary;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class StorageExecutorStatistic {
+    private String hostUuid;
+    private int inflightNum;
+    private long commandNum;
+    private long failureNum;
+    private long averageLatency;
+
+    @ConstructorProperties({"hostUuid", "inflightNum", "commandNum", "failureNum", "averageLatency"})
+    public StorageExecutorStatistic(String hostUuid, int inflightNum, long commandNum, long failureNum, long averageLatency) {
+        this.hostUuid = hostUuid;
+        this.inflightNum = inflightNum;
+        this.commandNum = commandNum;
+        this.failureNum = failureNum;
+        this.averageLatency = averageLatency;
+    }
+
+    public String getHostUuid() {
+        return hostUuid;
+    }
+
+    public int getInflightNum() {
+        return inflightNum;
+    }
+
+    public long getCommandNum() {
+        return commandNum;
+    }
+
+    public long getFailureNum() {
+        return failureNum;
+    }
+
+    public long getAverageLatency() {
+        return averageLatency;
+    }
+}
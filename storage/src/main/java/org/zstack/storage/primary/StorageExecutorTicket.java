@@ -0,0 +1,12 @@
+package org.zstack.storage.primary;
+
+/**
+ */
+public interface StorageExecutorTicket {
+    String getHostUuid();
+
+    /**
+     * frees the command slot and records the command latency; calling it more than once has no effect
+     */
+    void release(boolean success);
+}
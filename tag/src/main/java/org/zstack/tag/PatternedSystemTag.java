@@ -5,6 +5,7 @@ import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.tag.SystemTagInventory;
 import org.zstack.header.tag.SystemTagVO;
 import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.utils.TagPattern;
 import org.zstack.utils.TagUtils;
 
 import java.util.ArrayList;
@@ -16,13 +17,18 @@ import static org.zstack.utils.StringDSL.s;
 /**
  */
 public class PatternedSystemTag extends SystemTag {
+    private final TagPattern pattern;
+    private final String sqlPattern;
+
     public PatternedSystemTag(String tagFormat, Class resourceClass) {
         super(tagFormat, resourceClass);
+        pattern = TagPattern.compile(tagFormat);
+        sqlPattern = TagUtils.tagPatternToSqlPattern(tagFormat);
     }
 
     @Override
     protected String useTagFormat() {
-        return TagUtils.tagPatternToSqlPattern(tagFormat);
+        return sqlPattern;
     }
 
     @Override
@@ -30,9 +36,14 @@ public class PatternedSystemTag extends SystemTag {
         return Op.LIKE;
     }
 
+    @Override
+    boolean isQueryMatch(String tag) {
+        return pattern.isSqlMatch(tag);
+    }
+
     @Override
     public boolean isMatch(String tag) {
-        return TagUtils.isMatch(tagFormat, tag);
+        return pattern.isMatch(tag);
     }
 
     @Override
@@ -64,7 +75,7 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public Map<String, String> getTokensByTag(String tag) {
-        return TagUtils.parseIfMatch(tagFormat, tag);
+        return pattern.parseIfMatch(tag);
     }
 
     public String getTokenByTag(String tag, String tokenName) {
@@ -81,7 +92,7 @@ public class PatternedSystemTag extends SystemTag {
             return null;
         }
 
-        return TagUtils.parseIfMatch(tagFormat, tag);
+        return pattern.parseIfMatch(tag);
     }
 
     public List<Map<String, String>> getTokensOfTagsByResourceUuid(String resourceUuid) {
@@ -93,7 +104,7 @@ public class PatternedSystemTag extends SystemTag {
 
         List<String> tags = getTags(resourceUuid, resourceClass);
         for (String tag : tags) {
-            res.add(TagUtils.parseIfMatch(tagFormat, tag));
+            res.add(pattern.parseIfMatch(tag));
         }
 
         return res;
@@ -31,6 +31,8 @@ public class SystemTag {
 
     // TagManager must be explicitly set. use @Autowried will cause circular dependency
     protected TagManager tagMgr;
+    // set with the TagManager, lookups go to the database if it's not set
+    protected SystemTagIndex tagIndex;
 
     protected String tagFormat;
     protected Class resourceClass;
@@ -103,11 +105,22 @@ public class SystemTag {
         return Op.EQ;
     }
 
+    /**
+     * whether the query of useTagFormat() and useOp() finds the tag, for matching tags in memory
+     */
+    boolean isQueryMatch(String tag) {
+        return tagFormat.equalsIgnoreCase(tag);
+    }
+
     public boolean hasTag(String resourceUuid) {
         return hasTag(resourceUuid, resourceClass);
     }
 
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        if (tagIndex != null) {
+            return !tagIndex.getTags(resourceUuid, resourceClass.getSimpleName(), this).isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -133,6 +146,10 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        if (tagIndex != null) {
+            return tagIndex.getTags(resourceUuid, resourceClass.getSimpleName(), this);
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -158,6 +175,10 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(List<String> resourceUuids, Class resourceClass) {
+        if (tagIndex != null) {
+            return tagIndex.getTags(resourceUuids, resourceClass.getSimpleName(), this);
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -291,6 +312,10 @@ public class SystemTag {
         this.tagMgr = tagMgr;
     }
 
+    void setTagIndex(SystemTagIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
     public List<SystemTagValidator> getValidators() {
         return validators;
     }
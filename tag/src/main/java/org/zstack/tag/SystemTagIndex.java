@@ -0,0 +1,199 @@
+package org.zstack.tag;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.tag.TagCanonicalEvents;
+import org.zstack.header.tag.TagCanonicalEvents.TagChangedData;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the system tags of recently used resources, so SystemTag lookups don't query the database each time.
+ *
+ * a resource is loaded with all its system tags in one query, then every tag format of it is matched in memory.
+ * TagManagerImpl invalidates resources whose system tags it changes, and other management nodes are told by
+ * the canonical event TAG_CHANGED_PATH. A load raced with an invalidation is not cached.
+ */
+public class SystemTagIndex implements SystemTagIndexMXBean, Component {
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private static class CachedTag {
+        final String resourceType;
+        final String tag;
+
+        CachedTag(String resourceType, String tag) {
+            this.resourceType = resourceType;
+            this.tag = tag;
+        }
+    }
+
+    // guarded by this
+    private final LinkedHashMap<String, List<CachedTag>> resources = new LinkedHashMap<String, List<CachedTag>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<CachedTag>> eldest) {
+            return size() > TagGlobalProperty.INDEX_CACHE_SIZE;
+        }
+    };
+    private long modCount;
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong missNum = new AtomicLong();
+    private final AtomicLong invalidationNum = new AtomicLong();
+
+    private Map<String, List<CachedTag>> getResources(Collection<String> resourceUuids) {
+        Map<String, List<CachedTag>> ret = new HashMap<String, List<CachedTag>>();
+        Set<String> missed = new HashSet<String>();
+        long expectedModCount;
+        synchronized (this) {
+            for (String uuid : resourceUuids) {
+                List<CachedTag> tags = resources.get(uuid);
+                if (tags != null) {
+                    ret.put(uuid, tags);
+                } else {
+                    missed.add(uuid);
+                }
+            }
+            expectedModCount = modCount;
+        }
+
+        hitNum.addAndGet(ret.size());
+        if (missed.isEmpty()) {
+            return ret;
+        }
+        missNum.addAndGet(missed.size());
+
+        Map<String, List<CachedTag>> loaded = new HashMap<String, List<CachedTag>>();
+        for (String uuid : missed) {
+            loaded.put(uuid, new ArrayList<CachedTag>());
+        }
+
+        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
+        q.select(SystemTagVO_.resourceUuid, SystemTagVO_.resourceType, SystemTagVO_.tag);
+        q.add(SystemTagVO_.resourceUuid, Op.IN, new ArrayList<String>(missed));
+        for (Tuple t : q.listTuple()) {
+            loaded.get(t.get(0, String.class)).add(new CachedTag(t.get(1, String.class), t.get(2, String.class)));
+        }
+
+        synchronized (this) {
+            if (expectedModCount == modCount) {
+                resources.putAll(loaded);
+            }
+        }
+
+        ret.putAll(loaded);
+        return ret;
+    }
+
+    private static List<String> match(List<CachedTag> tags, String resourceType, SystemTag stag) {
+        List<String> ret = new ArrayList<String>();
+        for (CachedTag t : tags) {
+            if (t.resourceType.equals(resourceType) && stag.isQueryMatch(t.tag)) {
+                ret.add(t.tag);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the tags of the resource found by the query of the system tag
+     */
+    public List<String> getTags(String resourceUuid, String resourceType, SystemTag stag) {
+        List<CachedTag> tags = getResources(Collections.singletonList(resourceUuid)).get(resourceUuid);
+        return match(tags, resourceType, stag);
+    }
+
+    /**
+     * @return the tags of the resources found by the query of the system tag, resources having no such tag are absent
+     */
+    public Map<String, List<String>> getTags(Collection<String> resourceUuids, String resourceType, SystemTag stag) {
+        Map<String, List<String>> ret = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<CachedTag>> e : getResources(resourceUuids).entrySet()) {
+            List<String> tags = match(e.getValue(), resourceType, stag);
+            if (!tags.isEmpty()) {
+                ret.put(e.getKey(), tags);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * call it after the system tags of the resources are changed in the database
+     */
+    public synchronized void invalidate(Collection<String> resourceUuids) {
+        modCount++;
+        for (String uuid : resourceUuids) {
+            resources.remove(uuid);
+        }
+        invalidationNum.addAndGet(resourceUuids.size());
+    }
+
+    @Override
+    public long getHitNum() {
+        return hitNum.get();
+    }
+
+    @Override
+    public long getMissNum() {
+        return missNum.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hit = hitNum.get();
+        long total = hit + missNum.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public long getInvalidationNum() {
+        return invalidationNum.get();
+    }
+
+    @Override
+    public synchronized int getCachedResourceNum() {
+        return resources.size();
+    }
+
+    @Override
+    public synchronized void clean() {
+        modCount++;
+        resources.clear();
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(TagCanonicalEvents.TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                TagChangedData d = (TagChangedData) data;
+                if (!Platform.getManagementServerId().equals(d.getManagementNodeId())) {
+                    invalidate(d.getResourceUuids());
+                }
+            }
+        });
+
+        jmxf.registerBean("SystemTagIndex", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
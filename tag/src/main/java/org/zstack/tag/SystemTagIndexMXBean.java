@@ -0,0 +1,17 @@
+package org.zstack.tag;
+
+/**
+ */
+public interface SystemTagIndexMXBean {
+    long getHitNum();
+
+    long getMissNum();
+
+    double getHitRate();
+
+    long getInvalidationNum();
+
+    int getCachedResourceNum();
+
+    void clean();
+}
@@ -0,0 +1,12 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name="Tag.indexCacheSize", defaultValue = "10000")
+    public static int INDEX_CACHE_SIZE;
+}
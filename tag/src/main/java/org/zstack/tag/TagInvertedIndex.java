@@ -0,0 +1,205 @@
+package org.zstack.tag;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.Component;
+import org.zstack.header.tag.*;
+import org.zstack.header.tag.TagCanonicalEvents.TagChangedData;
+import org.zstack.utils.function.Function;
+
+import javax.persistence.Tuple;
+import java.util.*;
+
+/**
+ * evaluates a TagPredicate on a whole candidate set, for allocators filtering thousands of candidates by tags.
+ *
+ * for each resource type, the system tags and user tags are loaded in one go into an inverted index from a tag to
+ * the bitmap of resources having it, so filtering the candidates is a few bitmap intersections. The index of a
+ * resource type is dropped when TagManagerImpl changes a tag of that type, here or on other management nodes by
+ * the canonical event TAG_CHANGED_PATH, and loaded again on the next filtering.
+ */
+public class TagInvertedIndex implements Component {
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+
+    /**
+     * immutable once loaded
+     */
+    static class TagBitmaps {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final List<String> uuids = new ArrayList<String>();
+        private final Map<String, BitSet> systemTags = new HashMap<String, BitSet>();
+        private final Map<String, BitSet> userTags = new HashMap<String, BitSet>();
+
+        private void add(Map<String, BitSet> tags, String resourceUuid, String tag) {
+            Integer id = ids.get(resourceUuid);
+            if (id == null) {
+                id = uuids.size();
+                uuids.add(resourceUuid);
+                ids.put(resourceUuid, id);
+            }
+
+            tag = TagPredicate.normalize(tag);
+            BitSet resources = tags.get(tag);
+            if (resources == null) {
+                resources = new BitSet();
+                tags.put(tag, resources);
+            }
+            resources.set(id);
+        }
+
+        private static BitSet intersect(BitSet resources, BitSet candidates) {
+            if (resources == null) {
+                return new BitSet();
+            }
+
+            BitSet ret = (BitSet) resources.clone();
+            ret.and(candidates);
+            return ret;
+        }
+
+        BitSet userTag(String tag, BitSet candidates) {
+            return intersect(userTags.get(tag), candidates);
+        }
+
+        BitSet systemTag(String tag, BitSet candidates) {
+            return intersect(systemTags.get(tag), candidates);
+        }
+
+        BitSet systemTag(SystemTag stag, BitSet candidates) {
+            BitSet ret = new BitSet();
+            for (Map.Entry<String, BitSet> e : systemTags.entrySet()) {
+                if (stag.isQueryMatch(e.getKey())) {
+                    ret.or(e.getValue());
+                }
+            }
+            ret.and(candidates);
+            return ret;
+        }
+    }
+
+    // guarded by this
+    private final Map<String, TagBitmaps> resourceTypes = new HashMap<String, TagBitmaps>();
+    private long modCount;
+
+    private TagBitmaps getBitmaps(String resourceType) {
+        long expectedModCount;
+        synchronized (this) {
+            TagBitmaps bitmaps = resourceTypes.get(resourceType);
+            if (bitmaps != null) {
+                return bitmaps;
+            }
+            expectedModCount = modCount;
+        }
+
+        TagBitmaps bitmaps = new TagBitmaps();
+        SimpleQuery<SystemTagVO> sq = dbf.createQuery(SystemTagVO.class);
+        sq.select(SystemTagVO_.resourceUuid, SystemTagVO_.tag);
+        sq.add(SystemTagVO_.resourceType, Op.EQ, resourceType);
+        for (Tuple t : sq.listTuple()) {
+            bitmaps.add(bitmaps.systemTags, t.get(0, String.class), t.get(1, String.class));
+        }
+
+        SimpleQuery<UserTagVO> uq = dbf.createQuery(UserTagVO.class);
+        uq.select(UserTagVO_.resourceUuid, UserTagVO_.tag);
+        uq.add(UserTagVO_.resourceType, Op.EQ, resourceType);
+        for (Tuple t : uq.listTuple()) {
+            bitmaps.add(bitmaps.userTags, t.get(0, String.class), t.get(1, String.class));
+        }
+
+        synchronized (this) {
+            if (expectedModCount == modCount) {
+                resourceTypes.put(resourceType, bitmaps);
+            }
+        }
+        return bitmaps;
+    }
+
+    /**
+     * @return the candidates matching the predicate, in their original order
+     */
+    public <T> List<T> filter(List<T> candidates, String resourceType, TagPredicate predicate, Function<String, T> getUuid) {
+        TagBitmaps bitmaps = getBitmaps(resourceType);
+
+        int[] candidateIds = new int[candidates.size()];
+        BitSet candidateSet = new BitSet();
+        for (int i = 0; i < candidateIds.length; i++) {
+            Integer id = bitmaps.ids.get(getUuid.call(candidates.get(i)));
+            candidateIds[i] = id == null ? -1 : id;
+            if (id != null) {
+                candidateSet.set(id);
+            }
+        }
+
+        BitSet matched = predicate.evaluate(bitmaps, candidateSet);
+        boolean matchNoTag = predicate.matchNoTag();
+        List<T> ret = new ArrayList<T>();
+        for (int i = 0; i < candidateIds.length; i++) {
+            if (candidateIds[i] == -1 ? matchNoTag : matched.get(candidateIds[i])) {
+                ret.add(candidates.get(i));
+            }
+        }
+        return ret;
+    }
+
+    public List<String> filter(List<String> resourceUuids, String resourceType, TagPredicate predicate) {
+        return filter(resourceUuids, resourceType, predicate, new Function<String, String>() {
+            @Override
+            public String call(String arg) {
+                return arg;
+            }
+        });
+    }
+
+    /**
+     * @return the resources matching the predicate among resources having any tag of the resource type
+     */
+    public Set<String> find(String resourceType, TagPredicate predicate) {
+        TagBitmaps bitmaps = getBitmaps(resourceType);
+        BitSet all = new BitSet();
+        all.set(0, bitmaps.uuids.size());
+
+        BitSet matched = predicate.evaluate(bitmaps, all);
+        Set<String> ret = new HashSet<String>();
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            ret.add(bitmaps.uuids.get(i));
+        }
+        return ret;
+    }
+
+    /**
+     * call it after tags of the resource types are changed in the database
+     */
+    public synchronized void invalidate(Collection<String> types) {
+        modCount++;
+        for (String type : types) {
+            resourceTypes.remove(type);
+        }
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(TagCanonicalEvents.TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                TagChangedData d = (TagChangedData) data;
+                if (!Platform.getManagementServerId().equals(d.getManagementNodeId())) {
+                    invalidate(d.getResourceTypes());
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
@@ -23,6 +24,7 @@ import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.query.APIQueryReply;
 import org.zstack.header.tag.*;
+import org.zstack.header.tag.TagCanonicalEvents.TagChangedData;
 import org.zstack.query.QueryFacade;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
@@ -53,6 +55,12 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private SystemTagIndex tagIndex;
+    @Autowired
+    private TagInvertedIndex invertedIndex;
+    @Autowired
+    private EventFacade evtf;
 
     private List<SystemTag> systemTags = new ArrayList<SystemTag>();
     private Map<String, List<SystemTag>> resourceTypeSystemTagMap = new HashMap<String, List<SystemTag>>();
@@ -63,7 +71,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private List<Class> autoDeleteTagClasses;
 
     private void initSystemTags() throws IllegalAccessException {
-        List<Class> classes = BeanUtils.scanClass("org.zstack", TagDefinition.class);
+        List<Class> classes = ClassIndex.getAnnotatedClasses("org.zstack", TagDefinition.class);
         for (Class clz : classes) {
             List<Field> fields = FieldUtils.getAllFields(clz);
             for (Field f : fields) {
@@ -96,6 +104,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
                 }
 
                 stag.setTagMgr(this);
+                stag.setTagIndex(tagIndex);
                 List<SystemTag> lst = resourceTypeSystemTagMap.get(stag.getResourceClass().getSimpleName());
                 if (lst == null) {
                     lst = new ArrayList<SystemTag>();
@@ -121,7 +130,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             throw new CloudRuntimeException(e);
         }
 
-        List<Class> createMessageClass = BeanUtils.scanClass("org.zstack", TagResourceType.class);
+        List<Class> createMessageClass = ClassIndex.getAnnotatedClasses("org.zstack", TagResourceType.class);
         for (Class cmsgClz : createMessageClass) {
             TagResourceType at = (TagResourceType) cmsgClz.getAnnotation(TagResourceType.class);
             Class resType = at.value();
@@ -132,7 +141,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             resourceTypeCreateMessageMap.put(cmsgClz, resType);
         }
 
-        autoDeleteTagClasses = BeanUtils.scanClass("org.zstack", AutoDeleteTag.class);
+        autoDeleteTagClasses = ClassIndex.getAnnotatedClasses("org.zstack", AutoDeleteTag.class);
         List<String> clzNames = CollectionUtils.transformToList(autoDeleteTagClasses, new Function<String, Class>() {
             @Override
             public String call(Class arg) {
@@ -196,6 +205,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             vo.setTag(tag);
             vo.setType(type);
             vo = dbf.persistAndRefresh(vo);
+            tagsChanged(list(resourceUuid), list(resourceType));
             return UserTagInventory.valueOf(vo);
         } else {
             SystemTagVO vo = new SystemTagVO();
@@ -243,6 +253,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             @Override
             public void run() {
                 dbf.remove(finalVo);
+                tagsChanged(list(finalVo.getResourceUuid()), list(finalVo.getResourceType()));
             }
         });
 
@@ -329,8 +340,13 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     @Override
-    @Transactional
     public void copySystemTag(String srcResourceUuid, String srcResourceType, String dstResourceUuid, String dstResourceType) {
+        doCopySystemTag(srcResourceUuid, srcResourceType, dstResourceUuid, dstResourceType);
+        tagsChanged(list(dstResourceUuid), list(dstResourceType));
+    }
+
+    @Transactional
+    private void doCopySystemTag(String srcResourceUuid, String srcResourceType, String dstResourceUuid, String dstResourceType) {
         String sql = "select stag from SystemTagVO stag where stag.resourceUuid = :ruuid and stag.resourceType = :rtype and stag.inherent = :ih";
         TypedQuery<SystemTagVO> srcq = dbf.getEntityManager().createQuery(sql, SystemTagVO.class);
         srcq.setParameter("ruuid", srcResourceUuid);
@@ -455,7 +471,29 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         deleteSystemTag(tag, resourceUuid, resourceType, inherit, true);
     }
 
+    private void tagsChanged(Collection<String> resourceUuids, Collection<String> resourceTypes) {
+        tagIndex.invalidate(resourceUuids);
+        invertedIndex.invalidate(resourceTypes);
+
+        TagChangedData d = new TagChangedData();
+        d.setManagementNodeId(Platform.getManagementServerId());
+        d.setResourceUuids(new ArrayList<String>(resourceUuids));
+        d.setResourceTypes(new ArrayList<String>(resourceTypes));
+        evtf.fire(TagCanonicalEvents.TAG_CHANGED_PATH, d);
+    }
+
+    private void systemTagsChanged(List<SystemTagInventory> tags) {
+        Set<String> resourceUuids = new HashSet<String>();
+        Set<String> resourceTypes = new HashSet<String>();
+        for (SystemTagInventory tag : tags) {
+            resourceUuids.add(tag.getResourceUuid());
+            resourceTypes.add(tag.getResourceType());
+        }
+        tagsChanged(resourceUuids, resourceTypes);
+    }
+
     private void fireTagDeleted(List<SystemTagInventory> tags) {
+        systemTagsChanged(tags);
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -471,6 +509,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagCreated(List<SystemTagInventory> tags) {
+        systemTagsChanged(tags);
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -486,6 +525,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+        systemTagsChanged(list(old, newTag));
         List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(old.getResourceType());
         if (exts != null) {
             for (SystemTagLifeCycleExtension ext : exts) {
@@ -552,6 +592,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private void handle(APIDeleteTagMsg msg) {
         APIDeleteTagEvent evt = new APIDeleteTagEvent(msg.getId());
         SystemTagVO stag = dbf.findByUuid(msg.getUuid(), SystemTagVO.class);
+        UserTagVO utag = dbf.findByUuid(msg.getUuid(), UserTagVO.class);
 
         if (stag != null) {
             preTagDeleted(SystemTagInventory.valueOf(stag));
@@ -563,6 +604,9 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         if (stag != null) {
             fireTagDeleted(list(SystemTagInventory.valueOf(stag)));
         }
+        if (utag != null) {
+            tagsChanged(list(utag.getResourceUuid()), list(utag.getResourceType()));
+        }
 
         bus.publish(evt);
     }
@@ -664,9 +708,18 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.executeUpdate();
     }
 
+    private void resourcesDeleted(Collection entityIds, Class entityClass) {
+        List<String> resourceUuids = new ArrayList<String>(entityIds.size());
+        for (Object id : entityIds) {
+            resourceUuids.add(id.toString());
+        }
+        tagsChanged(resourceUuids, getResourceTypes(entityClass));
+    }
+
     @Override
     public void postSoftDelete(Collection entityIds, Class entityClass) {
         postDelete(entityIds, entityClass);
+        resourcesDeleted(entityIds, entityClass);
     }
 
     @Override
@@ -808,5 +861,6 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public void postHardDelete(Collection entityIds, Class entityClass) {
         postDelete(entityIds, entityClass);
+        resourcesDeleted(entityIds, entityClass);
     }
 }
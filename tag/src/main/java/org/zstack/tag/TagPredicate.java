@@ -0,0 +1,135 @@
+package org.zstack.tag;
+
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * a condition on the tags of a resource, evaluated by TagInvertedIndex on a set of resources at once.
+ *
+ * tags are compared case insensitively, the same as the tag columns in the database.
+ */
+public abstract class TagPredicate {
+    /**
+     * @return the resources of the candidates matching the predicate, the candidates must not be modified
+     */
+    abstract BitSet evaluate(TagInvertedIndex.TagBitmaps bitmaps, BitSet candidates);
+
+    /**
+     * whether a resource having no tag matches the predicate
+     */
+    abstract boolean matchNoTag();
+
+    static String normalize(String tag) {
+        return tag.toLowerCase(Locale.ENGLISH);
+    }
+
+    public static TagPredicate hasUserTag(final String tag) {
+        return new TagPredicate() {
+            @Override
+            BitSet evaluate(TagInvertedIndex.TagBitmaps bitmaps, BitSet candidates) {
+                return bitmaps.userTag(normalize(tag), candidates);
+            }
+
+            @Override
+            boolean matchNoTag() {
+                return false;
+            }
+        };
+    }
+
+    public static TagPredicate hasSystemTag(final String tag) {
+        return new TagPredicate() {
+            @Override
+            BitSet evaluate(TagInvertedIndex.TagBitmaps bitmaps, BitSet candidates) {
+                return bitmaps.systemTag(normalize(tag), candidates);
+            }
+
+            @Override
+            boolean matchNoTag() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * matches resources having a tag found by the query of the system tag, for a PatternedSystemTag any tag of its format
+     */
+    public static TagPredicate hasSystemTag(final SystemTag stag) {
+        return new TagPredicate() {
+            @Override
+            BitSet evaluate(TagInvertedIndex.TagBitmaps bitmaps, BitSet candidates) {
+                return bitmaps.systemTag(stag, candidates);
+            }
+
+            @Override
+            boolean matchNoTag() {
+                return false;
+            }
+        };
+    }
+
+    public static TagPredicate and(final TagPredicate... predicates) {
+        return new TagPredicate() {
+            @Override
+            BitSet evaluate(TagInvertedIndex.TagBitmaps bitmaps, BitSet candidates) {
+                BitSet ret = (BitSet) candidates.clone();
+                for (TagPredicate p : predicates) {
+                    if (ret.isEmpty()) {
+                        break;
+                    }
+                    ret = p.evaluate(bitmaps, ret);
+                }
+                return ret;
+            }
+
+            @Override
+            boolean matchNoTag() {
+                for (TagPredicate p : predicates) {
+                    if (!p.matchNoTag()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    public static TagPredicate or(final TagPredicate... predicates) {
+        return new TagPredicate() {
+            @Override
+            BitSet evaluate(TagInvertedIndex.TagBitmaps bitmaps, BitSet candidates) {
+                BitSet ret = new BitSet();
+                for (TagPredicate p : predicates) {
+                    ret.or(p.evaluate(bitmaps, candidates));
+                }
+                return ret;
+            }
+
+            @Override
+            boolean matchNoTag() {
+                for (TagPredicate p : predicates) {
+                    if (p.matchNoTag()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    public static TagPredicate not(final TagPredicate predicate) {
+        return new TagPredicate() {
+            @Override
+            BitSet evaluate(TagInvertedIndex.TagBitmaps bitmaps, BitSet candidates) {
+                BitSet ret = (BitSet) candidates.clone();
+                ret.andNot(predicate.evaluate(bitmaps, candidates));
+                return ret;
+            }
+
+            @Override
+            boolean matchNoTag() {
+                return !predicate.matchNoTag();
+            }
+        };
+    }
+}
@@ -1491,6 +1491,32 @@ public class Api implements CloudBusEventListener {
         return evt.getInventory();
     }
 
+    public List<CreateVmInstanceResultStruct> createVmInstances(VmInstanceInventory inv, int count, List<String> l3NetworkUuids,
+            List<String> diskOfferingUuids, SessionInventory session) throws ApiSenderException {
+        APICreateVmInstancesMsg msg = new APICreateVmInstancesMsg();
+        msg.setCount(count);
+        if (diskOfferingUuids != null) {
+            msg.setDataDiskOfferingUuids(diskOfferingUuids);
+        }
+        msg.setSession(session == null ? adminSession : session);
+        msg.setDescription(inv.getDescription());
+        msg.setImageUuid(inv.getImageUuid());
+        msg.setInstanceOfferingUuid(inv.getInstanceOfferingUuid());
+        msg.setL3NetworkUuids(l3NetworkUuids);
+        msg.setName(inv.getName());
+        msg.setZoneUuid(inv.getZoneUuid());
+        msg.setHostUuid(inv.getHostUuid());
+        msg.setClusterUuid(inv.getClusterUuid());
+        msg.setDefaultL3NetworkUuid(inv.getDefaultL3NetworkUuid());
+        if (msg.getL3NetworkUuids().size() > 1 && msg.getDefaultL3NetworkUuid() == null) {
+            msg.setDefaultL3NetworkUuid(msg.getL3NetworkUuids().get(0));
+        }
+        ApiSender sender = new ApiSender();
+        sender.setTimeout(timeout);
+        APICreateVmInstancesEvent evt = sender.send(msg, APICreateVmInstancesEvent.class);
+        return evt.getResults();
+    }
+
     public VmInstanceInventory changeInstanceOffering(String vmUuid, String instanceOfferingUuid) throws ApiSenderException {
         APIChangeInstanceOfferingMsg msg = new APIChangeInstanceOfferingMsg();
         msg.setVmInstanceUuid(vmUuid);
@@ -0,0 +1,106 @@
+package org.zstack.test.cascade;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.vm.VmGlobalConfig;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusEventListener;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.progressbar.FixedInProgressEvent;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.message.Event;
+import org.zstack.header.vm.VmInstanceDeletionPolicyManager.VmInstanceDeletionPolicy;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. add many hosts and vms to the zone
+ * 2. delete the zone
+ *
+ * confirm all resources are deleted, the progress of the cascade is reported; and log the time the deletion takes
+ */
+public class TestCascadeDeletion37 {
+    CLogger logger = Utils.getLogger(TestCascadeDeletion37.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    int hostNum = 50;
+    int vmNum = 30;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestCreateVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ZoneInventory zone = deployer.zones.get("TestZone");
+        ClusterInventory cluster = deployer.clusters.get("TestCluster");
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        VmGlobalConfig.VM_DELETION_POLICY.updateValue(VmInstanceDeletionPolicy.Direct.toString());
+
+        for (int i = 0; i < hostNum; i++) {
+            HostInventory host = new HostInventory();
+            host.setClusterUuid(cluster.getUuid());
+            host.setName(String.format("host-%s", i));
+            host.setManagementIp(String.format("10.1.%s.%s", i / 250, i % 250 + 1));
+            host.setAvailableMemoryCapacity(SizeUnit.GIGABYTE.toByte(64));
+            host.setAvailableCpuCapacity(32L * 2600);
+            api.addHostByFullConfig(host);
+        }
+
+        VmInstanceInventory template = new VmInstanceInventory();
+        template.setName("vm");
+        template.setImageUuid(vm.getImageUuid());
+        template.setInstanceOfferingUuid(vm.getInstanceOfferingUuid());
+        template.setZoneUuid(zone.getUuid());
+        template.setDefaultL3NetworkUuid(vm.getDefaultL3NetworkUuid());
+        api.createVmInstances(template, vmNum, Arrays.asList(vm.getDefaultL3NetworkUuid()), null, null);
+        Assert.assertEquals(vmNum + 1, dbf.count(VmInstanceVO.class));
+
+        final AtomicInteger progress = new AtomicInteger();
+        bus.subscribeEvent(new CloudBusEventListener() {
+            @Override
+            public boolean handleEvent(Event e) {
+                progress.incrementAndGet();
+                return false;
+            }
+        }, new FixedInProgressEvent());
+
+        long start = System.currentTimeMillis();
+        api.deleteZone(zone.getUuid());
+        logger.debug(String.format("deleted the zone with %s hosts and %s vms in %sms", hostNum + 2, vmNum + 1,
+                System.currentTimeMillis() - start));
+
+        Assert.assertEquals(0, dbf.count(ZoneVO.class));
+        Assert.assertEquals(0, dbf.count(HostVO.class));
+        Assert.assertEquals(0, dbf.count(VmInstanceVO.class));
+        Assert.assertEquals(0, dbf.count(VolumeVO.class));
+        Assert.assertTrue(progress.get() > 0);
+    }
+}
@@ -0,0 +1,70 @@
+package org.zstack.test.compute.vm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.vm.*;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.List;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. create 3 vm instances in one batch
+ *
+ * confirm all vm are running and have nics and root volumes
+ */
+public class TestCreateVmInstances {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestCreateVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        api.destroyVmInstance(vm.getUuid());
+
+        L3NetworkInventory l3 = deployer.l3Networks.get("TestL3Network1");
+        VmInstanceInventory inv = new VmInstanceInventory();
+        inv.setName("batch");
+        inv.setImageUuid(vm.getImageUuid());
+        inv.setInstanceOfferingUuid(vm.getInstanceOfferingUuid());
+        inv.setDefaultL3NetworkUuid(l3.getUuid());
+
+        List<CreateVmInstanceResultStruct> results = api.createVmInstances(inv, 3, list(l3.getUuid()), null, null);
+        Assert.assertEquals(3, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            CreateVmInstanceResultStruct r = results.get(i);
+            Assert.assertTrue(r.isSuccess());
+            Assert.assertEquals(String.format("batch-%s", i), r.getName());
+            Assert.assertEquals(VmInstanceState.Running.toString(), r.getInventory().getState());
+            Assert.assertEquals(1, r.getInventory().getVmNics().size());
+
+            VmInstanceVO vo = dbf.findByUuid(r.getVmInstanceUuid(), VmInstanceVO.class);
+            Assert.assertNotNull(vo);
+            Assert.assertEquals(VmInstanceState.Running, vo.getState());
+            Assert.assertNotNull(vo.getRootVolumeUuid());
+        }
+    }
+}
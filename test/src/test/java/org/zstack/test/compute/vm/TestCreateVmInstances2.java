@@ -0,0 +1,132 @@
+package org.zstack.test.compute.vm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.allocator.BatchAllocateHostMsg;
+import org.zstack.header.allocator.DesignatedAllocateHostMsg;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor;
+import org.zstack.header.message.Message;
+import org.zstack.header.network.l3.*;
+import org.zstack.header.vm.*;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. the two hosts have memory for 3 vms
+ * 2. create 4 vm instances on two l3 networks in one batch
+ *
+ * confirm hosts are allocated for the batch in one message and ips are reserved in one message for each l3 network
+ * confirm 3 vms are created without allocating hosts or ips by their own
+ * confirm the 4th vm fails allocating a host and the ips reserved for it are returned
+ * confirm the inventories returned are refreshed from the database
+ */
+public class TestCreateVmInstances2 {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestCreateVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private long countUsedIps(List<String> l3Uuids) {
+        SimpleQuery<UsedIpVO> q = dbf.createQuery(UsedIpVO.class);
+        q.add(UsedIpVO_.l3NetworkUuid, Op.IN, l3Uuids);
+        return q.count();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        api.destroyVmInstance(vm.getUuid());
+
+        final AtomicInteger batchHostAllocations = new AtomicInteger();
+        final AtomicInteger hostAllocations = new AtomicInteger();
+        final AtomicInteger batchIpAllocations = new AtomicInteger();
+        final AtomicInteger ipAllocations = new AtomicInteger();
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            public void intercept(Message msg) {
+                if (msg instanceof BatchAllocateHostMsg) {
+                    batchHostAllocations.incrementAndGet();
+                } else if (msg instanceof DesignatedAllocateHostMsg) {
+                    hostAllocations.incrementAndGet();
+                } else if (msg instanceof AllocateIpsMsg) {
+                    batchIpAllocations.incrementAndGet();
+                } else if (msg instanceof AllocateIpMsg) {
+                    ipAllocations.incrementAndGet();
+                }
+            }
+        }, BatchAllocateHostMsg.class, DesignatedAllocateHostMsg.class, AllocateIpsMsg.class, AllocateIpMsg.class);
+
+        L3NetworkInventory l31 = deployer.l3Networks.get("TestL3Network1");
+        L3NetworkInventory l32 = deployer.l3Networks.get("TestL3Network2");
+        List<String> l3Uuids = list(l31.getUuid(), l32.getUuid());
+        long usedIpNum = countUsedIps(l3Uuids);
+
+        VmInstanceInventory inv = new VmInstanceInventory();
+        inv.setName("batch");
+        inv.setImageUuid(vm.getImageUuid());
+        inv.setInstanceOfferingUuid(vm.getInstanceOfferingUuid());
+        inv.setDefaultL3NetworkUuid(l31.getUuid());
+
+        List<CreateVmInstanceResultStruct> results = api.createVmInstances(inv, 4, l3Uuids, null, null);
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(1, batchHostAllocations.get());
+        Assert.assertEquals(2, batchIpAllocations.get());
+        Assert.assertEquals(0, ipAllocations.get());
+        // only the vm not covered by the batch allocation allocates a host by itself
+        Assert.assertEquals(1, hostAllocations.get());
+
+        int successNum = 0;
+        String failedVmUuid = null;
+        for (CreateVmInstanceResultStruct r : results) {
+            if (r.isSuccess()) {
+                successNum++;
+                Assert.assertNotNull(r.getInventory().getCreateDate());
+                Assert.assertEquals(VmInstanceState.Running.toString(), r.getInventory().getState());
+                Assert.assertEquals(2, r.getInventory().getVmNics().size());
+            } else {
+                failedVmUuid = r.getVmInstanceUuid();
+            }
+        }
+        Assert.assertEquals(3, successNum);
+        Assert.assertNotNull(failedVmUuid);
+        Assert.assertFalse(dbf.isExist(failedVmUuid, VmInstanceVO.class));
+
+        // ips are returned asynchronously
+        TimeUnit.SECONDS.sleep(2);
+        Assert.assertEquals(usedIpNum + 3 * 2, countUsedIps(l3Uuids));
+
+        long availMemory = 0;
+        for (HostCapacityVO cap : dbf.listAll(HostCapacityVO.class)) {
+            availMemory += cap.getAvailableMemory();
+        }
+        Assert.assertEquals(SizeUnit.GIGABYTE.toByte(3), availMemory);
+    }
+}
@@ -0,0 +1,193 @@
+package org.zstack.test.core.ansible;
+
+import junit.framework.Assert;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.ansible.*;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.message.MessageReply;
+import org.zstack.test.BeanConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. replace ansible-playbook with a script logging when a deployment starts and ends on a host
+ * 2. set the max concurrent deployments to 3 and the max concurrent deployments per group to 2
+ * 3. deploy a1(1s), a2(3s), a3(1s) of cluster1, b1(3s) of cluster2, a4(1s) of cluster1 and b2(1s, fails) of cluster2
+ *
+ * confirm a1, a2 and b1 run while a3, a4 and b2 wait
+ * confirm the deployments start in the order a1, a2, b1, a3, a4, b2: b1 passes a3 blocked by the cap of cluster1,
+ * each finished deployment starts the first waiting one allowed to run
+ * confirm no more than 3 deployments and 2 deployments of a group run at the same time
+ * confirm b2 fails, the others succeed, and all slots are freed
+ *
+ * 4. get the md5 of an artifact, change its content but keep its size and last modified time
+ *
+ * confirm the md5 is served from the manifest
+ *
+ * 5. change the last modified time
+ *
+ * confirm the md5 is calculated again
+ */
+public class TestAnsibleFacade {
+    ComponentLoader loader;
+    CloudBus bus;
+    AnsibleFacade asf;
+    File dir;
+    File log;
+    String oldExecutable;
+    int oldMaxDeployments;
+    int oldMaxDeploymentsPerGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBus.class);
+        asf = loader.getComponent(AnsibleFacade.class);
+
+        dir = new File(FileUtils.getTempDirectory(), String.format("test-ansible-facade-%s", System.currentTimeMillis()));
+        dir.mkdirs();
+        log = new File(dir, "deployments.log");
+
+        oldExecutable = AnsibleGlobalProperty.EXECUTABLE;
+        oldMaxDeployments = AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS;
+        oldMaxDeploymentsPerGroup = AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS_PER_GROUP;
+        AnsibleGlobalProperty.EXECUTABLE = "sh";
+        AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS = 3;
+        AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS_PER_GROUP = 2;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AnsibleGlobalProperty.EXECUTABLE = oldExecutable;
+        AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS = oldMaxDeployments;
+        AnsibleGlobalProperty.MAX_CONCURRENT_DEPLOYMENTS_PER_GROUP = oldMaxDeploymentsPerGroup;
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private File writePlaybook() throws IOException {
+        // called as: sh playbook -i inventory --private-key key -e 'arguments in json'
+        File playbook = new File(dir, "playbook.sh");
+        FileUtils.writeStringToFile(playbook, String.format(
+                "host=$(echo \"$6\" | sed 's/.*\"host\":\"\\([^\"]*\\)\".*/\\1/')\n" +
+                "delay=$(echo \"$6\" | sed 's/.*\"delay\":\\([0-9]*\\).*/\\1/')\n" +
+                "echo \"start $host\" >> %s\n" +
+                "sleep $delay\n" +
+                "echo \"end $host\" >> %s\n" +
+                "case \"$6\" in *'\"fail\":true'*) echo \"failed on purpose\"; exit 1;; esac\n",
+                log.getAbsolutePath(), log.getAbsolutePath()));
+        return playbook;
+    }
+
+    private String group(String host) {
+        return host.startsWith("a") ? "cluster1" : "cluster2";
+    }
+
+    @Test
+    public void test() throws Exception {
+        File playbook = writePlaybook();
+        AnsibleDeploymentStatistic before = asf.getDeploymentStatistic();
+
+        List<String> hosts = list("a1", "a2", "a3", "b1", "a4", "b2");
+        Map<String, Integer> delays = new HashMap<String, Integer>();
+        delays.put("a2", 3);
+        delays.put("b1", 3);
+
+        final Map<String, MessageReply> replies = new ConcurrentHashMap<String, MessageReply>();
+        final CountDownLatch latch = new CountDownLatch(hosts.size());
+        for (final String host : hosts) {
+            Map<String, Object> args = new HashMap<String, Object>();
+            args.put("delay", delays.containsKey(host) ? delays.get(host) : 1);
+            if (host.equals("b2")) {
+                args.put("fail", true);
+            }
+
+            RunAnsibleMsg msg = new RunAnsibleMsg();
+            msg.setTargetIp(host);
+            msg.setPlayBookPath(playbook.getAbsolutePath());
+            msg.setPrivateKeyFile("/dev/null");
+            msg.setDeployGroup(group(host));
+            msg.setArguments(args);
+            bus.makeLocalServiceId(msg, AnsibleConstant.SERVICE_ID);
+            bus.send(msg, new CloudBusCallBack() {
+                @Override
+                public void run(MessageReply reply) {
+                    replies.put(host, reply);
+                    latch.countDown();
+                }
+            });
+            // let the deployments be queued in the order sent
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        AnsibleDeploymentStatistic s = asf.getDeploymentStatistic();
+        Assert.assertEquals(3, s.getRunningNum());
+        Assert.assertEquals(3, s.getWaitingNum());
+        Assert.assertEquals(Integer.valueOf(2), s.getRunningNumByGroup().get("cluster1"));
+        Assert.assertEquals(Integer.valueOf(1), s.getRunningNumByGroup().get("cluster2"));
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        for (String host : hosts) {
+            Assert.assertEquals(host, !host.equals("b2"), replies.get(host).isSuccess());
+        }
+
+        List<String> starts = new ArrayList<String>();
+        Set<String> running = new HashSet<String>();
+        for (String line : FileUtils.readLines(log)) {
+            String[] pair = line.trim().split(" ");
+            if (pair[0].equals("start")) {
+                starts.add(pair[1]);
+                running.add(pair[1]);
+            } else {
+                running.remove(pair[1]);
+            }
+
+            Assert.assertTrue(running.toString(), running.size() <= 3);
+            int groupNum = 0;
+            for (String r : running) {
+                if (group(r).equals(group(pair[1]))) {
+                    groupNum++;
+                }
+            }
+            Assert.assertTrue(running.toString(), groupNum <= 2);
+        }
+        Assert.assertEquals(list("a1", "a2", "b1", "a3", "a4", "b2"), starts);
+
+        s = asf.getDeploymentStatistic();
+        Assert.assertEquals(0, s.getRunningNum());
+        Assert.assertEquals(0, s.getWaitingNum());
+        Assert.assertTrue(s.getRunningNumByGroup().isEmpty());
+        Assert.assertEquals(before.getSucceededNum() + 5, s.getSucceededNum());
+        Assert.assertEquals(before.getFailedNum() + 1, s.getFailedNum());
+        Assert.assertTrue(s.getAverageWaitTime() > 0);
+
+        File artifact = new File(dir, "artifact");
+        FileUtils.writeStringToFile(artifact, "content1");
+        long lastModified = artifact.lastModified();
+        String md5 = asf.getArtifactMd5(artifact.getAbsolutePath());
+        Assert.assertEquals(DigestUtils.md5Hex("content1"), md5);
+        Assert.assertEquals(md5, asf.getArtifactManifest().get(artifact.getAbsolutePath()));
+
+        FileUtils.writeStringToFile(artifact, "content2");
+        artifact.setLastModified(lastModified);
+        Assert.assertEquals(md5, asf.getArtifactMd5(artifact.getAbsolutePath()));
+
+        artifact.setLastModified(lastModified - TimeUnit.SECONDS.toMillis(10));
+        md5 = asf.getArtifactMd5(artifact.getAbsolutePath());
+        Assert.assertEquals(DigestUtils.md5Hex("content2"), md5);
+        Assert.assertEquals(md5, asf.getArtifactManifest().get(artifact.getAbsolutePath()));
+    }
+}
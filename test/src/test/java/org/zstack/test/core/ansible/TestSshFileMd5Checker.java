@@ -0,0 +1,100 @@
+package org.zstack.test.core.ansible;
+
+import junit.framework.Assert;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.ansible.SshFileMd5Checker;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.ssh.SshResult;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1. add 2 source/destination pairs to a checker whose ssh returns the md5sum output of the destination files
+ *
+ * confirm the md5 of all destination files are got by one ssh command, and no deployment is needed if they match
+ *
+ * 2. make the md5 of a destination file differ from its source
+ *
+ * confirm a deployment is needed
+ *
+ * 3. make md5sum fail as a destination file is missing
+ *
+ * confirm a deployment is needed
+ *
+ * 4. check a checker having no pair
+ *
+ * confirm no ssh command is run and no deployment is needed
+ */
+public class TestSshFileMd5Checker {
+    ComponentLoader loader;
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        dir = new File(FileUtils.getTempDirectory(), String.format("test-ssh-file-md5-checker-%s", System.currentTimeMillis()));
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+    static class Checker extends SshFileMd5Checker {
+        List<String> commands = new ArrayList<String>();
+        SshResult result = new SshResult();
+
+        @Override
+        protected SshResult runSsh(String command) {
+            commands.add(command);
+            return result;
+        }
+    }
+
+    @Test
+    public void test() throws Exception {
+        File src1 = new File(dir, "src1");
+        FileUtils.writeStringToFile(src1, "src1");
+        File src2 = new File(dir, "src2");
+        FileUtils.writeStringToFile(src2, "src2");
+        String dest1 = "/var/lib/zstack/kvm/dest1";
+        String dest2 = "/var/lib/zstack/kvm/dest2";
+
+        Checker checker = new Checker();
+        checker.addSrcDestPair(src1.getAbsolutePath(), dest1);
+        checker.addSrcDestPair(src2.getAbsolutePath(), dest2);
+        checker.result.setReturnCode(0);
+        checker.result.setStdout(String.format("%s  %s\n%s  %s\n", DigestUtils.md5Hex("src1"), dest1, DigestUtils.md5Hex("src2"), dest2));
+        Assert.assertFalse(checker.needDeploy());
+        Assert.assertEquals(1, checker.commands.size());
+        Assert.assertEquals(String.format("md5sum %s %s", dest1, dest2), checker.commands.get(0));
+
+        checker.commands.clear();
+        checker.result.setStdout(String.format("%s  %s\n%s  %s\n", DigestUtils.md5Hex("src1"), dest1, DigestUtils.md5Hex("changed"), dest2));
+        Assert.assertTrue(checker.needDeploy());
+        Assert.assertEquals(1, checker.commands.size());
+
+        checker.commands.clear();
+        checker.result.setReturnCode(1);
+        checker.result.setStdout(String.format("%s  %s\n", DigestUtils.md5Hex("src1"), dest1));
+        checker.result.setStderr(String.format("md5sum: %s: No such file or directory", dest2));
+        Assert.assertTrue(checker.needDeploy());
+        Assert.assertEquals(1, checker.commands.size());
+
+        Checker empty = new Checker();
+        Assert.assertFalse(empty.needDeploy());
+        Assert.assertTrue(empty.commands.isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBusGlobalProperty;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. compress non-API messages
+ * 2. call a service with a large, non-ASCII message twice
+ *
+ * confirm the replies carry the same content both times
+ */
+public class TestCloudBusCompressedCall {
+    ComponentLoader loader;
+    CloudBusIN bus;
+    Service serv;
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+        private String greet;
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+    }
+
+    public static class HelloWorldReply extends MessageReply {
+        private String greet;
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            HelloWorldMsg hmsg = (HelloWorldMsg) msg;
+            HelloWorldReply r = new HelloWorldReply();
+            r.setGreet(hmsg.getGreet());
+            bus.reply(msg, r);
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE = true;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @After
+    public void tearDown() {
+        CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE = false;
+    }
+
+    @Test
+    public void test() throws InterruptedException, ClassNotFoundException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("hello \u4f60\u597d ").append(i).append(" ");
+        }
+        String greet = sb.toString();
+
+        for (int i = 0; i < 2; i++) {
+            HelloWorldMsg msg = new HelloWorldMsg();
+            msg.setGreet(greet);
+            msg.setServiceId(FakeService.class.getCanonicalName());
+            msg.setTimeout(TimeUnit.SECONDS.toMillis(10));
+            MessageReply r = bus.call(msg);
+            Assert.assertTrue(r.isSuccess());
+            Assert.assertEquals(greet, ((HelloWorldReply) r).getGreet());
+        }
+
+        serv.stop();
+    }
+}
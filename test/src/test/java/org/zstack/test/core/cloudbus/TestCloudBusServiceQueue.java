@@ -0,0 +1,124 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.cloudbus.CloudBusMXBean;
+import org.zstack.core.cloudbus.ServiceQueueStatistic;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * send 20 messages to a service of sync level 2 which takes 50ms to handle a message
+ *
+ * confirm no more than 2 messages are handled at the same time, all messages are replied
+ * and the service queue statistics count all of them
+ */
+public class TestCloudBusServiceQueue {
+    ComponentLoader loader;
+    CloudBusIN bus;
+    Service serv;
+    int msgNum = 20;
+    CountDownLatch latch = new CountDownLatch(msgNum);
+    AtomicInteger running = new AtomicInteger(0);
+    AtomicInteger maxRunning = new AtomicInteger(0);
+    AtomicInteger successNum = new AtomicInteger(0);
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public int getSyncLevel() {
+            return 2;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            int num = running.incrementAndGet();
+            synchronized (maxRunning) {
+                if (num > maxRunning.get()) {
+                    maxRunning.set(num);
+                }
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+
+            running.decrementAndGet();
+            bus.reply(msg, new MessageReply());
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        for (int i = 0; i < msgNum; i++) {
+            HelloWorldMsg msg = new HelloWorldMsg();
+            msg.setServiceId(FakeService.class.getCanonicalName());
+            bus.send(msg, new CloudBusCallBack() {
+                @Override
+                public void run(MessageReply reply) {
+                    if (reply.isSuccess()) {
+                        successNum.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+
+        latch.await(30, TimeUnit.SECONDS);
+        serv.stop();
+        Assert.assertEquals(msgNum, successNum.get());
+        Assert.assertTrue(maxRunning.get() <= 2);
+
+        ServiceQueueStatistic s = ((CloudBusMXBean) bus).getServiceQueueStatistics().get(FakeService.class.getCanonicalName());
+        Assert.assertNotNull(s);
+        Assert.assertEquals(msgNum, s.getHandledNum());
+        Assert.assertEquals(0, s.getShedNum());
+        long waitNum = 0;
+        for (long n : s.getQueueWaitHistogram()) {
+            waitNum += n;
+        }
+        Assert.assertEquals(msgNum, waitNum);
+    }
+}
@@ -0,0 +1,255 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.*;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.message.*;
+import org.zstack.test.BeanConstructor;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * use a service of sync level 3 whose handler of BlockMsg waits until released, block all 3 slots before each step
+ *
+ * 1. send the internal message msg1, then the API messages api1 and api2, release one slot
+ *
+ * confirm api1 and api2 are handled before msg1
+ *
+ * 2. send msg3 with a 500ms timeout, release one slot after 1.5s
+ *
+ * confirm msg3 is dropped without being handled and counted as shed
+ *
+ * 3. send msg4 whose creating time is an hour ago by the sender's clock, with a 30s timeout, release one slot
+ *
+ * confirm msg4 is handled, its expiry counts from its arrival
+ *
+ * 4. set the backlog size to 0, send msg5 and api3
+ *
+ * confirm msg5 is replied with SYS.1015 at once and counted as shed, api3 is still queued and handled later
+ */
+public class TestCloudBusServiceQueue1 {
+    ComponentLoader loader;
+    CloudBusIN bus;
+    FakeService serv;
+    int oldBacklogSize;
+    List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+    int syncLevel = 3;
+    volatile CountDownLatch blocking;
+    Semaphore release = new Semaphore(0);
+
+    public static class BlockMsg extends NeedReplyMessage {
+    }
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+        public String name;
+    }
+
+    public static class HelloWorldApiMsg extends APIMessage {
+        public String name;
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public int getSyncLevel() {
+            return syncLevel;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg instanceof BlockMsg) {
+                blocking.countDown();
+                try {
+                    release.tryAcquire(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                bus.reply(msg, new MessageReply());
+            } else if (msg instanceof HelloWorldMsg) {
+                handled.add(((HelloWorldMsg) msg).name);
+                bus.reply(msg, new MessageReply());
+            } else if (msg instanceof HelloWorldApiMsg) {
+                handled.add(((HelloWorldApiMsg) msg).name);
+                bus.publish(new APIEvent(msg.getId()));
+            }
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+        oldBacklogSize = CloudBusGlobalProperty.SERVICE_BACKLOG_SIZE;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CloudBusGlobalProperty.SERVICE_BACKLOG_SIZE = oldBacklogSize;
+        serv.stop();
+    }
+
+    // the prefetch is twice the sync level, so the messages sent after blocking stay in the backlog of the service
+    private void block() throws InterruptedException {
+        blocking = new CountDownLatch(syncLevel);
+        for (int i = 0; i < syncLevel; i++) {
+            BlockMsg msg = new BlockMsg();
+            msg.setServiceId(serv.getId());
+            bus.send(msg);
+        }
+        Assert.assertTrue(blocking.await(10, TimeUnit.SECONDS));
+    }
+
+    private void unblock() throws InterruptedException {
+        release.release(syncLevel);
+        for (int i = 0; i < 100 && getStatistic().getRunningNum() > 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertEquals(0, getStatistic().getRunningNum());
+        // drop the permits of the slots released during the step
+        release.drainPermits();
+    }
+
+    private void waitHandled(int num) throws InterruptedException {
+        for (int i = 0; i < 100 && handled.size() < num; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertEquals(num, handled.size());
+    }
+
+    private HelloWorldMsg hello(String name) {
+        HelloWorldMsg msg = new HelloWorldMsg();
+        msg.name = name;
+        msg.setServiceId(serv.getId());
+        return msg;
+    }
+
+    private ServiceQueueStatistic getStatistic() {
+        return ((CloudBusMXBean) bus).getServiceQueueStatistics().get(serv.getId());
+    }
+
+    @Test
+    public void test() throws Exception {
+        final Map<String, MessageReply> replies = new ConcurrentHashMap<String, MessageReply>();
+
+        block();
+        bus.send(hello("msg1"));
+        for (String name : list("api1", "api2")) {
+            HelloWorldApiMsg amsg = new HelloWorldApiMsg();
+            amsg.name = name;
+            amsg.setServiceId(serv.getId());
+            bus.send(amsg);
+        }
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertTrue(handled.isEmpty());
+        ServiceQueueStatistic s = getStatistic();
+        Assert.assertEquals(2, s.getApiBacklogNum());
+        Assert.assertEquals(1, s.getBacklogNum());
+        // one slot, the backlog is drained one by one
+        release.release(1);
+        waitHandled(3);
+        Assert.assertEquals(list("api1", "api2", "msg1"), handled);
+        unblock();
+
+        handled.clear();
+        long shedNum = getStatistic().getShedNum();
+        block();
+        HelloWorldMsg msg3 = hello("msg3");
+        msg3.setTimeout(500);
+        final CountDownLatch msg3Latch = new CountDownLatch(1);
+        bus.send(msg3, new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                replies.put("msg3", reply);
+                msg3Latch.countDown();
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(1500);
+        release.release(1);
+        Assert.assertTrue(msg3Latch.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(replies.get("msg3").isSuccess());
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertTrue(handled.isEmpty());
+        Assert.assertEquals(shedNum + 1, getStatistic().getShedNum());
+        unblock();
+
+        block();
+        HelloWorldMsg msg4 = hello("msg4");
+        msg4.setTimeout(TimeUnit.SECONDS.toMillis(30));
+        Field f = Message.class.getDeclaredField("creatingTime");
+        f.setAccessible(true);
+        f.set(msg4, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        final CountDownLatch msg4Latch = new CountDownLatch(1);
+        bus.send(msg4, new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                replies.put("msg4", reply);
+                msg4Latch.countDown();
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(500);
+        release.release(1);
+        Assert.assertTrue(msg4Latch.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(replies.get("msg4").isSuccess());
+        Assert.assertEquals(list("msg4"), handled);
+        Assert.assertEquals(shedNum + 1, getStatistic().getShedNum());
+        unblock();
+
+        handled.clear();
+        block();
+        CloudBusGlobalProperty.SERVICE_BACKLOG_SIZE = 0;
+        final CountDownLatch msg5Latch = new CountDownLatch(1);
+        bus.send(hello("msg5"), new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                replies.put("msg5", reply);
+                msg5Latch.countDown();
+            }
+        });
+        HelloWorldApiMsg api3 = new HelloWorldApiMsg();
+        api3.name = "api3";
+        api3.setServiceId(serv.getId());
+        bus.send(api3);
+        Assert.assertTrue(msg5Latch.await(10, TimeUnit.SECONDS));
+        MessageReply reply = replies.get("msg5");
+        Assert.assertFalse(reply.isSuccess());
+        Assert.assertEquals(SysErrors.SERVICE_OVERLOADED_ERROR.toString(), reply.getError().getCode());
+        Assert.assertEquals(shedNum + 2, getStatistic().getShedNum());
+        Assert.assertTrue(handled.isEmpty());
+
+        release.release(1);
+        waitHandled(1);
+        Assert.assertEquals(list("api3"), handled);
+        unblock();
+    }
+}
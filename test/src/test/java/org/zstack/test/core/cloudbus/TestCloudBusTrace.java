@@ -0,0 +1,129 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.trace.*;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. sample every trace
+ * 2. start a trace and send a message with callback in it
+ *
+ * confirm the service handles the message in the trace, the callback runs in the trace of the caller,
+ * and the trace has the root span and the message span
+ */
+public class TestCloudBusTrace {
+    ComponentLoader loader;
+    CloudBusIN bus;
+    TraceFacade tracef;
+    TraceFacadeMXBean traceMXBean;
+    Service serv;
+    volatile TraceContext serviceContext;
+    volatile TraceContext callbackContext;
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            serviceContext = tracef.getCurrentContext();
+            bus.reply(msg, new MessageReply());
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        tracef = loader.getComponent(TraceFacade.class);
+        traceMXBean = loader.getComponent(TraceFacadeImpl.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        TraceGlobalConfig.SAMPLING_INTERVAL.updateValue(1);
+
+        Span root = tracef.startTrace("test");
+        Assert.assertNotNull(root);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        TraceContext prev = tracef.setCurrentContext(root.getContext());
+        try {
+            HelloWorldMsg msg = new HelloWorldMsg();
+            msg.setServiceId(FakeService.class.getCanonicalName());
+            msg.setTimeout(TimeUnit.SECONDS.toMillis(10));
+            bus.send(msg, new CloudBusCallBack() {
+                @Override
+                public void run(MessageReply reply) {
+                    callbackContext = tracef.getCurrentContext();
+                    latch.countDown();
+                }
+            });
+        } finally {
+            tracef.setCurrentContext(prev);
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        tracef.finishSpan(root, true);
+
+        Assert.assertNotNull(serviceContext);
+        Assert.assertEquals(root.getTraceId(), serviceContext.getTraceId());
+        Assert.assertFalse(root.getSpanId().equals(serviceContext.getSpanId()));
+        Assert.assertNotNull(callbackContext);
+        Assert.assertEquals(root.getSpanId(), callbackContext.getSpanId());
+
+        List<Span> spans = traceMXBean.getTrace(root.getTraceId());
+        Assert.assertEquals(2, spans.size());
+        Span msgSpan = null;
+        for (Span s : spans) {
+            if (s.getSpanId().equals(serviceContext.getSpanId())) {
+                msgSpan = s;
+            }
+        }
+        Assert.assertNotNull(msgSpan);
+        Assert.assertEquals(root.getSpanId(), msgSpan.getParentSpanId());
+        Assert.assertTrue(msgSpan.isSuccess());
+
+        List<TraceSummary> traces = traceMXBean.getSlowestTraces(1);
+        Assert.assertEquals(1, traces.size());
+        Assert.assertEquals(root.getTraceId(), traces.get(0).getTraceId());
+        Assert.assertEquals("test", traces.get(0).getName());
+
+        TraceGlobalConfig.SAMPLING_INTERVAL.updateValue(0);
+        serv.stop();
+    }
+}
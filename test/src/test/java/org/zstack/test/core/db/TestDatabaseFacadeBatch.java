@@ -0,0 +1,72 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.zone.ZoneState;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1. persist 10000 zones by persistCollection
+ * 2. update them by updateCollection
+ * 3. remove them by removeCollection
+ *
+ * confirm all operations take effect, and log the time each operation takes
+ */
+public class TestDatabaseFacadeBatch {
+    CLogger logger = Utils.getLogger(TestDatabaseFacadeBatch.class);
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    int num = 10000;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() {
+        List<ZoneVO> vos = new ArrayList<ZoneVO>(num);
+        for (int i = 0; i < num; i++) {
+            ZoneVO vo = new ZoneVO();
+            vo.setUuid(Platform.getUuid());
+            vo.setName(String.format("zone-%s", i));
+            vo.setType("TestType");
+            vo.setState(ZoneState.Enabled);
+            vos.add(vo);
+        }
+
+        long start = System.currentTimeMillis();
+        dbf.persistCollection(vos);
+        logger.debug(String.format("persisted %s zones in %sms", num, System.currentTimeMillis() - start));
+        Assert.assertEquals(num, dbf.count(ZoneVO.class));
+
+        vos = dbf.listAll(ZoneVO.class);
+        for (ZoneVO vo : vos) {
+            vo.setDescription("updated");
+        }
+        start = System.currentTimeMillis();
+        dbf.updateCollection(vos);
+        logger.debug(String.format("updated %s zones in %sms", num, System.currentTimeMillis() - start));
+        ZoneVO vo = dbf.findByUuid(vos.get(num - 1).getUuid(), ZoneVO.class);
+        Assert.assertEquals("updated", vo.getDescription());
+
+        start = System.currentTimeMillis();
+        dbf.removeCollection(vos, ZoneVO.class);
+        logger.debug(String.format("removed %s zones in %sms", num, System.currentTimeMillis() - start));
+        Assert.assertEquals(0, dbf.count(ZoneVO.class));
+    }
+}
@@ -0,0 +1,82 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SequenceBlockVO;
+import org.zstack.header.vm.VmInstanceSequenceNumberVO;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. insert some ids into the sequence table as an old database does
+ * 2. generate sequence numbers in several threads
+ *
+ * confirm the numbers are unique, increasing in each thread and greater than the old ids,
+ * and the sequence table doesn't grow
+ */
+public class TestSequenceNumber {
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    int threadNum = 10;
+    int numPerThread = 500;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        long oldMax = 0;
+        for (int i = 0; i < 5; i++) {
+            oldMax = dbf.persistAndRefresh(new VmInstanceSequenceNumberVO()).getId();
+        }
+
+        final List<Long> numbers = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Boolean> increasing = Collections.synchronizedList(new ArrayList<Boolean>());
+        final CountDownLatch latch = new CountDownLatch(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long last = 0;
+                    boolean inc = true;
+                    for (int j = 0; j < numPerThread; j++) {
+                        long n = dbf.generateSequenceNumber(VmInstanceSequenceNumberVO.class);
+                        inc = inc && n > last;
+                        last = n;
+                        numbers.add(n);
+                    }
+                    increasing.add(inc);
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        Assert.assertEquals(threadNum * numPerThread, numbers.size());
+        Set<Long> unique = new HashSet<Long>(numbers);
+        Assert.assertEquals(numbers.size(), unique.size());
+        Assert.assertTrue(Collections.min(numbers) > oldMax);
+        Assert.assertFalse(increasing.contains(false));
+
+        Assert.assertEquals(5, dbf.count(VmInstanceSequenceNumberVO.class));
+        Assert.assertEquals(1, dbf.count(SequenceBlockVO.class));
+        SequenceBlockVO block = dbf.findByUuid(VmInstanceSequenceNumberVO.class.getSimpleName(), SequenceBlockVO.class);
+        Assert.assertTrue(block.getNextValue() > Collections.max(numbers));
+    }
+}
@@ -0,0 +1,89 @@
+package org.zstack.test.core.gc;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.gc.*;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.TimeUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. schedule many GC jobs of a runner failing each job once
+ *
+ * confirm all jobs are done and they run in batches, fewer runners created than jobs run
+ */
+public class TestGC6 {
+    ComponentLoader loader;
+    GCFacade gcf;
+    DatabaseFacade dbf;
+    int num = 1000;
+    boolean success;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        gcf = loader.getComponent(GCFacade.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    public static class TRunner implements GCRunner {
+        static final AtomicInteger instances = new AtomicInteger();
+        static final AtomicInteger runs = new AtomicInteger();
+        static final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+
+        public TRunner() {
+            instances.incrementAndGet();
+        }
+
+        @Override
+        public void run(GCContext context, GCCompletion completion) {
+            runs.incrementAndGet();
+            if (failed.add((String) context.getContext())) {
+                completion.fail(null);
+            } else {
+                completion.success();
+            }
+        }
+    }
+
+    @Test
+    public void test() {
+        for (int i = 0; i < num; i++) {
+            GCPersistentContext<String> context = new GCPersistentContext<String>();
+            context.setRunnerClass(TRunner.class);
+            context.setInterval(1);
+            context.setTimeUnit(TimeUnit.SECONDS);
+            context.setContext("job-" + i);
+            context.setContextClass(String.class);
+            gcf.schedule(context);
+        }
+
+        TimeUtils.loopExecuteUntilTimeoutIgnoreException(30, 1, TimeUnit.SECONDS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                SimpleQuery<GarbageCollectorVO> q = dbf.createQuery(GarbageCollectorVO.class);
+                q.add(GarbageCollectorVO_.status, Op.EQ, GCStatus.Done);
+                success = q.count() == num;
+                return success;
+            }
+        });
+
+        Assert.assertTrue(success);
+        Assert.assertEquals(num * 2, TRunner.runs.get());
+        Assert.assertTrue(TRunner.instances.get() < TRunner.runs.get());
+    }
+}
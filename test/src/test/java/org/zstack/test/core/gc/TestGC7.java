@@ -0,0 +1,123 @@
+package org.zstack.test.core.gc;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.gc.*;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. set GC.backoffAfterFailingSeconds to 0 and GC.maxRetryIntervalInSeconds to 1
+ * 2. schedule an ephemeral GC job of 100ms interval always failing
+ *
+ * confirm the interval between retries doubles on each failure until it reaches 1 second
+ *
+ * 3. schedule a persistent GC job whose runner can't be created
+ *
+ * confirm the runner is tried once, the job is not retried and stays idle
+ */
+public class TestGC7 {
+    ComponentLoader loader;
+    GCFacade gcf;
+    DatabaseFacade dbf;
+    long oldBackoffAfter;
+    long oldMaxRetryInterval;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        gcf = loader.getComponent(GCFacade.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        oldBackoffAfter = GCGlobalProperty.BACKOFF_AFTER_FAILING_SECONDS;
+        oldMaxRetryInterval = GCGlobalProperty.MAX_RETRY_INTERVAL_SECONDS;
+        GCGlobalProperty.BACKOFF_AFTER_FAILING_SECONDS = 0;
+        GCGlobalProperty.MAX_RETRY_INTERVAL_SECONDS = 1;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        GCGlobalProperty.BACKOFF_AFTER_FAILING_SECONDS = oldBackoffAfter;
+        GCGlobalProperty.MAX_RETRY_INTERVAL_SECONDS = oldMaxRetryInterval;
+    }
+
+    public static class BrokenRunner implements GCRunner {
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public BrokenRunner() {
+            instances.incrementAndGet();
+            throw new RuntimeException("on purpose");
+        }
+
+        @Override
+        public void run(GCContext context, GCCompletion completion) {
+            completion.success();
+        }
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        final List<Long> runs = Collections.synchronizedList(new ArrayList<Long>());
+        GCEphemeralContext<String> context = new GCEphemeralContext<String>();
+        context.setInterval(100);
+        context.setTimeUnit(TimeUnit.MILLISECONDS);
+        context.setContext("always fail");
+        context.setRunner(new GCRunner() {
+            @Override
+            public void run(GCContext context, GCCompletion completion) {
+                if (runs.size() < 7) {
+                    runs.add(System.currentTimeMillis());
+                    completion.fail(null);
+                } else {
+                    completion.cancel();
+                }
+            }
+        });
+        gcf.schedule(context);
+
+        for (int i = 0; i < 100 && runs.size() < 7; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertEquals(7, runs.size());
+
+        // expected about 200, 400, 800, 1000, 1000, 1000 ms, deadlines are rounded up by at most an eighth
+        List<Long> gaps = new ArrayList<Long>();
+        for (int i = 1; i < runs.size(); i++) {
+            gaps.add(runs.get(i) - runs.get(i - 1));
+        }
+        Assert.assertTrue(gaps.toString(), gaps.get(0) >= 200 && gaps.get(0) < 350);
+        Assert.assertTrue(gaps.toString(), gaps.get(1) >= 400 && gaps.get(1) < 600);
+        Assert.assertTrue(gaps.toString(), gaps.get(2) >= 800 && gaps.get(2) < 1050);
+        for (int i = 3; i < gaps.size(); i++) {
+            Assert.assertTrue(gaps.toString(), gaps.get(i) >= 1000 && gaps.get(i) < 1300);
+        }
+
+        GCPersistentContext<String> pcontext = new GCPersistentContext<String>();
+        pcontext.setRunnerClass(BrokenRunner.class);
+        pcontext.setInterval(1);
+        pcontext.setTimeUnit(TimeUnit.SECONDS);
+        pcontext.setContext("broken runner");
+        pcontext.setContextClass(String.class);
+        gcf.scheduleImmediately(pcontext);
+
+        TimeUnit.SECONDS.sleep(5);
+        Assert.assertEquals(1, BrokenRunner.instances.get());
+        SimpleQuery<GarbageCollectorVO> q = dbf.createQuery(GarbageCollectorVO.class);
+        q.add(GarbageCollectorVO_.runnerClass, Op.EQ, BrokenRunner.class.getName());
+        GarbageCollectorVO vo = q.find();
+        Assert.assertEquals(GCStatus.Idle, vo.getStatus());
+    }
+}
@@ -0,0 +1,153 @@
+package org.zstack.test.core.gc;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.ResourceDestinationMakerImpl;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.gc.*;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.TimeUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. schedule GC jobs left, orphan, other and done; the runner cancels all but done on their first run so they
+ *    are idle without being scheduled
+ * 2. make left owned by a management node leaving, orphan owned by no management node, other owned by a live
+ *    management node
+ * 3. tell the GC facade the management node left
+ *
+ * confirm left and orphan are claimed by this management node and run to done
+ * confirm other stays idle with its owner, done is not run again
+ */
+public class TestGC8 {
+    ComponentLoader loader;
+    GCFacade gcf;
+    DatabaseFacade dbf;
+    boolean success;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        gcf = loader.getComponent(GCFacade.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        // this node is the only one in the circle, it claims all jobs
+        ResourceDestinationMakerImpl destinationMaker = loader.getComponent(ResourceDestinationMakerImpl.class);
+        if (!destinationMaker.isNodeInCircle(Platform.getManagementServerId())) {
+            destinationMaker.nodeJoin(Platform.getManagementServerId());
+        }
+    }
+
+    public static class TRunner implements GCRunner {
+        static final Map<String, Integer> runs = new HashMap<String, Integer>();
+
+        static synchronized int getRuns(String name) {
+            Integer r = runs.get(name);
+            return r == null ? 0 : r;
+        }
+
+        @Override
+        public void run(GCContext context, GCCompletion completion) {
+            String name = (String) context.getContext();
+            synchronized (TRunner.class) {
+                runs.put(name, getRuns(name) + 1);
+            }
+
+            if (name.equals("done") || getRuns(name) > 1) {
+                completion.success();
+            } else {
+                completion.cancel();
+            }
+        }
+    }
+
+    private GarbageCollectorVO find(String name) {
+        for (GarbageCollectorVO vo : dbf.listAll(GarbageCollectorVO.class)) {
+            if (vo.getContext().contains(String.format("\"%s\"", name))) {
+                return vo;
+            }
+        }
+        return null;
+    }
+
+    private void waitStatus(final GCStatus status, final String...names) {
+        success = false;
+        TimeUtils.loopExecuteUntilTimeoutIgnoreException(10000, 100, TimeUnit.MILLISECONDS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                for (String name : names) {
+                    if (find(name).getStatus() != status) {
+                        return false;
+                    }
+                }
+                success = true;
+                return true;
+            }
+        });
+        Assert.assertTrue(success);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        for (String name : list("left", "orphan", "other", "done")) {
+            GCPersistentContext<String> context = new GCPersistentContext<String>();
+            context.setRunnerClass(TRunner.class);
+            context.setInterval(1);
+            context.setTimeUnit(TimeUnit.SECONDS);
+            context.setContext(name);
+            context.setContextClass(String.class);
+            gcf.scheduleImmediately(context);
+        }
+
+        waitStatus(GCStatus.Done, "done");
+        for (String name : list("left", "orphan", "other")) {
+            Assert.assertEquals(1, TRunner.getRuns(name));
+        }
+        // let the idle status of the cancelled jobs be written
+        TimeUnit.SECONDS.sleep(1);
+        waitStatus(GCStatus.Idle, "left", "orphan", "other");
+
+        String leftNodeUuid = Platform.getUuid();
+        String otherNodeUuid = Platform.getUuid();
+        GarbageCollectorVO left = find("left");
+        left.setManagementNodeUuid(leftNodeUuid);
+        dbf.update(left);
+        GarbageCollectorVO orphan = find("orphan");
+        orphan.setManagementNodeUuid(null);
+        dbf.update(orphan);
+        GarbageCollectorVO other = find("other");
+        other.setManagementNodeUuid(otherNodeUuid);
+        dbf.update(other);
+        GarbageCollectorVO done = find("done");
+        done.setManagementNodeUuid(leftNodeUuid);
+        dbf.update(done);
+
+        ((ManagementNodeChangeListener) gcf).nodeLeft(leftNodeUuid);
+
+        waitStatus(GCStatus.Done, "left", "orphan");
+        for (String name : list("left", "orphan")) {
+            Assert.assertEquals(2, TRunner.getRuns(name));
+            Assert.assertEquals(Platform.getManagementServerId(), find(name).getManagementNodeUuid());
+        }
+
+        TimeUnit.SECONDS.sleep(2);
+        Assert.assertEquals(1, TRunner.getRuns("other"));
+        other = find("other");
+        Assert.assertEquals(GCStatus.Idle, other.getStatus());
+        Assert.assertEquals(otherNodeUuid, other.getManagementNodeUuid());
+        Assert.assertEquals(1, TRunner.getRuns("done"));
+        Assert.assertEquals(GCStatus.Done, find("done").getStatus());
+    }
+}
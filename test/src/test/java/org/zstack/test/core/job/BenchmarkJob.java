@@ -0,0 +1,37 @@
+package org.zstack.test.core.job;
+
+import org.zstack.core.job.Job;
+import org.zstack.core.job.JobContext;
+import org.zstack.header.core.ReturnValueCompletion;
+
+import java.util.*;
+
+public class BenchmarkJob implements Job {
+    static final Map<String, List<Integer>> executed = Collections.synchronizedMap(new HashMap<String, List<Integer>>());
+
+    @JobContext
+    private String queueName;
+    @JobContext
+    private int seq;
+
+    private BenchmarkJob() {
+    }
+
+    public BenchmarkJob(String queueName, int seq) {
+        this.queueName = queueName;
+        this.seq = seq;
+    }
+
+    @Override
+    public void run(ReturnValueCompletion<Object> complete) {
+        synchronized (executed) {
+            List<Integer> seqs = executed.get(queueName);
+            if (seqs == null) {
+                seqs = new ArrayList<Integer>();
+                executed.put(queueName, seqs);
+            }
+            seqs.add(seq);
+        }
+        complete.success(seq);
+    }
+}
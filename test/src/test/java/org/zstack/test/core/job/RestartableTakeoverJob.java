@@ -0,0 +1,13 @@
+package org.zstack.test.core.job;
+
+import org.zstack.core.job.RestartableJob;
+
+@RestartableJob
+public class RestartableTakeoverJob extends TakeoverJob {
+    private RestartableTakeoverJob() {
+    }
+
+    public RestartableTakeoverJob(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,29 @@
+package org.zstack.test.core.job;
+
+import org.zstack.core.job.Job;
+import org.zstack.core.job.JobContext;
+import org.zstack.header.core.ReturnValueCompletion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TakeoverJob implements Job {
+    static final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    @JobContext
+    private String name;
+
+    protected TakeoverJob() {
+    }
+
+    public TakeoverJob(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void run(ReturnValueCompletion<Object> complete) {
+        executed.add(name);
+        complete.success(name);
+    }
+}
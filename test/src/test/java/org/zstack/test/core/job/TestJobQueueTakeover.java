@@ -0,0 +1,141 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.job.*;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.Api;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.serializable.SerializableHelper;
+
+import java.lang.reflect.Constructor;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. make an orphan queue as its worker management node died, having
+ *    job1: not restartable, Processing
+ *    job2: restartable, Processing
+ *    job3: Pending, its issuer management node died
+ *    job4: not restartable, Pending
+ * 2. tell the job queue facade a management node left
+ *
+ * confirm the queue is taken over: job2 is re-run, then job4 runs; job1 fails and job3 is dropped without running
+ * confirm no entry of the queue is left
+ *
+ * 3. make another orphan queue having
+ *    job5: restartable, Processing
+ *    job6: not restartable, Processing
+ *    job7: restartable, Pending, its issuer management node died
+ * 4. issue job8 to the queue
+ *
+ * confirm the queue is taken over by issuing: job5 is re-run, then job8 runs and succeeds; job6 and job7 don't run
+ * confirm no entry of the queue is left
+ */
+public class TestJobQueueTakeover {
+    ComponentLoader loader;
+    JobQueueFacadeImpl3 jobf;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("JobForUnitTest.xml").addXml("PortalForUnitTest.xml").addXml("AccountManager.xml").build();
+        jobf = (JobQueueFacadeImpl3) loader.getComponent(JobQueueFacade.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        new Api().startServer();
+    }
+
+    private JobQueueVO createOrphanQueue(String name) {
+        JobQueueVO qvo = new JobQueueVO();
+        qvo.setName(name);
+        qvo.setOwner("TestJobQueueTakeover");
+        qvo.setWorkerManagementNodeId(null);
+        return dbf.persistAndRefresh(qvo);
+    }
+
+    private void createEntry(JobQueueVO qvo, TakeoverJob job, JobState state, boolean issuerAlive) throws Exception {
+        // the context is written by the package private JobContextObject as the facade does
+        Constructor<?> cons = Class.forName("org.zstack.core.job.JobContextObject").getDeclaredConstructor(Job.class);
+        cons.setAccessible(true);
+
+        JobQueueEntryVO vo = new JobQueueEntryVO();
+        vo.setName(job.getClass().getName());
+        vo.setJobQueueId(qvo.getId());
+        vo.setState(state);
+        vo.setContext(SerializableHelper.writeObject(cons.newInstance(job)));
+        vo.setOwner(qvo.getOwner());
+        vo.setIssuerManagementNodeId(issuerAlive ? Platform.getManagementServerId() : null);
+        vo.setRestartable(job.getClass().isAnnotationPresent(RestartableJob.class));
+        vo.setInDate(new Date());
+        dbf.persist(vo);
+    }
+
+    private long countEntries(JobQueueVO qvo) {
+        SimpleQuery<JobQueueEntryVO> q = dbf.createQuery(JobQueueEntryVO.class);
+        q.add(JobQueueEntryVO_.jobQueueId, Op.EQ, qvo.getId());
+        return q.count();
+    }
+
+    private void waitExecuted(int num) throws InterruptedException {
+        for (int i = 0; i < 100 && TakeoverJob.executed.size() < num; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        // jobs that should not run would have run by now
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(num, TakeoverJob.executed.size());
+    }
+
+    @Test
+    public void test() throws Exception {
+        TakeoverJob.executed.clear();
+        JobQueueVO q1 = createOrphanQueue("takeover-queue-1");
+        createEntry(q1, new TakeoverJob("job1"), JobState.Processing, true);
+        createEntry(q1, new RestartableTakeoverJob("job2"), JobState.Processing, true);
+        createEntry(q1, new TakeoverJob("job3"), JobState.Pending, false);
+        createEntry(q1, new TakeoverJob("job4"), JobState.Pending, true);
+
+        jobf.nodeLeft(Platform.getUuid());
+        waitExecuted(2);
+        Assert.assertEquals(list("job2", "job4"), TakeoverJob.executed);
+        Assert.assertEquals(0, countEntries(q1));
+
+        TakeoverJob.executed.clear();
+        JobQueueVO q2 = createOrphanQueue("takeover-queue-2");
+        createEntry(q2, new RestartableTakeoverJob("job5"), JobState.Processing, true);
+        createEntry(q2, new TakeoverJob("job6"), JobState.Processing, true);
+        createEntry(q2, new RestartableTakeoverJob("job7"), JobState.Pending, false);
+
+        final Object[] ret = new Object[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        jobf.execute(q2.getName(), q2.getOwner(), new TakeoverJob("job8"), new ReturnValueCompletion<Object>() {
+            @Override
+            public void success(Object returnValue) {
+                ret[0] = returnValue;
+                latch.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                latch.countDown();
+            }
+        }, Object.class);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("job8", ret[0]);
+        waitExecuted(2);
+        Assert.assertEquals(list("job5", "job8"), TakeoverJob.executed);
+        Assert.assertEquals(0, countEntries(q2));
+    }
+}
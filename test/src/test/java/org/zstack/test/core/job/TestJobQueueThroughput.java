@@ -0,0 +1,110 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.job.JobQueueFacade;
+import org.zstack.core.job.JobQueueFacadeImpl2;
+import org.zstack.core.job.JobQueueFacadeImpl3;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.Api;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. run jobs in many queues concurrently, then in one queue, on JobQueueFacadeImpl2 and the current JobQueueFacade
+ *
+ * confirm all jobs succeed and jobs of a queue run in their order; the throughput of both is logged
+ *
+ * 2. check the metrics of the current JobQueueFacade
+ */
+public class TestJobQueueThroughput {
+    CLogger logger = Utils.getLogger(TestJobQueueThroughput.class);
+    ComponentLoader loader;
+    JobQueueFacadeImpl3 jobf;
+    JobQueueFacadeImpl2 jobf2;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("JobForUnitTest.xml").addXml("JobQueueBenchmark.xml").addXml("PortalForUnitTest.xml").addXml("AccountManager.xml").build();
+        jobf = (JobQueueFacadeImpl3) loader.getComponent(JobQueueFacade.class);
+        jobf2 = loader.getComponentByBeanName("JobQueueFacadeImpl2");
+        jobf2.start();
+        new Api().startServer();
+    }
+
+    private long run(final JobQueueFacade facade, final int queueNum, final int jobNum) throws InterruptedException {
+        BenchmarkJob.executed.clear();
+        final CountDownLatch latch = new CountDownLatch(queueNum * jobNum);
+        final AtomicInteger failures = new AtomicInteger();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < queueNum; i++) {
+            final String queueName = "benchmark-" + i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < jobNum; j++) {
+                        facade.execute(queueName, "TestJobQueueThroughput", new BenchmarkJob(queueName, j), new ReturnValueCompletion<Object>() {
+                            @Override
+                            public void success(Object returnValue) {
+                                latch.countDown();
+                            }
+
+                            @Override
+                            public void fail(ErrorCode errorCode) {
+                                logger.warn(errorCode.toString());
+                                failures.incrementAndGet();
+                                latch.countDown();
+                            }
+                        }, Object.class);
+                    }
+                }
+            }).start();
+        }
+
+        Assert.assertTrue(latch.await(300, TimeUnit.SECONDS));
+        long cost = System.currentTimeMillis() - start;
+        Assert.assertEquals(0, failures.get());
+
+        Assert.assertEquals(queueNum, BenchmarkJob.executed.size());
+        for (List<Integer> seqs : BenchmarkJob.executed.values()) {
+            Assert.assertEquals(jobNum, seqs.size());
+            for (int j = 0; j < jobNum; j++) {
+                Assert.assertEquals(j, seqs.get(j).intValue());
+            }
+        }
+
+        logger.info(String.format("[JobQueue Benchmark] %s: %s jobs in %s queues, %s ms, %s jobs/s", facade.getClass().getSimpleName(),
+                queueNum * jobNum, queueNum, cost, queueNum * jobNum * 1000L / Math.max(cost, 1)));
+        return cost;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        run(jobf2, 50, 20);
+        run(jobf, 50, 20);
+        run(jobf2, 1, 500);
+        run(jobf, 1, 500);
+
+        Assert.assertEquals(1500, jobf.getCompletedJobNum());
+        Assert.assertTrue(jobf.getFlushNum() > 0);
+        Assert.assertTrue(jobf.getAverageFlushSize() > 0);
+        // drained queues are released
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(0, jobf.getPendingJobNum());
+        Assert.assertEquals(0, jobf.getRunningJobNum());
+        Assert.assertTrue(jobf.getQueueDepths().isEmpty());
+    }
+}
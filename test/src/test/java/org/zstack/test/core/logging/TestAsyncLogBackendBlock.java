@@ -0,0 +1,92 @@
+package org.zstack.test.core.logging;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.logging.LogBackendStatistic;
+import org.zstack.core.logging.LogOverflowPolicy;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.core.logging.TestAsyncLogBackendDrop.BlockedLogBackend;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.test.core.logging.TestAsyncLogBackendDrop.newLog;
+
+/**
+ * 1. use a backend with a buffer of 2 logs whose flush is blocked, the overflow policy is Block
+ * 2. fill the buffer and write another log
+ *
+ * confirm the caller is blocked for the block timeout and the log is dropped
+ *
+ * 3. write another log and unblock the flush while the caller is waiting
+ *
+ * confirm the caller returns before the timeout and the log is flushed
+ */
+public class TestAsyncLogBackendBlock {
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    long blockTimeout = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        final BlockedLogBackend backend = new BlockedLogBackend(thdf);
+        backend.setQueueCapacity(2);
+        backend.setBatchSize(1);
+        backend.setBlockTimeout(blockTimeout);
+        backend.setOverflowPolicy(LogOverflowPolicy.Block);
+        backend.start();
+
+        backend.write(newLog(0));
+        Assert.assertTrue(backend.flushStarted.await(10, TimeUnit.SECONDS));
+        backend.write(newLog(1));
+        backend.write(newLog(2));
+
+        long start = System.currentTimeMillis();
+        backend.write(newLog(3));
+        long cost = System.currentTimeMillis() - start;
+        Assert.assertTrue(String.format("blocked %sms", cost), cost >= blockTimeout - 50);
+        LogBackendStatistic stat = backend.getStatistic();
+        Assert.assertEquals(1, stat.getDroppedNum());
+        Assert.assertEquals(3, stat.getEnqueuedNum());
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writing.await();
+                    TimeUnit.MILLISECONDS.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                backend.unblock.countDown();
+            }
+        }).start();
+
+        writing.countDown();
+        start = System.currentTimeMillis();
+        backend.write(newLog(4));
+        cost = System.currentTimeMillis() - start;
+        Assert.assertTrue(String.format("blocked %sms", cost), cost < blockTimeout);
+        stat = backend.getStatistic();
+        Assert.assertEquals(1, stat.getDroppedNum());
+        Assert.assertEquals(4, stat.getEnqueuedNum());
+
+        backend.stop();
+        for (int i = 0; i < 100 && backend.getStatistic().getFlushedNum() < 4; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertEquals(4, backend.getStatistic().getFlushedNum());
+        Assert.assertEquals("4", backend.flushed.get(3).getContent());
+    }
+}
@@ -0,0 +1,104 @@
+package org.zstack.test.core.logging;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.logging.*;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.test.BeanConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. use a backend with a buffer of 10 logs whose flush is blocked
+ * 2. write 1 log to block the log thread, then write 15 logs
+ *
+ * confirm 10 logs are buffered and 5 are dropped without blocking the caller
+ *
+ * 3. unblock the flush
+ *
+ * confirm all 11 logs buffered are flushed in order
+ */
+public class TestAsyncLogBackendDrop {
+    ComponentLoader loader;
+    ThreadFacade thdf;
+
+    static class BlockedLogBackend extends AsyncLogBackend {
+        CountDownLatch flushStarted = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        List<LogVO> flushed = Collections.synchronizedList(new ArrayList<LogVO>());
+
+        BlockedLogBackend(ThreadFacade thdf) {
+            this.thdf = thdf;
+        }
+
+        @Override
+        protected void flush(List<LogVO> logs) throws Exception {
+            flushStarted.countDown();
+            unblock.await(30, TimeUnit.SECONDS);
+            flushed.addAll(logs);
+        }
+
+        @Override
+        public String getLogBackendType() {
+            return "Blocked";
+        }
+    }
+
+    static LogVO newLog(int i) {
+        LogVO vo = new LogVO();
+        vo.setContent(String.valueOf(i));
+        vo.setType(LogType.Text);
+        vo.setLevel(LogLevel.Info);
+        return vo;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        BlockedLogBackend backend = new BlockedLogBackend(thdf);
+        backend.setQueueCapacity(10);
+        backend.setBatchSize(1);
+        backend.setOverflowPolicy(LogOverflowPolicy.Drop);
+        backend.start();
+
+        backend.write(newLog(0));
+        Assert.assertTrue(backend.flushStarted.await(10, TimeUnit.SECONDS));
+
+        long start = System.currentTimeMillis();
+        for (int i = 1; i <= 15; i++) {
+            backend.write(newLog(i));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(1));
+
+        LogBackendStatistic stat = backend.getStatistic();
+        Assert.assertEquals(11, stat.getEnqueuedNum());
+        Assert.assertEquals(5, stat.getDroppedNum());
+        Assert.assertEquals(10, stat.getPendingNum());
+
+        backend.unblock.countDown();
+        backend.stop();
+        for (int i = 0; i < 100 && backend.getStatistic().getFlushedNum() < 11; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        stat = backend.getStatistic();
+        Assert.assertEquals(11, stat.getFlushedNum());
+        Assert.assertEquals(0, stat.getFlushFailureNum());
+        Assert.assertEquals(11, backend.flushed.size());
+        for (int i = 0; i < 11; i++) {
+            Assert.assertEquals(String.valueOf(i), backend.flushed.get(i).getContent());
+        }
+    }
+}
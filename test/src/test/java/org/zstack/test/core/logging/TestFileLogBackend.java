@@ -0,0 +1,125 @@
+package org.zstack.test.core.logging;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.logging.FileLogBackend;
+import org.zstack.core.logging.LogLevel;
+import org.zstack.core.logging.LogType;
+import org.zstack.core.logging.LogVO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. use segments of 4K bytes, keep at most 2 segments and index every 4 records
+ * 2. write 100 logs in 10 batches
+ *
+ * confirm segments are rotated when full and the oldest ones are deleted with their indexes
+ * confirm the logs left are read back in the order they were written
+ * confirm reading from the time of a batch starts at the first log of the batch
+ * confirm reading with a limit stops at the limit
+ */
+public class TestFileLogBackend {
+    CLogger logger = Utils.getLogger(TestFileLogBackend.class);
+    File dir;
+
+    static class SyncFileLogBackend extends FileLogBackend {
+        void doFlush(List<LogVO> logs) throws IOException {
+            flush(logs);
+        }
+
+        void close() {
+            afterStop();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "test-file-log-" + UUID.randomUUID().toString());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private int count(final String suffix) {
+        int num = 0;
+        for (String name : dir.list()) {
+            if (name.endsWith(suffix)) {
+                num++;
+            }
+        }
+        return num;
+    }
+
+    @Test
+    public void test() throws IOException, InterruptedException {
+        SyncFileLogBackend backend = new SyncFileLogBackend();
+        backend.setDirectory(dir.getAbsolutePath());
+        backend.setSegmentSize(4096);
+        backend.setMaxSegmentNum(2);
+        backend.setIndexInterval(4);
+
+        long[] batchTimes = new long[10];
+        for (int b = 0; b < 10; b++) {
+            List<LogVO> logs = new ArrayList<LogVO>();
+            batchTimes[b] = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++) {
+                LogVO vo = new LogVO();
+                vo.setContent(String.format("log-%05d", b * 10 + i));
+                vo.setType(LogType.Text);
+                vo.setLevel(LogLevel.Info);
+                vo.setResourceUuid(UUID.randomUUID().toString().replace("-", ""));
+                vo.setCreateDate(new Timestamp(batchTimes[b]));
+                logs.add(vo);
+            }
+            backend.doFlush(logs);
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        backend.close();
+
+        Assert.assertEquals(2, count(".log"));
+        Assert.assertEquals(2, count(".idx"));
+
+        List<LogVO> all = backend.read(0, 1000);
+        Assert.assertFalse(all.isEmpty());
+        // the oldest segments have been deleted
+        Assert.assertTrue(all.size() < 100);
+        int first = 100 - all.size();
+        logger.debug(String.format("%s logs left, starting from log-%05d", all.size(), first));
+        for (int i = 0; i < all.size(); i++) {
+            LogVO vo = all.get(i);
+            Assert.assertEquals(String.format("log-%05d", first + i), vo.getContent());
+            Assert.assertEquals(LogType.Text, vo.getType());
+            Assert.assertEquals(batchTimes[(first + i) / 10], vo.getCreateDate().getTime());
+        }
+
+        List<LogVO> logs = backend.read(batchTimes[8], 5);
+        Assert.assertEquals(5, logs.size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(String.format("log-%05d", 80 + i), logs.get(i).getContent());
+        }
+
+        logs = backend.read(batchTimes[9], 1000);
+        Assert.assertEquals(10, logs.size());
+        Assert.assertEquals("log-00090", logs.get(0).getContent());
+
+        Assert.assertTrue(backend.read(batchTimes[9] + 1, 1000).isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package org.zstack.test.core.logging;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.logging.LogVO;
+import org.zstack.core.logging.MysqlLogBackend;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.zstack.core.logging.MysqlLogBackend.*;
+
+/**
+ * 1. flush logs of multi-byte contents whose size in chars is within the statement limit but in bytes is not
+ *
+ * confirm the logs are split into statements by utf8 bytes, a statement is closed before the row that would
+ * take it over the limit
+ *
+ * 2. flush a log larger than the statement limit between small logs
+ *
+ * confirm the large log is truncated to the content column instead of failing the statement
+ * confirm a row larger than the statement limit is split into a statement by itself
+ *
+ * 3. truncate strings with surrogate pairs
+ *
+ * confirm a surrogate pair is never split
+ */
+public class TestMysqlLogBackendSplit {
+    static class RecordingMysqlLogBackend extends MysqlLogBackend {
+        List<List<LogVO>> statements = new ArrayList<List<LogVO>>();
+
+        @Override
+        protected void insert(List<LogVO> logs) throws SQLException {
+            statements.add(new ArrayList<LogVO>(logs));
+        }
+
+        void doFlush(List<LogVO> logs) throws SQLException {
+            flush(logs);
+        }
+    }
+
+    private String repeat(String s, int num) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < num; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private LogVO newLog(String content) {
+        LogVO vo = new LogVO();
+        vo.setContent(content);
+        return vo;
+    }
+
+    private int rowBytes(LogVO vo) {
+        return ROW_OVERHEAD_BYTES + utf8Length(vo.getContent());
+    }
+
+    @Test
+    public void test() throws SQLException {
+        // 3 bytes for each char
+        String chinese = "\u65e5\u5fd7";
+        Assert.assertEquals(6, utf8Length(chinese));
+        Assert.assertEquals(4, utf8Length("\ud83d\ude00"));
+        Assert.assertEquals(3, utf8Length("a\u00e9"));
+
+        // 10000 chars and 30000 bytes for each content, 100 logs are within the limit in chars but about 3M bytes
+        List<LogVO> logs = new ArrayList<LogVO>();
+        for (int i = 0; i < 100; i++) {
+            logs.add(newLog(repeat(chinese, 5000)));
+        }
+
+        RecordingMysqlLogBackend backend = new RecordingMysqlLogBackend();
+        backend.doFlush(logs);
+        int num = 0;
+        for (int i = 0; i < backend.statements.size(); i++) {
+            List<LogVO> stmt = backend.statements.get(i);
+            int bytes = 0;
+            for (LogVO vo : stmt) {
+                bytes += rowBytes(vo);
+            }
+            Assert.assertTrue(bytes <= MAX_STATEMENT_BYTES);
+            if (i != backend.statements.size() - 1) {
+                // the next row doesn't fit in this statement
+                LogVO next = backend.statements.get(i + 1).get(0);
+                Assert.assertTrue(bytes + rowBytes(next) > MAX_STATEMENT_BYTES);
+            }
+            num += stmt.size();
+        }
+        Assert.assertEquals(100, num);
+        Assert.assertEquals(3, backend.statements.size());
+
+        // a content of 2M bytes exceeds the statement by itself
+        String large = repeat(chinese, 350000);
+        logs = new ArrayList<LogVO>();
+        logs.add(newLog("small1"));
+        logs.add(newLog(large));
+        logs.add(newLog("small2"));
+
+        backend = new RecordingMysqlLogBackend();
+        backend.doFlush(logs);
+        Assert.assertEquals(1, backend.statements.size());
+        String truncated = backend.statements.get(0).get(1).getContent();
+        Assert.assertTrue(utf8Length(truncated) <= MAX_CONTENT_BYTES);
+        Assert.assertTrue(utf8Length(truncated) > MAX_CONTENT_BYTES - 3);
+        Assert.assertTrue(large.startsWith(truncated));
+
+        // a row over the limit without truncation goes by itself
+        logs = new ArrayList<LogVO>();
+        logs.add(newLog("small1"));
+        logs.add(newLog(large));
+        logs.add(newLog("small2"));
+        List<List<LogVO>> batches = split(logs, MAX_STATEMENT_BYTES);
+        Assert.assertEquals(3, batches.size());
+        Assert.assertEquals(1, batches.get(1).size());
+        Assert.assertEquals(large, batches.get(1).get(0).getContent());
+
+        String emoji = repeat("\ud83d\ude00", 10);
+        Assert.assertEquals(repeat("\ud83d\ude00", 2), truncate(emoji, 11));
+        Assert.assertEquals(emoji, truncate(emoji, 40));
+        Assert.assertEquals("a", truncate("a\u65e5", 3));
+    }
+}
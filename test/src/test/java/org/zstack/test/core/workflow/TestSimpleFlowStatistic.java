@@ -0,0 +1,77 @@
+package org.zstack.test.core.workflow;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.workflow.FlowChainBuilder;
+import org.zstack.core.workflow.SimpleFlowChain;
+import org.zstack.core.workflow.WorkFlowStatistic;
+import org.zstack.header.core.workflow.FlowDoneHandler;
+import org.zstack.header.core.workflow.FlowTrigger;
+import org.zstack.header.core.workflow.NoRollbackFlow;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. run a chain of 8 flows, the length of the VM start chain, many times
+ *
+ * confirm the per flow statistics are always collected and report the throughput of the chain
+ */
+public class TestSimpleFlowStatistic {
+    CLogger logger = Utils.getLogger(TestSimpleFlowStatistic.class);
+    int flowNum = 8;
+    int loop = 10000;
+    int done;
+
+    public static class BenchmarkFlow extends NoRollbackFlow {
+        @Override
+        public void run(FlowTrigger trigger, Map data) {
+            trigger.next();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        new BeanConstructor().build();
+    }
+
+    @Test
+    public void test() {
+        List<String> flowNames = new ArrayList<String>();
+        for (int i = 0; i < flowNum; i++) {
+            flowNames.add(BenchmarkFlow.class.getName());
+        }
+        FlowChainBuilder builder = FlowChainBuilder.newBuilder().setFlowClassNames(flowNames).construct();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < loop; i++) {
+            builder.build().done(new FlowDoneHandler() {
+                @Override
+                public void handle(Map data) {
+                    done ++;
+                }
+            }).start();
+        }
+        long cost = System.nanoTime() - start;
+
+        Assert.assertEquals(loop, done);
+        logger.debug(String.format("ran %s chains of %s flows in %sms, %s chains/s", loop, flowNum,
+                TimeUnit.NANOSECONDS.toMillis(cost), loop * TimeUnit.SECONDS.toNanos(1) / cost));
+
+        WorkFlowStatistic stat = SimpleFlowChain.getStatistics().get(BenchmarkFlow.class.getSimpleName());
+        Assert.assertNotNull(stat);
+        Assert.assertEquals(loop * flowNum, stat.getCount());
+        long total = 0;
+        for (long c : stat.getHistogram()) {
+            total += c;
+        }
+        Assert.assertEquals(stat.getCount(), total);
+        logger.debug(stat.toString());
+    }
+}
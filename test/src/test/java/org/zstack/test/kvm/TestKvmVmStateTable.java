@@ -0,0 +1,112 @@
+package org.zstack.test.kvm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.vm.VmStateTable;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.vm.VmCanonicalEvents;
+import org.zstack.header.vm.VmCanonicalEvents.VmStateChangedData;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. begin loading host1, fire state changes of vm1, vm2 and vm3 while the states of host1 are read
+ * 2. load host1 with stale states in which vm1 is missing, vm2 is running and vm3 is still on host1
+ *
+ * confirm host1 is loaded and the changes received during the load are applied on top of the states read
+ *
+ * 3. fire 100 state changes of other vms while loading host2
+ *
+ * confirm host2 is still loaded
+ *
+ * 4. destroy vm1
+ *
+ * confirm vm1 is removed from host1
+ *
+ * 5. cancel a load of host3, then fire a change of vm4 on host3 and load host3 without it
+ *
+ * confirm the change is not recorded for the cancelled load
+ */
+public class TestKvmVmStateTable {
+    Deployer deployer;
+    ComponentLoader loader;
+    EventFacade evtf;
+    VmStateTable stateTable;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestKvmVmTracer.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        loader = deployer.getComponentLoader();
+        evtf = loader.getComponent(EventFacade.class);
+        stateTable = loader.getComponent(VmStateTable.class);
+    }
+
+    private void fire(String vmUuid, VmInstanceState state, String hostUuid, String lastHostUuid) {
+        VmInstanceInventory vm = new VmInstanceInventory();
+        vm.setUuid(vmUuid);
+        vm.setState(state.toString());
+        vm.setHostUuid(hostUuid);
+        vm.setLastHostUuid(lastHostUuid);
+        VmStateChangedData data = new VmStateChangedData();
+        data.setVmUuid(vmUuid);
+        data.setVmInventory(vm);
+        evtf.fire(VmCanonicalEvents.VM_FULL_STATE_CHANGED_PATH, data);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        stateTable.beginLoad("host1");
+        fire("vm1", VmInstanceState.Running, "host1", null);
+        fire("vm2", VmInstanceState.Stopped, null, "host1");
+        fire("vm3", VmInstanceState.Running, "host2", "host1");
+        TimeUnit.SECONDS.sleep(1);
+
+        Map<String, VmInstanceState> states = new HashMap<String, VmInstanceState>();
+        states.put("vm2", VmInstanceState.Running);
+        states.put("vm3", VmInstanceState.Migrating);
+        stateTable.load("host1", states);
+
+        Assert.assertTrue(stateTable.isLoaded("host1"));
+        states = stateTable.getVmStates("host1");
+        Assert.assertEquals(2, states.size());
+        Assert.assertEquals(VmInstanceState.Running, states.get("vm1"));
+        Assert.assertEquals(VmInstanceState.Stopped, states.get("vm2"));
+        Assert.assertFalse(states.containsKey("vm3"));
+
+        stateTable.beginLoad("host2");
+        for (int i = 0; i < 100; i++) {
+            fire(String.format("churn-vm%s", i), VmInstanceState.Starting, "host100", null);
+        }
+        TimeUnit.SECONDS.sleep(1);
+        states = new HashMap<String, VmInstanceState>();
+        states.put("vm5", VmInstanceState.Running);
+        stateTable.load("host2", states);
+        Assert.assertTrue(stateTable.isLoaded("host2"));
+        Assert.assertEquals(VmInstanceState.Running, stateTable.getVmStates("host2").get("vm5"));
+
+        fire("vm1", VmInstanceState.Destroyed, null, "host1");
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertFalse(stateTable.getVmStates("host1").containsKey("vm1"));
+
+        stateTable.beginLoad("host3");
+        stateTable.cancelLoad("host3");
+        fire("vm4", VmInstanceState.Running, "host3", null);
+        TimeUnit.SECONDS.sleep(1);
+        stateTable.load("host3", new HashMap<String, VmInstanceState>());
+        Assert.assertTrue(stateTable.isLoaded("host3"));
+        Assert.assertTrue(stateTable.getVmStates("host3").isEmpty());
+    }
+}
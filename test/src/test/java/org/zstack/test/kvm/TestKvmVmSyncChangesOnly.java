@@ -0,0 +1,92 @@
+package org.zstack.test.kvm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.compute.vm.VmStateTable;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.kvm.KVMAgentCommands.VmSyncCmd;
+import org.zstack.kvm.KVMConstant.KvmVmState;
+import org.zstack.kvm.KVMGlobalConfig;
+import org.zstack.simulator.kvm.KVMSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. change host ping interval to 1s, make full vm syncs rare
+ * 2. create a vm
+ *
+ * confirm the host is synced incrementally and the vm state table has the vm
+ *
+ * 3. make the vm disappear on the host
+ *
+ * confirm the vm's state becomes stopped
+ *
+ * 4. make the vm running on the host again
+ *
+ * confirm the vm's state becomes running
+ */
+public class TestKvmVmSyncChangesOnly {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    KVMSimulatorConfig config;
+    VmStateTable stateTable;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestKvmVmTracer.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(KVMSimulatorConfig.class);
+        stateTable = loader.getComponent(VmStateTable.class);
+        KVMGlobalConfig.VM_FULL_SYNC_INTERVAL.updateValue(100);
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(1);
+    }
+
+    private VmSyncCmd lastVmSyncCmd() {
+        synchronized (config) {
+            return config.vmSyncCmds.get(config.vmSyncCmds.size() - 1);
+        }
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        TimeUnit.SECONDS.sleep(3);
+
+        Assert.assertNotNull(lastVmSyncCmd().getSinceEpoch());
+        Assert.assertEquals(VmInstanceState.Running, stateTable.getVmStates(vm.getHostUuid()).get(vm.getUuid()));
+
+        synchronized (config) {
+            config.vms.remove(vm.getUuid());
+        }
+        TimeUnit.SECONDS.sleep(3);
+        VmInstanceVO vmvo = dbf.findByUuid(vm.getUuid(), VmInstanceVO.class);
+        Assert.assertEquals(VmInstanceState.Stopped, vmvo.getState());
+        Assert.assertNotNull(lastVmSyncCmd().getSinceEpoch());
+
+        synchronized (config) {
+            config.vms.put(vm.getUuid(), KvmVmState.Running);
+        }
+        TimeUnit.SECONDS.sleep(3);
+        vmvo = dbf.findByUuid(vm.getUuid(), VmInstanceVO.class);
+        Assert.assertEquals(VmInstanceState.Running, vmvo.getState());
+        Assert.assertEquals(vm.getHostUuid(), vmvo.getHostUuid());
+    }
+}
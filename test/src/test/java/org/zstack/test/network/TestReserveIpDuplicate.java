@@ -0,0 +1,102 @@
+package org.zstack.test.network;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.network.l2.L2NetworkInventory;
+import org.zstack.header.network.l3.*;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.network.l3.L3NetworkManager;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. reserve an ip twice
+ *
+ * confirm the second reservation hits the duplicate entry and returns null
+ *
+ * 2. reserve 3 ips including the reserved one in a batch
+ *
+ * confirm the duplicate entry is detected and the other 2 ips are reserved one by one
+ *
+ * 3. reserve 60 ips, more than a JDBC batch, including a reserved one
+ *
+ * confirm the duplicate entry is detected and the other 59 ips are reserved
+ */
+public class TestReserveIpDuplicate {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    L3NetworkManager l3Mgr;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("NetworkManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        l3Mgr = loader.getComponent(L3NetworkManager.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        api.stopServer();
+    }
+
+    private String ip(int i) {
+        return NetworkUtils.longToIpv4String(NetworkUtils.ipv4StringToLong("10.223.110.0") + i);
+    }
+
+    private Set<String> ips(List<UsedIpInventory> invs) {
+        Set<String> ret = new HashSet<String>();
+        for (UsedIpInventory inv : invs) {
+            ret.add(inv.getIp());
+        }
+        return ret;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ZoneInventory zone = api.createZones(1).get(0);
+        L2NetworkInventory linv = api.createNoVlanL2Network(zone.getUuid(), "eth0");
+        L3NetworkInventory l3inv = api.createL3BasicNetwork(linv.getUuid());
+        IpRangeInventory ipr = api.addIpRange(l3inv.getUuid(), ip(10), ip(100), ip(1), "255.255.255.0");
+
+        Assert.assertNotNull(l3Mgr.reserveIp(ipr, ip(20)));
+        Assert.assertNull(l3Mgr.reserveIp(ipr, ip(20)));
+
+        List<UsedIpInventory> reserved = l3Mgr.reserveIps(ipr, list(ip(19), ip(20), ip(21)));
+        Assert.assertEquals(2, reserved.size());
+        Assert.assertEquals(new HashSet<String>(list(ip(19), ip(21))), ips(reserved));
+
+        List<String> toReserve = new ArrayList<String>();
+        for (int i = 30; i < 90; i++) {
+            toReserve.add(ip(i));
+        }
+        Assert.assertNotNull(l3Mgr.reserveIp(ipr, ip(50)));
+        reserved = l3Mgr.reserveIps(ipr, toReserve);
+        Assert.assertEquals(59, reserved.size());
+        Assert.assertFalse(ips(reserved).contains(ip(50)));
+
+        SimpleQuery<UsedIpVO> q = dbf.createQuery(UsedIpVO.class);
+        q.add(UsedIpVO_.ipRangeUuid, Op.EQ, ipr.getUuid());
+        Assert.assertEquals(3 + 60, q.count().longValue());
+    }
+}
@@ -0,0 +1,95 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.managementnode.APIGetVersionMsg;
+import org.zstack.header.message.APIMessage;
+import org.zstack.portal.apimediator.ApiDispatchLane;
+import org.zstack.portal.apimediator.ApiLaneStatistic;
+import org.zstack.test.BeanConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. block a lane of width 1 with a message of account A
+ * 2. queue 4 more messages of account A and 2 of account B
+ *
+ * confirm messages of A and B are dispatched in turn
+ * confirm messages exceeding the queue limit are rejected
+ */
+public class TestApiDispatchLane {
+    ComponentLoader loader;
+    ThreadFacade thdf;
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    private APIMessage message(String account, String name) {
+        SessionInventory session = new SessionInventory();
+        session.setAccountUuid(account);
+        APIGetVersionMsg msg = new APIGetVersionMsg();
+        msg.setSession(session);
+        msg.putHeaderEntry("name", name);
+        return msg;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(7);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        ApiDispatchLane lane = new ApiDispatchLane("test", 1, 6, 1, thdf);
+        ApiDispatchLane.ApiHandler handler = new ApiDispatchLane.ApiHandler() {
+            @Override
+            public void handle(APIMessage msg) {
+                String name = msg.getHeaderEntry("name");
+                if ("A0".equals(name)) {
+                    try {
+                        block.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                order.add(name);
+                done.countDown();
+            }
+        };
+
+        Assert.assertTrue(lane.submit(message("A", "A0"), handler));
+        for (int i = 1; i < 5; i++) {
+            Assert.assertTrue(lane.submit(message("A", "A" + i), handler));
+        }
+        Assert.assertTrue(lane.submit(message("B", "B0"), handler));
+        Assert.assertTrue(lane.submit(message("B", "B1"), handler));
+        // 6 messages pending, reaching the limit
+        Assert.assertFalse(lane.submit(message("B", "B2"), handler));
+
+        block.countDown();
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(list("A0", "A1", "B0", "A2", "B1", "A3", "A4"), order);
+
+        ApiLaneStatistic stat = lane.getStatistic();
+        Assert.assertEquals(7, stat.getProcessedNum());
+        Assert.assertEquals(1, stat.getDroppedNum());
+        Assert.assertEquals(0, stat.getPendingNum());
+    }
+
+    private List<String> list(String...names) {
+        List<String> ret = new ArrayList<String>();
+        Collections.addAll(ret, names);
+        return ret;
+    }
+}
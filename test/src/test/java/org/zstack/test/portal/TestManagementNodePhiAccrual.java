@@ -0,0 +1,72 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.managementnode.ManagementNodeHeartbeatEvent;
+import org.zstack.header.managementnode.ManagementNodeState;
+import org.zstack.header.managementnode.ManagementNodeVO;
+import org.zstack.portal.managementnode.ManagementNodeGlobalConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. make the database heartbeat every 3 seconds and the bus heartbeat fast
+ * 2. add a fake management node publishing bus heartbeats
+ * 3. stop the fake node
+ *
+ * confirm the fake node is fenced once it misses its database heartbeat, before the database heartbeat
+ * check (2 * node.heartbeatInterval) could find it
+ */
+public class TestManagementNodePhiAccrual {
+    ComponentLoader loader;
+    Api api;
+    DatabaseFacade dbf;
+    CloudBus bus;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        con.addXml("PortalForUnitTest.xml");
+        con.addXml("AccountManager.xml");
+        loader = con.build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.updateValue(3);
+        ManagementNodeGlobalConfig.NODE_FENCE_GRACE_TIME.updateValue(500);
+        ManagementNodeGlobalConfig.NODE_BUS_HEARTBEAT_INTERVAL.updateValue(100);
+        ManagementNodeVO fake = new ManagementNodeVO();
+        fake.setUuid(Platform.getUuid());
+        fake.setHostName("192.168.0.11");
+        fake.setPort(8080);
+        fake.setState(ManagementNodeState.RUNNING);
+        dbf.persist(fake);
+
+        for (int i = 0; i < 20; i++) {
+            bus.publish(new ManagementNodeHeartbeatEvent(fake.getUuid()));
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertTrue(dbf.isExist(fake.getUuid(), ManagementNodeVO.class));
+
+        // the database heartbeat written 2 seconds ago is due in 1.5 seconds,
+        // the database heartbeat check needs 4 more seconds
+        TimeUnit.SECONDS.sleep(3);
+        Assert.assertFalse(dbf.isExist(fake.getUuid(), ManagementNodeVO.class));
+        Assert.assertEquals(1, dbf.count(ManagementNodeVO.class));
+    }
+}
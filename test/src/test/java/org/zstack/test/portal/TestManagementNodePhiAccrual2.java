@@ -0,0 +1,84 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.managementnode.ManagementNodeHeartbeatEvent;
+import org.zstack.header.managementnode.ManagementNodeState;
+import org.zstack.header.managementnode.ManagementNodeVO;
+import org.zstack.portal.managementnode.ManagementNodeGlobalConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. make the database heartbeat every 3 seconds and the bus heartbeat fast
+ * 2. add a fake management node publishing bus heartbeats and writing database heartbeats
+ * 3. pause the bus heartbeats of the fake node for 2 seconds, like a GC pause or a broker hiccup,
+ *    while it keeps writing database heartbeats
+ *
+ * confirm the fake node is not fenced
+ */
+public class TestManagementNodePhiAccrual2 {
+    ComponentLoader loader;
+    Api api;
+    DatabaseFacade dbf;
+    CloudBus bus;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        con.addXml("PortalForUnitTest.xml");
+        con.addXml("AccountManager.xml");
+        loader = con.build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    private void beat(ManagementNodeVO fake, int num, boolean publish) throws InterruptedException {
+        for (int i = 0; i < num; i++) {
+            if (publish) {
+                bus.publish(new ManagementNodeHeartbeatEvent(fake.getUuid()));
+            }
+
+            // the database heartbeat every second
+            if (i % 10 == 0) {
+                fake.setHeartBeat(dbf.getCurrentSqlTime());
+                dbf.update(fake);
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.updateValue(3);
+        ManagementNodeGlobalConfig.NODE_FENCE_GRACE_TIME.updateValue(500);
+        ManagementNodeGlobalConfig.NODE_BUS_HEARTBEAT_INTERVAL.updateValue(100);
+        ManagementNodeVO fake = new ManagementNodeVO();
+        fake.setUuid(Platform.getUuid());
+        fake.setHostName("192.168.0.11");
+        fake.setPort(8080);
+        fake.setState(ManagementNodeState.RUNNING);
+        fake = dbf.persistAndRefresh(fake);
+
+        beat(fake, 20, true);
+        // phi goes far above the threshold in the pause
+        beat(fake, 20, false);
+        Assert.assertTrue(dbf.isExist(fake.getUuid(), ManagementNodeVO.class));
+
+        beat(fake, 20, true);
+        Assert.assertTrue(dbf.isExist(fake.getUuid(), ManagementNodeVO.class));
+        Assert.assertEquals(2, dbf.count(ManagementNodeVO.class));
+    }
+}
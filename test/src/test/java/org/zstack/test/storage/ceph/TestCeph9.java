@@ -0,0 +1,102 @@
+package org.zstack.test.storage.ceph;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.vm.VmGlobalConfig;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.ImageCacheVO_;
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.header.vm.VmInstanceDeletionPolicyManager.VmInstanceDeletionPolicy;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageSimulatorConfig;
+import org.zstack.storage.primary.ImageCacheManagerImpl;
+import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. use ceph for primary storage and backup storage, have a vm
+ * 2. make the simulator fail deleting a protected snapshot or an image having snapshots, as rbd does
+ * 3. destroy the vm, make the primary storage above the high watermark of image cache eviction
+ *
+ * confirm the image cache is evicted
+ * confirm its snapshot is unprotected and deleted before the image is deleted
+ */
+public class TestCeph9 {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    CephPrimaryStorageSimulatorConfig config;
+    ImageCacheManagerImpl imageCacheMgr;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/ceph/TestCeph1.xml", con);
+        deployer.addSpringConfig("ceph.xml");
+        deployer.addSpringConfig("cephSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(CephPrimaryStorageSimulatorConfig.class);
+        imageCacheMgr = loader.getComponent(ImageCacheManagerImpl.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ImageInventory image = deployer.images.get("TestImage");
+        PrimaryStorageInventory ps = deployer.primaryStorages.get("ceph-pri");
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getUuid());
+        q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, ps.getUuid());
+        ImageCacheVO cache = q.find();
+        Assert.assertNotNull(cache);
+        String snapshotPath = cache.getInstallUrl();
+        String imagePath = snapshotPath.split("@")[0];
+        Assert.assertTrue(config.protectedSnapshots.contains(snapshotPath));
+
+        config.checkSnapshots = true;
+        VmGlobalConfig.VM_DELETION_POLICY.updateValue(VmInstanceDeletionPolicy.Direct.toString());
+        api.destroyVmInstance(vm.getUuid());
+
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_ENABLE.updateValue(true);
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MIN_IDLE_TIME.updateValue(0);
+        PrimaryStorageCapacityVO cap = dbf.findByUuid(ps.getUuid(), PrimaryStorageCapacityVO.class);
+        cap.setAvailableCapacity(cap.getTotalCapacity() / 20);
+        dbf.update(cap);
+
+        config.unprotectedSnapshotCmds.clear();
+        config.deleteSnapshotCmds.clear();
+        config.deleteCmds.clear();
+        imageCacheMgr.reclaim(ps.getUuid());
+        TimeUnit.SECONDS.sleep(2);
+
+        Assert.assertNull(dbf.findById(cache.getId(), ImageCacheVO.class));
+        Assert.assertEquals(1, config.unprotectedSnapshotCmds.size());
+        Assert.assertEquals(snapshotPath, config.unprotectedSnapshotCmds.get(0).getSnapshotPath());
+        Assert.assertEquals(1, config.deleteSnapshotCmds.size());
+        Assert.assertEquals(snapshotPath, config.deleteSnapshotCmds.get(0).getSnapshotPath());
+        Assert.assertEquals(1, config.deleteCmds.size());
+        Assert.assertEquals(imagePath, config.deleteCmds.get(0).getInstallPath());
+        Assert.assertFalse(config.snapshots.contains(snapshotPath));
+        Assert.assertFalse(config.protectedSnapshots.contains(snapshotPath));
+    }
+}
@@ -0,0 +1,86 @@
+package org.zstack.test.storage.ceph;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.storage.ceph.CephCapacityUpdater;
+import org.zstack.storage.ceph.CephCapacityVO;
+import org.zstack.storage.ceph.CephGlobalConfig;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. set the capacity update interval to 2 seconds and the threshold to 10 percent
+ * 2. report the capacity of a ceph cluster for the first time
+ *
+ * confirm it's written at once
+ *
+ * 3. report small changes of the available capacity
+ *
+ * confirm they are not written until the interval passes, and then only the last one is written
+ *
+ * 4. report a change of the available capacity over the threshold, and a change of the total capacity
+ *
+ * confirm they are written at once
+ */
+public class TestCephCapacityUpdater {
+    Deployer deployer;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/ceph/TestCeph1.xml", con);
+        deployer.addSpringConfig("ceph.xml");
+        deployer.addSpringConfig("cephSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private void check(String fsid, long total, long avail) {
+        CephCapacityVO vo = dbf.findByUuid(fsid, CephCapacityVO.class);
+        Assert.assertNotNull(vo);
+        Assert.assertEquals(total, vo.getTotalCapacity());
+        Assert.assertEquals(avail, vo.getAvailableCapacity());
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        CephGlobalConfig.CAPACITY_UPDATE_INTERVAL.updateValue(2);
+        CephGlobalConfig.CAPACITY_UPDATE_THRESHOLD.updateValue(10);
+
+        String fsid = Platform.getUuid();
+        new CephCapacityUpdater().update(fsid, 1000, 1000);
+        check(fsid, 1000, 1000);
+
+        new CephCapacityUpdater().update(fsid, 1000, 950);
+        new CephCapacityUpdater().update(fsid, 1000, 960);
+        new CephCapacityUpdater().update(fsid, 1000, 940);
+        check(fsid, 1000, 1000);
+
+        TimeUnit.SECONDS.sleep(3);
+        check(fsid, 1000, 940);
+
+        new CephCapacityUpdater().update(fsid, 1000, 800);
+        check(fsid, 1000, 800);
+
+        new CephCapacityUpdater().update(fsid, 2000, 800);
+        check(fsid, 2000, 800);
+
+        // a small change coalesced and then reverted is never written
+        new CephCapacityUpdater().update(fsid, 2000, 790);
+        new CephCapacityUpdater().update(fsid, 2000, 800);
+        TimeUnit.SECONDS.sleep(3);
+        check(fsid, 2000, 800);
+    }
+}
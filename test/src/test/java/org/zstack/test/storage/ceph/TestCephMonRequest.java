@@ -0,0 +1,211 @@
+package org.zstack.test.storage.ceph;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.storage.ceph.CephGlobalConfig;
+import org.zstack.storage.ceph.CephMonRequest;
+import org.zstack.storage.ceph.CephMonSelector;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. send a request to 2 mons, the first fails
+ *
+ * confirm the request fails over to the second mon
+ *
+ * 2. send a request to 2 mons, both fail
+ *
+ * confirm the request fails with errors of both mons
+ *
+ * 3. send requests to 2 mons, the first answers 404 for the path
+ *
+ * confirm the requests fail over to the second mon, and the first mon is not taken as unhealthy
+ *
+ * 4. send a hedgeable request to 2 mons, the first doesn't answer in the latency percentile
+ *
+ * confirm the request is sent to the second mon after the hedge delay and the first response wins
+ *
+ * 5. send a request not hedgeable to 2 mons, the first is slow
+ *
+ * confirm the request is never sent to the second mon
+ */
+public class TestCephMonRequest {
+    Deployer deployer;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    ErrorFacade errf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/ceph/TestCeph1.xml", con);
+        deployer.addSpringConfig("ceph.xml");
+        deployer.addSpringConfig("cephSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        errf = loader.getComponent(ErrorFacade.class);
+    }
+
+    class Request extends CephMonRequest<String> {
+        Map<String, Long> delays = new HashMap<String, Long>();
+        Set<String> failures = new HashSet<String>();
+        Set<String> notFounds = new HashSet<String>();
+        Map<String, Long> sendTimes = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+        CountDownLatch latch = new CountDownLatch(1);
+        String result;
+        List<ErrorCode> errors;
+
+        @Override
+        protected void send(final String hostname, final ReturnValueCompletion<String> completion) {
+            sendTimes.put(hostname, System.currentTimeMillis());
+            final Long delay = delays.get(hostname);
+            Runnable r = new Runnable() {
+                @Override
+                public void run() {
+                    if (delay != null) {
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(delay);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    if (notFounds.contains(hostname)) {
+                        completion.fail(errf.stringToOperationError("http status: 404, response body:"));
+                    } else if (failures.contains(hostname)) {
+                        completion.fail(errf.stringToOperationError(String.format("%s failed", hostname)));
+                    } else {
+                        completion.success(hostname);
+                    }
+                }
+            };
+
+            if (delay == null) {
+                r.run();
+            } else {
+                new Thread(r).start();
+            }
+        }
+
+        @Override
+        protected void done(String ret) {
+            result = ret;
+            latch.countDown();
+        }
+
+        @Override
+        protected void allFailed(List<ErrorCode> errors) {
+            this.errors = errors;
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        String path = "/test/path";
+        List<String> mons = list("mon1", "mon2");
+
+        // mon1 is faster
+        String storageUuid = Platform.getUuid();
+        CephMonSelector selector = CephMonSelector.get(storageUuid);
+        selector.record("mon1", path, 10, true);
+        selector.record("mon2", path, 20, true);
+
+        Request req = new Request();
+        req.failures.add("mon1");
+        req.call(storageUuid, path, mons, false);
+        Assert.assertTrue(req.latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("mon2", req.result);
+        Assert.assertEquals(list("mon1", "mon2"), new ArrayList<String>(req.sendTimes.keySet()));
+
+        req = new Request();
+        req.failures.add("mon1");
+        req.failures.add("mon2");
+        req.call(Platform.getUuid(), path, mons, false);
+        Assert.assertTrue(req.latch.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(req.result);
+        Assert.assertEquals(2, req.errors.size());
+
+        // mon1 is faster but doesn't serve the path
+        storageUuid = Platform.getUuid();
+        selector = CephMonSelector.get(storageUuid);
+        selector.record("mon1", path, 10, true);
+        selector.record("mon2", path, 20, true);
+        for (int i = 0; i < 5; i++) {
+            req = new Request();
+            req.notFounds.add("mon1");
+            // keep mon2 slower than mon1, so only the health of mon1 can change the order
+            req.delays.put("mon2", 100L);
+            req.call(storageUuid, path, mons, false);
+            Assert.assertTrue(req.latch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("mon2", req.result);
+            Assert.assertEquals(list("mon1", "mon2"), new ArrayList<String>(req.sendTimes.keySet()));
+        }
+        Assert.assertEquals(list("mon1", "mon2"), selector.order(path, mons));
+        // a real failure still counts
+        for (int i = 0; i < 3; i++) {
+            req = new Request();
+            req.failures.add("mon1");
+            req.delays.put("mon2", 100L);
+            req.call(storageUuid, path, mons, false);
+            Assert.assertTrue(req.latch.await(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(list("mon2", "mon1"), selector.order(path, mons));
+
+        // the 90th percentile of the path is 50ms
+        CephGlobalConfig.MON_HEDGE_PERCENTILE.updateValue(90);
+        storageUuid = Platform.getUuid();
+        selector = CephMonSelector.get(storageUuid);
+        for (int i = 0; i < 20; i++) {
+            selector.record("mon1", path, 10, true);
+            selector.record("mon2", path, 50, true);
+        }
+        long hedgeDelay = selector.getHedgeDelay(path, 90);
+        Assert.assertEquals(50, hedgeDelay);
+
+        req = new Request();
+        req.delays.put("mon1", TimeUnit.SECONDS.toMillis(3));
+        long start = System.currentTimeMillis();
+        req.call(storageUuid, path, mons, true);
+        Assert.assertTrue(req.latch.await(10, TimeUnit.SECONDS));
+        long cost = System.currentTimeMillis() - start;
+        Assert.assertEquals("mon2", req.result);
+        Assert.assertTrue(String.format("cost %sms", cost), cost < TimeUnit.SECONDS.toMillis(2));
+        Assert.assertEquals(list("mon1", "mon2"), new ArrayList<String>(req.sendTimes.keySet()));
+        long hedgeAfter = req.sendTimes.get("mon2") - req.sendTimes.get("mon1");
+        Assert.assertTrue(String.format("hedged after %sms", hedgeAfter), hedgeAfter >= hedgeDelay - 10);
+
+        // wait for the slow response to come back, it doesn't change the result
+        TimeUnit.SECONDS.sleep(4);
+        Assert.assertEquals("mon2", req.result);
+
+        req = new Request();
+        req.delays.put("mon2", TimeUnit.SECONDS.toMillis(1));
+        // mon2 is the fastest after the last request
+        Assert.assertEquals("mon2", selector.order(path, mons).get(0));
+        start = System.currentTimeMillis();
+        req.call(storageUuid, path, mons, false);
+        Assert.assertTrue(req.latch.await(10, TimeUnit.SECONDS));
+        cost = System.currentTimeMillis() - start;
+        Assert.assertEquals("mon2", req.result);
+        Assert.assertTrue(String.format("cost %sms", cost), cost >= TimeUnit.SECONDS.toMillis(1) - 10);
+        Assert.assertEquals(list("mon2"), new ArrayList<String>(req.sendTimes.keySet()));
+    }
+}
@@ -0,0 +1,80 @@
+package org.zstack.test.storage.ceph;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.storage.ceph.CephMonSelector;
+
+import java.util.List;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. record latencies of 3 mons for a path
+ *
+ * confirm mons are ordered by the EWMA latency of the path
+ * confirm mons never tried for another path go first for that path
+ *
+ * 2. record failures of the fastest mon
+ *
+ * confirm it's tried last once its error rate is high, and goes back by latency once it succeeds again
+ *
+ * 3. record latencies of another path
+ *
+ * confirm no hedge delay is given until there are enough samples, then the delay is the latency percentile
+ */
+public class TestCephMonSelector {
+    @Test
+    public void test() {
+        String storageUuid = Platform.getUuid();
+        CephMonSelector selector = CephMonSelector.get(storageUuid);
+        String path = "/test/path";
+        List<String> mons = list("mon1", "mon2", "mon3");
+
+        for (int i = 0; i < 10; i++) {
+            selector.record("mon1", path, 100, true);
+            selector.record("mon2", path, 10, true);
+            selector.record("mon3", path, 50, true);
+        }
+        Assert.assertEquals(list("mon2", "mon3", "mon1"), selector.order(path, mons));
+
+        // EWMA follows the recent latencies
+        for (int i = 0; i < 10; i++) {
+            selector.record("mon1", path, 5, true);
+        }
+        Assert.assertEquals(list("mon1", "mon2", "mon3"), selector.order(path, mons));
+
+        String path2 = "/test/path2";
+        selector.record("mon1", path2, 1, true);
+        selector.record("mon2", path2, 1, true);
+        Assert.assertEquals("mon3", selector.order(path2, mons).get(0));
+
+        // error rate is 1 - 0.7^3, higher than 0.5
+        for (int i = 0; i < 3; i++) {
+            selector.record("mon1", path, 1, false);
+        }
+        Assert.assertEquals(list("mon2", "mon3", "mon1"), selector.order(path, mons));
+        // unhealthy on every path, not only the failed one
+        Assert.assertEquals("mon1", selector.order(path2, mons).get(2));
+
+        // error rate drops to about 0.32
+        selector.record("mon1", path, 5, true);
+        selector.record("mon1", path, 5, true);
+        Assert.assertEquals(list("mon1", "mon2", "mon3"), selector.order(path, mons));
+
+        String path3 = "/test/path3";
+        for (int i = 1; i < 20; i++) {
+            selector.record(mons.get(i % 3), path3, i * 10, true);
+        }
+        Assert.assertEquals(-1, selector.getHedgeDelay(path3, 90));
+        selector.record("mon1", path3, 200, true);
+        Assert.assertEquals(180, selector.getHedgeDelay(path3, 90));
+        Assert.assertEquals(200, selector.getHedgeDelay(path3, 100));
+        Assert.assertEquals(100, selector.getHedgeDelay(path3, 50));
+        Assert.assertEquals(-1, selector.getHedgeDelay(path3, 0));
+
+        CephMonSelector.remove(storageUuid);
+        Assert.assertNotSame(selector, CephMonSelector.get(storageUuid));
+        CephMonSelector.remove(storageUuid);
+    }
+}
@@ -0,0 +1,189 @@
+package org.zstack.test.storage.primary;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
+import org.zstack.storage.primary.StorageExecutorSelectorImpl;
+import org.zstack.storage.primary.StorageExecutorStatistic;
+import org.zstack.storage.primary.StorageExecutorTicket;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. make host1 slow and host3 busy, choose among host1, host2 and host3 many times
+ *
+ * confirm host3 is never chosen, host2 is always chosen over the slow host1 when both are candidates
+ * and host1 is still chosen when compared with host3
+ *
+ * 2. set the max concurrent commands per host to 2, acquire 4 slots on host4
+ *
+ * confirm the first 2 are granted at once and the others wait
+ *
+ * 3. release the granted tickets one by one
+ *
+ * confirm the waiting requests are granted in FIFO order
+ *
+ * 4. release a ticket twice
+ *
+ * confirm the slot is freed once and no extra waiting request is granted
+ *
+ * 5. set the wait timeout to 1 second, acquire a slot on the full host4
+ *
+ * confirm the request fails after the timeout and is no longer waiting
+ */
+public class TestStorageExecutorSelector {
+    ComponentLoader loader;
+    StorageExecutorSelectorImpl selector;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml")
+                .addXml("Simulator.xml").addXml("PrimaryStorageManager.xml").addXml("ConfigurationManager.xml").addXml("AccountManager.xml").build();
+        selector = loader.getComponent(StorageExecutorSelectorImpl.class);
+    }
+
+    class Request extends ReturnValueCompletion<StorageExecutorTicket> {
+        String name;
+        List<String> granted;
+        StorageExecutorTicket ticket;
+        ErrorCode error;
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Request(String name, List<String> granted) {
+            this.name = name;
+            this.granted = granted;
+        }
+
+        @Override
+        public void success(StorageExecutorTicket returnValue) {
+            ticket = returnValue;
+            granted.add(name);
+            latch.countDown();
+        }
+
+        @Override
+        public void fail(ErrorCode errorCode) {
+            error = errorCode;
+            latch.countDown();
+        }
+    }
+
+    private StorageExecutorStatistic getStatistic(String hostUuid) {
+        for (StorageExecutorStatistic s : selector.getStatistics()) {
+            if (s.getHostUuid().equals(hostUuid)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private StorageExecutorTicket acquire(String hostUuid) {
+        Request req = new Request(hostUuid, Collections.synchronizedList(new ArrayList<String>()));
+        selector.acquire(list(hostUuid), req);
+        Assert.assertNotNull(req.ticket);
+        return req.ticket;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        PrimaryStorageGlobalConfig.EXECUTOR_MAX_CONCURRENT_COMMANDS_PER_HOST.updateValue(2);
+
+        // host1 is slow, host2 is fast, host3 runs 2 commands of the same latency as host1
+        StorageExecutorTicket t = acquire("host1");
+        TimeUnit.MILLISECONDS.sleep(200);
+        t.release(true);
+        acquire("host2").release(true);
+        t = acquire("host3");
+        TimeUnit.MILLISECONDS.sleep(200);
+        t.release(true);
+        acquire("host3");
+        acquire("host3");
+
+        Map<String, Integer> chosen = new HashMap<String, Integer>();
+        for (int i = 0; i < 300; i++) {
+            String huuid = selector.choose(list("host1", "host2", "host3"));
+            Integer n = chosen.get(huuid);
+            chosen.put(huuid, n == null ? 1 : n + 1);
+            Assert.assertEquals("host2", selector.choose(list("host1", "host2")));
+        }
+        Assert.assertNull(chosen.get("host3"));
+        // host1 is chosen when the 2 random candidates are host1 and host3
+        Assert.assertNotNull(chosen.get("host1"));
+        Assert.assertTrue(chosen.get("host2") > chosen.get("host1"));
+        // host3 is at the cap, which only applies to acquire()
+        Assert.assertEquals("host3", selector.choose(list("host3")));
+
+        List<String> granted = Collections.synchronizedList(new ArrayList<String>());
+        List<Request> reqs = new ArrayList<Request>();
+        for (int i = 0; i < 4; i++) {
+            Request req = new Request(String.format("req%s", i), granted);
+            selector.acquire(list("host4"), req);
+            reqs.add(req);
+        }
+        Assert.assertEquals(list("req0", "req1"), granted);
+        Assert.assertEquals(2, selector.getWaitingNum());
+        Assert.assertEquals(2, getStatistic("host4").getInflightNum());
+
+        reqs.get(0).ticket.release(true);
+        Assert.assertEquals(list("req0", "req1", "req2"), granted);
+        Assert.assertEquals(1, selector.getWaitingNum());
+        Assert.assertEquals(2, getStatistic("host4").getInflightNum());
+
+        reqs.get(1).ticket.release(false);
+        Assert.assertEquals(list("req0", "req1", "req2", "req3"), granted);
+        Assert.assertEquals(0, selector.getWaitingNum());
+        StorageExecutorStatistic s = getStatistic("host4");
+        Assert.assertEquals(2, s.getInflightNum());
+        Assert.assertEquals(2, s.getCommandNum());
+        Assert.assertEquals(1, s.getFailureNum());
+
+        // the second release is ignored
+        reqs.get(2).ticket.release(true);
+        reqs.get(2).ticket.release(true);
+        s = getStatistic("host4");
+        Assert.assertEquals(1, s.getInflightNum());
+        Assert.assertEquals(3, s.getCommandNum());
+
+        Request req = new Request("req4", granted);
+        selector.acquire(list("host4"), req);
+        Request req5 = new Request("req5", granted);
+        selector.acquire(list("host4"), req5);
+        Assert.assertEquals("req4", granted.get(granted.size() - 1));
+        Assert.assertNull(req5.ticket);
+        // a released ticket doesn't free the slot of req4 again
+        reqs.get(2).ticket.release(true);
+        Assert.assertNull(req5.ticket);
+        Assert.assertEquals(1, selector.getWaitingNum());
+        Assert.assertEquals(2, getStatistic("host4").getInflightNum());
+
+        PrimaryStorageGlobalConfig.EXECUTOR_WAIT_TIMEOUT.updateValue(1);
+        Request timeoutReq = new Request("req6", granted);
+        long start = System.currentTimeMillis();
+        selector.acquire(list("host4"), timeoutReq);
+        Assert.assertEquals(2, selector.getWaitingNum());
+        Assert.assertTrue(timeoutReq.latch.await(10, TimeUnit.SECONDS));
+        long cost = System.currentTimeMillis() - start;
+        Assert.assertNull(timeoutReq.ticket);
+        Assert.assertNotNull(timeoutReq.error);
+        Assert.assertTrue(String.format("cost %sms", cost), cost >= TimeUnit.SECONDS.toMillis(1) - 10);
+        Assert.assertFalse(granted.contains("req6"));
+
+        // req5 was waiting before the timeout was changed, it's still waiting
+        Assert.assertEquals(1, selector.getWaitingNum());
+        reqs.get(3).ticket.release(true);
+        Assert.assertEquals("req5", granted.get(granted.size() - 1));
+        Assert.assertEquals(0, selector.getWaitingNum());
+    }
+}
@@ -0,0 +1,269 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.image.ImageConstant.ImageMediaType;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.storage.primary.ImageCacheKey;
+import org.zstack.storage.primary.ImageCacheLoader;
+import org.zstack.storage.primary.ImageCacheManagerImpl;
+import org.zstack.storage.primary.ImageCacheStatistic;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. populate the image cache of a key by 5 callers while the first one is loading it
+ *
+ * confirm the image is loaded once, all callers get the same cache and the waits, the download and the
+ * downloaded bytes are counted
+ *
+ * 2. populate the key again
+ *
+ * confirm the cache is a hit and not loaded
+ *
+ * 3. populate the key again while the loader says the cache is gone
+ *
+ * confirm the image is loaded again
+ *
+ * 4. populate the image cache of another key by 3 callers, the load fails
+ *
+ * confirm all callers fail and the failure is counted
+ * confirm a later call starts a new flight and loads the image
+ *
+ * 5. delete the ImageCacheVO remembered in the index, populate the key
+ *
+ * confirm the stale index entry is not returned and the image is loaded again
+ */
+public class TestImageCachePopulate {
+    Deployer deployer;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    ErrorFacade errf;
+    LocalStorageSimulatorConfig config;
+    ImageCacheManagerImpl imageCacheMgr;
+    PrimaryStorageInventory local;
+    ImageInventory image;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+    long imageSize = SizeUnit.GIGABYTE.toByte(1);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage32.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        errf = loader.getComponent(ErrorFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+        imageCacheMgr = loader.getComponent(ImageCacheManagerImpl.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+        config.capacityMap.put("host2", c);
+
+        deployer.build();
+        local = deployer.primaryStorages.get("local");
+        image = deployer.images.get("TestImage");
+    }
+
+    class Loader extends ImageCacheLoader {
+        String hostUuid;
+        boolean existing = true;
+        boolean fail;
+        AtomicInteger loadNum = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(0);
+
+        Loader(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+
+        @Override
+        public void check(ImageCacheVO cache, ReturnValueCompletion<Boolean> completion) {
+            completion.success(existing);
+        }
+
+        @Override
+        public void load(ReturnValueCompletion<ImageCacheVO> completion) {
+            loadNum.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (fail) {
+                completion.fail(errf.stringToOperationError("on purpose"));
+                return;
+            }
+
+            ImageCacheVO vo = new ImageCacheVO();
+            vo.setPrimaryStorageUuid(local.getUuid());
+            vo.setImageUuid(image.getUuid());
+            vo.setInstallUrl(String.format("/cache/%s.qcow2;%s%s", image.getUuid(), ImageCacheKey.HOST_UUID_MARK, hostUuid));
+            vo.setMediaType(ImageMediaType.RootVolumeTemplate);
+            vo.setSize(imageSize);
+            vo.setMd5sum("md5");
+            completion.success(dbf.persistAndRefresh(vo));
+        }
+    }
+
+    class Waiter extends ReturnValueCompletion<ImageCacheVO> {
+        CountDownLatch latch = new CountDownLatch(1);
+        ImageCacheVO cache;
+        ErrorCode error;
+
+        @Override
+        public void success(ImageCacheVO returnValue) {
+            cache = returnValue;
+            latch.countDown();
+        }
+
+        @Override
+        public void fail(ErrorCode errorCode) {
+            error = errorCode;
+            latch.countDown();
+        }
+    }
+
+    private List<Waiter> populateConcurrently(final ImageCacheKey key, final Loader l, int num) throws InterruptedException {
+        l.loading = new CountDownLatch(1);
+        l.release = new CountDownLatch(1);
+
+        final List<Waiter> waiters = new ArrayList<Waiter>();
+        for (int i = 0; i < num; i++) {
+            waiters.add(new Waiter());
+        }
+
+        // the first caller runs the flight in its own thread and is blocked by the loader
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                imageCacheMgr.populate(key, l, waiters.get(0));
+            }
+        }).start();
+        Assert.assertTrue(l.loading.await(10, TimeUnit.SECONDS));
+
+        for (int i = 1; i < num; i++) {
+            imageCacheMgr.populate(key, l, waiters.get(i));
+        }
+        Assert.assertEquals(1, imageCacheMgr.getStatistic().getInflightNum());
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        l.release.countDown();
+        for (Waiter w : waiters) {
+            Assert.assertTrue(w.latch.await(10, TimeUnit.SECONDS));
+        }
+        return waiters;
+    }
+
+    private Waiter populate(ImageCacheKey key, Loader l) throws InterruptedException {
+        Waiter w = new Waiter();
+        imageCacheMgr.populate(key, l, w);
+        Assert.assertTrue(w.latch.await(10, TimeUnit.SECONDS));
+        return w;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        ImageCacheStatistic before = imageCacheMgr.getStatistic();
+
+        String hostUuid = "host-a";
+        ImageCacheKey key = new ImageCacheKey(local.getUuid(), image.getUuid(), hostUuid);
+        Loader l = new Loader(hostUuid);
+        List<Waiter> waiters = populateConcurrently(key, l, 5);
+        Assert.assertEquals(1, l.loadNum.get());
+        long cacheId = waiters.get(0).cache.getId();
+        for (Waiter w : waiters) {
+            Assert.assertNull(w.error);
+            Assert.assertEquals(cacheId, w.cache.getId());
+        }
+
+        ImageCacheStatistic s = imageCacheMgr.getStatistic();
+        Assert.assertEquals(before.getWaitNum() + 4, s.getWaitNum());
+        Assert.assertEquals(before.getDownloadNum() + 1, s.getDownloadNum());
+        Assert.assertEquals(before.getDownloadedBytes() + imageSize, s.getDownloadedBytes());
+        Assert.assertEquals(before.getHitNum(), s.getHitNum());
+        Assert.assertEquals(before.getFailureNum(), s.getFailureNum());
+        Assert.assertEquals(0, s.getInflightNum());
+        Assert.assertTrue(s.getDownloadBytesPerSecond() > 0);
+
+        Waiter w = populate(key, l);
+        Assert.assertNull(w.error);
+        Assert.assertEquals(cacheId, w.cache.getId());
+        Assert.assertEquals(1, l.loadNum.get());
+        s = imageCacheMgr.getStatistic();
+        Assert.assertEquals(before.getHitNum() + 1, s.getHitNum());
+        Assert.assertEquals(before.getDownloadNum() + 1, s.getDownloadNum());
+
+        l.existing = false;
+        w = populate(key, l);
+        Assert.assertNull(w.error);
+        Assert.assertEquals(2, l.loadNum.get());
+        Assert.assertFalse(cacheId == w.cache.getId());
+        // a real loader cleans up the cache it finds gone, do the same here
+        dbf.removeByPrimaryKey(cacheId, ImageCacheVO.class);
+        cacheId = w.cache.getId();
+        l.existing = true;
+
+        String hostUuid2 = "host-b";
+        ImageCacheKey key2 = new ImageCacheKey(local.getUuid(), image.getUuid(), hostUuid2);
+        Loader l2 = new Loader(hostUuid2);
+        l2.fail = true;
+        s = imageCacheMgr.getStatistic();
+        waiters = populateConcurrently(key2, l2, 3);
+        Assert.assertEquals(1, l2.loadNum.get());
+        for (Waiter fw : waiters) {
+            Assert.assertNull(fw.cache);
+            Assert.assertNotNull(fw.error);
+        }
+        ImageCacheStatistic s2 = imageCacheMgr.getStatistic();
+        Assert.assertEquals(s.getFailureNum() + 1, s2.getFailureNum());
+        Assert.assertEquals(s.getWaitNum() + 2, s2.getWaitNum());
+        Assert.assertEquals(s.getDownloadNum(), s2.getDownloadNum());
+        Assert.assertEquals(0, s2.getInflightNum());
+
+        // the failed flight is gone, a later call loads again
+        l2.fail = false;
+        w = populate(key2, l2);
+        Assert.assertNull(w.error);
+        Assert.assertEquals(2, l2.loadNum.get());
+        Assert.assertTrue(w.cache.getInstallUrl().endsWith(ImageCacheKey.HOST_UUID_MARK + hostUuid2));
+
+        // the index still points to the removed cache
+        dbf.removeByPrimaryKey(cacheId, ImageCacheVO.class);
+        w = populate(key, l);
+        Assert.assertNull(w.error);
+        Assert.assertEquals(3, l.loadNum.get());
+        Assert.assertFalse(cacheId == w.cache.getId());
+        Assert.assertNotNull(dbf.findById(w.cache.getId(), ImageCacheVO.class));
+        Assert.assertNull(dbf.findById(cacheId, ImageCacheVO.class));
+    }
+}
@@ -0,0 +1,114 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.ImageCacheVO_;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.storage.primary.local.LocalStorageGlobalConfig;
+import org.zstack.storage.primary.local.LocalStorageKvmBackend.CacheInstallPath;
+import org.zstack.storage.primary.local.LocalStorageKvmMigrateVmFlow.CopyBitsFromRemoteCmd;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.*;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.List;
+
+/**
+ * 1. use local storage, have a vm on host1
+ * 2. enable imageCache.peerDistribution
+ * 3. create a vm from the same image on host2
+ *
+ * confirm the image cache of host2 is copied from host1 instead of downloaded from the backup storage
+ */
+public class TestLocalStorage47 {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    LocalStorageSimulatorConfig config;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage32.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+        config.capacityMap.put("host2", c);
+
+        deployer.build();
+        api = deployer.getApi();
+        session = api.loginAsAdmin();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ImageInventory image = deployer.images.get("TestImage");
+        InstanceOfferingInventory ioinv = deployer.instanceOfferings.get("TestInstanceOffering");
+        L3NetworkInventory l3 = deployer.l3Networks.get("TestL3Network1");
+        HostInventory host1 = deployer.hosts.get("host1");
+        HostInventory host2 = deployer.hosts.get("host2");
+
+        LocalStorageGlobalConfig.IMAGE_CACHE_PEER_DISTRIBUTION.updateValue(true);
+        config.downloadBitsCmds.clear();
+        config.copyBitsFromRemoteCmds.clear();
+        config.copyBitsFromRemoteSourceIps.clear();
+
+        VmCreator creator = new VmCreator(api);
+        creator.name = "vm2";
+        creator.imageUuid = image.getUuid();
+        creator.instanceOfferingUuid = ioinv.getUuid();
+        creator.addL3Network(l3.getUuid());
+        creator.hostUuid = host2.getUuid();
+        VmInstanceInventory vm2 = creator.create();
+        Assert.assertEquals(host2.getUuid(), vm2.getHostUuid());
+
+        Assert.assertTrue(config.downloadBitsCmds.isEmpty());
+        Assert.assertEquals(1, config.copyBitsFromRemoteCmds.size());
+        CopyBitsFromRemoteCmd cmd = config.copyBitsFromRemoteCmds.get(0);
+        Assert.assertEquals(host2.getManagementIp(), cmd.dstIp);
+        Assert.assertEquals(host1.getManagementIp(), config.copyBitsFromRemoteSourceIps.get(0));
+
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getUuid());
+        List<ImageCacheVO> caches = q.list();
+        Assert.assertEquals(2, caches.size());
+        for (ImageCacheVO cache : caches) {
+            CacheInstallPath path = new CacheInstallPath();
+            path.fullPath = cache.getInstallUrl();
+            path.disassemble();
+            Assert.assertEquals(1, cmd.paths.size());
+            Assert.assertEquals(path.installPath, cmd.paths.get(0));
+        }
+    }
+}
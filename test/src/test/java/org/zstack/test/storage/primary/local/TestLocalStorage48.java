@@ -0,0 +1,137 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.vm.VmGlobalConfig;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.ImageCacheVO_;
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.header.vm.VmInstanceDeletionPolicyManager.VmInstanceDeletionPolicy;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.storage.primary.ImageCacheManagerImpl;
+import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
+import org.zstack.storage.primary.PrimaryStorageImageCacheStatistic;
+import org.zstack.storage.primary.local.LocalStorageKvmBackend.CacheInstallPath;
+import org.zstack.storage.primary.local.LocalStorageKvmBackend.DeleteBitsCmd;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.*;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. use local storage, have a vm on host1
+ * 2. make the primary storage above the high watermark of image cache eviction
+ *
+ * confirm the image cache is not evicted because the vm's volume is based on it
+ *
+ * 3. destroy the vm
+ *
+ * confirm the image cache is evicted on the host and the eviction is counted
+ */
+public class TestLocalStorage48 {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    LocalStorageSimulatorConfig config;
+    ImageCacheManagerImpl imageCacheMgr;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage32.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+        imageCacheMgr = loader.getComponent(ImageCacheManagerImpl.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+        config.capacityMap.put("host2", c);
+
+        deployer.build();
+        api = deployer.getApi();
+        session = api.loginAsAdmin();
+    }
+
+    private void fillPrimaryStorage(PrimaryStorageInventory local) {
+        PrimaryStorageCapacityVO cap = dbf.findByUuid(local.getUuid(), PrimaryStorageCapacityVO.class);
+        cap.setAvailableCapacity(cap.getTotalCapacity() / 20);
+        dbf.update(cap);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ImageInventory image = deployer.images.get("TestImage");
+        PrimaryStorageInventory local = deployer.primaryStorages.get("local");
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_ENABLE.updateValue(true);
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MIN_IDLE_TIME.updateValue(0);
+
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getUuid());
+        ImageCacheVO cache = q.find();
+        Assert.assertNotNull(cache);
+
+        fillPrimaryStorage(local);
+        imageCacheMgr.reclaim(local.getUuid());
+        TimeUnit.SECONDS.sleep(2);
+        Assert.assertNotNull(dbf.findById(cache.getId(), ImageCacheVO.class));
+
+        VmGlobalConfig.VM_DELETION_POLICY.updateValue(VmInstanceDeletionPolicy.Direct.toString());
+        api.destroyVmInstance(vm.getUuid());
+
+        config.deleteBitsCmds.clear();
+        fillPrimaryStorage(local);
+        imageCacheMgr.reclaim(local.getUuid());
+        TimeUnit.SECONDS.sleep(2);
+        Assert.assertNull(dbf.findById(cache.getId(), ImageCacheVO.class));
+
+        CacheInstallPath path = new CacheInstallPath();
+        path.fullPath = cache.getInstallUrl();
+        path.disassemble();
+        boolean deleted = false;
+        for (DeleteBitsCmd cmd : config.deleteBitsCmds) {
+            if (path.installPath.equals(cmd.getPath())) {
+                deleted = true;
+            }
+        }
+        Assert.assertTrue(deleted);
+
+        PrimaryStorageImageCacheStatistic statistic = null;
+        for (PrimaryStorageImageCacheStatistic s : imageCacheMgr.getPrimaryStorageStatistics()) {
+            if (local.getUuid().equals(s.getPrimaryStorageUuid())) {
+                statistic = s;
+            }
+        }
+        Assert.assertNotNull(statistic);
+        Assert.assertEquals(1, statistic.getEvictionNum());
+        Assert.assertEquals(cache.getSize(), statistic.getEvictedBytes());
+    }
+}
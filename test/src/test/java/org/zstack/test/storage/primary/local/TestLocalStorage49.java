@@ -0,0 +1,122 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.storage.primary.*;
+import org.zstack.storage.primary.ImageCacheKey;
+import org.zstack.storage.primary.ImageCacheManagerImpl;
+import org.zstack.storage.primary.ImageCacheStatistic;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1. use local storage, have a vm on host1
+ * 2. make the agent slow to download bits
+ * 3. send 5 messages downloading the image to the cache of the primary storage on host2 at the same time
+ *
+ * confirm the agent is asked to download the image once and all messages succeed with the same install path
+ * confirm only one image cache is created on host2 and the waits are counted
+ */
+public class TestLocalStorage49 {
+    Deployer deployer;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    LocalStorageSimulatorConfig config;
+    ImageCacheManagerImpl imageCacheMgr;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+    int num = 5;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage32.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+        imageCacheMgr = loader.getComponent(ImageCacheManagerImpl.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+        config.capacityMap.put("host2", c);
+
+        deployer.build();
+    }
+
+    private List<ImageCacheVO> findCaches(String psUuid, String imageUuid, String hostUuid) {
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, psUuid);
+        q.add(ImageCacheVO_.imageUuid, Op.EQ, imageUuid);
+        q.add(ImageCacheVO_.installUrl, Op.LIKE, String.format("%%%s%s", ImageCacheKey.HOST_UUID_MARK, hostUuid));
+        return q.list();
+    }
+
+    @Test
+    public void test() {
+        PrimaryStorageInventory local = deployer.primaryStorages.get("local");
+        ImageInventory image = deployer.images.get("TestImage");
+        HostInventory host2 = deployer.hosts.get("host2");
+        Assert.assertTrue(findCaches(local.getUuid(), image.getUuid(), host2.getUuid()).isEmpty());
+
+        ImageCacheStatistic before = imageCacheMgr.getStatistic();
+        config.downloadBitsCmds.clear();
+        config.downloadBitsDelay = 1000;
+
+        List<DownloadImageToPrimaryStorageCacheMsg> msgs = new ArrayList<DownloadImageToPrimaryStorageCacheMsg>();
+        for (int i = 0; i < num; i++) {
+            DownloadImageToPrimaryStorageCacheMsg msg = new DownloadImageToPrimaryStorageCacheMsg();
+            msg.setPrimaryStorageUuid(local.getUuid());
+            msg.setImage(image);
+            msg.setHostUuid(host2.getUuid());
+            bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, local.getUuid());
+            msgs.add(msg);
+        }
+
+        List<MessageReply> replies = bus.call(msgs);
+        Assert.assertEquals(num, replies.size());
+        String installPath = null;
+        for (MessageReply r : replies) {
+            Assert.assertTrue(r.isSuccess());
+            DownloadImageToPrimaryStorageCacheReply reply = r.castReply();
+            Assert.assertNotNull(reply.getInstallPath());
+            if (installPath == null) {
+                installPath = reply.getInstallPath();
+            }
+            Assert.assertEquals(installPath, reply.getInstallPath());
+        }
+
+        Assert.assertEquals(1, config.downloadBitsCmds.size());
+        Assert.assertEquals(1, findCaches(local.getUuid(), image.getUuid(), host2.getUuid()).size());
+
+        ImageCacheStatistic s = imageCacheMgr.getStatistic();
+        Assert.assertEquals(before.getDownloadNum() + 1, s.getDownloadNum());
+        Assert.assertEquals(before.getWaitNum() + num - 1, s.getWaitNum());
+        Assert.assertEquals(0, s.getInflightNum());
+    }
+}
@@ -0,0 +1,126 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.storage.primary.DownloadImageToPrimaryStorageCacheMsg;
+import org.zstack.header.storage.primary.PrimaryStorageConstant;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.storage.primary.local.LocalStorageGlobalConfig;
+import org.zstack.storage.primary.local.LocalStorageImageCacheDistributor;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. use local storage, have a vm on host1
+ * 2. enable imageCache.peerDistribution, set imageCache.peerDistribution.maxCopiesPerSource to 1
+ * 3. take the only slot of the backup storage
+ * 4. make copying bits from host1 fail, download the image to the cache on host2
+ *
+ * confirm the download doesn't fall back to the backup storage while the slot is taken
+ *
+ * 5. release the slot
+ *
+ * confirm the image is downloaded from the backup storage and the download succeeds
+ */
+public class TestLocalStorage50 {
+    Deployer deployer;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    LocalStorageSimulatorConfig config;
+    LocalStorageImageCacheDistributor distributor;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage32.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+        distributor = loader.getComponent(LocalStorageImageCacheDistributor.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+        config.capacityMap.put("host2", c);
+
+        deployer.build();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        PrimaryStorageInventory local = deployer.primaryStorages.get("local");
+        ImageInventory image = deployer.images.get("TestImage");
+        HostInventory host1 = deployer.hosts.get("host1");
+        HostInventory host2 = deployer.hosts.get("host2");
+
+        LocalStorageGlobalConfig.IMAGE_CACHE_PEER_DISTRIBUTION.updateValue(true);
+        LocalStorageGlobalConfig.IMAGE_CACHE_PEER_DISTRIBUTION_MAX_COPIES_PER_SOURCE.updateValue(1);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        distributor.acquireBackupStorage(local.getUuid(), image.getUuid(), host1.getUuid(), new ReturnValueCompletion<String>() {
+            @Override
+            public void success(String returnValue) {
+                acquired.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+            }
+        });
+        Assert.assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+        config.downloadBitsCmds.clear();
+        config.copyBitsFromRemoteSuccess = false;
+
+        DownloadImageToPrimaryStorageCacheMsg msg = new DownloadImageToPrimaryStorageCacheMsg();
+        msg.setPrimaryStorageUuid(local.getUuid());
+        msg.setImage(image);
+        msg.setHostUuid(host2.getUuid());
+        bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, local.getUuid());
+        final MessageReply[] replies = new MessageReply[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        bus.send(msg, new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                replies[0] = reply;
+                latch.countDown();
+            }
+        });
+
+        Assert.assertFalse(latch.await(3, TimeUnit.SECONDS));
+        Assert.assertTrue(config.downloadBitsCmds.isEmpty());
+
+        distributor.release(local.getUuid(), image.getUuid(), "not-used", null);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(replies[0].isSuccess());
+        Assert.assertEquals(1, config.downloadBitsCmds.size());
+    }
+}
@@ -0,0 +1,164 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.header.storage.snapshot.VolumeSnapshotInventory;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.volume.VolumeInventory;
+import org.zstack.header.volume.VolumeType;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.storage.primary.local.LocalStorageResourceRefIndex;
+import org.zstack.storage.primary.local.LocalStorageResourceRefVO;
+import org.zstack.storage.primary.local.LocalStorageResourceRefVO_;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.CollectionUtils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.function.Function;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 1. use local storage
+ * 2. create a vm with data volume
+ * 3. stop the vm, detach the data volume and create snapshots of it
+ *
+ * confirm the index finds the host of every resource and sums up sizes on hosts as the database
+ *
+ * 4. migrate the data volume to another host
+ * 5. delete a snapshot
+ *
+ * confirm the index follows the changes without querying the database
+ *
+ * 6. clean the index
+ *
+ * confirm the index is rebuilt from the database
+ */
+public class TestLocalStorageResourceRefIndex {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    LocalStorageSimulatorConfig config;
+    LocalStorageResourceRefIndex refIndex;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage32.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+        refIndex = loader.getComponent(LocalStorageResourceRefIndex.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+        config.capacityMap.put("host2", c);
+
+        deployer.build();
+        api = deployer.getApi();
+        session = api.loginAsAdmin();
+    }
+
+    private void checkIndex(String psUuid) {
+        SimpleQuery<LocalStorageResourceRefVO> q = dbf.createQuery(LocalStorageResourceRefVO.class);
+        q.add(LocalStorageResourceRefVO_.primaryStorageUuid, Op.EQ, psUuid);
+        List<LocalStorageResourceRefVO> refs = q.list();
+
+        Map<String, Map<String, Long>> usedSizes = new HashMap<String, Map<String, Long>>();
+        for (LocalStorageResourceRefVO ref : refs) {
+            Assert.assertEquals(ref.getHostUuid(), refIndex.getHostUuid(psUuid, ref.getResourceUuid()));
+            Assert.assertTrue(refIndex.isOnPrimaryStorage(psUuid, ref.getResourceUuid(), ref.getResourceType()));
+
+            Map<String, Long> sizes = usedSizes.get(ref.getResourceType());
+            if (sizes == null) {
+                sizes = new HashMap<String, Long>();
+                usedSizes.put(ref.getResourceType(), sizes);
+            }
+            Long size = sizes.get(ref.getHostUuid());
+            sizes.put(ref.getHostUuid(), size == null ? ref.getSize() : size + ref.getSize());
+        }
+
+        for (Map.Entry<String, Map<String, Long>> e : usedSizes.entrySet()) {
+            Assert.assertEquals(e.getValue(), refIndex.getUsedSizes(psUuid, e.getKey()));
+        }
+        Assert.assertEquals(refs.size(), refIndex.getIndexedRefNums().get(psUuid).intValue());
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        PrimaryStorageInventory local = deployer.primaryStorages.get("local");
+        HostInventory host2 = deployer.hosts.get("host2");
+        api.stopVmInstance(vm.getUuid());
+
+        VolumeInventory data = CollectionUtils.find(vm.getAllVolumes(), new Function<VolumeInventory, VolumeInventory>() {
+            @Override
+            public VolumeInventory call(VolumeInventory arg) {
+                return VolumeType.Data.toString().equals(arg.getType()) ? arg : null;
+            }
+        });
+        api.detachVolumeFromVm(data.getUuid());
+
+        List<VolumeSnapshotInventory> snapshots = new ArrayList<VolumeSnapshotInventory>();
+        for (int i = 0; i < 3; i++) {
+            snapshots.add(api.createSnapshot(data.getUuid()));
+        }
+
+        checkIndex(local.getUuid());
+        long loadNum = refIndex.getLoadNum();
+        long missNum = refIndex.getMissNum();
+
+        api.localStorageMigrateVolume(data.getUuid(), host2.getUuid(), null);
+        Assert.assertEquals(host2.getUuid(), refIndex.getHostUuid(local.getUuid(), data.getUuid()));
+        for (VolumeSnapshotInventory sp : snapshots) {
+            Assert.assertEquals(host2.getUuid(), refIndex.getHostUuid(local.getUuid(), sp.getUuid()));
+        }
+        checkIndex(local.getUuid());
+
+        VolumeSnapshotInventory sp = snapshots.get(snapshots.size() - 1);
+        api.deleteSnapshot(sp.getUuid());
+        Assert.assertNull(dbf.findByUuid(sp.getUuid(), LocalStorageResourceRefVO.class));
+        checkIndex(local.getUuid());
+        Assert.assertEquals(loadNum, refIndex.getLoadNum());
+        Assert.assertEquals(missNum, refIndex.getMissNum());
+
+        // a resource not in the index is looked up in the database
+        Assert.assertFalse(refIndex.isOnPrimaryStorage(local.getUuid(), sp.getUuid(), VolumeSnapshotVO.class.getSimpleName()));
+        Assert.assertEquals(missNum + 1, refIndex.getMissNum());
+
+        refIndex.clean();
+        Assert.assertTrue(refIndex.getIndexedRefNums().isEmpty());
+        Assert.assertTrue(refIndex.isOnPrimaryStorage(local.getUuid(), data.getUuid(), VolumeVO.class.getSimpleName()));
+        Assert.assertEquals(loadNum + 1, refIndex.getLoadNum());
+        checkIndex(local.getUuid());
+    }
+}
@@ -0,0 +1,85 @@
+package org.zstack.test.tag;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.tag.SystemTagInventory;
+import org.zstack.header.tag.TagDefinition;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.tag.PatternedSystemTag;
+import org.zstack.tag.SystemTag;
+import org.zstack.tag.SystemTagIndex;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.TagPattern;
+
+import static org.zstack.utils.CollectionDSL.e;
+import static org.zstack.utils.CollectionDSL.map;
+
+/**
+ * 1. create a patterned system tag on a zone
+ * 2. read its token twice
+ *
+ * confirm the first read misses the index and the second hits it
+ *
+ * 3. update the tag
+ *
+ * confirm the new token is read
+ *
+ * 4. delete the tag by api
+ *
+ * confirm the zone doesn't have the tag
+ */
+public class TestSystemTagIndex {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    SystemTagIndex tagIndex;
+
+    @TagDefinition
+    public static class TestSystemTags {
+        public static SystemTag big = new SystemTag("big", ZoneVO.class);
+        public static PatternedSystemTag size = new PatternedSystemTag("size::{size}", ZoneVO.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/tag/TestUserTag.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        tagIndex = loader.getComponent(SystemTagIndex.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        TagPattern p = TagPattern.compile("staticIp::{l3}::{ip}");
+        Assert.assertEquals("10.0.0.1", p.parseIfMatch("staticIp::l3uuid::10.0.0.1").get("ip"));
+        Assert.assertNull(p.parseIfMatch("staticIp::l3uuid"));
+        Assert.assertTrue(p.isSqlMatch("STATICIP::l3uuid::10.0.0.1"));
+        Assert.assertFalse(p.isSqlMatch("staticIp::l3uuid"));
+
+        ZoneInventory zone = deployer.zones.get("Zone1");
+        SystemTagInventory inv = TestSystemTags.size.createTag(zone.getUuid(), map(e("size", "10")));
+
+        long hit = tagIndex.getHitNum();
+        long miss = tagIndex.getMissNum();
+        Assert.assertEquals("10", TestSystemTags.size.getTokenByResourceUuid(zone.getUuid(), "size"));
+        Assert.assertEquals(miss + 1, tagIndex.getMissNum());
+        Assert.assertEquals("10", TestSystemTags.size.getTokenByResourceUuid(zone.getUuid(), "size"));
+        Assert.assertEquals(hit + 1, tagIndex.getHitNum());
+        Assert.assertFalse(TestSystemTags.big.hasTag(zone.getUuid()));
+
+        TestSystemTags.size.update(zone.getUuid(), TestSystemTags.size.instantiateTag(map(e("size", "20"))));
+        Assert.assertEquals("20", TestSystemTags.size.getTokenByResourceUuid(zone.getUuid(), "size"));
+
+        api.deleteTag(inv.getUuid());
+        Assert.assertFalse(TestSystemTags.size.hasTag(zone.getUuid()));
+        Assert.assertNull(TestSystemTags.size.getTokensByResourceUuid(zone.getUuid()));
+    }
+}
@@ -0,0 +1,81 @@
+package org.zstack.test.tag;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.tag.TagDefinition;
+import org.zstack.header.tag.TagInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.tag.PatternedSystemTag;
+import org.zstack.tag.TagInvertedIndex;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.List;
+
+import static org.zstack.tag.TagPredicate.*;
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. create user tags and system tags on zones
+ *
+ * confirm filtering the zones by tag predicates returns the right zones in their order
+ *
+ * 2. delete a user tag and create another
+ *
+ * confirm the filtering sees the changes
+ */
+public class TestTagInvertedIndex {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    TagInvertedIndex tagIndex;
+
+    @TagDefinition
+    public static class TestSystemTags {
+        public static PatternedSystemTag rack = new PatternedSystemTag("rack::{name}", ZoneVO.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/tag/TestUserTag.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        tagIndex = loader.getComponent(TagInvertedIndex.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        String zone1 = deployer.zones.get("Zone1").getUuid();
+        String zone2 = deployer.zones.get("Zone2").getUuid();
+        String zone3 = deployer.zones.get("Zone3").getUuid();
+        String zone4 = deployer.zones.get("Zone4").getUuid();
+        String zone5 = deployer.zones.get("Zone5").getUuid();
+        String type = ZoneVO.class.getSimpleName();
+
+        api.createUserTag(zone1, "web", ZoneVO.class);
+        api.createUserTag(zone2, "web", ZoneVO.class);
+        TagInventory db = api.createUserTag(zone2, "db", ZoneVO.class);
+        api.createSystemTag(zone1, "rack::a", ZoneVO.class);
+        api.createSystemTag(zone3, "rack::b", ZoneVO.class);
+
+        List<String> zones = list(zone5, zone4, zone3, zone2, zone1);
+        Assert.assertEquals(list(zone2, zone1), tagIndex.filter(zones, type, hasUserTag("WEB")));
+        Assert.assertEquals(list(zone2), tagIndex.filter(zones, type, and(hasUserTag("web"), hasUserTag("db"))));
+        Assert.assertEquals(list(zone3, zone1), tagIndex.filter(zones, type, hasSystemTag(TestSystemTags.rack)));
+        Assert.assertEquals(list(zone3), tagIndex.filter(zones, type, hasSystemTag("rack::b")));
+        Assert.assertEquals(list(zone5, zone4, zone3), tagIndex.filter(zones, type, not(hasUserTag("web"))));
+        Assert.assertEquals(list(zone3, zone2, zone1), tagIndex.filter(zones, type, or(hasUserTag("web"), hasSystemTag(TestSystemTags.rack))));
+        Assert.assertEquals(1, tagIndex.find(type, hasUserTag("db")).size());
+
+        api.deleteTag(db.getUuid());
+        api.createUserTag(zone4, "db", ZoneVO.class);
+        Assert.assertEquals(list(zone4), tagIndex.filter(zones, type, hasUserTag("db")));
+        Assert.assertTrue(tagIndex.find(type, hasUserTag("db")).contains(zone4));
+    }
+}
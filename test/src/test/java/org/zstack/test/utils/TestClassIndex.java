@@ -0,0 +1,103 @@
+package org.zstack.test.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.springframework.core.type.filter.TypeFilter;
+import org.springframework.stereotype.Controller;
+import org.zstack.core.GlobalPropertyDefinition;
+import org.zstack.core.config.GlobalConfigDefinition;
+import org.zstack.header.message.*;
+import org.zstack.header.query.APIQueryMessage;
+import org.zstack.header.search.Inventory;
+import org.zstack.header.search.TriggerIndex;
+import org.zstack.header.tag.AutoDeleteTag;
+import org.zstack.header.tag.TagDefinition;
+import org.zstack.header.tag.TagResourceType;
+import org.zstack.utils.BeanUtils;
+import org.zstack.utils.ClassIndex;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Entity;
+import javax.persistence.metamodel.StaticMetamodel;
+import java.util.*;
+
+/**
+ * 1. query the class index for every annotation and type the startup scanners and the code generators ask for
+ *
+ * confirm the results are the same as scanning the class path with BeanUtils
+ *
+ * 2. query the class index with the exclude annotations of MessageIntegrityChecker, InventoryFacadeImpl
+ * and InventoryIndexManagerImpl
+ *
+ * confirm the results are the same as their original scanners with the exclude filters
+ */
+public class TestClassIndex {
+    CLogger logger = Utils.getLogger(TestClassIndex.class);
+
+    private Set<String> names(Collection<Class> classes) {
+        Set<String> ret = new TreeSet<String>();
+        for (Class clz : classes) {
+            ret.add(clz.getName());
+        }
+        return ret;
+    }
+
+    private List<Class> scan(String pkg, TypeFilter include, List<Class> excludeAnnotations) throws ClassNotFoundException {
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
+        scanner.addIncludeFilter(include);
+        for (Class at : excludeAnnotations) {
+            scanner.addExcludeFilter(new AnnotationTypeFilter(at));
+        }
+
+        List<Class> ret = new ArrayList<Class>();
+        for (BeanDefinition bd : scanner.findCandidateComponents(pkg)) {
+            ret.add(Class.forName(bd.getBeanClassName()));
+        }
+        return ret;
+    }
+
+    @Test
+    public void test() throws ClassNotFoundException {
+        Assert.assertTrue("the class index is not used, build the modules with maven", ClassIndex.isIndexUsed());
+
+        List<Class> types = Arrays.<Class>asList(APIMessage.class, APIEvent.class, APIReply.class, NeedReplyMessage.class,
+                APIQueryMessage.class);
+        for (Class type : types) {
+            Set<String> expected = names(BeanUtils.scanClassByType("org.zstack", type));
+            Assert.assertFalse(expected.isEmpty());
+            Assert.assertEquals(String.format("sub types of %s", type.getName()), expected,
+                    names(ClassIndex.getSubTypes("org.zstack", type)));
+        }
+
+        List<Class> annotations = Arrays.<Class>asList(Inventory.class, StaticMetamodel.class, TagDefinition.class,
+                TagResourceType.class, AutoDeleteTag.class, GlobalConfigDefinition.class, GlobalPropertyDefinition.class,
+                Entity.class, TriggerIndex.class);
+        for (Class at : annotations) {
+            Set<String> expected = names(BeanUtils.scanClass("org.zstack", at));
+            Assert.assertFalse(expected.isEmpty());
+            Assert.assertEquals(String.format("classes annotated by %s", at.getName()), expected,
+                    names(ClassIndex.getAnnotatedClasses("org.zstack", at)));
+        }
+
+        // MessageIntegrityChecker and InventoryFacadeImpl
+        List<Class> excludes = Arrays.<Class>asList(Controller.class, org.springframework.stereotype.Component.class);
+        Assert.assertEquals(names(scan("org.zstack", new AssignableTypeFilter(APIMessage.class), excludes)),
+                names(ClassIndex.getSubTypes("org.zstack", APIMessage.class, excludes)));
+        Assert.assertEquals(names(scan("org.zstack", new AssignableTypeFilter(APIEvent.class), excludes)),
+                names(ClassIndex.getSubTypes("org.zstack", APIEvent.class, excludes)));
+        Assert.assertEquals(names(scan("org.zstack", new AnnotationTypeFilter(Inventory.class), excludes)),
+                names(ClassIndex.getAnnotatedClasses("org.zstack", Inventory.class, excludes)));
+
+        // InventoryIndexManagerImpl
+        excludes = Arrays.<Class>asList(Controller.class);
+        Assert.assertEquals(names(scan("org.zstack", new AnnotationTypeFilter(TriggerIndex.class), excludes)),
+                names(ClassIndex.getAnnotatedClasses("org.zstack", TriggerIndex.class, excludes)));
+        Assert.assertEquals(names(scan("org.zstack", new AnnotationTypeFilter(Inventory.class), excludes)),
+                names(ClassIndex.getAnnotatedClasses("org.zstack", Inventory.class, excludes)));
+    }
+}
@@ -0,0 +1,61 @@
+package org.zstack.test.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.header.vm.APICreateVmInstanceMsg;
+import org.zstack.utils.FieldAccessor;
+import org.zstack.utils.FieldUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ */
+public class TestFieldAccessor {
+    CLogger logger = Utils.getLogger(TestFieldAccessor.class);
+
+    @Test
+    public void test() throws Exception {
+        APICreateVmInstanceMsg msg = new APICreateVmInstanceMsg();
+        msg.setName("vm");
+        msg.setImageUuid("image");
+
+        FieldAccessor a = FieldUtils.getAccessor("name", APICreateVmInstanceMsg.class);
+        Assert.assertNotNull(a);
+        Assert.assertSame(a, FieldUtils.getAccessor("name", APICreateVmInstanceMsg.class));
+        Assert.assertEquals("vm", a.get(msg));
+        a.set(msg, "vm1");
+        Assert.assertEquals("vm1", msg.getName());
+        Assert.assertEquals("image", FieldUtils.getFieldValue("imageUuid", msg));
+
+        Assert.assertNull(FieldUtils.getAccessor("notExisting", APICreateVmInstanceMsg.class));
+        Assert.assertNull(FieldUtils.getFieldValue("notExisting", msg));
+
+        List<FieldAccessor> as = FieldUtils.getAccessors(APICreateVmInstanceMsg.class);
+        Assert.assertEquals(FieldUtils.getAllFields(APICreateVmInstanceMsg.class).size(), as.size());
+        Assert.assertSame(as, FieldUtils.getAccessors(APICreateVmInstanceMsg.class));
+
+        Field f = FieldUtils.getField("imageUuid", APICreateVmInstanceMsg.class);
+        Assert.assertSame(FieldUtils.getAccessor("imageUuid", APICreateVmInstanceMsg.class), FieldUtils.getAccessor(f));
+
+        int times = 1000000;
+        long start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            Field rf = FieldUtils.getField("imageUuid", APICreateVmInstanceMsg.class);
+            rf.setAccessible(true);
+            rf.get(msg);
+        }
+        long reflection = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            FieldUtils.getFieldValue("imageUuid", msg);
+        }
+        long accessor = System.nanoTime() - start;
+
+        logger.debug(String.format("%s field reads, uncached reflection: %s ms, cached accessor: %s ms",
+                times, reflection / 1000000, accessor / 1000000));
+    }
+}
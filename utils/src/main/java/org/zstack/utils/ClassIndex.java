@@ -0,0 +1,290 @@
+package org.zstack.utils;
+
+import org.zstack.utils.logging.CLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * answers the questions "which classes have annotation X" and "which classes are sub types of Y" from the class
+ * index generated at build time by ClassIndexGenerator, instead of scanning the class path.
+ *
+ * results are the same as BeanUtils.scanClass() and BeanUtils.scanClassByType(): concrete, independent classes
+ * under the given packages. Only org.zstack packages are indexed; for other packages, or if any class path root
+ * containing org.zstack classes has no index (e.g. classes compiled by an IDE), or the system property
+ * ClassIndex.disabled is true, it falls back to BeanUtils scanning. Classes the generator failed to load are
+ * resolved on the runtime class path when the index is loaded; if any of them still fails, it falls back to
+ * scanning as well. Either way a query is only answered once, later calls get the cached result.
+ */
+public class ClassIndex {
+    private static final CLogger logger = Utils.getLogger(ClassIndex.class);
+
+    public static final String INDEX_FILE = "META-INF/zstack/class.index";
+    private static final String PACKAGE_PATH = "org/zstack";
+
+    private static volatile boolean loaded;
+    private static boolean useIndex;
+    private static final Map<String, List<String>> annotatedClasses = new HashMap<String, List<String>>();
+    private static final Map<String, List<String>> subTypes = new HashMap<String, List<String>>();
+    private static final Map<String, List<Class>> cache = new ConcurrentHashMap<String, List<Class>>();
+    private static final List<String> skippedClasses = new ArrayList<String>();
+
+    private static String rootOf(URL url, String resource) {
+        String s = url.toString();
+        if (s.endsWith("/")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s.substring(0, s.length() - resource.length());
+    }
+
+    private static void add(Map<String, List<String>> m, String key, String className) {
+        List<String> lst = m.get(key);
+        if (lst == null) {
+            lst = new ArrayList<String>();
+            m.put(key, lst);
+        }
+        lst.add(className);
+    }
+
+    private static void addClass(String className, Collection<String> superTypes, Collection<String> annotations) {
+        add(subTypes, className, className);
+        for (String t : superTypes) {
+            add(subTypes, t, className);
+        }
+        for (String a : annotations) {
+            add(annotatedClasses, a, className);
+        }
+    }
+
+    private static List<String> split(String names) {
+        return "-".equals(names) ? new ArrayList<String>() : Arrays.asList(names.split(","));
+    }
+
+    private static void readIndex(URL url) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length != 3) {
+                    continue;
+                }
+
+                if (ClassIndexGenerator.SKIPPED_MARK.equals(parts[0])) {
+                    skippedClasses.add(parts[1]);
+                } else {
+                    addClass(parts[0], split(parts[1]), split(parts[2]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return false if a class skipped by the generator cannot be resolved on the runtime class path either
+     */
+    private static boolean resolveSkippedClasses(ClassLoader loader) {
+        for (String name : skippedClasses) {
+            try {
+                Class clz = Class.forName(name, false, loader);
+                if (!ClassIndexGenerator.isCandidate(clz)) {
+                    continue;
+                }
+
+                Set<String> superTypes = new LinkedHashSet<String>();
+                Set<String> annotations = new LinkedHashSet<String>();
+                ClassIndexGenerator.collectSuperTypes(clz, superTypes);
+                ClassIndexGenerator.collectAnnotations(clz.getAnnotations(), annotations);
+                addClass(name, superTypes, annotations);
+            } catch (Throwable t) {
+                logger.warn(String.format("class %s is not in the class index and cannot be resolved, fall back to" +
+                        " scanning the class path", name), t);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            if (Boolean.valueOf(System.getProperty("ClassIndex.disabled"))) {
+                logger.debug("ClassIndex.disabled is set, class index is not used");
+                return;
+            }
+
+            ClassLoader loader = ClassIndex.class.getClassLoader();
+            Set<String> roots = new HashSet<String>();
+            Enumeration<URL> urls = loader.getResources(PACKAGE_PATH);
+            while (urls.hasMoreElements()) {
+                roots.add(rootOf(urls.nextElement(), PACKAGE_PATH));
+            }
+
+            Map<String, URL> indexes = new HashMap<String, URL>();
+            urls = loader.getResources(INDEX_FILE);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                indexes.put(rootOf(url, INDEX_FILE), url);
+            }
+
+            Set<String> notIndexed = new HashSet<String>(roots);
+            notIndexed.removeAll(indexes.keySet());
+            if (!notIndexed.isEmpty()) {
+                logger.warn(String.format("no class index found in %s, fall back to scanning the class path. Build the" +
+                        " modules with maven to generate the index", notIndexed));
+                return;
+            }
+
+            for (URL url : indexes.values()) {
+                readIndex(url);
+            }
+
+            if (!resolveSkippedClasses(loader)) {
+                annotatedClasses.clear();
+                subTypes.clear();
+                return;
+            }
+
+            useIndex = true;
+            logger.debug(String.format("loaded %s class indexes in %s ms", indexes.size(), System.currentTimeMillis() - start));
+        } catch (IOException e) {
+            logger.warn("failed to load class indexes, fall back to scanning the class path", e);
+            annotatedClasses.clear();
+            subTypes.clear();
+        } finally {
+            loaded = true;
+        }
+    }
+
+    /**
+     * @return true if queries of org.zstack packages are answered by the index rather than scanning
+     */
+    public static boolean isIndexUsed() {
+        load();
+        return useIndex;
+    }
+
+    private static boolean isIndexed(List<String> pkgNames) {
+        if (!useIndex) {
+            return false;
+        }
+
+        for (String pkg : pkgNames) {
+            if (!pkg.equals("org.zstack") && !pkg.startsWith("org.zstack.")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Class> loadClasses(List<String> pkgNames, List<String> classNames) {
+        List<Class> ret = new ArrayList<Class>();
+        if (classNames == null) {
+            return ret;
+        }
+
+        for (String name : classNames) {
+            for (String pkg : pkgNames) {
+                if (name.startsWith(pkg + ".")) {
+                    try {
+                        ret.add(Class.forName(name));
+                    } catch (ClassNotFoundException e) {
+                        throw new RuntimeException(e);
+                    }
+                    break;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * same as BeanUtils.scanClass(pkgNames, annotation)
+     */
+    public static List<Class> getAnnotatedClasses(List<String> pkgNames, Class annotation) {
+        load();
+
+        String key = String.format("annotation:%s:%s", pkgNames, annotation.getName());
+        List<Class> ret = cache.get(key);
+        if (ret == null) {
+            ret = isIndexed(pkgNames) ? loadClasses(pkgNames, annotatedClasses.get(annotation.getName()))
+                    : BeanUtils.scanClass(pkgNames, annotation);
+            cache.put(key, ret);
+        }
+
+        return new ArrayList<Class>(ret);
+    }
+
+    public static List<Class> getAnnotatedClasses(String pkgName, Class annotation) {
+        return getAnnotatedClasses(Arrays.asList(pkgName), annotation);
+    }
+
+    /**
+     * same as scanning with an AnnotationTypeFilter of the annotation as include filter and AnnotationTypeFilters of
+     * excludeAnnotations as exclude filters, meta annotations are matched by the exclude filters too
+     */
+    public static List<Class> getAnnotatedClasses(String pkgName, Class annotation, List<Class> excludeAnnotations) {
+        return exclude(getAnnotatedClasses(pkgName, annotation), excludeAnnotations);
+    }
+
+    /**
+     * same as BeanUtils.scanClassByType(pkgNames, type), the type itself is included if it's concrete
+     */
+    public static List<Class> getSubTypes(List<String> pkgNames, Class type) {
+        load();
+
+        String key = String.format("type:%s:%s", pkgNames, type.getName());
+        List<Class> ret = cache.get(key);
+        if (ret == null) {
+            ret = isIndexed(pkgNames) ? loadClasses(pkgNames, subTypes.get(type.getName()))
+                    : BeanUtils.scanClassByType(pkgNames, Arrays.asList(type));
+            cache.put(key, ret);
+        }
+
+        return new ArrayList<Class>(ret);
+    }
+
+    public static List<Class> getSubTypes(String pkgName, Class type) {
+        return getSubTypes(Arrays.asList(pkgName), type);
+    }
+
+    /**
+     * same as scanning with an AssignableTypeFilter of the type as include filter and AnnotationTypeFilters of
+     * excludeAnnotations as exclude filters, meta annotations are matched by the exclude filters too
+     */
+    public static List<Class> getSubTypes(String pkgName, Class type, List<Class> excludeAnnotations) {
+        return exclude(getSubTypes(pkgName, type), excludeAnnotations);
+    }
+
+    private static List<Class> exclude(List<Class> classes, List<Class> excludeAnnotations) {
+        List<Class> ret = new ArrayList<Class>(classes.size());
+        for (Class clz : classes) {
+            Set<String> annotations = new HashSet<String>();
+            ClassIndexGenerator.collectAnnotations(clz.getAnnotations(), annotations);
+
+            boolean excluded = false;
+            for (Class at : excludeAnnotations) {
+                if (annotations.contains(at.getName())) {
+                    excluded = true;
+                    break;
+                }
+            }
+
+            if (!excluded) {
+                ret.add(clz);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,161 @@
+package org.zstack.utils;
+
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * generates the class index read by ClassIndex, it's run by exec-maven-plugin after classes of a module
+ * are compiled, see the pluginManagement section of the root pom.xml.
+ *
+ * usage: ClassIndexGenerator [class output directory]
+ *
+ * the index lists every concrete, independent class under org.zstack, one line per class:
+ *   [class name]\t[all super classes and interfaces]\t[all annotations including inherited and meta ones]
+ * which is exactly what BeanUtils.scanClass() and BeanUtils.scanClassByType() match against.
+ *
+ * a class that cannot be loaded or resolved at build time (e.g. it refers to an optional dependency) is recorded as
+ *   !\t[class name]\t[reason]
+ * so ClassIndex resolves it on the runtime class path instead of silently missing it.
+ */
+public class ClassIndexGenerator {
+    private static final String PACKAGE_PATH = "org/zstack/";
+    static final String SKIPPED_MARK = "!";
+
+    private static void collectClassNames(File root, File dir, List<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collectClassNames(root, f, names);
+            } else if (f.getName().endsWith(".class")) {
+                String path = f.getAbsolutePath().substring(root.getAbsolutePath().length() + 1).replace(File.separatorChar, '/');
+                if (path.startsWith(PACKAGE_PATH)) {
+                    names.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+    }
+
+    static boolean isCandidate(Class clz) {
+        if (clz.isInterface() || clz.isAnnotation() || Modifier.isAbstract(clz.getModifiers())) {
+            return false;
+        }
+
+        if (clz.isAnonymousClass() || clz.isLocalClass()) {
+            return false;
+        }
+
+        return clz.getEnclosingClass() == null || Modifier.isStatic(clz.getModifiers());
+    }
+
+    static void collectSuperTypes(Class clz, Set<String> types) {
+        if (clz == null || clz == Object.class) {
+            return;
+        }
+
+        if (clz.getSuperclass() != null && clz.getSuperclass() != Object.class) {
+            types.add(clz.getSuperclass().getName());
+            collectSuperTypes(clz.getSuperclass(), types);
+        }
+
+        for (Class i : clz.getInterfaces()) {
+            types.add(i.getName());
+            collectSuperTypes(i, types);
+        }
+    }
+
+    static void collectAnnotations(Annotation[] annotations, Set<String> names) {
+        for (Annotation at : annotations) {
+            Class type = at.annotationType();
+            if (type.getName().startsWith("java.lang.annotation.") || !names.add(type.getName())) {
+                continue;
+            }
+
+            collectAnnotations(type.getAnnotations(), names);
+        }
+    }
+
+    private static String join(Set<String> names) {
+        if (names.isEmpty()) {
+            return "-";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String n : names) {
+            if (sb.length() != 0) {
+                sb.append(",");
+            }
+            sb.append(n);
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("usage: ClassIndexGenerator [class output directory]");
+        }
+
+        File root = new File(args[0]);
+        if (!root.isDirectory()) {
+            // modules of pom packaging have no classes
+            return;
+        }
+
+        List<String> names = new ArrayList<String>();
+        collectClassNames(root, root, names);
+        Collections.sort(names);
+
+        ClassLoader loader = ClassIndexGenerator.class.getClassLoader();
+        List<String> lines = new ArrayList<String>();
+        int skippedNum = 0;
+        for (String name : names) {
+            Class clz;
+            try {
+                clz = Class.forName(name, false, loader);
+            } catch (Throwable t) {
+                System.out.println(String.format("[ClassIndexGenerator] WARNING: class %s cannot be loaded, it's resolved at runtime: %s", name, t));
+                lines.add(String.format("%s\t%s\t%s", SKIPPED_MARK, name, t.toString().replaceAll("\\s+", " ")));
+                skippedNum++;
+                continue;
+            }
+
+            if (!isCandidate(clz)) {
+                continue;
+            }
+
+            Set<String> superTypes = new LinkedHashSet<String>();
+            Set<String> annotations = new LinkedHashSet<String>();
+            try {
+                collectSuperTypes(clz, superTypes);
+                collectAnnotations(clz.getAnnotations(), annotations);
+            } catch (Throwable t) {
+                System.out.println(String.format("[ClassIndexGenerator] WARNING: the hierarchy of class %s cannot be resolved, it's resolved at runtime: %s", name, t));
+                lines.add(String.format("%s\t%s\t%s", SKIPPED_MARK, name, t.toString().replaceAll("\\s+", " ")));
+                skippedNum++;
+                continue;
+            }
+
+            lines.add(String.format("%s\t%s\t%s", name, join(superTypes), join(annotations)));
+        }
+
+        File index = new File(root, ClassIndex.INDEX_FILE);
+        index.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(index), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        System.out.println(String.format("[ClassIndexGenerator] indexed %s classes into %s, %s classes are left to runtime",
+                lines.size() - skippedNum, index.getAbsolutePath(), skippedNum));
+    }
+}
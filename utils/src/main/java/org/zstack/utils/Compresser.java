@@ -16,10 +16,14 @@ public class Compresser {
     public static byte[] deflate(byte[] input, int bufferSize) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
         Deflater def = new Deflater();
-        DeflaterOutputStream dos = new DeflaterOutputStream(out, def, bufferSize);
-        dos.write(input, 0, input.length);
-        dos.finish();
-        dos.close();
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(out, def, bufferSize);
+            dos.write(input, 0, input.length);
+            dos.finish();
+            dos.close();
+        } finally {
+            def.end();
+        }
         byte[] ret = out.toByteArray();
         out.close();
         return ret;
@@ -28,13 +32,18 @@ public class Compresser {
     public static byte[] inflate(byte[] input, int bufferSize) throws IOException {
         ByteArrayInputStream in = new ByteArrayInputStream(input);
         Inflater inf = new Inflater();
-        InflaterInputStream iis = new InflaterInputStream(in, inf, bufferSize);
         ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 5);
-        for (int c = iis.read(); c != -1; c = iis.read()) {
-            out.write(c);
+        try {
+            InflaterInputStream iis = new InflaterInputStream(in, inf, bufferSize);
+            byte[] buf = new byte[bufferSize];
+            for (int n = iis.read(buf); n != -1; n = iis.read(buf)) {
+                out.write(buf, 0, n);
+            }
+            in.close();
+            iis.close();
+        } finally {
+            inf.end();
         }
-        in.close();
-        iis.close();
         byte[] ret = out.toByteArray();
         out.close();
         return ret;
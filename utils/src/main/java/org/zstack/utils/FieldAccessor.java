@@ -0,0 +1,46 @@
+package org.zstack.utils;
+
+import java.lang.reflect.Field;
+
+/**
+ * a cached, pre-opened accessor of a field, see FieldUtils.getAccessor() and FieldUtils.getAccessors().
+ *
+ * the field is made accessible once when the accessor is created, so get()/set() on hot paths only pay for
+ * Field.get()/Field.set(), which the JVM turns into generated bytecode after a few invocations.
+ */
+public class FieldAccessor {
+    private final Field field;
+
+    FieldAccessor(Field field) {
+        field.setAccessible(true);
+        this.field = field;
+    }
+
+    public <T> T get(Object obj) {
+        try {
+            return (T) field.get(obj);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void set(Object obj, Object value) {
+        try {
+            field.set(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getName() {
+        return field.getName();
+    }
+
+    public Class<?> getType() {
+        return field.getType();
+    }
+}
@@ -6,21 +6,62 @@ import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FieldUtils {
+    private static final FieldAccessor NO_SUCH_FIELD = new FieldAccessor(getField("NO_SUCH_FIELD", FieldUtils.class));
+    private static final Map<Class, List<FieldAccessor>> accessors = new ConcurrentHashMap<Class, List<FieldAccessor>>();
+    private static final Map<Class, Map<String, FieldAccessor>> namedAccessors = new ConcurrentHashMap<Class, Map<String, FieldAccessor>>();
+
+    /**
+     * @return accessors of all fields of the class and its super classes, in the order of getAllFields(). The list
+     * is built once per class and shared, don't modify it
+     */
+    public static List<FieldAccessor> getAccessors(Class<?> clazz) {
+        List<FieldAccessor> ret = accessors.get(clazz);
+        if (ret == null) {
+            List<FieldAccessor> lst = new ArrayList<FieldAccessor>();
+            for (Field f : getAllFields(clazz)) {
+                lst.add(new FieldAccessor(f));
+            }
+            ret = Collections.unmodifiableList(lst);
+            accessors.put(clazz, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the cached accessor of the field named 'name' in the class or its super classes, or null if
+     * there is no such field
+     */
+    public static FieldAccessor getAccessor(String name, Class<?> clazz) {
+        Map<String, FieldAccessor> m = namedAccessors.get(clazz);
+        if (m == null) {
+            m = new ConcurrentHashMap<String, FieldAccessor>();
+            namedAccessors.put(clazz, m);
+        }
+
+        FieldAccessor a = m.get(name);
+        if (a == null) {
+            Field f = getField(name, clazz);
+            a = f == null ? NO_SUCH_FIELD : new FieldAccessor(f);
+            m.put(name, a);
+        }
+
+        return a == NO_SUCH_FIELD ? null : a;
+    }
+
+    public static FieldAccessor getAccessor(Field field) {
+        return getAccessor(field.getName(), field.getDeclaringClass());
+    }
+
     public static <T> T getFieldValue(String name, Object obj) {
-        Field f = getField(name, obj.getClass());
-        if (f == null) {
+        FieldAccessor a = getAccessor(name, obj.getClass());
+        if (a == null) {
             return null;
         }
 
-        try {
-            f.setAccessible(true);
-            Object val = f.get(obj);
-            return (T)val;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return a.get(obj);
     }
 
     public static boolean hasField(String name, Class clazz) {
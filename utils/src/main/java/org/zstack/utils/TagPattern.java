@@ -0,0 +1,125 @@
+package org.zstack.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a tag format compiled once, so matching and parsing a tag does no regex work and no splitting of the format.
+ *
+ * isMatch() and parseIfMatch() behave the same as TagUtils.isMatch() and TagUtils.parseIfMatch(); isSqlMatch()
+ * behaves the same as the sql LIKE pattern of TagUtils.tagPatternToSqlPattern() on the case insensitive tag column,
+ * that is the condition the tag queries use to find tags of a format.
+ */
+public class TagPattern {
+    private static final String SEPARATOR = "::";
+
+    private final String format;
+    private final String[] segments;
+    // the token name of a '{token}' segment, null for a literal segment
+    private final String[] tokenNames;
+    // literal pieces around the '%' wildcards of the sql pattern, only one piece if no wildcard
+    private final String[] sqlPieces;
+
+    private TagPattern(String format) {
+        this.format = format;
+
+        List<String> segs = split(format);
+        segments = segs.toArray(new String[segs.size()]);
+        tokenNames = new String[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            String seg = segments[i];
+            if (seg.startsWith("{") && seg.endsWith("}")) {
+                tokenNames[i] = seg.replace("{", "").replace("}", "");
+            }
+        }
+
+        sqlPieces = format.split("\\{(.+?)\\}", -1);
+    }
+
+    public static TagPattern compile(String format) {
+        return new TagPattern(format);
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    // the same as String.split("::"), trailing empty strings are removed
+    private static List<String> split(String str) {
+        List<String> ret = new ArrayList<String>();
+        int start = 0;
+        int idx;
+        while ((idx = str.indexOf(SEPARATOR, start)) != -1) {
+            ret.add(str.substring(start, idx));
+            start = idx + SEPARATOR.length();
+        }
+        ret.add(str.substring(start));
+
+        int size = ret.size();
+        while (size > 0 && ret.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return ret.subList(0, size);
+    }
+
+    public boolean isMatch(String tag) {
+        return parseIfMatch(tag) != null;
+    }
+
+    public Map<String, String> parseIfMatch(String tag) {
+        List<String> origins = split(tag);
+        if (origins.size() != segments.length) {
+            return null;
+        }
+
+        Map<String, String> ret = new HashMap<String, String>();
+        for (int i = 0; i < segments.length; i++) {
+            if (tokenNames[i] != null) {
+                ret.put(tokenNames[i], origins.get(i));
+            } else if (!segments[i].equals(origins.get(i))) {
+                return null;
+            }
+        }
+
+        return ret;
+    }
+
+    public boolean isSqlMatch(String tag) {
+        if (sqlPieces.length == 1) {
+            return format.equalsIgnoreCase(tag);
+        }
+
+        String head = sqlPieces[0];
+        String tail = sqlPieces[sqlPieces.length - 1];
+        if (!tag.regionMatches(true, 0, head, 0, head.length())) {
+            return false;
+        }
+
+        int end = tag.length() - tail.length();
+        if (end < head.length() || !tag.regionMatches(true, end, tail, 0, tail.length())) {
+            return false;
+        }
+
+        int pos = head.length();
+        for (int i = 1; i < sqlPieces.length - 1; i++) {
+            pos = indexOfIgnoreCase(tag, sqlPieces[i], pos, end);
+            if (pos == -1) {
+                return false;
+            }
+            pos += sqlPieces[i].length();
+        }
+
+        return true;
+    }
+
+    private static int indexOfIgnoreCase(String str, String piece, int from, int end) {
+        for (int i = from; i + piece.length() <= end; i++) {
+            if (str.regionMatches(true, i, piece, 0, piece.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}